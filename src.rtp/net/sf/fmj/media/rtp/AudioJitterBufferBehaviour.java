@@ -607,4 +607,16 @@ class AudioJitterBufferBehaviour
         }
         return b;
     }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Returns the value of {@link #skipFec} i.e. <tt>true</tt> from the
+     * deliberate drop of a packet until the next read.
+     */
+    @Override
+    public boolean willSkipFec()
+    {
+        return skipFec;
+    }
 }
@@ -84,6 +84,19 @@ class BasicJitterBufferBehaviour
         return getMaximumDelay();
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <tt>BasicJitterBufferBehaviour</tt> does not have a notion of RTP packet
+     * duration and, consequently, assumes a half of the capacity of
+     * {@link #q} at 20 milliseconds per packet.
+     */
+    @Override
+    public int getCurrentDelay()
+    {
+        return (q.getCapacity() / 2) * 20;
+    }
+
     /**
      * Gets the <tt>BufferControl</tt> implementation set on the associated
      * <tt>RTPSourceStream</tt>. Provided as a convenience which delegates to
@@ -121,6 +134,27 @@ class BasicJitterBufferBehaviour
         return 0;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <tt>BasicJitterBufferBehaviour</tt> returns {@link #getNominalDelay()}.
+     */
+    @Override
+    public int getTargetDelay()
+    {
+        return getNominalDelay();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <tt>BasicJitterBufferBehaviour</tt> always returns <tt>0</tt>.
+     */
+    public long getWaitTimeout()
+    {
+        return 0;
+    }
+
     /**
      * Grows {@link #q} to a specific <tt>capacity</tt>.
      *
@@ -236,6 +270,15 @@ class BasicJitterBufferBehaviour
         // TODO Auto-generated method stub
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <tt>BasicJitterBufferBehaviour</tt> sends no feedback.
+     */
+    public void sendFeedback()
+    {
+    }
+
     protected void setRecvBufSize(
             RTPRawReceiver rtprawreceiver,
             int aprxBufferLengthInPkts)
@@ -280,4 +323,14 @@ class BasicJitterBufferBehaviour
     {
         return q.noMoreFill();
     }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <tt>BasicJitterBufferBehaviour</tt> always returns <tt>false</tt>.
+     */
+    public boolean willSkipFec()
+    {
+        return false;
+    }
 }
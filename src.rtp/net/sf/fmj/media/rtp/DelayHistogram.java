@@ -0,0 +1,135 @@
+package net.sf.fmj.media.rtp;
+
+/**
+ * Estimates percentiles of a distribution of delays in milliseconds online.
+ * The delays are counted in a histogram of fixed-width buckets and older
+ * samples are exponentially forgotten so that the estimates follow changes in
+ * the network conditions. Recording a sample takes constant time.
+ */
+class DelayHistogram
+{
+    /**
+     * The weight of the next sample above which the histogram is rescaled in
+     * order to keep its values in the range of <tt>double</tt>.
+     */
+    private static final double RESCALE_THRESHOLD = 1e50;
+
+    /**
+     * The width in milliseconds of a bucket of this histogram.
+     */
+    private final int bucketWidth;
+
+    /**
+     * The (weighted) numbers of samples in the buckets of this histogram. The
+     * last bucket also counts the samples beyond the range of this histogram.
+     */
+    private final double[] buckets;
+
+    /**
+     * The factor by which the weight of every sample recorded so far is
+     * (virtually) multiplied whenever a new sample is recorded.
+     */
+    private final double forgettingFactor;
+
+    /**
+     * The sum of {@link #buckets}.
+     */
+    private double total;
+
+    /**
+     * The weight of the next sample. Instead of decaying all buckets upon
+     * every sample, the weight of every new sample grows by the inverse of
+     * {@link #forgettingFactor}.
+     */
+    private double weight;
+
+    /**
+     * Initializes a new <tt>DelayHistogram</tt> instance.
+     *
+     * @param maxDelay the maximum delay in milliseconds to be distinguished by
+     * the new instance. Longer delays are counted as <tt>maxDelay</tt>.
+     * @param bucketWidth the width in milliseconds of a bucket
+     * @param forgettingFactor the factor in the range (0, 1] by which the
+     * weight of the samples recorded so far is multiplied whenever a new sample
+     * is recorded
+     */
+    public DelayHistogram(int maxDelay, int bucketWidth, double forgettingFactor)
+    {
+        if (bucketWidth < 1)
+            throw new IllegalArgumentException("bucketWidth");
+        if (maxDelay < bucketWidth)
+            throw new IllegalArgumentException("maxDelay");
+        if (forgettingFactor <= 0 || forgettingFactor > 1)
+            throw new IllegalArgumentException("forgettingFactor");
+
+        this.bucketWidth = bucketWidth;
+        this.forgettingFactor = forgettingFactor;
+
+        buckets = new double[(maxDelay + bucketWidth - 1) / bucketWidth];
+        weight = 1;
+    }
+
+    /**
+     * Records a specific delay.
+     *
+     * @param delay the delay in milliseconds to record
+     */
+    public void add(long delay)
+    {
+        int i
+            = (delay <= 0)
+                ? 0
+                : (int) Math.min(delay / bucketWidth, buckets.length - 1);
+
+        buckets[i] += weight;
+        total += weight;
+        weight /= forgettingFactor;
+
+        if (weight > RESCALE_THRESHOLD)
+        {
+            double scale = 1 / weight;
+
+            for (int j = 0; j < buckets.length; j++)
+                buckets[j] *= scale;
+            total *= scale;
+            weight = 1;
+        }
+    }
+
+    /**
+     * Gets the (estimated) delay in milliseconds which a specific percentage of
+     * the recorded delays do not exceed.
+     *
+     * @param percentile the percentage in the range [0, 100]
+     * @return the delay in milliseconds which <tt>percentile</tt> percent of
+     * the recorded delays do not exceed (rounded up to the width of a bucket)
+     * or <tt>0</tt> if no delay has been recorded yet
+     */
+    public int getPercentile(double percentile)
+    {
+        if (total <= 0)
+            return 0;
+
+        double threshold = total * percentile / 100;
+        double sum = 0;
+
+        for (int i = 0; i < buckets.length; i++)
+        {
+            sum += buckets[i];
+            if (sum >= threshold)
+                return (i + 1) * bucketWidth;
+        }
+        return buckets.length * bucketWidth;
+    }
+
+    /**
+     * Forgets all recorded delays.
+     */
+    public void reset()
+    {
+        for (int i = 0; i < buckets.length; i++)
+            buckets[i] = 0;
+        total = 0;
+        weight = 1;
+    }
+}
@@ -0,0 +1,190 @@
+package net.sf.fmj.media.rtp;
+
+import java.util.concurrent.*;
+
+import javax.media.rtp.*;
+import javax.media.rtp.event.*;
+
+/**
+ * Measures the throughput of the dispatch of the events of an
+ * <tt>RTPSessionMgr</tt> by a single <tt>RTPEventHandler</tt> and by
+ * <tt>ShardedRTPEventHandler</tt>s with increasing numbers of shards, and
+ * verifies that the events of each SSRC are delivered in the order in which
+ * they have been posted. A number of threads post events for a number of
+ * SSRCs (each SSRC by a single thread as is the case on the receive paths of
+ * a session) and the listener performs a specific amount of computation on
+ * each event, standing in for the work of the listeners of an application.
+ * <p>
+ * Usage: <tt>EventDispatchBenchmark [ssrcs] [events-per-ssrc]
+ * [listener-iterations]</tt>. One line of results is printed per
+ * configuration.
+ * </p>
+ */
+public class EventDispatchBenchmark
+{
+    /**
+     * Counts and checks the order of the events delivered by a handler.
+     */
+    private static class Listener
+        implements RemoteListener
+    {
+        /**
+         * The number of events of each SSRC delivered so far.
+         */
+        private final int[] delivered;
+
+        /**
+         * The events of each SSRC in the order in which they have been posted.
+         */
+        private final RTPEvent[][] events;
+
+        /**
+         * The number of iterations of computation performed on each event.
+         */
+        private final int listenerIterations;
+
+        /**
+         * Counts down the events which have not been delivered yet.
+         */
+        private final CountDownLatch remaining;
+
+        /**
+         * The indicator which determines whether an event has been delivered
+         * out of the order of its SSRC.
+         */
+        private volatile boolean reordered = false;
+
+        /**
+         * The result of the computation performed on the events which keeps
+         * it from being optimized away.
+         */
+        volatile long sink;
+
+        Listener(RTPEvent[][] events, int listenerIterations)
+        {
+            this.events = events;
+            this.listenerIterations = listenerIterations;
+            delivered = new int[events.length];
+            remaining
+                = new CountDownLatch(events.length * events[0].length);
+        }
+
+        public void update(RemoteEvent evt)
+        {
+            int ssrc = (int) ((RemoteCollisionEvent) evt).getSSRC();
+
+            // The events of an SSRC are delivered by a single thread.
+            if (events[ssrc][delivered[ssrc]++] != evt)
+                reordered = true;
+
+            long x = ssrc + 1;
+
+            for (int i = 0; i < listenerIterations; i++)
+            {
+                x ^= x << 13;
+                x ^= x >>> 7;
+                x ^= x << 17;
+            }
+            sink = x;
+            remaining.countDown();
+        }
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args the number of SSRCs, the number of events per SSRC and the
+     * number of iterations of computation performed by the listener on each
+     * event
+     */
+    public static void main(String[] args)
+        throws Exception
+    {
+        int ssrcs = (args.length > 0) ? Integer.parseInt(args[0]) : 256;
+        int eventsPerSsrc
+            = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+        int listenerIterations
+            = (args.length > 2) ? Integer.parseInt(args[2]) : 1000;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        // Warm up.
+        run(ssrcs, eventsPerSsrc / 4, listenerIterations, 0);
+
+        for (int shards = 0; shards <= 2 * cores;
+                shards = (shards == 0) ? 1 : (2 * shards))
+        {
+            System.out.println(
+                    run(ssrcs, eventsPerSsrc, listenerIterations, shards));
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Posts events for a specific number of SSRCs through a new event handler
+     * and waits for their delivery.
+     *
+     * @param shards the number of shards of a
+     * <tt>ShardedRTPEventHandler</tt> or <tt>0</tt> for an
+     * <tt>RTPEventHandler</tt>
+     * @return a line of results
+     */
+    private static String run(
+            int ssrcs, int eventsPerSsrc, int listenerIterations, int shards)
+        throws InterruptedException
+    {
+        RTPSessionMgr sm = new RTPSessionMgr();
+        final RTPEvent[][] events = new RTPEvent[ssrcs][eventsPerSsrc];
+
+        for (int ssrc = 0; ssrc < ssrcs; ssrc++)
+            for (int i = 0; i < eventsPerSsrc; i++)
+                events[ssrc][i] = new RemoteCollisionEvent(sm, ssrc);
+
+        Listener listener = new Listener(events, listenerIterations);
+
+        sm.addRemoteListener(listener);
+
+        final RTPEventHandler handler
+            = (shards == 0)
+                ? new RTPEventHandler(sm)
+                : new ShardedRTPEventHandler(sm, shards);
+        int posters
+            = Math.min(ssrcs, Runtime.getRuntime().availableProcessors());
+        Thread[] threads = new Thread[posters];
+        long start = System.nanoTime();
+
+        for (int t = 0; t < posters; t++)
+        {
+            final int first = t;
+            final int step = posters;
+
+            threads[t]
+                = new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        for (int i = 0; i < events[0].length; i++)
+                            for (int s = first; s < events.length; s += step)
+                                handler.postEvent(events[s][i]);
+                    }
+                };
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        listener.remaining.await();
+
+        long ns = System.nanoTime() - start;
+        long total = (long) ssrcs * eventsPerSsrc;
+
+        handler.close();
+        sm.removeRemoteListener(listener);
+        return
+            ((shards == 0) ? "RTPEventHandler" : "ShardedRTPEventHandler")
+                + " shards=" + Math.max(shards, 1)
+                + " events=" + total
+                + " ms=" + (ns / 1000000L)
+                + " events/s=" + (total * 1000000000L / ns)
+                + " ordered=" + !listener.reordered;
+    }
+}
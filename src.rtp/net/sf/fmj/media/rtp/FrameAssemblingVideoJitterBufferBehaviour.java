@@ -0,0 +1,795 @@
+package net.sf.fmj.media.rtp;
+
+import java.util.*;
+
+import javax.media.*;
+import javax.media.rtp.*;
+
+/**
+ * Implements <tt>JitterBufferBehaviour</tt> for video media data which groups
+ * the RTP packets into frames and releases the packets of a frame only after
+ * all of them have been received. The end of a frame is recognized by the RTP
+ * marker bit or, if the associated timestamps are known, by a change of the
+ * timestamp. A frame which remains incomplete for longer than a deadline
+ * (measured from the arrival of its first packet so that the deadlines of
+ * consecutive incomplete frames do not add up) is dropped as a unit (along
+ * with any of its packets which arrive afterwards) and a
+ * <tt>KeyFrameRequestEvent</tt> is posted so that the decoder does not waste
+ * time on frames which cannot be rendered.
+ * <p>
+ * If enabled through the registry, the packets missing from a gap in the
+ * sequence numbers of the arriving packets are reported to the sender in an
+ * RTCP generic NACK unless they arrive (reordered) within a short hold-off so
+ * that they may be retransmitted and the frame completed before its deadline.
+ * The NACKs are sent by {@link #sendFeedback()} outside the monitor of the
+ * jitter buffer.
+ * </p>
+ *
+ * @see VideoJitterBufferBehaviour
+ */
+class FrameAssemblingVideoJitterBufferBehaviour
+    extends VideoJitterBufferBehaviour
+{
+    /**
+     * The number of the most recently added packets the times of arrival of
+     * which are remembered. Must be a power of 2.
+     */
+    private static final int ARRIVAL_HISTORY = 1024;
+
+    /**
+     * The default time in milliseconds for which an incomplete frame may wait
+     * for its missing packets after the arrival of its first packet.
+     */
+    private static final int DEFAULT_FRAME_DEADLINE = 200;
+
+    /**
+     * The default time in milliseconds for which the packets missing from a
+     * gap in the sequence numbers may arrive reordered before they are
+     * reported lost.
+     */
+    private static final int DEFAULT_NACK_HOLD_OFF = 10;
+
+    /**
+     * The maximum number of packets to be reported lost by a single NACK. A
+     * longer gap is more likely an outage than a loss which retransmission can
+     * repair in time.
+     */
+    private static final int MAX_NACK_PACKETS = 64;
+
+    /**
+     * Determines whether a specific (16-bit RTP) sequence number directly
+     * follows another one.
+     */
+    private static boolean follows(long seq, long prevSeq)
+    {
+        return ((seq - prevSeq) & 0xFFFFL) == 1;
+    }
+
+    /**
+     * Determines whether a specific <tt>Buffer</tt> ends a frame i.e. whether
+     * it has the RTP marker bit set.
+     */
+    private static boolean isMarked(Buffer buffer)
+    {
+        return (buffer.getFlags() & Buffer.FLAG_RTP_MARKER) != 0;
+    }
+
+    /**
+     * Determines whether a specific (16-bit RTP) sequence number precedes
+     * another one.
+     */
+    private static boolean precedes(long seq, long refSeq)
+    {
+        return ((short) (seq - refSeq)) < 0;
+    }
+
+    /**
+     * The sequence numbers of the packets the times of arrival of which are
+     * in {@link #arrivalTimes} at the same indices.
+     */
+    private final long[] arrivalSeqs = new long[ARRIVAL_HISTORY];
+
+    /**
+     * The times in milliseconds of arrival of the most recently added
+     * packets indexed by sequence number modulo {@link #ARRIVAL_HISTORY}.
+     */
+    private final long[] arrivalTimes = new long[ARRIVAL_HISTORY];
+
+    /**
+     * The timestamp of the frame being discarded while
+     * {@link #discardingFrame} is <tt>true</tt>.
+     */
+    private long discardedFrameTimeStamp = Buffer.TIME_UNKNOWN;
+
+    /**
+     * The indicator which determines whether the packets at the head of the
+     * queue belong to a frame which has been dropped and the end of which has
+     * not been seen yet.
+     */
+    private boolean discardingFrame = false;
+
+    /**
+     * The sequence number of the first packet of the next frame to be
+     * released or {@link Buffer#SEQUENCE_UNKNOWN}.
+     */
+    private long expectedSeq = Buffer.SEQUENCE_UNKNOWN;
+
+    /**
+     * The time in milliseconds for which an incomplete frame may wait for its
+     * missing packets after the arrival of its first packet.
+     */
+    private final int frameDeadline;
+
+    /**
+     * The earliest time in milliseconds of arrival of the packets of the
+     * frame at the head of the queue (as determined by
+     * {@link #scanHeadFrame()}) or <tt>-1</tt> if unknown.
+     */
+    private long headFrameArrival;
+
+    /**
+     * The indicator which determines whether the frame at the head of the
+     * queue was complete when last scanned by {@link #scanHeadFrame()}.
+     */
+    private boolean headFrameComplete;
+
+    /**
+     * The sequence number of the last packet of the frame at the head of the
+     * queue (as determined by {@link #scanHeadFrame()}) or
+     * {@link Buffer#SEQUENCE_UNKNOWN} if the end of the frame has not been
+     * received yet.
+     */
+    private long headFrameEndSeq;
+
+    /**
+     * The number of packets of the frame at the head of the queue (as
+     * determined by {@link #scanHeadFrame()}).
+     */
+    private int headFrameLength;
+
+    /**
+     * The sequence number of the first packet of the frame which follows the
+     * frame at the head of the queue (as determined by
+     * {@link #scanHeadFrame()}) if the end of the latter has been recognized
+     * by a change of the timestamp; otherwise,
+     * {@link Buffer#SEQUENCE_UNKNOWN}.
+     */
+    private long headFrameNextSeq;
+
+    /**
+     * The highest sequence number received (in terms of RTP sequence number
+     * arithmetic) or {@link Buffer#SEQUENCE_UNKNOWN}. Packets with greater
+     * sequence numbers which do not directly follow it reveal a gap.
+     */
+    private long highestSeq = Buffer.SEQUENCE_UNKNOWN;
+
+    /**
+     * The indicator which determines whether a key frame has been requested
+     * and no frame has been released since.
+     */
+    private boolean keyFrameRequested = false;
+
+    /**
+     * The indicator which determines whether gaps in the sequence numbers are
+     * reported to the sender in RTCP generic NACKs.
+     */
+    private final boolean nackEnabled;
+
+    /**
+     * The time in milliseconds for which the packets missing from a gap in
+     * the sequence numbers may arrive reordered before they are reported
+     * lost.
+     */
+    private final int nackHoldOff;
+
+    /**
+     * The <tt>Object</tt> which synchronizes the access to
+     * {@link #suspectedSeqs}, {@link #suspectedTimes} and
+     * {@link #suspectedCount} which are accessed both with and without the
+     * monitor of the jitter buffer.
+     */
+    private final Object nackSyncRoot = new Object();
+
+    /**
+     * The number of packets of the complete frame at the head of the queue
+     * which have not been read yet.
+     */
+    private int pendingFramePackets = 0;
+
+    /**
+     * The time in milliseconds at which the deadline of the incomplete frame
+     * at the head of the queue expires or <tt>-1</tt> if no frame is waiting
+     * for its missing packets.
+     */
+    private long readDeadline = -1;
+
+    /**
+     * The number of valid elements of {@link #suspectedSeqs} and
+     * {@link #suspectedTimes}.
+     */
+    private int suspectedCount = 0;
+
+    /**
+     * The (extended) sequence numbers of the packets missing from gaps in the
+     * order of detection which have not been reported lost yet. Preallocated
+     * in order to not allocate per packet.
+     */
+    private final long[] suspectedSeqs;
+
+    /**
+     * The times in milliseconds of detection of the packets in
+     * {@link #suspectedSeqs} at the same indices.
+     */
+    private final long[] suspectedTimes;
+
+    /**
+     * The time in milliseconds at which the incomplete frame at the head of
+     * the queue started waiting for its missing packets or <tt>-1</tt>. Used
+     * only if the times of arrival of its packets are not known.
+     */
+    private long waitingSince = -1;
+
+    /**
+     * Initializes a new <tt>FrameAssemblingVideoJitterBufferBehaviour</tt>
+     * instance for the purposes of a specific <tt>RTPSourceStream</tt>.
+     *
+     * @param stream the <tt>RTPSourceStream</tt> which has requested the
+     * initialization of the new instance
+     */
+    public FrameAssemblingVideoJitterBufferBehaviour(RTPSourceStream stream)
+    {
+        super(stream);
+
+        frameDeadline
+            = com.sun.media.util.Registry.getInt(
+                    "video_jitter_buffer_FRAME_DEADLINE",
+                    DEFAULT_FRAME_DEADLINE);
+        nackEnabled
+            = com.sun.media.util.Registry.getBoolean("rtcp_NACK_ENABLE", false);
+        nackHoldOff
+            = com.sun.media.util.Registry.getInt(
+                    "rtcp_NACK_HOLD_OFF",
+                    DEFAULT_NACK_HOLD_OFF);
+        suspectedSeqs = nackEnabled ? new long[MAX_NACK_PACKETS] : null;
+        suspectedTimes = nackEnabled ? new long[MAX_NACK_PACKETS] : null;
+        Arrays.fill(arrivalSeqs, Buffer.SEQUENCE_UNKNOWN);
+    }
+
+    /**
+     * Makes sure that the packet at the head of the queue belongs to a
+     * complete frame, dropping stale packets and incomplete frames which have
+     * missed their deadline.
+     *
+     * @return <tt>true</tt> if the packet at the head of the queue belongs to
+     * a complete frame and may be read; otherwise, <tt>false</tt>
+     */
+    private boolean assembleHeadFrame()
+    {
+        readDeadline = -1;
+        while (pendingFramePackets == 0)
+        {
+            if (q.getFillCount() == 0)
+                return false;
+
+            Buffer first = q.getFill(0);
+            long seq = first.getSequenceNumber();
+
+            if (discardingFrame)
+            {
+                long timeStamp = first.getTimeStamp();
+
+                if ((timeStamp >= 0)
+                        && (discardedFrameTimeStamp >= 0)
+                        && (timeStamp != discardedFrameTimeStamp))
+                {
+                    // The first packet of a new frame.
+                    discardingFrame = false;
+                    expectedSeq = seq;
+                }
+                else
+                {
+                    boolean marked = isMarked(first);
+
+                    q.dropFirstFill();
+                    stats.incrementDiscardedIncompleteFrame();
+                    if (marked)
+                    {
+                        discardingFrame = false;
+                        expectedSeq = (seq + 1) & 0xFFFFL;
+                    }
+                }
+                continue;
+            }
+
+            if ((expectedSeq != Buffer.SEQUENCE_UNKNOWN)
+                    && precedes(seq, expectedSeq))
+            {
+                // A packet of a frame which has been released or dropped.
+                q.dropFirstFill();
+                stats.incrementDiscardedLate();
+                continue;
+            }
+
+            scanHeadFrame();
+            if (headFrameComplete)
+            {
+                pendingFramePackets = headFrameLength;
+                waitingSince = -1;
+                break;
+            }
+
+            long now = stream.clock.currentTimeMillis();
+            long since = headFrameArrival;
+
+            if (since == -1)
+            {
+                if (waitingSince == -1)
+                    waitingSince = now;
+                since = waitingSince;
+            }
+            if (now - since < frameDeadline)
+            {
+                readDeadline = since + frameDeadline;
+                return false;
+            }
+
+            dropHeadFrame();
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Drops the first packet (rather than one chosen in a way specific to the
+     * format) because the frame it belongs to cannot be completed anyway. The
+     * remainder of that frame is dropped as well.
+     */
+    @Override
+    protected void dropFirstPkt()
+    {
+        if (q.getFillCount() == 0)
+            return;
+
+        Buffer first = q.getFill(0);
+        long seq = first.getSequenceNumber();
+        long timeStamp = first.getTimeStamp();
+        boolean marked = isMarked(first);
+
+        q.dropFirstFill();
+
+        if (marked)
+        {
+            discardingFrame = false;
+            expectedSeq = (seq + 1) & 0xFFFFL;
+        }
+        else
+        {
+            discardingFrame = true;
+            discardedFrameTimeStamp = timeStamp;
+        }
+        pendingFramePackets = 0;
+        waitingSince = -1;
+        requestKeyFrame();
+    }
+
+    /**
+     * Drops the incomplete frame at the head of the queue (as determined by
+     * {@link #scanHeadFrame()}) and requests a key frame.
+     */
+    private void dropHeadFrame()
+    {
+        long timeStamp = q.getFill(0).getTimeStamp();
+
+        for (int i = 0; i < headFrameLength; i++)
+        {
+            q.dropFirstFill();
+            stats.incrementDiscardedIncompleteFrame();
+        }
+
+        if (headFrameNextSeq != Buffer.SEQUENCE_UNKNOWN)
+        {
+            /*
+             * The frame has ended on a change of the timestamp so the packets
+             * missing before the first packet of the next frame cannot be
+             * told apart from the tail of the dropped frame. Do not hold the
+             * next frame up waiting for them.
+             */
+            expectedSeq = headFrameNextSeq;
+        }
+        else if (headFrameEndSeq == Buffer.SEQUENCE_UNKNOWN)
+        {
+            /*
+             * The remaining packets of the frame are still to come. Drop them
+             * upon arrival.
+             */
+            discardingFrame = true;
+            discardedFrameTimeStamp = timeStamp;
+        }
+        else
+            expectedSeq = (headFrameEndSeq + 1) & 0xFFFFL;
+        waitingSince = -1;
+        requestKeyFrame();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Returns the time remaining until the deadline of the incomplete frame
+     * at the head of the queue (as determined by the last
+     * {@link #willReadBlock()}) or the hold-off of a packet suspected lost
+     * expires so that the frame is dropped and the NACK sent in time even if
+     * no packet arrives.
+     */
+    @Override
+    public long getWaitTimeout()
+    {
+        long deadline = readDeadline;
+
+        if (nackEnabled)
+        {
+            synchronized (nackSyncRoot)
+            {
+                if (suspectedCount > 0)
+                {
+                    long nackDeadline = suspectedTimes[0] + nackHoldOff;
+
+                    if ((deadline == -1) || (nackDeadline < deadline))
+                        deadline = nackDeadline;
+                }
+            }
+        }
+        if (deadline == -1)
+            return 0;
+        return Math.max(1, deadline - stream.clock.currentTimeMillis());
+    }
+
+    /**
+     * Suspects the packets missing between {@link #highestSeq} and a specific
+     * arriving packet lost and clears the suspicion on the arriving packet.
+     * The suspected packets are reported lost by {@link #sendFeedback()}
+     * unless they arrive within {@link #nackHoldOff}.
+     *
+     * @param seq the (extended) sequence number of the arriving packet
+     */
+    private void detectLostPackets(long seq)
+    {
+        if (highestSeq == Buffer.SEQUENCE_UNKNOWN)
+        {
+            highestSeq = seq;
+            return;
+        }
+
+        int distance = (int) ((seq - highestSeq) & 0xFFFFL);
+
+        synchronized (nackSyncRoot)
+        {
+            for (int i = 0; i < suspectedCount; i++)
+            {
+                if (suspectedSeqs[i] == seq)
+                {
+                    // A reordered packet.
+                    removeSuspected(i);
+                    break;
+                }
+            }
+
+            if ((distance == 0) || (distance >= 0x8000))
+            {
+                // A duplicate or a late packet (possibly a retransmission).
+                return;
+            }
+
+            int count = distance - 1;
+
+            if ((count > 0) && (count <= MAX_NACK_PACKETS))
+            {
+                long now = stream.clock.currentTimeMillis();
+
+                for (int i = 0; i < count; i++)
+                {
+                    if (suspectedCount == MAX_NACK_PACKETS)
+                        removeSuspected(0);
+                    suspectedSeqs[suspectedCount] = highestSeq + 1 + i;
+                    suspectedTimes[suspectedCount] = now;
+                    suspectedCount++;
+                }
+            }
+        }
+        highestSeq = seq;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Detects the packets which have been lost before the arriving one and
+     * requests their retransmission.
+     */
+    @Override
+    public boolean preAdd(Buffer buffer, RTPRawReceiver rtprawreceiver)
+    {
+        if (!super.preAdd(buffer, rtprawreceiver))
+            return false;
+
+        long seq = buffer.getSequenceNumber();
+
+        if (seq != Buffer.SEQUENCE_UNKNOWN)
+        {
+            int i = (int) (seq & (ARRIVAL_HISTORY - 1));
+
+            arrivalSeqs[i] = seq;
+            arrivalTimes[i] = stream.clock.currentTimeMillis();
+        }
+
+        if (nackEnabled && (seq != Buffer.SEQUENCE_UNKNOWN))
+            detectLostPackets(seq);
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Reads only the packets of complete frames.
+     */
+    @Override
+    public void read(Buffer buffer)
+    {
+        if (!assembleHeadFrame())
+        {
+            buffer.setDiscard(true);
+            return;
+        }
+
+        super.read(buffer);
+
+        if (!buffer.isDiscard() && (--pendingFramePackets == 0))
+        {
+            expectedSeq = (buffer.getSequenceNumber() + 1) & 0xFFFFL;
+            keyFrameRequested = false;
+        }
+    }
+
+    /**
+     * Removes the element at a specific index of {@link #suspectedSeqs} and
+     * {@link #suspectedTimes}.
+     */
+    private void removeSuspected(int index)
+    {
+        suspectedCount--;
+        System.arraycopy(
+                suspectedSeqs, index + 1,
+                suspectedSeqs, index,
+                suspectedCount - index);
+        System.arraycopy(
+                suspectedTimes, index + 1,
+                suspectedTimes, index,
+                suspectedCount - index);
+    }
+
+    /**
+     * Posts a <tt>KeyFrameRequestEvent</tt> for the <tt>ReceiveStream</tt>
+     * of the associated <tt>RTPSourceStream</tt> unless a key frame has been
+     * requested and no frame has been released since.
+     */
+    private void requestKeyFrame()
+    {
+        if (keyFrameRequested)
+            return;
+        keyFrameRequested = true;
+        stats.incrementNbKeyFrameRequest();
+
+        RTPSessionMgr mgr = stream.datasource.getMgr();
+
+        if (mgr == null)
+            return;
+
+        SSRCInfo info = mgr.getSSRCInfo(stream.datasource.getSSRC());
+        SSRCCache cache = mgr.getSSRCCache();
+
+        if ((info instanceof ReceiveStream)
+                && (cache != null)
+                && (cache.eventhandler != null))
+        {
+            cache.eventhandler.postEvent(
+                    new KeyFrameRequestEvent(
+                            mgr,
+                            info.sourceInfo,
+                            (ReceiveStream) info));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset()
+    {
+        super.reset();
+
+        discardingFrame = false;
+        expectedSeq = Buffer.SEQUENCE_UNKNOWN;
+        highestSeq = Buffer.SEQUENCE_UNKNOWN;
+        keyFrameRequested = false;
+        pendingFramePackets = 0;
+        readDeadline = -1;
+        waitingSince = -1;
+        Arrays.fill(arrivalSeqs, Buffer.SEQUENCE_UNKNOWN);
+        if (nackEnabled)
+        {
+            synchronized (nackSyncRoot)
+            {
+                suspectedCount = 0;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Reports the packets suspected lost for longer than the hold-off in an
+     * RTCP generic NACK.
+     */
+    @Override
+    public void sendFeedback()
+    {
+        if (!nackEnabled)
+            return;
+
+        long[] lostSeqs;
+
+        synchronized (nackSyncRoot)
+        {
+            if (suspectedCount == 0)
+                return;
+
+            long now = stream.clock.currentTimeMillis();
+            int count = 0;
+
+            // The suspected packets are in the order of detection.
+            while ((count < suspectedCount)
+                    && (now - suspectedTimes[count] >= nackHoldOff))
+                count++;
+            if (count == 0)
+                return;
+
+            lostSeqs = new long[count];
+            System.arraycopy(suspectedSeqs, 0, lostSeqs, 0, count);
+            suspectedCount -= count;
+            System.arraycopy(
+                    suspectedSeqs, count,
+                    suspectedSeqs, 0,
+                    suspectedCount);
+            System.arraycopy(
+                    suspectedTimes, count,
+                    suspectedTimes, 0,
+                    suspectedCount);
+        }
+        sendNACK(lostSeqs);
+    }
+
+    /**
+     * Sends an RTCP generic NACK which reports specific packets lost through
+     * the RTCP transmitter of the local participant.
+     *
+     * @param lostSeqs the extended sequence numbers of the lost packets which
+     * are reduced to the 16-bit RTP sequence numbers carried by the NACK
+     */
+    private void sendNACK(long[] lostSeqs)
+    {
+        for (int i = 0; i < lostSeqs.length; i++)
+            lostSeqs[i] &= 0xFFFFL;
+
+        RTPSessionMgr mgr = stream.datasource.getMgr();
+
+        if (mgr == null)
+            return;
+
+        SSRCCache cache = mgr.getSSRCCache();
+        SSRCInfo ours = (cache == null) ? null : cache.ourssrc;
+        RTCPReporter reporter = (ours == null) ? null : ours.reporter;
+
+        if ((reporter == null) || (reporter.transmit == null))
+            return;
+
+        reporter.transmit.nack(
+                stream.datasource.getSSRC(),
+                lostSeqs, lostSeqs.length);
+        synchronized (nackSyncRoot)
+        {
+            stats.incrementNbNACKedPacket(lostSeqs.length);
+        }
+    }
+
+    /**
+     * Determines the extent of the frame at the head of the queue and whether
+     * all of its packets have been received. Sets {@link #headFrameArrival},
+     * {@link #headFrameComplete}, {@link #headFrameEndSeq},
+     * {@link #headFrameLength} and {@link #headFrameNextSeq}.
+     */
+    private void scanHeadFrame()
+    {
+        headFrameArrival = -1;
+        headFrameNextSeq = Buffer.SEQUENCE_UNKNOWN;
+
+        int count = q.getFillCount();
+        Buffer first = q.getFill(0);
+        long timeStamp = first.getTimeStamp();
+        long prevSeq = first.getSequenceNumber();
+        boolean contiguous
+            = (expectedSeq == Buffer.SEQUENCE_UNKNOWN)
+                || (((prevSeq - expectedSeq) & 0xFFFFL) == 0);
+
+        for (int i = 0; i < count; i++)
+        {
+            Buffer buffer = q.getFill(i);
+            long seq = buffer.getSequenceNumber();
+
+            if (i > 0)
+            {
+                long bufferTimeStamp = buffer.getTimeStamp();
+                boolean follows = follows(seq, prevSeq);
+
+                if ((timeStamp >= 0)
+                        && (bufferTimeStamp >= 0)
+                        && (bufferTimeStamp != timeStamp))
+                {
+                    /*
+                     * The frame ended without a marker bit. Its last packet
+                     * is known only if no packet is missing in between.
+                     */
+                    headFrameComplete = contiguous && follows;
+                    headFrameEndSeq = prevSeq;
+                    headFrameLength = i;
+                    headFrameNextSeq = seq;
+                    return;
+                }
+                if (!follows)
+                    contiguous = false;
+            }
+            updateHeadFrameArrival(seq);
+            if (isMarked(buffer))
+            {
+                headFrameComplete = contiguous;
+                headFrameEndSeq = seq;
+                headFrameLength = i + 1;
+                return;
+            }
+            prevSeq = seq;
+        }
+
+        headFrameComplete = false;
+        headFrameEndSeq = Buffer.SEQUENCE_UNKNOWN;
+        headFrameLength = count;
+    }
+
+    /**
+     * Takes the time of arrival of a specific packet of the frame at the head
+     * of the queue into account in {@link #headFrameArrival} if it is known.
+     *
+     * @param seq the sequence number of the packet
+     */
+    private void updateHeadFrameArrival(long seq)
+    {
+        int i = (int) (seq & (ARRIVAL_HISTORY - 1));
+
+        if (arrivalSeqs[i] == seq)
+        {
+            long arrival = arrivalTimes[i];
+
+            if ((headFrameArrival == -1) || (arrival < headFrameArrival))
+                headFrameArrival = arrival;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Returns <tt>true</tt> unless the packet at the head of the queue belongs
+     * to a complete frame.
+     */
+    @Override
+    public boolean willReadBlock()
+    {
+        return !assembleHeadFrame();
+    }
+}
@@ -18,6 +18,13 @@ class JitterBuffer
      */
     private int capacity;
 
+    /**
+     * The number of &quot;fill&quot; <tt>Buffer</tt>s which have been dropped
+     * from this queue (rather than read out of it) since its initialization.
+     * Maintained by extenders which override {@link #dropFill(int)} as well.
+     */
+    long dropped;
+
     /**
      * The <tt>Buffer</tt>s of this <tt>JitterBuffer</tt> which may contain
      * valid media data to be read out of this instance (referred to as
@@ -46,6 +53,15 @@ class JitterBuffer
      */
     private int offset;
 
+    /**
+     * Initializes a new <tt>JitterBuffer</tt> instance for an extender which
+     * implements the storage of the <tt>Buffer</tt>s on its own and overrides
+     * all storage-related methods.
+     */
+    JitterBuffer()
+    {
+    }
+
     /**
      * Initializes a new <tt>JitterBuffer</tt> instance with a specific capacity
      * of <tt>Buffer</tt>s.
@@ -194,6 +210,7 @@ class JitterBuffer
         length--;
         locked = index;
         returnFree(buffer);
+        dropped++;
     }
 
     /**
@@ -204,6 +221,7 @@ class JitterBuffer
     public void dropFirstFill()
     {
         returnFree(getFill());
+        dropped++;
     }
 
     /**
@@ -270,6 +288,19 @@ class JitterBuffer
         return elements[(offset + index) % capacity];
     }
 
+    /**
+     * Gets the number of &quot;fill&quot; <tt>Buffer</tt>s which have been
+     * dropped from this queue (rather than read out of it) since its
+     * initialization.
+     *
+     * @return the number of &quot;fill&quot; <tt>Buffer</tt>s which have been
+     * dropped from this queue
+     */
+    long getDroppedCount()
+    {
+        return dropped;
+    }
+
     /**
      * Gets the number of &quot;fill&quot; <tt>Buffer</tt>s in this queue.
      *
@@ -340,6 +371,36 @@ class JitterBuffer
                     .getSequenceNumber();
     }
 
+    /**
+     * Determines whether a <tt>Buffer</tt> with a specific sequence number may
+     * be added to this queue without dropping another one first.
+     *
+     * @param seq the sequence number of the <tt>Buffer</tt> to be added
+     * @return <tt>true</tt> if a <tt>Buffer</tt> with sequence number
+     * <tt>seq</tt> may be added to this queue without dropping another one
+     * first; otherwise, <tt>false</tt>
+     */
+    boolean hasRoomFor(long seq)
+    {
+        return freeNotEmpty();
+    }
+
+    /**
+     * Determines whether a <tt>Buffer</tt> with a specific sequence number
+     * would be a duplicate of a <tt>Buffer</tt> in this queue. The
+     * determination is only made by queues which can make it in constant
+     * time and this one adds duplicates as any other <tt>Buffer</tt>.
+     *
+     * @param seq the sequence number of the <tt>Buffer</tt> to be added
+     * @return <tt>true</tt> if this queue contains a <tt>Buffer</tt> with
+     * sequence number <tt>seq</tt> and detects duplicates; otherwise,
+     * <tt>false</tt>
+     */
+    boolean isDuplicate(long seq)
+    {
+        return false;
+    }
+
     /**
      * Inserts <tt>buffer</tt> in the correct place in the queue, so that
      * the order is preserved. The order is by ascending sequence numbers.
@@ -441,6 +502,25 @@ class JitterBuffer
         locked = -1;
     }
 
+    /**
+     * Replaces the &quot;free&quot; <tt>Buffer</tt> which has been retrieved
+     * from this queue and has not been returned yet with a specific
+     * <tt>Buffer</tt>. The replaced <tt>Buffer</tt> no longer belongs to this
+     * queue and the replacement is to be added or returned in its stead.
+     *
+     * @param free the &quot;free&quot; <tt>Buffer</tt> retrieved from this
+     * queue
+     * @param buffer the <tt>Buffer</tt> to take the place of <tt>free</tt>
+     */
+    public void swapFree(Buffer free, Buffer buffer)
+    {
+        assertLocked(free);
+        if (buffer == null)
+            throw new NullPointerException("buffer");
+
+        elements[locked] = buffer;
+    }
+
     /**
      * Sets the capacity of this instance in terms of the maximum number of
      * <tt>Buffer</tt>s that it may contain.
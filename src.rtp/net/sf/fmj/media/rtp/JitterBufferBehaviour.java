@@ -29,6 +29,15 @@ interface JitterBufferBehaviour
      */
     int getAbsoluteMaximumDelay();
 
+    /**
+     * Gets the delay in milliseconds currently introduced by the jitter buffer
+     * i.e. the approximate duration of the media data in it.
+     *
+     * @return the delay in milliseconds currently introduced by the jitter
+     * buffer
+     */
+    int getCurrentDelay();
+
     /**
      * Gets the current maximum jitter buffer delay in milliseconds which
      * corresponds to the earliest arriving packet that would not be discarded.
@@ -52,6 +61,29 @@ interface JitterBufferBehaviour
      */
     int getNominalDelay();
 
+    /**
+     * Gets the delay in milliseconds which the jitter buffer is currently
+     * adapting to. Equal to <tt>nominalDelay</tt> unless the implementation
+     * targets a delay derived from the measured jitter.
+     *
+     * @return the delay in milliseconds which the jitter buffer is currently
+     * adapting to
+     */
+    int getTargetDelay();
+
+    /**
+     * Gets the time in milliseconds after which {@link #willReadBlock()} may
+     * change its outcome even if no packet is added to or read from the
+     * associated <tt>JitterBuffer</tt> in the meantime (e.g. because a
+     * deadline expires). The thread which waits for the jitter buffer to
+     * become ready to be read from is to wait no longer than that.
+     *
+     * @return the time in milliseconds after which <tt>willReadBlock()</tt>
+     * is to be re-examined or <tt>0</tt> if its outcome changes only when a
+     * packet is added or read
+     */
+    long getWaitTimeout();
+
     /**
      * Determines whether the jitter buffer logic implemented by this instance
      * exhibits adaptive (as opposed to fixed) behaviour.
@@ -93,6 +125,15 @@ interface JitterBufferBehaviour
      */
     void reset();
 
+    /**
+     * Sends the feedback (e.g. RTCP NACKs) which has become due while the
+     * associated <tt>JitterBuffer</tt> was being modified or examined. Invoked
+     * by the associated <tt>RTPSourceStream</tt> without holding the monitor
+     * of the <tt>JitterBuffer</tt> so that network I/O does not delay the
+     * threads which add packets to or read packets from it.
+     */
+    void sendFeedback();
+
     /**
      * Determines whether a subsequent invocation of {@link #read(Buffer)} on
      * this instance will block the calling/current thread.
@@ -102,4 +143,15 @@ interface JitterBufferBehaviour
      * if a packet may be read without blocking
      */
     boolean willReadBlock();
+
+    /**
+     * Determines whether packets recovered by forward error correction (FEC)
+     * are to be kept away from the associated <tt>JitterBuffer</tt> for the
+     * time being, usually because it has deliberately dropped a packet to
+     * make room and would only be overflown again.
+     *
+     * @return <tt>true</tt> if packets recovered by FEC are not to be added
+     * to the associated <tt>JitterBuffer</tt>; otherwise, <tt>false</tt>
+     */
+    boolean willSkipFec();
 }
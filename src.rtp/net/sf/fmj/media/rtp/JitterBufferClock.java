@@ -0,0 +1,39 @@
+package net.sf.fmj.media.rtp;
+
+/**
+ * Supplies the time to the jitter buffer logic of an <tt>RTPSourceStream</tt>
+ * i.e. to its <tt>JitterBufferBehaviour</tt>. The default instance reads the
+ * system clock; <tt>JitterBufferReplay</tt> substitutes a virtual clock in
+ * order to replay a recorded arrival trace deterministically and faster than
+ * real time.
+ */
+class JitterBufferClock
+{
+    /**
+     * The <tt>JitterBufferClock</tt> which reads the system clock.
+     */
+    static final JitterBufferClock SYSTEM = new JitterBufferClock();
+
+    /**
+     * Gets the current time in milliseconds in the manner of
+     * <tt>System.currentTimeMillis()</tt>.
+     *
+     * @return the current time in milliseconds
+     */
+    long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Gets the current value of a high-resolution time source in nanoseconds
+     * in the manner of <tt>System.nanoTime()</tt>.
+     *
+     * @return the current value of a high-resolution time source in
+     * nanoseconds
+     */
+    long nanoTime()
+    {
+        return System.nanoTime();
+    }
+}
@@ -0,0 +1,571 @@
+package net.sf.fmj.media.rtp;
+
+import java.io.*;
+import java.util.*;
+
+import javax.media.*;
+import javax.media.format.*;
+
+import net.sf.fmj.media.protocol.rtp.DataSource;
+
+/**
+ * Replays a recorded trace of RTP packet arrivals through an
+ * <tt>RTPSourceStream</tt> (i.e. its <tt>JitterBuffer</tt> and
+ * <tt>JitterBufferBehaviour</tt>) on a virtual clock and reports the
+ * resulting latency, discards, underruns and memory use as a JSON object.
+ * Since neither a network nor the system clock is involved, a replay is
+ * deterministic and runs much faster than real time so that the tuning of
+ * the jitter buffer may be evaluated and regressions may be caught offline.
+ * <p>
+ * Each line of a trace describes the arrival of one packet as
+ * <tt>seq timestamp arrival size [marker]</tt> separated by commas or white
+ * space: the RTP sequence number, the RTP timestamp, the time of arrival in
+ * nanoseconds, the payload size in bytes and, optionally, <tt>1</tt> if the
+ * RTP marker bit is set. Empty lines and lines starting with <tt>#</tt> are
+ * ignored.
+ * </p>
+ * <p>
+ * Audio is played out by a virtual consumer which reads one packet per frame
+ * duration once the jitter buffer first allows reading; a frame for which no
+ * packet can be read counts as an underrun. Video is read as soon as the
+ * jitter buffer allows it, be it upon an arrival or upon the expiry of the
+ * time the jitter buffer has asked to be waited for. The jitter buffer implementation is selected
+ * through the registry keys read by <tt>RTPSourceStream</tt> which may be set
+ * on the command line as <tt>key=value</tt> arguments.
+ * </p>
+ */
+public class JitterBufferReplay
+{
+    /**
+     * A <tt>JitterBufferClock</tt> which only advances when told to.
+     */
+    private static class VirtualClock
+        extends JitterBufferClock
+    {
+        /**
+         * The current virtual time in nanoseconds.
+         */
+        long now;
+
+        @Override
+        long currentTimeMillis()
+        {
+            return now / 1000000L;
+        }
+
+        @Override
+        long nanoTime()
+        {
+            return now;
+        }
+    }
+
+    /**
+     * The RTP clock rate assumed for audio.
+     */
+    private static final int AUDIO_CLOCK_RATE = 8000;
+
+    /**
+     * The RTP clock rate assumed for video.
+     */
+    private static final int VIDEO_CLOCK_RATE = 90000;
+
+    /**
+     * Replays a trace and prints the results to the standard output.
+     *
+     * @param args the path of the trace file, optionally followed by
+     * <tt>audio</tt> (the default) or <tt>video</tt>, the frame duration in
+     * milliseconds (20 by default) and any number of <tt>key=value</tt>
+     * registry settings
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.err.println(
+                    "Usage: JitterBufferReplay <trace> [audio|video]"
+                        + " [frame-ms] [registry-key=value...]");
+            System.exit(1);
+        }
+
+        boolean video = false;
+        int frameMs = 20;
+
+        for (int i = 1; i < args.length; i++)
+        {
+            String arg = args[i];
+            int eq = arg.indexOf('=');
+
+            if (eq > 0)
+            {
+                com.sun.media.util.Registry.set(
+                        arg.substring(0, eq),
+                        arg.substring(eq + 1));
+            }
+            else if ("video".equalsIgnoreCase(arg))
+                video = true;
+            else if ("audio".equalsIgnoreCase(arg))
+                video = false;
+            else
+                frameMs = Integer.parseInt(arg);
+        }
+
+        Reader trace = new FileReader(args[0]);
+        String results;
+
+        try
+        {
+            results = new JitterBufferReplay(video, frameMs).replay(trace);
+        }
+        finally
+        {
+            trace.close();
+        }
+        System.out.println(results);
+        System.exit(0);
+    }
+
+    /**
+     * Parses a trace.
+     *
+     * @return the arrivals described by the trace, each one as an array of
+     * the sequence number, the RTP timestamp, the time of arrival in
+     * nanoseconds, the size and the marker bit
+     */
+    private static List<long[]> readTrace(Reader reader)
+        throws IOException
+    {
+        BufferedReader in = new BufferedReader(reader);
+        List<long[]> arrivals = new ArrayList<long[]>();
+        String line;
+        int lineNumber = 0;
+
+        while ((line = in.readLine()) != null)
+        {
+            lineNumber++;
+            line = line.trim();
+            if ((line.length() == 0) || line.startsWith("#"))
+                continue;
+
+            String[] fields = line.split("[,\\s]+");
+
+            if (fields.length < 4)
+            {
+                throw new IOException(
+                        "Too few fields on line " + lineNumber + ": " + line);
+            }
+
+            long[] arrival = new long[5];
+
+            try
+            {
+                for (int i = 0; i < 4; i++)
+                    arrival[i] = Long.parseLong(fields[i]);
+                if (fields.length > 4)
+                    arrival[4] = Long.parseLong(fields[4]);
+            }
+            catch (NumberFormatException nfe)
+            {
+                throw new IOException(
+                        "Malformed number on line " + lineNumber + ": "
+                            + line);
+            }
+            arrivals.add(arrival);
+        }
+        return arrivals;
+    }
+
+    /**
+     * The time in nanoseconds of arrival of the last packet added with a
+     * specific sequence number.
+     */
+    private final long[] arrivalTimes = new long[0x10000];
+
+    /**
+     * The <tt>Buffer</tt> which carries the packets into the stream.
+     */
+    private final Buffer buffer = new Buffer();
+
+    /**
+     * The <tt>VirtualClock</tt> of the stream.
+     */
+    private final VirtualClock clock = new VirtualClock();
+
+    /**
+     * The <tt>Format</tt> of the stream.
+     */
+    private final Format format;
+
+    /**
+     * The duration in nanoseconds of a frame of audio.
+     */
+    private final long frameNs;
+
+    /**
+     * The highest extended sequence number added so far or <tt>-1</tt>.
+     */
+    private long highestSeq;
+
+    /**
+     * The latencies in nanoseconds of the packets read so far. The first
+     * {@link #played} elements are valid.
+     */
+    private long[] latencies = new long[256];
+
+    /**
+     * The maximum capacity of the queue of the stream.
+     */
+    private int peakCapacity;
+
+    /**
+     * The maximum number of bytes of payload in the queue of the stream.
+     */
+    private long peakQueuedBytes;
+
+    /**
+     * The maximum number of packets in the queue of the stream.
+     */
+    private int peakQueuedPackets;
+
+    /**
+     * The number of packets read out of the stream.
+     */
+    private int played;
+
+    /**
+     * The <tt>Buffer</tt> into which the packets are read out of the stream.
+     */
+    private final Buffer readBuffer = new Buffer();
+
+    /**
+     * The stream being replayed into.
+     */
+    private RTPSourceStream stream;
+
+    /**
+     * The number of frames of audio for which no packet could be read.
+     */
+    private int underruns;
+
+    /**
+     * Initializes a new <tt>JitterBufferReplay</tt> instance.
+     *
+     * @param video <tt>true</tt> to replay video; <tt>false</tt> to replay
+     * audio
+     * @param frameMs the duration of a frame of audio in milliseconds
+     */
+    public JitterBufferReplay(boolean video, int frameMs)
+    {
+        if (frameMs < 1)
+            throw new IllegalArgumentException("frameMs");
+
+        format
+            = video
+                ? new VideoFormat("H264/rtp")
+                : new AudioFormat(
+                        AudioFormat.ULAW_RTP,
+                        AUDIO_CLOCK_RATE,
+                        8,
+                        1);
+        frameNs = frameMs * 1000000L;
+    }
+
+    /**
+     * Adds a specific arrival to the stream.
+     */
+    private void add(long[] arrival, long firstTimestamp)
+    {
+        int size = (int) arrival[3];
+        byte[] data = (byte[]) buffer.getData();
+
+        if ((data == null) || (data.length < size))
+            buffer.setData(data = new byte[size]);
+
+        int clockRate
+            = (format instanceof VideoFormat)
+                ? VIDEO_CLOCK_RATE
+                : AUDIO_CLOCK_RATE;
+        long rtpDelta = (arrival[1] - firstTimestamp) & 0xFFFFFFFFL;
+
+        buffer.setOffset(0);
+        buffer.setLength(size);
+        buffer.setFormat(format);
+        buffer.setHeader(null);
+        buffer.setSequenceNumber(extendSeq(arrival[0]));
+        buffer.setTimeStamp(rtpDelta * 1000000000L / clockRate);
+        buffer.setDuration(
+                (format instanceof AudioFormat) ? frameNs : Buffer.TIME_UNKNOWN);
+        buffer.setFlags(
+                Buffer.FLAG_RTP_TIME
+                    | ((arrival[4] != 0) ? Buffer.FLAG_RTP_MARKER : 0));
+        buffer.setDiscard(false);
+        buffer.setEOM(false);
+
+        arrivalTimes[(int) (arrival[0] & 0xFFFF)] = clock.now;
+        stream.add(buffer, false, null);
+    }
+
+    /**
+     * Extends a specific (16-bit RTP) sequence number the way
+     * <tt>RTPReceiver</tt> does i.e. relative to the highest one added so far.
+     */
+    private long extendSeq(long seq)
+    {
+        seq &= 0xFFFF;
+        if (highestSeq == -1)
+        {
+            highestSeq = 0x10000 + seq;
+            return highestSeq;
+        }
+
+        long extSeq = highestSeq + (short) (seq - highestSeq);
+
+        if (extSeq > highestSeq)
+            highestSeq = extSeq;
+        return extSeq;
+    }
+
+    /**
+     * Reads a packet out of the stream if one may be read without blocking.
+     *
+     * @return <tt>true</tt> if a packet has been read; otherwise,
+     * <tt>false</tt>
+     */
+    private boolean read()
+    {
+        synchronized (stream.q)
+        {
+            if (stream.getBehaviour().willReadBlock())
+                return false;
+        }
+
+        readBuffer.setDiscard(false);
+        stream.read(readBuffer);
+        if (readBuffer.isDiscard())
+            return false;
+
+        if (played == latencies.length)
+        {
+            long[] newLatencies = new long[2 * latencies.length];
+
+            System.arraycopy(latencies, 0, newLatencies, 0, played);
+            latencies = newLatencies;
+        }
+
+        int seq = (int) (readBuffer.getSequenceNumber() & 0xFFFF);
+
+        latencies[played++] = clock.now - arrivalTimes[seq];
+        return true;
+    }
+
+    /**
+     * Reads video out of the stream for as long as it may be read without
+     * blocking.
+     *
+     * @return the virtual time in nanoseconds at which the stream is to be
+     * read from again even if no packet arrives (see
+     * <tt>JitterBufferBehaviour#getWaitTimeout()</tt>) or <tt>-1</tt>
+     */
+    private long readVideo()
+    {
+        while (read());
+
+        long timeout;
+
+        synchronized (stream.q)
+        {
+            timeout = stream.getBehaviour().getWaitTimeout();
+        }
+        return (timeout == 0) ? -1 : (clock.now + timeout * 1000000L);
+    }
+
+    /**
+     * Replays a trace through a new <tt>RTPSourceStream</tt>.
+     *
+     * @param trace the trace to replay
+     * @return the results of the replay as a JSON object
+     * @throws IOException if the trace cannot be read or is malformed
+     */
+    public String replay(Reader trace)
+        throws IOException
+    {
+        List<long[]> arrivals = readTrace(trace);
+
+        /*
+         * The packets are to be added in the order of their arrival. The sort
+         * is stable so simultaneous arrivals keep the order of the trace.
+         */
+        Collections.sort(
+                arrivals,
+                new Comparator<long[]>()
+                {
+                    public int compare(long[] a1, long[] a2)
+                    {
+                        return (a1[2] < a2[2]) ? -1 : ((a1[2] == a2[2]) ? 0 : 1);
+                    }
+                });
+
+        stream = new RTPSourceStream(new DataSource());
+        stream.clock = clock;
+        stream.setFormat(format);
+        highestSeq = -1;
+        played = 0;
+        underruns = 0;
+        peakCapacity = 0;
+        peakQueuedBytes = 0;
+        peakQueuedPackets = 0;
+
+        try
+        {
+            int count = arrivals.size();
+            long firstTimestamp = (count == 0) ? 0 : arrivals.get(0)[1];
+            long nextFrame = -1;
+            long wakeup = -1;
+            int i = 0;
+
+            while (i < count)
+            {
+                long nextArrival = arrivals.get(i)[2];
+
+                if ((wakeup != -1) && (wakeup <= nextArrival))
+                {
+                    clock.now = wakeup;
+                    wakeup = readVideo();
+                }
+                else if ((nextFrame != -1) && (nextFrame <= nextArrival))
+                {
+                    clock.now = nextFrame;
+                    if (!read())
+                        underruns++;
+                    nextFrame += frameNs;
+                }
+                else
+                {
+                    clock.now = nextArrival;
+                    add(arrivals.get(i++), firstTimestamp);
+                    if (format instanceof VideoFormat)
+                        wakeup = readVideo();
+                    else if (nextFrame == -1)
+                    {
+                        synchronized (stream.q)
+                        {
+                            if (!stream.getBehaviour().willReadBlock())
+                                nextFrame = clock.now;
+                        }
+                    }
+                }
+                updatePeaks();
+            }
+
+            // Drain what remains after the last arrival.
+            if (format instanceof VideoFormat)
+            {
+                while (wakeup != -1)
+                {
+                    clock.now = Math.max(clock.now, wakeup);
+                    wakeup = readVideo();
+                }
+            }
+            else if (nextFrame != -1)
+            {
+                clock.now = Math.max(clock.now, nextFrame);
+                while (read())
+                    clock.now += frameNs;
+            }
+
+            return toJSON(count);
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+
+    /**
+     * Formats the results of the last replay as a JSON object.
+     */
+    private String toJSON(int count)
+    {
+        JitterBufferStats stats = stream.stats;
+        long[] sorted = new long[played];
+        long sum = 0;
+
+        System.arraycopy(latencies, 0, sorted, 0, played);
+        Arrays.sort(sorted);
+        for (int i = 0; i < played; i++)
+            sum += sorted[i];
+
+        StringBuilder s = new StringBuilder();
+
+        s.append("{\"packets\":").append(count);
+        s.append(",\"played\":").append(played);
+        s.append(",\"underruns\":").append(underruns);
+        s.append(",\"discarded\":").append(stats.getDiscarded());
+        s.append(",\"discardedLate\":").append(stats.getDiscardedLate());
+        s.append(",\"discardedVeryLate\":")
+            .append(stats.getDiscardedVeryLate());
+        s.append(",\"discardedFull\":").append(stats.getDiscardedFull());
+        s.append(",\"discardedReset\":").append(stats.getDiscardedReset());
+        s.append(",\"discardedShrink\":").append(stats.getDiscardedShrink());
+        s.append(",\"discardedIncompleteFrame\":")
+            .append(stats.getDiscardedIncompleteFrame());
+        s.append(",\"discardedDuplicate\":")
+            .append(stats.getDiscardedDuplicate());
+        s.append(",\"latencyMs\":{\"mean\":")
+            .append((played == 0) ? 0 : toMs(sum / played));
+        s.append(",\"p50\":").append(toMs(percentile(sorted, 50)));
+        s.append(",\"p95\":").append(toMs(percentile(sorted, 95)));
+        s.append(",\"p99\":").append(toMs(percentile(sorted, 99)));
+        s.append(",\"max\":")
+            .append((played == 0) ? 0 : toMs(sorted[played - 1]));
+        s.append("},\"peakQueuedPackets\":").append(peakQueuedPackets);
+        s.append(",\"peakQueuedBytes\":").append(peakQueuedBytes);
+        s.append(",\"peakCapacity\":").append(peakCapacity);
+        s.append('}');
+        return s.toString();
+    }
+
+    /**
+     * Gets a specific percentile of sorted values (by the nearest rank
+     * method).
+     */
+    private static long percentile(long[] sorted, int percent)
+    {
+        if (sorted.length == 0)
+            return 0;
+
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    /**
+     * Converts nanoseconds to milliseconds with a precision of a microsecond.
+     */
+    private static double toMs(long ns)
+    {
+        return Math.round(ns / 1000.0) / 1000.0;
+    }
+
+    /**
+     * Records the current occupancy of the queue of the stream if it is the
+     * highest so far.
+     */
+    private void updatePeaks()
+    {
+        JitterBuffer q = stream.q;
+
+        synchronized (q)
+        {
+            int fillCount = q.getFillCount();
+            long bytes = 0;
+
+            for (int i = 0; i < fillCount; i++)
+                bytes += q.getFill(i).getLength();
+            peakQueuedPackets = Math.max(peakQueuedPackets, fillCount);
+            peakQueuedBytes = Math.max(peakQueuedBytes, bytes);
+            peakCapacity = Math.max(peakCapacity, q.getCapacity());
+        }
+    }
+}
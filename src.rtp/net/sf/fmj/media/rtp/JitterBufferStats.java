@@ -29,6 +29,18 @@ public class JitterBufferStats
      */
     private int discardedFull;
 
+    /**
+     * The number of RTP packets that the associated queue has discarded because
+     * it already contained packets with the same sequence numbers.
+     */
+    private int discardedDuplicate;
+
+    /**
+     * The number of RTP packets that the associated queue has discarded because
+     * they belonged to a video frame which could not be completed in time.
+     */
+    private int discardedIncompleteFrame;
+
     /**
      * The number of RTP packets that the associated queue has discarded because
      * they arrived too late to be added to the queue. If the queue exhibits
@@ -66,8 +78,26 @@ public class JitterBufferStats
 
     private int nbAdd;
 
+    /**
+     * The number of lost RTP packets which have been recovered by forward
+     * error correction (FEC) before they reached the associated queue.
+     */
+    private int nbFECRecovered;
+
     private int nbGrow;
 
+    /**
+     * The number of times that the associated queue has requested a key frame
+     * after it discarded an incomplete video frame.
+     */
+    private int nbKeyFrameRequest;
+
+    /**
+     * The number of lost RTP packets that the associated queue has reported in
+     * RTCP generic NACKs so that they may be retransmitted.
+     */
+    private int nbNACKedPacket;
+
     private int nbReset;
 
     private SummaryStatistics jiterBufferCapacity = new SynchronizedSummaryStatistics();
@@ -124,16 +154,14 @@ public class JitterBufferStats
     /**
      * {@inheritDoc}
      *
-     * <b>Warning</b>: The implementation of <tt>JitterBufferStats</tt> does not
-     * have a notion of packet duration and, consequently, it may be inaccurate.
-     * The method {@link #getNominalDelay()} delegates to
-     * <tt>JitterBufferBehaviour</tt> which is more likely to have a notion of
-     * packet duration and, consequently, it likely to be more accurate.
+     * Delegates to the <tt>JitterBufferBehaviour</tt> of the
+     * <tt>RTPSourceStream</tt>. <b>Warning</b>: A
+     * <tt>JitterBufferBehaviour</tt> which does not have a notion of packet
+     * duration may be inaccurate.
      */
     public int getCurrentDelayMs()
     {
-        // TODO Auto-generated method stub
-        return getCurrentDelayPackets() * 20;
+        return stream.getBehaviour().getCurrentDelay();
     }
 
     /**
@@ -171,12 +199,27 @@ public class JitterBufferStats
     {
         return
             getDiscardedFull()
+                + getDiscardedDuplicate()
+                + getDiscardedIncompleteFrame()
                 + getDiscardedLate()
                 + getDiscardedReset()
                 + getDiscardedShrink()
                 + getDiscardedVeryLate();
     }
 
+    /**
+     * Gets the number of RTP packets that the associated queue has discarded
+     * because it already contained packets with the same sequence numbers.
+     *
+     * @return the number of RTP packets that the associated queue has
+     * discarded because it already contained packets with the same sequence
+     * numbers
+     */
+    public int getDiscardedDuplicate()
+    {
+        return discardedDuplicate;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -185,6 +228,20 @@ public class JitterBufferStats
         return discardedFull;
     }
 
+    /**
+     * Gets the number of RTP packets that the associated queue has discarded
+     * because they belonged to a video frame which could not be completed in
+     * time.
+     *
+     * @return the number of RTP packets that the associated queue has
+     * discarded because they belonged to a video frame which could not be
+     * completed in time
+     */
+    public int getDiscardedIncompleteFrame()
+    {
+        return discardedIncompleteFrame;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -242,6 +299,42 @@ public class JitterBufferStats
         return nbAdd;
     }
 
+    /**
+     * Gets the number of lost RTP packets which have been recovered by
+     * forward error correction (FEC) before they reached the associated
+     * queue.
+     *
+     * @return the number of lost RTP packets which have been recovered by FEC
+     */
+    public int getNbFECRecovered()
+    {
+        return nbFECRecovered;
+    }
+
+    /**
+     * Gets the number of times that the associated queue has requested a key
+     * frame after it discarded an incomplete video frame.
+     *
+     * @return the number of times that the associated queue has requested a
+     * key frame after it discarded an incomplete video frame
+     */
+    public int getNbKeyFrameRequest()
+    {
+        return nbKeyFrameRequest;
+    }
+
+    /**
+     * Gets the number of lost RTP packets that the associated queue has
+     * reported in RTCP generic NACKs so that they may be retransmitted.
+     *
+     * @return the number of lost RTP packets that the associated queue has
+     * reported in RTCP generic NACKs
+     */
+    public int getNbNACKedPacket()
+    {
+        return nbNACKedPacket;
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -264,6 +357,19 @@ public class JitterBufferStats
         return sizePerPacket;
     }
 
+    /**
+     * Gets the delay in milliseconds which the associated queue is currently
+     * adapting to. Delegates to the <tt>JitterBufferBehaviour</tt> of the
+     * <tt>RTPSourceStream</tt>.
+     *
+     * @return the delay in milliseconds which the associated queue is
+     * currently adapting to
+     */
+    public int getTargetDelayMs()
+    {
+        return stream.getBehaviour().getTargetDelay();
+    }
+
     /**
      * Increments the number of RTP packets that the associated queue has
      * discarded because it was full.
@@ -274,6 +380,17 @@ public class JitterBufferStats
         incrementRTPStatsPDUDrop();
     }
 
+    /**
+     * Increments the number of RTP packets that the associated queue has
+     * discarded because it already contained packets with the same sequence
+     * numbers.
+     */
+    void incrementDiscardedDuplicate()
+    {
+        discardedDuplicate++;
+        incrementRTPStatsPDUDrop();
+    }
+
     /**
      * Increments the number of RTP packets that the associated queue has
      * discarded because they arrived too late to be added to the queue. If the
@@ -286,6 +403,17 @@ public class JitterBufferStats
         incrementRTPStatsPDUDrop();
     }
 
+    /**
+     * Increments the number of RTP packets that the associated queue has
+     * discarded because they belonged to a video frame which could not be
+     * completed in time.
+     */
+    void incrementDiscardedIncompleteFrame()
+    {
+        discardedIncompleteFrame++;
+        incrementRTPStatsPDUDrop();
+    }
+
     /**
      * Increments the number of RTP packets that the associated queue has
      * discarded due to resetting.
@@ -324,11 +452,32 @@ public class JitterBufferStats
         nbAdd++;
     }
 
+    void incrementNbFECRecovered()
+    {
+        nbFECRecovered++;
+    }
+
     void incrementNbGrow()
     {
         nbGrow++;
     }
 
+    void incrementNbKeyFrameRequest()
+    {
+        nbKeyFrameRequest++;
+    }
+
+    /**
+     * Increases the number of lost RTP packets that the associated queue has
+     * reported in RTCP generic NACKs by a specific number.
+     *
+     * @param count the number of lost RTP packets just reported
+     */
+    void incrementNbNACKedPacket(int count)
+    {
+        nbNACKedPacket += count;
+    }
+
     void incrementNbReset()
     {
         nbReset++;
@@ -417,11 +566,18 @@ public class JitterBufferStats
         Log.info(cn + "Times reset() called: " + nbReset);
         Log.info(cn + "Times grow() called: " + nbGrow);
         Log.info(cn + "Packets dropped because full: " + getDiscardedFull());
+        Log.info(cn + "Packets dropped because duplicate: " + getDiscardedDuplicate());
         Log.info(cn + "Packets dropped while shrinking: " + getDiscardedShrink());
         Log.info(cn + "Packets dropped because they were late: " + getDiscardedLate());
         Log.info(cn + "Packets dropped because they were late by more than MAX_SIZE: " + getDiscardedVeryLate());
         Log.info(cn + "Packets dropped in reset(): " + getDiscardedReset());
+        Log.info(cn + "Packets dropped because their frame was incomplete: " + getDiscardedIncompleteFrame());
+        Log.info(cn + "Key frames requested: " + getNbKeyFrameRequest());
+        Log.info(cn + "Lost packets NACKed: " + getNbNACKedPacket());
+        Log.info(cn + "Lost packets recovered by FEC: " + getNbFECRecovered());
         Log.info(cn + "Max size reached: " + getMaxSizeReached());
+        Log.info(cn + "Target delay (ms): " + getTargetDelayMs());
+        Log.info(cn + "Current delay (ms): " + getCurrentDelayMs());
         Log.info(cn + "Adaptive jitter buffer mode was " + (isAdaptiveBufferEnabled() ? "enabled" : "disabled"));
     }
 
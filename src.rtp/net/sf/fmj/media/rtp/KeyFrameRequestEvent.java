@@ -0,0 +1,35 @@
+package net.sf.fmj.media.rtp;
+
+import javax.media.rtp.*;
+import javax.media.rtp.event.*;
+
+/**
+ * Notifies <tt>ReceiveStreamListener</tt>s that the jitter buffer of a
+ * <tt>ReceiveStream</tt> has dropped an incomplete video frame and that the
+ * decoding cannot resume before a key frame is received. A listener may ask
+ * the sender for a key frame (e.g. by means of RTCP feedback or of the
+ * signalling).
+ */
+public class KeyFrameRequestEvent
+    extends ReceiveStreamEvent
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Initializes a new <tt>KeyFrameRequestEvent</tt> instance.
+     *
+     * @param from the <tt>SessionManager</tt> which is the source of the new
+     * instance
+     * @param participant the <tt>Participant</tt> which sends
+     * <tt>recvStream</tt>
+     * @param recvStream the <tt>ReceiveStream</tt> which needs a key frame
+     */
+    @SuppressWarnings("deprecation")
+    public KeyFrameRequestEvent(
+            SessionManager from,
+            Participant participant,
+            ReceiveStream recvStream)
+    {
+        super(from, recvStream, participant);
+    }
+}
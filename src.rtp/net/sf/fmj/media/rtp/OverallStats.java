@@ -1,5 +1,7 @@
 package net.sf.fmj.media.rtp;
 
+import java.util.concurrent.atomic.*;
+
 import javax.media.rtp.*;
 
 public class OverallStats implements GlobalReceptionStats
@@ -19,6 +21,67 @@ public class OverallStats implements GlobalReceptionStats
     public static final int MALFORMEDSDES = 16;
     public static final int MALFORMEDBYE = 17;
     public static final int MALFORMEDSR = 18;
+
+    /**
+     * The result of the processing of an RTP packet which has not been
+     * dropped.
+     */
+    public static final int NOT_DROPPED = -1;
+
+    /**
+     * The reason for dropping an RTP packet with a payload type which is not
+     * supported (i.e. comfort noise and G.729).
+     */
+    public static final int DROPPED_UNSUPPORTED_PT = 0;
+
+    /**
+     * The reason for dropping an RTP packet which has not been received from
+     * the address the session is bound to.
+     */
+    public static final int DROPPED_BAD_ADDRESS = 1;
+
+    /**
+     * The reason for dropping an RTP packet for the SSRC of which no
+     * <tt>SSRCInfo</tt> could be obtained (e.g. because of a collision).
+     */
+    public static final int DROPPED_NO_SSRCINFO = 2;
+
+    /**
+     * The reason for dropping an RTP packet with a payload type for which no
+     * <tt>Format</tt> has been registered.
+     */
+    public static final int DROPPED_UNKNOWN_PT = 3;
+
+    private static final String[] DROP_REASON_NAMES
+        = {
+            "unsupported payload type",
+            "bad network address",
+            "no SSRC info",
+            "unknown payload type"
+        };
+
+    /**
+     * Gets a human-readable name of a specific reason for dropping RTP
+     * packets.
+     *
+     * @param dropReason one of the <tt>DROPPED_</tt> constants
+     * @return a human-readable name of <tt>dropReason</tt>
+     */
+    public static String getDropReasonName(int dropReason)
+    {
+        return
+            (dropReason >= 0 && dropReason < DROP_REASON_NAMES.length)
+                ? DROP_REASON_NAMES[dropReason]
+                : ("drop reason " + dropReason);
+    }
+
+    /**
+     * The number of RTP packets dropped for each of the <tt>DROPPED_</tt>
+     * reasons. Updated without synchronizing on this instance because it is
+     * done on the per-packet path.
+     */
+    private final AtomicIntegerArray numDropped
+        = new AtomicIntegerArray(DROP_REASON_NAMES.length);
     private int numPackets;
     private int numBytes;
     private int numBadRTPPkts;
@@ -69,6 +132,17 @@ public class OverallStats implements GlobalReceptionStats
         return numBytes;
     }
 
+    /**
+     * Gets the number of RTP packets dropped for a specific reason.
+     *
+     * @param dropReason one of the <tt>DROPPED_</tt> constants
+     * @return the number of RTP packets dropped for <tt>dropReason</tt>
+     */
+    public int getDropped(int dropReason)
+    {
+        return numDropped.get(dropReason);
+    }
+
     public int getLocalColls()
     {
         return numLocalColl;
@@ -142,9 +216,23 @@ public class OverallStats implements GlobalReceptionStats
                 + getUnknownTypes() + "\nMalformedRR " + getMalformedRR()
                 + "\nMalformedSDES " + getMalformedSDES() + "\nMalformedBye "
                 + getMalformedBye() + "\nMalformedSR " + getMalformedSR();
+        for (int i = 0; i < DROP_REASON_NAMES.length; i++)
+            s += "\nDropped (" + DROP_REASON_NAMES[i] + ") " + getDropped(i);
         return s;
     }
 
+    /**
+     * Counts an RTP packet as dropped for a specific reason.
+     *
+     * @param dropReason one of the <tt>DROPPED_</tt> constants
+     * @return the number of RTP packets dropped for <tt>dropReason</tt>
+     * including the one just counted
+     */
+    public int updateDropped(int dropReason)
+    {
+        return numDropped.incrementAndGet(dropReason);
+    }
+
     public synchronized void update(int which, int num)
     {
         switch (which)
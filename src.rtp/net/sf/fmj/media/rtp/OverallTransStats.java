@@ -1,5 +1,7 @@
 package net.sf.fmj.media.rtp;
 
+import java.util.*;
+
 import javax.media.rtp.*;
 
 public class OverallTransStats implements GlobalTransmissionStats
@@ -11,6 +13,14 @@ public class OverallTransStats implements GlobalTransmissionStats
     protected int remote_coll;
     protected int transmit_failed;
 
+    /**
+     * The numbers of datagrams which have failed to be sent to the targets of
+     * a fan-out, by target. The counters are arrays of a single element so
+     * that they may be incremented without boxing.
+     */
+    private final Map<SessionAddress, int[]> targetTransmitFailed
+        = new HashMap<SessionAddress, int[]>();
+
     public OverallTransStats()
     {
         rtp_sent = 0;
@@ -50,4 +60,48 @@ public class OverallTransStats implements GlobalTransmissionStats
     {
         return transmit_failed;
     }
+
+    /**
+     * Gets the number of datagrams which have failed to be sent to a specific
+     * target of a fan-out (i.e. of a session with multiple targets).
+     *
+     * @param target the target to get the number of failures of
+     * @return the number of datagrams which have failed to be sent to
+     * <tt>target</tt>
+     */
+    public synchronized int getTransmitFailed(SessionAddress target)
+    {
+        int[] failed = targetTransmitFailed.get(target);
+
+        return (failed == null) ? 0 : failed[0];
+    }
+
+    /**
+     * Gets the targets of a fan-out (i.e. of a session with multiple
+     * targets) to which datagrams have failed to be sent.
+     *
+     * @return the targets to which datagrams have failed to be sent
+     */
+    public synchronized SessionAddress[] getTransmitFailedTargets()
+    {
+        return
+            targetTransmitFailed.keySet().toArray(
+                    new SessionAddress[targetTransmitFailed.size()]);
+    }
+
+    /**
+     * Records that a datagram has failed to be sent to a specific target of a
+     * fan-out. Also counts towards {@link #getTransmitFailed()}.
+     *
+     * @param target the target the datagram has failed to be sent to
+     */
+    synchronized void transmitFailed(SessionAddress target)
+    {
+        int[] failed = targetTransmitFailed.get(target);
+
+        if (failed == null)
+            targetTransmitFailed.put(target, failed = new int[1]);
+        failed[0]++;
+        transmit_failed++;
+    }
 }
@@ -0,0 +1,540 @@
+package net.sf.fmj.media.rtp;
+
+import java.util.concurrent.locks.*;
+
+import javax.media.*;
+
+import net.sf.fmj.media.*;
+import net.sf.fmj.media.rtp.util.*;
+
+/**
+ * Implements a pacing scheduler which releases the packets of the
+ * <tt>RTPSinkStream</tt>s of all sessions at their presentation times from a
+ * single thread instead of blocking the thread which pushes the data of each
+ * stream in <tt>Thread.sleep</tt>. The packets are queued per stream along
+ * with the times at which they are to be sent and every stream with queued
+ * packets sits in the slot of a hashed timing wheel driven by
+ * <tt>System.nanoTime</tt> which corresponds to the release time of its
+ * first packet.
+ * <p>
+ * At most {@link #burst} packets of a stream are sent per tick so that a
+ * large video frame, whose packets are pushed at once, is smoothed into
+ * evenly spaced bursts. The thread which pushes the data of a stream blocks
+ * while the queue of the stream is full. The difference between the time at
+ * which a packet with a presentation time is sent and its presentation time
+ * is recorded in the <tt>RTPTransStats</tt> of the stream.
+ * </p>
+ * <p>
+ * The scheduler is opt-in and is enabled by setting the
+ * <tt>rtp_pacer_ENABLE</tt> property of the <tt>Registry</tt> to
+ * <tt>true</tt>. The duration of a tick in microseconds is read from
+ * <tt>rtp_pacer_TICK</tt>, the maximum number of packets of a stream sent per
+ * tick from <tt>rtp_pacer_BURST</tt> and the capacity of the queue of a
+ * stream from <tt>rtp_pacer_QUEUE_SIZE</tt>.
+ * </p>
+ */
+class PacedSender
+{
+    /**
+     * Implements the queue of the packets of an <tt>RTPSinkStream</tt> which
+     * are waiting to be sent.
+     */
+    class Queue
+    {
+        /**
+         * The <tt>Buffer</tt>s of the ring of this queue. Their data arrays
+         * are reused.
+         */
+        private final Buffer[] buffers;
+
+        private boolean closed = false;
+
+        /**
+         * The number of packets in this queue.
+         */
+        private int count = 0;
+
+        /**
+         * The number of times this queue has been cleared. Tells whether the
+         * packet being sent is still at the head of this queue.
+         */
+        private int generation = 0;
+
+        /**
+         * The index in the ring of the first packet of this queue.
+         */
+        private int head = 0;
+
+        /**
+         * The next <tt>Queue</tt> in the same slot of the timing wheel.
+         */
+        private Queue nextInSlot;
+
+        /**
+         * The index in the ring of the packet being sent (outside the monitor
+         * of this queue) or <tt>-1</tt>. The slot is not reused until the
+         * packet has been sent, even if this queue is cleared in the meantime.
+         */
+        private int sending = -1;
+
+        /**
+         * The times in nanoseconds at which the packets in the ring are to be
+         * sent or <tt>-1</tt> for the ones to be sent as soon as possible.
+         */
+        private final long[] releaseTimes;
+
+        /**
+         * The number of full revolutions of the timing wheel this instance is
+         * to wait in its slot.
+         */
+        private int rounds;
+
+        private final RTPSinkStream sink;
+
+        /**
+         * Whether this instance is in the timing wheel. Guarded by the
+         * monitor of {@link PacedSender#wheel}.
+         */
+        private boolean timed = false;
+
+        private Queue(RTPSinkStream sink)
+        {
+            this.sink = sink;
+
+            buffers = new Buffer[queueSize];
+            for (int i = 0; i < buffers.length; i++)
+                buffers[i] = new Buffer();
+            releaseTimes = new long[queueSize];
+        }
+
+        /**
+         * Queues a copy of a specific <tt>Buffer</tt> to be sent at a specific
+         * time, blocking while this queue is full.
+         *
+         * @param buffer the <tt>Buffer</tt> to be sent
+         * @param releaseTime the time in nanoseconds (in the terms of
+         * <tt>System.nanoTime()</tt>) at which <tt>buffer</tt> is to be sent
+         * or <tt>-1</tt> to send it as soon as possible (after the packets
+         * queued before it)
+         * @throws InterruptedException if the current thread is interrupted
+         * while waiting for room in this queue
+         */
+        public void add(Buffer buffer, long releaseTime)
+            throws InterruptedException
+        {
+            Object data = buffer.getData();
+
+            if (!(data instanceof byte[]))
+                return;
+
+            boolean wasEmpty;
+
+            synchronized (this)
+            {
+                /*
+                 * The slot of a packet being sent may be next after the queue
+                 * has been cleared.
+                 */
+                while (!closed
+                        && ((count == buffers.length)
+                            || ((head + count) % buffers.length == sending)))
+                    wait();
+                if (closed)
+                    return;
+
+                int tail = (head + count) % buffers.length;
+                Buffer copy = buffers[tail];
+                Object copyData = copy.getData();
+                int end = buffer.getOffset() + buffer.getLength();
+                byte[] bytes;
+
+                if ((copyData instanceof byte[])
+                        && (((byte[]) copyData).length >= end))
+                    bytes = (byte[]) copyData;
+                else
+                    bytes = new byte[end];
+                /*
+                 * The payload keeps its offset so that the headroom which may
+                 * precede it is preserved.
+                 */
+                System.arraycopy(
+                        data, buffer.getOffset(),
+                        bytes, buffer.getOffset(),
+                        buffer.getLength());
+                copy.setData(bytes);
+                copy.setOffset(buffer.getOffset());
+                copy.setLength(buffer.getLength());
+                copy.setFormat(buffer.getFormat());
+                copy.setHeader(buffer.getHeader());
+                copy.setTimeStamp(buffer.getTimeStamp());
+                copy.setDuration(buffer.getDuration());
+                copy.setSequenceNumber(buffer.getSequenceNumber());
+                copy.setFlags(buffer.getFlags());
+                releaseTimes[tail] = releaseTime;
+
+                wasEmpty = (count == 0);
+                count++;
+            }
+            if (wasEmpty)
+                schedule(this, releaseTime);
+        }
+
+        /**
+         * Drops the queued packets and releases the thread waiting for room in
+         * this queue. A packet being sent is left to complete and its slot is
+         * skipped so that the packets added next do not overwrite it.
+         */
+        public synchronized void clear()
+        {
+            if (sending == head)
+                head = (head + 1) % buffers.length;
+            count = 0;
+            generation++;
+            notifyAll();
+        }
+
+        /**
+         * Drops the queued packets and stops accepting new ones.
+         */
+        public synchronized void close()
+        {
+            closed = true;
+            clear();
+        }
+
+        /**
+         * Sends the packets of this queue which are due at a specific time, at
+         * most {@link PacedSender#burst} of them.
+         *
+         * @param now the current time in nanoseconds
+         * @return the release time of the first packet left in this queue
+         * (<tt>-1</tt> if it is to be sent as soon as possible) or
+         * {@link Long#MIN_VALUE} if this queue is empty
+         */
+        private long service(long now)
+        {
+            for (int sent = 0; sent < burst; sent++)
+            {
+                Buffer buffer;
+                int generation;
+                long releaseTime;
+
+                synchronized (this)
+                {
+                    if (count == 0)
+                        return Long.MIN_VALUE;
+                    releaseTime = releaseTimes[head];
+                    if ((releaseTime != -1)
+                            && (releaseTime - now > tickNanos / 2))
+                        return releaseTime;
+                    buffer = buffers[head];
+                    generation = this.generation;
+                    sending = head;
+                }
+
+                try
+                {
+                    sink.transmit(buffer);
+                    if (releaseTime != -1)
+                    {
+                        sink.recordPacingError(
+                                System.nanoTime() - releaseTime);
+                    }
+                }
+                catch (RuntimeException re)
+                {
+                    /*
+                     * The thread is shared by many streams so one misbehaving
+                     * stream must not bring the rest down.
+                     */
+                    Log.dumpStack(re);
+                }
+
+                synchronized (this)
+                {
+                    sending = -1;
+                    /*
+                     * The queue may have been cleared while the packet was
+                     * being sent in which case its slot has been skipped
+                     * already.
+                     */
+                    if (generation == this.generation)
+                    {
+                        head = (head + 1) % buffers.length;
+                        count--;
+                    }
+                    notifyAll();
+                }
+            }
+
+            synchronized (this)
+            {
+                return (count == 0) ? Long.MIN_VALUE : releaseTimes[head];
+            }
+        }
+    }
+
+    /**
+     * Advances the timing wheel and services the queues whose release times
+     * have come.
+     */
+    private class Timer
+        implements Runnable
+    {
+        public void run()
+        {
+            Log.logMediaStackObjectStarted(this);
+            try
+            {
+                while (true)
+                {
+                    long tickTime;
+                    Queue expired = null;
+
+                    synchronized (wheel)
+                    {
+                        while (timeouts == 0)
+                            wheel.wait();
+                        tickTime = cursorTime + tickNanos;
+                    }
+
+                    long wait;
+
+                    while ((wait = tickTime - System.nanoTime()) > 0)
+                        LockSupport.parkNanos(wait);
+
+                    synchronized (wheel)
+                    {
+                        cursor = (cursor + 1) & (wheel.length - 1);
+                        cursorTime = tickTime;
+
+                        Queue prev = null;
+                        Queue q = wheel[cursor];
+
+                        while (q != null)
+                        {
+                            Queue nextInSlot = q.nextInSlot;
+
+                            if (q.rounds == 0)
+                            {
+                                if (prev == null)
+                                    wheel[cursor] = nextInSlot;
+                                else
+                                    prev.nextInSlot = nextInSlot;
+                                q.nextInSlot = expired;
+                                q.timed = false;
+                                expired = q;
+                                timeouts--;
+                            }
+                            else
+                            {
+                                q.rounds--;
+                                prev = q;
+                            }
+                            q = nextInSlot;
+                        }
+                    }
+
+                    long now = System.nanoTime();
+
+                    while (expired != null)
+                    {
+                        Queue q = expired;
+
+                        expired = q.nextInSlot;
+                        q.nextInSlot = null;
+
+                        long releaseTime = q.service(now);
+
+                        if (releaseTime != Long.MIN_VALUE)
+                        {
+                            /*
+                             * Either the first packet is not due yet or the
+                             * burst has been used up in which case the rest
+                             * are sent after the next tick at the earliest.
+                             */
+                            schedule(
+                                    q,
+                                    (releaseTime == -1)
+                                        ? now
+                                        : Math.max(releaseTime, now));
+                        }
+                    }
+                }
+            }
+            catch (InterruptedException ie)
+            {
+                Log.error("RTP pacer interrupted: " + ie);
+            }
+            finally
+            {
+                Log.logMediaStackObjectStopped(this);
+            }
+        }
+    }
+
+    /**
+     * The default maximum number of packets of a stream sent per tick.
+     */
+    static final int DEFAULT_BURST = 4;
+
+    /**
+     * The default capacity of the queue of a stream.
+     */
+    static final int DEFAULT_QUEUE_SIZE = 64;
+
+    /**
+     * The default duration of a tick in microseconds.
+     */
+    static final int DEFAULT_TICK = 1000;
+
+    private static PacedSender instance;
+
+    /**
+     * The number of slots of the timing wheel. Must be a power of 2.
+     */
+    private static final int WHEEL_SIZE = 512;
+
+    /**
+     * Gets the <tt>PacedSender</tt> shared by all sessions in the JVM,
+     * starting its thread if necessary.
+     *
+     * @return the <tt>PacedSender</tt> shared by all sessions
+     */
+    public static synchronized PacedSender getInstance()
+    {
+        if (instance == null)
+        {
+            int tick
+                = com.sun.media.util.Registry.getInt(
+                        "rtp_pacer_TICK",
+                        DEFAULT_TICK);
+            int burst
+                = com.sun.media.util.Registry.getInt(
+                        "rtp_pacer_BURST",
+                        DEFAULT_BURST);
+            int queueSize
+                = com.sun.media.util.Registry.getInt(
+                        "rtp_pacer_QUEUE_SIZE",
+                        DEFAULT_QUEUE_SIZE);
+
+            instance = new PacedSender(tick, burst, queueSize);
+        }
+        return instance;
+    }
+
+    /**
+     * Determines whether <tt>RTPSinkStream</tt>s are to queue their packets
+     * to the shared pacing scheduler instead of sleeping until their
+     * presentation times.
+     *
+     * @return <tt>true</tt> if the pacing scheduler is enabled; otherwise,
+     * <tt>false</tt>
+     */
+    public static boolean isEnabled()
+    {
+        return
+            com.sun.media.util.Registry.getBoolean("rtp_pacer_ENABLE", false);
+    }
+
+    /**
+     * The maximum number of packets of a stream sent per tick.
+     */
+    private final int burst;
+
+    /**
+     * The index of the slot of the timing wheel which has expired last.
+     */
+    private int cursor = 0;
+
+    /**
+     * The time in nanoseconds at which the slot {@link #cursor} has expired.
+     */
+    private long cursorTime = System.nanoTime();
+
+    /**
+     * The capacity of the queue of a stream.
+     */
+    private final int queueSize;
+
+    /**
+     * The duration of a tick in nanoseconds.
+     */
+    private final long tickNanos;
+
+    /**
+     * The number of <tt>Queue</tt>s in the timing wheel.
+     */
+    private int timeouts = 0;
+
+    /**
+     * The slots of the timing wheel, each one the head of a list of
+     * <tt>Queue</tt>s linked through their <tt>nextInSlot</tt>.
+     */
+    private final Queue[] wheel = new Queue[WHEEL_SIZE];
+
+    private PacedSender(int tick, int burst, int queueSize)
+    {
+        tickNanos = 1000L * ((tick < 1) ? DEFAULT_TICK : tick);
+        this.burst = (burst < 1) ? DEFAULT_BURST : burst;
+        this.queueSize = (queueSize < 2) ? DEFAULT_QUEUE_SIZE : queueSize;
+
+        RTPMediaThread timer
+            = new RTPMediaThread(new Timer(), "RTP Pacer");
+
+        timer.useNetworkPriority();
+        timer.setDaemon(true);
+        timer.start();
+    }
+
+    /**
+     * Initializes a new queue for the packets of a specific
+     * <tt>RTPSinkStream</tt>.
+     *
+     * @param sink the <tt>RTPSinkStream</tt> whose packets are to be paced
+     * @return the new <tt>Queue</tt>
+     */
+    public Queue createQueue(RTPSinkStream sink)
+    {
+        return new Queue(sink);
+    }
+
+    /**
+     * Adds a specific <tt>Queue</tt> to the timing wheel (unless it is there
+     * already) in the slot which corresponds to a specific time.
+     *
+     * @param q the <tt>Queue</tt> to add to the timing wheel
+     * @param releaseTime the time in nanoseconds at which <tt>q</tt> is to be
+     * serviced or <tt>-1</tt> to service it at the next tick
+     */
+    private void schedule(Queue q, long releaseTime)
+    {
+        synchronized (wheel)
+        {
+            if (q.timed)
+                return;
+            if (timeouts == 0)
+            {
+                // The timing wheel has been idle so restart it from now.
+                cursorTime = System.nanoTime();
+            }
+
+            long ticks
+                = (releaseTime == -1)
+                    ? 1
+                    : (releaseTime - cursorTime + tickNanos / 2) / tickNanos;
+
+            if (ticks < 1)
+                ticks = 1;
+
+            int slot = (int) ((cursor + ticks) & (wheel.length - 1));
+
+            q.rounds = (int) ((ticks - 1) / wheel.length);
+            q.nextInSlot = wheel[slot];
+            q.timed = true;
+            wheel[slot] = q;
+            if (timeouts++ == 0)
+                wheel.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,560 @@
+package net.sf.fmj.media.rtp;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import net.sf.fmj.media.*;
+import net.sf.fmj.media.rtp.util.*;
+
+/**
+ * Implements a playout scheduler which serves the <tt>RTPSourceStream</tt>s of
+ * all sessions with a small, fixed pool of threads instead of a dedicated
+ * <tt>RTPMediaThread</tt> per stream. A stream is dispatched (i.e. its ready
+ * packets are transferred to its <tt>BufferTransferHandler</tt>) on one of
+ * the worker threads whenever its jitter buffer signals that it may be read
+ * from. A stream which still holds packets its jitter buffer is not ready to
+ * release yet (e.g. an incomplete frame or a buffer being replenished) is
+ * re-examined after a tick of a hashed timing wheel shared by all streams.
+ * <p>
+ * A stream is dispatched by at most one worker thread at a time so that its
+ * packets are transferred in order.
+ * </p>
+ * <p>
+ * The worker threads are shared by all streams so the
+ * <tt>BufferTransferHandler</tt>s of the streams are expected not to block in
+ * <tt>transferData</tt>. A stream whose transfer handler nevertheless keeps a
+ * worker thread for longer than a timeout is considered blocked: a
+ * replacement worker thread is started so that the other streams continue to
+ * be served and, once its transfer returns, the blocked stream gives up the
+ * scheduler for a dedicated thread of its own and the worker thread it held
+ * terminates.
+ * </p>
+ * <p>
+ * The scheduler is opt-in and is enabled by setting the
+ * <tt>rtp_playout_scheduler_ENABLE</tt> property of the <tt>Registry</tt> to
+ * <tt>true</tt>. The number of worker threads is read from
+ * <tt>rtp_playout_scheduler_THREADS</tt> and defaults to the number of
+ * available processors. The duration of a tick of the timing wheel in
+ * milliseconds is read from <tt>rtp_playout_scheduler_TICK</tt> and defaults
+ * to {@link #DEFAULT_TICK}. The duration in milliseconds after which a
+ * transfer is considered blocked is read from
+ * <tt>rtp_playout_scheduler_BLOCK_TIMEOUT</tt> and defaults to
+ * {@link #DEFAULT_BLOCK_TIMEOUT}.
+ * </p>
+ */
+class PlayoutScheduler
+{
+    /**
+     * Implements the association of an <tt>RTPSourceStream</tt> with the
+     * scheduler.
+     */
+    class Registration
+    {
+        /**
+         * Whether the transfer of the associated stream has been found to
+         * take longer than {@link #blockTimeout}.
+         */
+        private boolean blocked = false;
+
+        private boolean closed = false;
+
+        /**
+         * The time in nanoseconds at which the dispatch in progress started.
+         */
+        private long dispatchStart;
+
+        /**
+         * The next <tt>Registration</tt> in the same slot of the timing wheel.
+         */
+        private Registration nextInSlot;
+
+        /**
+         * Whether this instance is in the queue of the streams ready to be
+         * dispatched.
+         */
+        private boolean queued = false;
+
+        /**
+         * Whether this instance is to be dispatched again because it has been
+         * scheduled while being dispatched.
+         */
+        private boolean rerun = false;
+
+        /**
+         * The number of full revolutions of the timing wheel this instance is
+         * to wait in its slot.
+         */
+        private int rounds;
+
+        /**
+         * Whether this instance is being dispatched by a worker thread.
+         */
+        private boolean running = false;
+
+        private final RTPSourceStream stream;
+
+        /**
+         * Whether this instance is in the timing wheel.
+         */
+        private boolean timed = false;
+
+        private Registration(RTPSourceStream stream)
+        {
+            this.stream = stream;
+        }
+
+        /**
+         * Unregisters this instance from the scheduler. The stream is not
+         * dispatched afterwards though a dispatch in progress is completed.
+         */
+        public synchronized void close()
+        {
+            closed = true;
+        }
+
+        /**
+         * Dispatches the associated stream on the current (worker) thread and
+         * schedules it again according to the outcome.
+         *
+         * @return <tt>true</tt> if the transfer has blocked and a replacement
+         * of the current worker thread has been started; otherwise,
+         * <tt>false</tt>
+         */
+        private boolean dispatch()
+        {
+            synchronized (this)
+            {
+                queued = false;
+                if (closed)
+                    return false;
+                running = true;
+                rerun = false;
+                dispatchStart = System.nanoTime();
+            }
+
+            int playout = RTPSourceStream.PLAYOUT_IDLE;
+
+            try
+            {
+                playout = stream.playout();
+            }
+            catch (RuntimeException re)
+            {
+                /*
+                 * The worker thread is shared by many streams so one
+                 * misbehaving transfer handler must not bring the rest down.
+                 */
+                Log.dumpStack(re);
+            }
+
+            synchronized (this)
+            {
+                running = false;
+                if (blocked)
+                    closed = true;
+                else if (closed)
+                    return false;
+            }
+            if (blocked)
+            {
+                stream.playoutBlocked(this);
+                return true;
+            }
+            synchronized (this)
+            {
+                if (closed)
+                    return false;
+                if (rerun || (playout == RTPSourceStream.PLAYOUT_READY))
+                {
+                    queued = true;
+                    ready.add(this);
+                }
+                else if ((playout == RTPSourceStream.PLAYOUT_POLL) && !timed)
+                {
+                    timed = true;
+                    addTimeout(this, tick);
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Determines whether the dispatch of the associated stream in progress
+         * has taken longer than {@link #blockTimeout} and, if so, marks it
+         * blocked.
+         *
+         * @param now the current time in nanoseconds
+         * @return <tt>true</tt> if the dispatch has been marked blocked by
+         * this invocation; otherwise, <tt>false</tt>
+         */
+        private synchronized boolean markBlocked(long now)
+        {
+            if (!running
+                    || blocked
+                    || (now - dispatchStart < blockTimeout * 1000000L))
+                return false;
+            blocked = true;
+            return true;
+        }
+
+        /**
+         * Schedules the associated stream to be dispatched as soon as possible
+         * because its jitter buffer may have become ready to be read from.
+         */
+        public synchronized void schedule()
+        {
+            if (closed)
+                return;
+            if (running)
+                rerun = true;
+            else if (!queued)
+            {
+                queued = true;
+                ready.add(this);
+            }
+        }
+    }
+
+    /**
+     * Advances the timing wheel and schedules the streams whose timeouts have
+     * expired.
+     */
+    private class Timer
+        implements Runnable
+    {
+        public void run()
+        {
+            Log.logMediaStackObjectStarted(this);
+            try
+            {
+                long next = System.nanoTime();
+
+                while (true)
+                {
+                    checkBlockedWorkers();
+
+                    Registration expired = null;
+
+                    synchronized (wheel)
+                    {
+                        if (timeouts == 0)
+                        {
+                            /*
+                             * Wake up now and then to check for blocked
+                             * worker threads.
+                             */
+                            wheel.wait(blockTimeout);
+                            next = System.nanoTime();
+                            continue;
+                        }
+
+                        next += tick * 1000000L;
+
+                        long wait;
+
+                        while ((wait = (next - System.nanoTime()) / 1000000L)
+                                > 0)
+                            wheel.wait(wait);
+
+                        cursor = (cursor + 1) & (wheel.length - 1);
+
+                        Registration prev = null;
+                        Registration r = wheel[cursor];
+
+                        while (r != null)
+                        {
+                            Registration nextInSlot = r.nextInSlot;
+
+                            if (r.rounds == 0)
+                            {
+                                if (prev == null)
+                                    wheel[cursor] = nextInSlot;
+                                else
+                                    prev.nextInSlot = nextInSlot;
+                                r.nextInSlot = expired;
+                                expired = r;
+                                timeouts--;
+                            }
+                            else
+                            {
+                                r.rounds--;
+                                prev = r;
+                            }
+                            r = nextInSlot;
+                        }
+                    }
+
+                    while (expired != null)
+                    {
+                        Registration r = expired;
+
+                        expired = r.nextInSlot;
+                        r.nextInSlot = null;
+                        synchronized (r)
+                        {
+                            r.timed = false;
+                        }
+                        r.schedule();
+                    }
+                }
+            }
+            catch (InterruptedException ie)
+            {
+                Log.error("RTP playout scheduler timer interrupted: " + ie);
+            }
+            finally
+            {
+                Log.logMediaStackObjectStopped(this);
+            }
+        }
+    }
+
+    /**
+     * Implements a worker thread of the pool of the scheduler.
+     */
+    private class Worker
+        implements Runnable
+    {
+        /**
+         * The <tt>Registration</tt> being dispatched by this worker thread or
+         * <tt>null</tt>.
+         */
+        private volatile Registration dispatching;
+
+        public void run()
+        {
+            Log.logMediaStackObjectStarted(this);
+            try
+            {
+                boolean blocked = false;
+
+                while (!blocked)
+                {
+                    Registration r = ready.take();
+
+                    dispatching = r;
+                    try
+                    {
+                        blocked = r.dispatch();
+                    }
+                    finally
+                    {
+                        dispatching = null;
+                    }
+                }
+            }
+            catch (InterruptedException ie)
+            {
+                Log.error("RTP playout scheduler worker interrupted: " + ie);
+            }
+            finally
+            {
+                workers.remove(this);
+                Log.logMediaStackObjectStopped(this);
+            }
+        }
+    }
+
+    /**
+     * The default duration in milliseconds after which a transfer is
+     * considered blocked.
+     */
+    static final int DEFAULT_BLOCK_TIMEOUT = 200;
+
+    /**
+     * The default duration in milliseconds of a tick of the timing wheel.
+     */
+    static final int DEFAULT_TICK = 10;
+
+    private static PlayoutScheduler instance;
+
+    /**
+     * The number of slots of the timing wheel. Must be a power of 2.
+     */
+    private static final int WHEEL_SIZE = 64;
+
+    /**
+     * Gets the <tt>PlayoutScheduler</tt> shared by all sessions in the JVM,
+     * starting its threads if necessary.
+     *
+     * @return the <tt>PlayoutScheduler</tt> shared by all sessions
+     */
+    public static synchronized PlayoutScheduler getInstance()
+    {
+        if (instance == null)
+        {
+            int threads
+                = com.sun.media.util.Registry.getInt(
+                        "rtp_playout_scheduler_THREADS",
+                        Runtime.getRuntime().availableProcessors());
+            int tick
+                = com.sun.media.util.Registry.getInt(
+                        "rtp_playout_scheduler_TICK",
+                        DEFAULT_TICK);
+            int blockTimeout
+                = com.sun.media.util.Registry.getInt(
+                        "rtp_playout_scheduler_BLOCK_TIMEOUT",
+                        DEFAULT_BLOCK_TIMEOUT);
+
+            instance = new PlayoutScheduler(threads, tick, blockTimeout);
+        }
+        return instance;
+    }
+
+    /**
+     * Determines whether <tt>RTPSourceStream</tt>s are to register with the
+     * shared playout scheduler instead of starting threads of their own.
+     *
+     * @return <tt>true</tt> if the playout scheduler is enabled; otherwise,
+     * <tt>false</tt>
+     */
+    public static boolean isEnabled()
+    {
+        return
+            com.sun.media.util.Registry.getBoolean(
+                    "rtp_playout_scheduler_ENABLE",
+                    false);
+    }
+
+    /**
+     * The duration in milliseconds after which a transfer is considered
+     * blocked.
+     */
+    private final int blockTimeout;
+
+    /**
+     * The index of the slot of the timing wheel which has expired last.
+     */
+    private int cursor = 0;
+
+    /**
+     * The streams ready to be dispatched.
+     */
+    private final BlockingQueue<Registration> ready
+        = new LinkedBlockingQueue<Registration>();
+
+    /**
+     * The duration in milliseconds of a tick of the timing wheel.
+     */
+    private final int tick;
+
+    /**
+     * The number of <tt>Registration</tt>s in the timing wheel.
+     */
+    private int timeouts = 0;
+
+    /**
+     * The slots of the timing wheel, each one the head of a list of
+     * <tt>Registration</tt>s linked through their <tt>nextInSlot</tt>.
+     */
+    private final Registration[] wheel = new Registration[WHEEL_SIZE];
+
+    /**
+     * The number of worker threads started so far, used to name them.
+     */
+    private int workerCount = 0;
+
+    /**
+     * The worker threads of the pool.
+     */
+    private final List<Worker> workers = new CopyOnWriteArrayList<Worker>();
+
+    private PlayoutScheduler(int threads, int tick, int blockTimeout)
+    {
+        if (threads < 1)
+            threads = 1;
+        this.tick = (tick < 1) ? DEFAULT_TICK : tick;
+        this.blockTimeout
+            = (blockTimeout < 1) ? DEFAULT_BLOCK_TIMEOUT : blockTimeout;
+
+        RTPMediaThread timer
+            = new RTPMediaThread(new Timer(), "RTP Playout Scheduler Timer");
+
+        timer.useControlPriority();
+        timer.setDaemon(true);
+        timer.start();
+        for (int i = 0; i < threads; i++)
+            startWorker();
+    }
+
+    /**
+     * Adds a specific <tt>Registration</tt> to the timing wheel so that it is
+     * scheduled after a specific delay.
+     *
+     * @param r the <tt>Registration</tt> to add to the timing wheel
+     * @param delay the delay in milliseconds (rounded up to whole ticks)
+     */
+    private void addTimeout(Registration r, long delay)
+    {
+        int ticks = (int) Math.max(1, (delay + tick - 1) / tick);
+
+        synchronized (wheel)
+        {
+            int slot = (cursor + ticks) & (wheel.length - 1);
+
+            r.rounds = (ticks - 1) / wheel.length;
+            r.nextInSlot = wheel[slot];
+            wheel[slot] = r;
+            if (timeouts++ == 0)
+                wheel.notifyAll();
+        }
+    }
+
+    /**
+     * Starts a replacement worker thread for each worker thread which has
+     * been dispatching a stream for longer than {@link #blockTimeout}.
+     */
+    private void checkBlockedWorkers()
+    {
+        long now = System.nanoTime();
+
+        for (Worker worker : workers)
+        {
+            Registration r = worker.dispatching;
+
+            if ((r != null) && r.markBlocked(now))
+            {
+                Log.warning(
+                        "RTP playout scheduler worker blocked for more than "
+                            + blockTimeout + " ms by " + r.stream);
+                startWorker();
+            }
+        }
+    }
+
+    /**
+     * Registers a specific <tt>RTPSourceStream</tt> with this scheduler.
+     *
+     * @param stream the <tt>RTPSourceStream</tt> to register
+     * @return the <tt>Registration</tt> which represents the association
+     */
+    public Registration register(RTPSourceStream stream)
+    {
+        Registration r = new Registration(stream);
+
+        r.schedule();
+        return r;
+    }
+
+    /**
+     * Starts a new worker thread of the pool.
+     */
+    private void startWorker()
+    {
+        Worker worker = new Worker();
+        int index;
+
+        synchronized (workers)
+        {
+            index = workerCount++;
+        }
+
+        RTPMediaThread thread
+            = new RTPMediaThread(worker, "RTP Playout Scheduler " + index);
+
+        workers.add(worker);
+        thread.useControlPriority();
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
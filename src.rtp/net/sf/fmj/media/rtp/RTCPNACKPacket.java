@@ -0,0 +1,152 @@
+package net.sf.fmj.media.rtp;
+
+import java.io.*;
+
+/**
+ * Represents an RTCP transport-layer feedback message of type generic NACK as
+ * defined by RFC 4585. It reports the RTP packets of a media source which the
+ * sender of the feedback has not received. Each 32-bit entry of the feedback
+ * control information consists of the sequence number of a lost packet (PID)
+ * and a bitmask (BLP) of the lost ones among the 16 packets which follow it.
+ */
+public class RTCPNACKPacket extends RTCPPacket
+{
+    /**
+     * The feedback message type of a generic NACK.
+     */
+    public static final int FMT = 1;
+
+    /**
+     * The number of sequence numbers (following the PID) that an entry
+     * covers with its BLP.
+     */
+    private static final int BLP_BITS = 16;
+
+    /**
+     * The feedback control information i.e. the PID/BLP entries, each packed
+     * into an <tt>int</tt> with the PID in the upper 16 bits.
+     */
+    int fci[];
+
+    /**
+     * The SSRC of the media source which the feedback is about.
+     */
+    int mediaSSRC;
+
+    /**
+     * The SSRC of the sender of the feedback.
+     */
+    int ssrc;
+
+    /**
+     * Initializes a new <tt>RTCPNACKPacket</tt> which reports specific lost
+     * RTP packets.
+     *
+     * @param ssrc the SSRC of the sender of the feedback
+     * @param mediaSSRC the SSRC of the media source which the feedback is
+     * about
+     * @param seqs the (16-bit RTP) sequence numbers of the lost packets in
+     * ascending order (modulo 2^16)
+     * @param count the number of valid elements of <tt>seqs</tt>
+     */
+    public RTCPNACKPacket(int ssrc, int mediaSSRC, long seqs[], int count)
+    {
+        if (count < 1 || count > seqs.length)
+            throw new IllegalArgumentException("Bad count");
+
+        int fci[] = new int[count];
+        int length = 0;
+        int pid = 0;
+
+        for (int i = 0; i < count; i++)
+        {
+            int seq = (int) (seqs[i] & 0xffff);
+            int distance = (seq - pid) & 0xffff;
+
+            if (length > 0 && distance >= 1 && distance <= BLP_BITS)
+                fci[length - 1] |= 1 << (distance - 1);
+            else
+            {
+                pid = seq;
+                fci[length++] = pid << 16;
+            }
+        }
+
+        this.ssrc = ssrc;
+        this.mediaSSRC = mediaSSRC;
+        this.fci = new int[length];
+        System.arraycopy(fci, 0, this.fci, 0, length);
+        super.type = RTPFB;
+        super.received = false;
+    }
+
+    public RTCPNACKPacket(RTCPPacket parent)
+    {
+        super(parent);
+        super.type = RTPFB;
+    }
+
+    @Override
+    public void assemble(DataOutputStream out) throws IOException
+    {
+        out.writeByte(128 + FMT);
+        out.writeByte(RTPFB);
+        out.writeShort(2 + fci.length);
+        out.writeInt(ssrc);
+        out.writeInt(mediaSSRC);
+        for (int i = 0; i < fci.length; i++)
+            out.writeInt(fci[i]);
+    }
+
+    @Override
+    public int calcLength()
+    {
+        return 12 + (fci.length << 2);
+    }
+
+    /**
+     * Gets the (16-bit RTP) sequence numbers of the packets reported lost by
+     * this <tt>RTCPNACKPacket</tt>.
+     *
+     * @return the sequence numbers of the packets reported lost by this
+     * <tt>RTCPNACKPacket</tt>
+     */
+    public int[] getLostSequenceNumbers()
+    {
+        int count = 0;
+
+        for (int i = 0; i < fci.length; i++)
+            count += 1 + Integer.bitCount(fci[i] & 0xffff);
+
+        int seqs[] = new int[count];
+        int j = 0;
+
+        for (int i = 0; i < fci.length; i++)
+        {
+            int pid = fci[i] >>> 16;
+
+            seqs[j++] = pid;
+            for (int bit = 0; bit < BLP_BITS; bit++)
+                if ((fci[i] & (1 << bit)) != 0)
+                    seqs[j++] = (pid + bit + 1) & 0xffff;
+        }
+        return seqs;
+    }
+
+    /**
+     * Gets the SSRC of the media source which the feedback is about.
+     *
+     * @return the SSRC of the media source which the feedback is about
+     */
+    public int getMediaSSRC()
+    {
+        return mediaSSRC;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "\tRTCP NACK Packet from SSRC " + ssrc + " about SSRC "
+                + mediaSSRC + " with " + fci.length + " PID/BLP entries\n";
+    }
+}
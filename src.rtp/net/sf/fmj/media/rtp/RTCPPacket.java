@@ -13,6 +13,7 @@ public abstract class RTCPPacket extends Packet
     public static final int SDES = 202;
     public static final int BYE = 203;
     public static final int APP = 204;
+    public static final int RTPFB = 205;
     public static final int COMPOUND = -1;
 
     public RTCPPacket()
@@ -31,6 +32,13 @@ public abstract class RTCPPacket extends Packet
         base = parent.base;
     }
 
+    @Override
+    public void release()
+    {
+        if (base != null)
+            base.release();
+    }
+
     /**
      * Serializes/writes the binary representation of this <tt>RTCPPacket</tt>
      * into a specific <tt>DataOutputStream</tt>.
@@ -10,6 +10,13 @@ import java.util.*;
  */
 public class RTCPPacketParser
 {
+    /**
+     * The indicator which determines whether generic NACK feedback messages
+     * are parsed by this instance rather than left to an extended parser.
+     */
+    private final boolean nackEnabled
+        = com.sun.media.util.Registry.getBoolean("rtcp_NACK_ENABLE", false);
+
     private List<RTCPPacketParserListener> listeners = new ArrayList<RTCPPacketParserListener>();
 
     public void addRTCPPacketParserListener(RTCPPacketParserListener listener)
@@ -326,17 +333,45 @@ chunk  |                          SSRC/CSRC_2                          |
                         in.readFully(appp.data);
                         in.skip(inlength - 12 - appp.data.length);
                         break;
-                    default:
 
-                        // Give a chance to an extended parser to parse the packet.
-                        p = parse(base, firstbyte, type, length, in);
-
-                        if (p == null)
+                    case RTCPPacket.RTPFB:
+/*
+    0                   1                   2                   3
+    0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+   |V=2|P|   FMT   |  PT=RTPFB=205 |             length            |
+   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+   |                  SSRC of packet sender                        |
+   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+   |                  SSRC of media source                         |
+   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+   |            PID                |             BLP               |
+   +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ */
+                        if (nackEnabled && (firstbyte == RTCPNACKPacket.FMT))
                         {
-                            onPayloadUknownType();
-                            throw new BadFormatException("p == null");
+                            if (inlength < 12)
+                                throw new BadFormatException("inlength < 12");
+                            RTCPNACKPacket nackp = new RTCPNACKPacket(base);
+                            p = nackp;
+                            nackp.ssrc = in.readInt();
+                            nackp.mediaSSRC = in.readInt();
+                            nackp.fci = new int[(inlength - 12) >> 2];
+                            for (int i = 0; i < nackp.fci.length; i++)
+                                nackp.fci[i] = in.readInt();
+                            in.skip(inlength - 12 - (nackp.fci.length << 2));
+                        }
+                        else
+                        {
+                            // Leave the other feedback messages to an
+                            // extended parser.
+                            p = parseExtended(base, firstbyte, type, length, in);
                         }
                         break;
+
+                    default:
+                        p = parseExtended(base, firstbyte, type, length, in);
+                        break;
                 }
 
                 p.offset = offset;
@@ -357,6 +392,28 @@ chunk  |                          SSRC/CSRC_2                          |
         return base;
     }
 
+    /**
+     * Gives a chance to an extended parser to parse a packet of a type which
+     * is not parsed by this instance.
+     */
+    private RTCPPacket parseExtended(
+            RTCPCompoundPacket base,
+            int firstbyte,
+            int type,
+            int length,
+            DataInputStream in)
+            throws BadFormatException, IOException
+    {
+        RTCPPacket p = parse(base, firstbyte, type, length, in);
+
+        if (p == null)
+        {
+            onPayloadUknownType();
+            throw new BadFormatException("p == null");
+        }
+        return p;
+    }
+
     protected RTCPPacket parse(
             RTCPCompoundPacket base,
             int firstbyte,
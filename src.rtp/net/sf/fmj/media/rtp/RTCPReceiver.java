@@ -156,7 +156,8 @@ public class RTCPReceiver implements PacketConsumer
                 else
                     activereceivestreamevent = new ActiveReceiveStreamEvent(
                             cache.sm, ssrcinfo.sourceInfo, null);
-                cache.eventhandler.postEvent(activereceivestreamevent);
+                cache.eventhandler.postEvent(
+                        activereceivestreamevent, ssrcinfo.ssrc);
             }
             ssrcinfo.lastSRpacketcount = rtcpsrpacket.packetcount;
             ssrcinfo.lastSRoctetcount = rtcpsrpacket.octetcount;
@@ -181,7 +182,8 @@ public class RTCPReceiver implements PacketConsumer
             {
                 NewParticipantEvent newparticipantevent = new NewParticipantEvent(
                         cache.sm, ssrcinfo.sourceInfo);
-                cache.eventhandler.postEvent(newparticipantevent);
+                cache.eventhandler.postEvent(
+                        newparticipantevent, ssrcinfo.ssrc);
                 ssrcinfo.newpartsent = true;
             }
             if (!ssrcinfo.recvstrmap && ssrcinfo.sourceInfo != null)
@@ -221,7 +223,8 @@ public class RTCPReceiver implements PacketConsumer
                 else
                     activereceivestreamevent1 = new ActiveReceiveStreamEvent(
                             cache.sm, ssrcinfo.sourceInfo, null);
-                cache.eventhandler.postEvent(activereceivestreamevent1);
+                cache.eventhandler.postEvent(
+                        activereceivestreamevent1, ssrcinfo.ssrc);
             }
             for (int i1 = 0; i1 < rtcprrpacket.reports.length; i1++)
             {
@@ -244,7 +247,8 @@ public class RTCPReceiver implements PacketConsumer
             {
                 NewParticipantEvent newparticipantevent1 = new NewParticipantEvent(
                         cache.sm, ssrcinfo.sourceInfo);
-                cache.eventhandler.postEvent(newparticipantevent1);
+                cache.eventhandler.postEvent(
+                        newparticipantevent1, ssrcinfo.ssrc);
                 ssrcinfo.newpartsent = true;
             }
             ReceiverReportEvent receiverreportevent = new ReceiverReportEvent(
@@ -283,7 +287,8 @@ public class RTCPReceiver implements PacketConsumer
             {
                 NewParticipantEvent newparticipantevent2 = new NewParticipantEvent(
                         cache.sm, ssrcinfo.sourceInfo);
-                cache.eventhandler.postEvent(newparticipantevent2);
+                cache.eventhandler.postEvent(
+                        newparticipantevent2, ssrcinfo.ssrc);
                 ssrcinfo.newpartsent = true;
             }
             if (ssrcinfo != null && !ssrcinfo.recvstrmap
@@ -339,7 +344,8 @@ public class RTCPReceiver implements PacketConsumer
                 else
                     activereceivestreamevent2 = new ActiveReceiveStreamEvent(
                             cache.sm, ssrcinfo1.sourceInfo, null);
-                cache.eventhandler.postEvent(activereceivestreamevent2);
+                cache.eventhandler.postEvent(
+                        activereceivestreamevent2, ssrcinfo1.ssrc);
             }
             ssrcinfo1.byereason = new String(rtcpbyepacket.reason);
             if (ssrcinfo1.byeReceived)
@@ -356,7 +362,7 @@ public class RTCPReceiver implements PacketConsumer
             if (ssrcinfo1 instanceof PassiveSSRCInfo)
                 byeevent = new ByeEvent(cache.sm, ssrcinfo1.sourceInfo, null,
                         new String(rtcpbyepacket.reason), flag2);
-            cache.eventhandler.postEvent(byeevent);
+            cache.eventhandler.postEvent(byeevent, ssrcinfo1.ssrc);
             /*
              * damencho: Remove the ssrc from the cache table because we have
              * received a bye for the stream. If we continue to receive the
@@ -389,7 +395,8 @@ public class RTCPReceiver implements PacketConsumer
                 else
                     activereceivestreamevent3 = new ActiveReceiveStreamEvent(
                             cache.sm, ssrcinfo2.sourceInfo, null);
-                cache.eventhandler.postEvent(activereceivestreamevent3);
+                cache.eventhandler.postEvent(
+                        activereceivestreamevent3, ssrcinfo2.ssrc);
             }
             ApplicationEvent applicationevent = null;
             if (ssrcinfo2 instanceof RecvSSRCInfo)
@@ -400,7 +407,19 @@ public class RTCPReceiver implements PacketConsumer
                 applicationevent = new ApplicationEvent(cache.sm,
                         ssrcinfo2.sourceInfo, null, rtcpapppacket.subtype,
                         null, rtcpapppacket.data);
-            cache.eventhandler.postEvent(applicationevent);
+            cache.eventhandler.postEvent(applicationevent, ssrcinfo2.ssrc);
+            break;
+
+        case RTCPPacket.RTPFB:
+            if (!(rtcppacket instanceof RTCPNACKPacket))
+                break;
+            RTCPNACKPacket rtcpnackpacket = (RTCPNACKPacket) rtcppacket;
+            SSRCInfo ssrcinfo3 = cache.lookup(rtcpnackpacket.mediaSSRC);
+            RTPTransmitter rtptransmitter = cache.sm.rtpTransmitter;
+            if ((ssrcinfo3 instanceof SendSSRCInfo) && ssrcinfo3.ours
+                    && rtptransmitter != null)
+                rtptransmitter.retransmit((SendSSRCInfo) ssrcinfo3,
+                        rtcpnackpacket.getLostSequenceNumbers());
             break;
         }
     }
@@ -134,6 +134,28 @@ public class RTCPTransmitter
         transmit(cp);
     }
 
+    /**
+     * Sends an RTCP generic NACK which reports specific RTP packets of a
+     * specific media source lost. The NACK is sent immediately and on its own
+     * (i.e. as a reduced-size RTCP packet) rather than with the next regular
+     * report so that the lost packets may be retransmitted within about one
+     * round-trip time.
+     *
+     * @param mediaSSRC the SSRC of the media source which the lost packets
+     * belong to
+     * @param seqs the (16-bit RTP) sequence numbers of the lost packets in
+     * ascending order (modulo 2^16)
+     * @param count the number of valid elements of <tt>seqs</tt>
+     */
+    public void nack(int mediaSSRC, long seqs[], int count)
+    {
+        if (ssrcInfo == null || count < 1)
+            return;
+        RTCPPacket packets[] = new RTCPPacket[1];
+        packets[0] = new RTCPNACKPacket(ssrcInfo.ssrc, mediaSSRC, seqs, count);
+        transmit(new RTCPCompoundPacket(packets));
+    }
+
     public void setSender(RTCPRawSender s)
     {
         sender = s;
@@ -28,13 +28,26 @@ public class RTPDemultiplexer
 
     public void demuxpayload(SourceRTPPacket sp)
     {
-        SSRCInfo info = sp.ssrcinfo;
-        RTPPacket rtpPacket = sp.p;
+        demuxpayload(sp.p, sp.ssrcinfo);
+    }
+
+    /**
+     * Adds the payload of a specific <tt>RTPPacket</tt> to the
+     * <tt>RTPSourceStream</tt> of a specific <tt>SSRCInfo</tt>. Spares the
+     * per-packet allocation of a <tt>SourceRTPPacket</tt>.
+     *
+     * @param rtpPacket the <tt>RTPPacket</tt> to demultiplex
+     * @param info the <tt>SSRCInfo</tt> of the source of <tt>rtpPacket</tt>
+     */
+    void demuxpayload(RTPPacket rtpPacket, SSRCInfo info)
+    {
         info.payloadType = rtpPacket.payloadType;
         
         if (info.dstream != null)
         {
             buffer.setData(rtpPacket.base.data);
+            buffer.setHeader(null);
+            buffer.setDuration(Buffer.TIME_UNKNOWN);
             buffer.setFlags(0);
             if (rtpPacket.marker == 1)
                 buffer.setFlags(buffer.getFlags() | Buffer.FLAG_RTP_MARKER);
@@ -46,9 +59,28 @@ public class RTPDemultiplexer
             buffer.setTimeStamp(ts);
 
             buffer.setFlags(buffer.getFlags() | Buffer.FLAG_RTP_TIME);
-            buffer.setSequenceNumber(rtpPacket.seqnum);
+            buffer.setSequenceNumber(
+                    info.getExtendedSequenceNumber(rtpPacket.seqnum));
             buffer.setFormat(info.dstream.getFormat());
-            info.dstream.add(buffer, true, rtpr);
+
+            /*
+             * A pooled packet owns its data so buffer may be handed over to
+             * the jitter buffer as a whole instead of being copied. The free
+             * slot given back in exchange becomes buffer and its data (if any)
+             * goes back to the pool along with the packet once the packet is
+             * released.
+             */
+            boolean transfer = rtpPacket.base.isPooled();
+
+            buffer = info.dstream.add(buffer, transfer, rtpr);
+            if (transfer)
+            {
+                Object data = buffer.getData();
+
+                rtpPacket.base.data
+                    = (data instanceof byte[]) ? (byte[]) data : null;
+            }
+            buffer.setData(null);
         }
     }
 }
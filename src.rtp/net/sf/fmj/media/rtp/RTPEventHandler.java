@@ -1,6 +1,7 @@
 package net.sf.fmj.media.rtp;
 
 import java.util.*;
+import java.util.concurrent.locks.*;
 
 import javax.media.rtp.*;
 import javax.media.rtp.event.*;
@@ -14,47 +15,111 @@ public class RTPEventHandler extends RTPMediaThread
     private Vector<RTPEvent> eventQueue;
     private boolean killed;
 
+    /**
+     * The lock which guards {@link #eventQueue} and {@link #killed}. A
+     * <tt>java.util.concurrent</tt> lock rather than the monitor of this
+     * instance is used so that waiting for events does not pin the carrier
+     * when the handler executes on a virtual thread.
+     */
+    private final Lock lock = new ReentrantLock();
+
+    /**
+     * The <tt>Condition</tt> signalled when an event is posted or this
+     * handler is closed.
+     */
+    private final Condition eventQueueChanged = lock.newCondition();
+
     public RTPEventHandler(RTPSessionMgr sm)
     {
-        super("RTPEventHandler");
+        this(sm, "RTPEventHandler");
+    }
+
+    /**
+     * Initializes a new <tt>RTPEventHandler</tt> the thread of which has a
+     * specific name. The name is set before the thread is started.
+     *
+     * @param sm the <tt>RTPSessionMgr</tt> the events of which are to be
+     * dispatched
+     * @param name the name of the thread of the new instance
+     */
+    public RTPEventHandler(RTPSessionMgr sm, String name)
+    {
+        super(name);
         eventQueue = new Vector<RTPEvent>();
         killed = false;
         this.sm = sm;
         useControlPriority();
+        useVirtualThreadIfEnabled();
         setDaemon(true);
         start();
     }
 
-    public synchronized void close()
+    public void close()
     {
-        killed = true;
-        notifyAll();
+        lock.lock();
+        try
+        {
+            killed = true;
+            eventQueueChanged.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     protected void dispatchEvents()
     {
         RTPEvent evt;
-        synchronized (this)
+        lock.lock();
+        try
         {
             try
             {
-                for (; eventQueue.size() == 0 && !killed; wait())
+                for (; eventQueue.size() == 0 && !killed;
+                        eventQueueChanged.await())
                     ;
             } catch (InterruptedException e)
             {
             }
-            if (killed)
+            if (killed || eventQueue.size() == 0)
                 return;
             evt = eventQueue.elementAt(0);
             eventQueue.removeElementAt(0);
         }
+        finally
+        {
+            lock.unlock();
+        }
         processEvent(evt);
     }
 
-    public synchronized void postEvent(RTPEvent evt)
+    public void postEvent(RTPEvent evt)
+    {
+        lock.lock();
+        try
+        {
+            eventQueue.addElement(evt);
+            eventQueueChanged.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Posts an event which is related to a specific SSRC even if the event
+     * itself does not reveal it (e.g. a <tt>NewParticipantEvent</tt> or a
+     * <tt>ByeEvent</tt> without a stream). <tt>RTPEventHandler</tt> delivers
+     * all events through a single queue and ignores the SSRC.
+     *
+     * @param evt the event to post
+     * @param ssrc the SSRC to which <tt>evt</tt> is related
+     */
+    public void postEvent(RTPEvent evt, int ssrc)
     {
-        eventQueue.addElement(evt);
-        notifyAll();
+        postEvent(evt);
     }
 
     protected void processEvent(RTPEvent evt)
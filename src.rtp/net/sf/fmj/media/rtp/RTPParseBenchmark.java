@@ -0,0 +1,292 @@
+package net.sf.fmj.media.rtp;
+
+import java.io.*;
+import java.util.*;
+
+import net.sf.fmj.media.rtp.util.*;
+
+/**
+ * Measures the time it takes <tt>RTPRawReceiver</tt> to parse the RTP header
+ * of a packet into a reused <tt>RTPPacket</tt> and compares it with the time
+ * it takes the reference parser which reads the header through a
+ * <tt>DataInputStream</tt> into a new <tt>RTPPacket</tt> per packet, as
+ * <tt>RTPRawReceiver</tt> used to. Before the measurements, both parsers are
+ * run on random (valid and malformed) datagrams and are verified to produce
+ * the same fields or to reject the same datagrams with the same messages.
+ * <p>
+ * Usage: <tt>RTPParseBenchmark [packets] [payload-length]
+ * [random-datagrams]</tt>. One line of results is printed per parser.
+ * </p>
+ */
+public class RTPParseBenchmark
+{
+    /**
+     * The number of distinct datagrams parsed in turn by the measurements.
+     */
+    private static final int DATAGRAMS = 1024;
+
+    /**
+     * Compares the results of the parsers for a specific datagram and throws
+     * an <tt>IllegalStateException</tt> if they differ.
+     */
+    private static void compare(Packet packet, RTPRawReceiver receiver)
+    {
+        RTPPacket expected = null;
+        String expectedError = null;
+        RTPPacket actual = null;
+        String actualError = null;
+
+        try
+        {
+            expected = parseWithDataInputStream(packet);
+        }
+        catch (BadFormatException bfe)
+        {
+            expectedError = String.valueOf(bfe.getMessage());
+        }
+        try
+        {
+            actual = receiver.parse(packet, new RTPPacket());
+        }
+        catch (BadFormatException bfe)
+        {
+            actualError = String.valueOf(bfe.getMessage());
+        }
+
+        boolean same;
+
+        if ((expected == null) || (actual == null))
+        {
+            same
+                = (expected == actual)
+                    && expectedError.equals(actualError);
+        }
+        else
+        {
+            same
+                = (expected.marker == actual.marker)
+                    && (expected.payloadType == actual.payloadType)
+                    && (expected.seqnum == actual.seqnum)
+                    && (expected.timestamp == actual.timestamp)
+                    && (expected.ssrc == actual.ssrc)
+                    && Arrays.equals(expected.csrc, actual.csrc)
+                    && (expected.extensionPresent == actual.extensionPresent)
+                    && (expected.payloadoffset == actual.payloadoffset)
+                    && (expected.payloadlength == actual.payloadlength);
+            if (same && expected.extensionPresent)
+            {
+                same
+                    = (expected.extensionType == actual.extensionType)
+                        && Arrays.equals(expected.extension, actual.extension);
+            }
+        }
+        if (!same)
+        {
+            throw new IllegalStateException(
+                    "The parsers disagree on a datagram of length "
+                        + packet.length);
+        }
+    }
+
+    /**
+     * Initializes a valid datagram with a random header, no CSRCs and no
+     * header extension.
+     */
+    private static Packet createDatagram(Random random, int payloadLength)
+    {
+        byte[] data = new byte[12 + payloadLength];
+
+        random.nextBytes(data);
+        data[0] = (byte) 0x80;
+
+        Packet packet = new Packet();
+
+        packet.data = data;
+        packet.offset = 0;
+        packet.length = data.length;
+        packet.received = true;
+        return packet;
+    }
+
+    /**
+     * Initializes a random, possibly malformed, datagram which is likely to
+     * exercise the CSRC, header extension and padding handling.
+     */
+    private static Packet createRandomDatagram(Random random)
+    {
+        int cc = random.nextInt(16);
+        int extensionLength = random.nextInt(4);
+        int length = random.nextInt(12 + 4 * cc + 4 + 4 * extensionLength + 8);
+        byte[] data = new byte[length + 4];
+
+        random.nextBytes(data);
+        if (length > 0)
+        {
+            // Mostly version 2 with random P, X and CC.
+            data[0]
+                = (byte)
+                    ((random.nextInt(8) == 0)
+                        ? random.nextInt(256)
+                        : (0x80 | (random.nextInt(4) << 4) | cc));
+        }
+
+        int x = 12 + 4 * cc;
+
+        if (x + 4 <= length)
+        {
+            data[x + 2] = 0;
+            data[x + 3] = (byte) extensionLength;
+        }
+
+        Packet packet = new Packet();
+
+        packet.data = data;
+        packet.offset = random.nextInt(4);
+        packet.length = Math.min(length, data.length - packet.offset);
+        packet.received = true;
+        return packet;
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args the number of packets to parse per measurement, the length
+     * of their payloads and the number of random datagrams on which the
+     * parsers are compared
+     */
+    public static void main(String[] args)
+        throws Exception
+    {
+        int packets = (args.length > 0) ? Integer.parseInt(args[0]) : 10000000;
+        int payloadLength
+            = (args.length > 1) ? Integer.parseInt(args[1]) : 160;
+        int randomDatagrams
+            = (args.length > 2) ? Integer.parseInt(args[2]) : 1000000;
+        Random random = new Random(0);
+        RTPRawReceiver receiver = new RTPRawReceiver();
+
+        for (int i = 0; i < randomDatagrams; i++)
+            compare(createRandomDatagram(random), receiver);
+        System.out.println(
+                "The parsers agree on " + randomDatagrams
+                    + " random datagrams");
+
+        Packet[] datagrams = new Packet[DATAGRAMS];
+
+        for (int i = 0; i < datagrams.length; i++)
+            datagrams[i] = createDatagram(random, payloadLength);
+
+        // Warm up.
+        for (int i = 0; i < 3; i++)
+        {
+            run(datagrams, packets / 10, receiver, false);
+            run(datagrams, packets / 10, receiver, true);
+        }
+        System.out.println(run(datagrams, packets, receiver, false));
+        System.out.println(run(datagrams, packets, receiver, true));
+    }
+
+    /**
+     * Parses a specific <tt>Packet</tt> the way <tt>RTPRawReceiver</tt> used
+     * to i.e. through a <tt>DataInputStream</tt> into a new
+     * <tt>RTPPacket</tt>. The reference the in-place parser is compared
+     * with.
+     */
+    static RTPPacket parseWithDataInputStream(Packet packet)
+        throws BadFormatException
+    {
+        RTPPacket rtppacket = new RTPPacket(packet);
+        DataInputStream datainputstream
+            = new DataInputStream(
+                    new ByteArrayInputStream(
+                            rtppacket.data,
+                            rtppacket.offset,
+                            rtppacket.length));
+
+        try
+        {
+            int i = datainputstream.readUnsignedByte();
+            if ((i & 0xc0) != 128)
+                throw new BadFormatException();
+            if ((i & 0x10) != 0)
+                rtppacket.extensionPresent = true;
+            int j = 0;
+            if ((i & 0x20) != 0)
+                j = rtppacket.data[(rtppacket.offset + rtppacket.length) - 1]
+                        & 0xff;
+            i &= 0xf;
+            rtppacket.payloadType = datainputstream.readUnsignedByte();
+            rtppacket.marker = rtppacket.payloadType >> 7;
+            rtppacket.payloadType &= 0x7f;
+            rtppacket.seqnum = datainputstream.readUnsignedShort();
+            rtppacket.timestamp = datainputstream.readInt() & 0xffffffffL;
+            rtppacket.ssrc = datainputstream.readInt();
+            int k = 0;
+            rtppacket.csrc = new int[i];
+            for (int i1 = 0; i1 < rtppacket.csrc.length; i1++)
+                rtppacket.csrc[i1] = datainputstream.readInt();
+
+            k += 12 + (rtppacket.csrc.length << 2);
+            if (rtppacket.extensionPresent)
+            {
+                rtppacket.extensionType = datainputstream.readUnsignedShort();
+                int l = datainputstream.readUnsignedShort();
+                l <<= 2;
+                rtppacket.extension = new byte[l];
+                datainputstream.readFully(rtppacket.extension);
+                k += l + 4;
+            }
+            rtppacket.payloadlength = rtppacket.length - (k + j);
+            if (rtppacket.payloadlength < 1)
+                throw new BadFormatException();
+            rtppacket.payloadoffset = k + rtppacket.offset;
+        }
+        catch (EOFException eofexception)
+        {
+            throw new BadFormatException("Unexpected end of RTP packet");
+        }
+        catch (IOException ioexception)
+        {
+            throw new IllegalArgumentException("Impossible Exception");
+        }
+        return rtppacket;
+    }
+
+    /**
+     * Parses a specific number of packets with one of the parsers.
+     *
+     * @param inPlace <tt>true</tt> to parse with <tt>RTPRawReceiver</tt> into
+     * a reused <tt>RTPPacket</tt> or <tt>false</tt> to parse with the
+     * reference parser
+     * @return a line of results
+     */
+    private static String run(
+            Packet[] datagrams, int packets,
+            RTPRawReceiver receiver,
+            boolean inPlace)
+        throws BadFormatException
+    {
+        RTPPacket rtppacket = new RTPPacket();
+        long sink = 0;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < packets; i++)
+        {
+            Packet packet = datagrams[i & (DATAGRAMS - 1)];
+            RTPPacket parsed
+                = inPlace
+                    ? receiver.parse(packet, rtppacket)
+                    : parseWithDataInputStream(packet);
+
+            sink += parsed.seqnum + parsed.payloadlength;
+        }
+
+        long ns = System.nanoTime() - start;
+
+        return
+            (inPlace ? "in-place" : "DataInputStream")
+                + " packets=" + packets
+                + " ns/packet=" + ((double) ns / packets)
+                + " (" + sink + ")";
+    }
+}
@@ -19,6 +19,23 @@ public class RTPRawReceiver extends PacketFilter
 
     private RTPConnector rtpConnector = null;
 
+    /**
+     * The <tt>RTPPacket</tt>s which are reused in turn by
+     * {@link #handlePacket(Packet)} for the received packets. The packets are
+     * handed to the <tt>RTPReceiver</tt> synchronously on the receive thread
+     * and are not retained past that. There are as many of them as there may
+     * be packets in a batch delivered by <tt>UDPPacketReactor</tt> in batched
+     * receive mode.
+     */
+    private final RTPPacket[] rtppackets
+        = new RTPPacket[UDPPacketReactor.MAX_READS_PER_WAKEUP];
+
+    /**
+     * The index in {@link #rtppackets} of the <tt>RTPPacket</tt> to be used
+     * for the next received packet.
+     */
+    private int nextRTPPacket = 0;
+
     public RTPRawReceiver()
     {
     }
@@ -114,10 +131,14 @@ public class RTPRawReceiver extends PacketFilter
     {
         stats.update(OverallStats.PACKETRECD, 1);
         stats.update(OverallStats.BYTESRECD, packet.length);
-        RTPPacket rtppacket;
+        RTPPacket rtppacket = rtppackets[nextRTPPacket];
+        if (rtppacket == null)
+            rtppackets[nextRTPPacket] = rtppacket = new RTPPacket();
+        if (++nextRTPPacket == rtppackets.length)
+            nextRTPPacket = 0;
         try
         {
-            rtppacket = parse(packet);
+            rtppacket = parse(packet, rtppacket);
         } catch (BadFormatException badformatexception)
         {
             stats.update(OverallStats.BADRTPPACKET, 1);
@@ -175,57 +196,98 @@ public class RTPRawReceiver extends PacketFilter
 
     public RTPPacket parse(Packet packet) throws BadFormatException
     {
-        RTPPacket rtppacket = new RTPPacket(packet);
-        DataInputStream datainputstream = new DataInputStream(
-                new ByteArrayInputStream(((Packet) (rtppacket)).data,
-                        ((Packet) (rtppacket)).offset,
-                        ((Packet) (rtppacket)).length));
-        try
-        {
-            int i = datainputstream.readUnsignedByte();
-            if ((i & 0xc0) != 128)
-                throw new BadFormatException();
-            if ((i & 0x10) != 0)
-                rtppacket.extensionPresent = true;
-            int j = 0;
-            if ((i & 0x20) != 0)
-                j = ((Packet) (rtppacket)).data[(((Packet) (rtppacket)).offset + ((Packet) (rtppacket)).length) - 1] & 0xff;
-            i &= 0xf;
-            rtppacket.payloadType = datainputstream.readUnsignedByte();
-            rtppacket.marker = rtppacket.payloadType >> 7;
-            rtppacket.payloadType &= 0x7f;
-            rtppacket.seqnum = datainputstream.readUnsignedShort();
-            rtppacket.timestamp = datainputstream.readInt() & 0xffffffffL;
-            rtppacket.ssrc = datainputstream.readInt();
-            int k = 0;
-            rtppacket.csrc = new int[i];
-            for (int i1 = 0; i1 < rtppacket.csrc.length; i1++)
-                rtppacket.csrc[i1] = datainputstream.readInt();
-
-            k += 12 + (rtppacket.csrc.length << 2);
-            if (rtppacket.extensionPresent)
-            {
-                rtppacket.extensionType = datainputstream.readUnsignedShort();
-                int l = datainputstream.readUnsignedShort();
-                l <<= 2;
-                rtppacket.extension = new byte[l];
-                datainputstream.readFully(rtppacket.extension);
-                k += l + 4;
-            }
-            rtppacket.payloadlength = ((Packet) (rtppacket)).length - (k + j);
-            if (rtppacket.payloadlength < 1)
-                throw new BadFormatException();
-            rtppacket.payloadoffset = k + ((Packet) (rtppacket)).offset;
-        } catch (EOFException eofexception)
-        {
+        return parse(packet, new RTPPacket());
+    }
+
+    /**
+     * Parses the RTP header of a specific <tt>Packet</tt> into a specific
+     * <tt>RTPPacket</tt>. The fields are read straight out of the byte array
+     * of <tt>packet</tt> so that, when <tt>rtppacket</tt> is reused across
+     * packets, no allocation takes place for packets without CSRCs or with
+     * CSRC lists and header extensions of unchanged lengths.
+     *
+     * @param packet the <tt>Packet</tt> to parse
+     * @param rtppacket the <tt>RTPPacket</tt> to parse <tt>packet</tt> into
+     * @return <tt>rtppacket</tt>
+     * @throws BadFormatException if <tt>packet</tt> is not a valid RTP packet
+     */
+    public RTPPacket parse(Packet packet, RTPPacket rtppacket)
+        throws BadFormatException
+    {
+        rtppacket.wrap(packet);
+
+        byte[] data = packet.data;
+        int offset = packet.offset;
+        int length = packet.length;
+
+        if (length < 1)
             throw new BadFormatException("Unexpected end of RTP packet");
-        } catch (IOException ioexception)
+
+        int i = data[offset] & 0xff;
+        if ((i & 0xc0) != 128)
+            throw new BadFormatException();
+        if ((i & 0x10) != 0)
+            rtppacket.extensionPresent = true;
+        int j = 0;
+        if ((i & 0x20) != 0)
+            j = data[(offset + length) - 1] & 0xff;
+        i &= 0xf;
+
+        int k = 12 + (i << 2);
+        if (length < k)
+            throw new BadFormatException("Unexpected end of RTP packet");
+        rtppacket.payloadType = data[offset + 1] & 0xff;
+        rtppacket.marker = rtppacket.payloadType >> 7;
+        rtppacket.payloadType &= 0x7f;
+        rtppacket.seqnum = readUnsignedShort(data, offset + 2);
+        rtppacket.timestamp = readInt(data, offset + 4) & 0xffffffffL;
+        rtppacket.ssrc = readInt(data, offset + 8);
+
+        int[] csrc = rtppacket.csrc;
+        if (i == 0)
+            csrc = RTPPacket.NO_CSRC;
+        else if (csrc == null || csrc.length != i)
+            csrc = new int[i];
+        for (int i1 = 0; i1 < i; i1++)
+            csrc[i1] = readInt(data, offset + 12 + (i1 << 2));
+        rtppacket.csrc = csrc;
+
+        if (rtppacket.extensionPresent)
         {
-            throw new IllegalArgumentException("Impossible Exception");
+            if (length < k + 4)
+                throw new BadFormatException("Unexpected end of RTP packet");
+            rtppacket.extensionType = readUnsignedShort(data, offset + k);
+            int l = readUnsignedShort(data, offset + k + 2) << 2;
+            if (length < k + 4 + l)
+                throw new BadFormatException("Unexpected end of RTP packet");
+
+            byte[] extension = rtppacket.extension;
+            if (extension == null || extension.length != l)
+                rtppacket.extension = extension = new byte[l];
+            System.arraycopy(data, offset + k + 4, extension, 0, l);
+            k += l + 4;
         }
+        rtppacket.payloadlength = length - (k + j);
+        if (rtppacket.payloadlength < 1)
+            throw new BadFormatException();
+        rtppacket.payloadoffset = k + offset;
         return rtppacket;
     }
 
+    private static int readInt(byte[] data, int off)
+    {
+        return
+            ((data[off] & 0xff) << 24)
+                | ((data[off + 1] & 0xff) << 16)
+                | ((data[off + 2] & 0xff) << 8)
+                | (data[off + 3] & 0xff);
+    }
+
+    private static int readUnsignedShort(byte[] data, int off)
+    {
+        return ((data[off] & 0xff) << 8) | (data[off + 1] & 0xff);
+    }
+
     public void setRecvBufSize(int i)
     {
         try
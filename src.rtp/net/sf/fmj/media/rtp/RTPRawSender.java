@@ -12,11 +12,63 @@ import net.sf.fmj.media.rtp.util.*;
 
 public class RTPRawSender extends PacketFilter
 {
+    /**
+     * The array into which the packets are assembled unless they are
+     * assembled in place. Reused across packets.
+     */
+    private byte[] assembled;
+
+    /**
+     * Whether the packets are to be assembled in the headroom which precedes
+     * their payloads (if there is enough room) instead of being copied.
+     */
+    private final boolean assembleInPlace
+        = com.sun.media.util.Registry.getBoolean(
+                "rtp_send_HEADROOM_ENABLE",
+                false);
+
+    /**
+     * Whether the packets which cannot be assembled in place are to be sent
+     * by gather writes (with the header and the payload in separate buffers)
+     * if the consumer supports it instead of being copied.
+     */
+    private final boolean gather
+        = com.sun.media.util.Registry.getBoolean(
+                "rtp_send_GATHER_ENABLE",
+                false);
+
+    /**
+     * The array into which the headers of the packets sent by gather writes
+     * are assembled. Reused across packets.
+     */
+    private byte[] header;
+
+    /**
+     * The <tt>SessionAddress</tt>es of the targets of the fan-out and their
+     * data addresses to which the packets are sent. Reused across packets
+     * and updated as the targets change.
+     */
+    private SessionAddress[] targetAddresses;
+    private InetSocketAddress[] targets;
+
+    /**
+     * The statistics the failures to send to the targets of the fan-out are
+     * recorded into or <tt>null</tt> if the failures are to be reported by
+     * throwing.
+     */
+    private OverallTransStats transStats;
+
     private InetAddress destaddr;
     private int destport;
     private DatagramSocket socket;
     private RTPConnector rtpConnector;
 
+    /**
+     * The <tt>UDPPacket</tt> handed to the consumer. Reused across packets
+     * because {@link #sendTo(Packet)} is serialized.
+     */
+    private final UDPPacket udpPacket = new UDPPacket();
+
     public RTPRawSender(int port, String address) throws UnknownHostException,
             IOException
     {
@@ -44,10 +96,98 @@ public class RTPRawSender extends PacketFilter
         setConsumer(sender);
     }
 
+    /**
+     * Assembles a specific <tt>RTPPacket</tt> in place if enabled and
+     * possible or into an array reused across packets. Either way, no array
+     * is allocated in the steady state.
+     *
+     * @param p the <tt>RTPPacket</tt> to assemble
+     */
     public void assemble(RTPPacket p)
     {
-        int len = p.calcLength();
-        p.assemble(len, false);
+        if (!assembleInPlace || !p.assembleInPlace())
+            assembled = p.assemble(assembled);
+    }
+
+    /**
+     * Assembles a specific <tt>RTPPacket</tt> to be sent to a specific
+     * destination by a <tt>UDPPacketSender</tt> into a <tt>UDPPacket</tt>.
+     * Unless the packet is assembled in place, only its header is assembled
+     * if the consumer can send it and the payload by a gather write.
+     *
+     * @param p the <tt>RTPPacket</tt> to assemble
+     * @param addr the address of the destination
+     * @param port the port of the destination
+     * @return the <tt>UDPPacket</tt> (reused across packets) to be handed to
+     * the consumer
+     */
+    private UDPPacket assemble(RTPPacket p, InetAddress addr, int port)
+    {
+        UDPPacket udpp = udpPacket;
+        PacketConsumer consumer = getConsumer();
+
+        if (assembleInPlace && p.assembleInPlace())
+        {
+            udpp.header = null;
+        }
+        else if (gather
+                && (consumer instanceof UDPPacketSender)
+                && ((UDPPacketSender) consumer).canGather(addr, port))
+        {
+            header = p.assembleHeader(header);
+            udpp.header = header;
+        }
+        else
+        {
+            assembled = p.assemble(assembled);
+            udpp.header = null;
+        }
+        udpp.received = false;
+        udpp.data = p.data;
+        udpp.offset = p.offset;
+        udpp.length = p.length;
+        udpp.remoteAddress = addr;
+        udpp.remotePort = port;
+        return udpp;
+    }
+
+    /**
+     * Sends a specific <tt>RTPPacket</tt> to each one of multiple targets. The
+     * packet is assembled once and the same bytes are sent to all targets
+     * through the same socket. A failure to send to one target does not
+     * prevent sending to the others.
+     *
+     * @param p the <tt>RTPPacket</tt> to send
+     * @param dests the <tt>SessionAddress</tt>es of the targets
+     * @param sender the <tt>UDPPacketSender</tt> to send through
+     * @throws IOException if sending to a target fails and the failure is not
+     * recorded into statistics
+     */
+    private void fanOut(RTPPacket p, Vector<?> dests, UDPPacketSender sender)
+        throws IOException
+    {
+        // A gather write would require the channel to be connected.
+        assemble(p);
+
+        int count = updateTargets(dests);
+        IOException failure = null;
+
+        for (int i = 0; i < count; i++)
+        {
+            try
+            {
+                sender.send(p, targets[i]);
+            }
+            catch (IOException ioe)
+            {
+                if (transStats != null)
+                    transStats.transmitFailed(targetAddresses[i]);
+                else if (failure == null)
+                    failure = ioe;
+            }
+        }
+        if (failure != null)
+            throw failure;
     }
 
     @Override
@@ -83,21 +223,14 @@ public class RTPRawSender extends PacketFilter
     @Override
     public Packet handlePacket(Packet p)
     {
-        assemble((RTPPacket) p);
         PacketConsumer consumer = getConsumer();
         if (consumer instanceof RTPPacketSender)
         {
+            assemble((RTPPacket) p);
             return p;
         } else
         {
-            UDPPacket udpp = new UDPPacket();
-            udpp.received = false;
-            udpp.data = p.data;
-            udpp.offset = p.offset;
-            udpp.length = p.length;
-            udpp.remoteAddress = destaddr;
-            udpp.remotePort = destport;
-            return udpp;
+            return assemble((RTPPacket) p, destaddr, destport);
         }
     }
 
@@ -110,29 +243,57 @@ public class RTPRawSender extends PacketFilter
     @Override
     public Packet handlePacket(Packet p, SessionAddress sessionAddress)
     {
-        assemble((RTPPacket) p);
         PacketConsumer consumer = getConsumer();
         if (consumer instanceof RTPPacketSender)
         {
+            assemble((RTPPacket) p);
             return p;
         } else
         {
-            UDPPacket udpp = new UDPPacket();
-            udpp.received = false;
-            udpp.data = p.data;
-            udpp.offset = p.offset;
-            udpp.length = p.length;
-            udpp.remoteAddress = sessionAddress.getDataAddress();
-            udpp.remotePort = sessionAddress.getDataPort();
-            return udpp;
+            return assemble((RTPPacket) p, sessionAddress.getDataAddress(),
+                    sessionAddress.getDataPort());
         }
     }
 
-    public void setDestAddresses(Vector destAddresses)
+    /**
+     * {@inheritDoc}
+     *
+     * Serialized because the array the packets are assembled into and the
+     * <tt>UDPPacket</tt> handed to the consumer are reused. If there are
+     * multiple targets and the consumer is a <tt>UDPPacketSender</tt>, fans
+     * the packet out to the targets (see {@link #fanOut(RTPPacket, Vector,
+     * UDPPacketSender)}).
+     */
+    @Override
+    public synchronized void sendTo(Packet p) throws IOException
+    {
+        Vector<?> dests = super.destAddressList;
+        PacketConsumer consumer = getConsumer();
+
+        if ((super.peerlist == null) && (dests != null)
+                && (consumer instanceof UDPPacketSender))
+            fanOut((RTPPacket) p, dests, (UDPPacketSender) consumer);
+        else
+            super.sendTo(p);
+    }
+
+    public void setDestAddresses(Vector<?> destAddresses)
     {
         super.destAddressList = destAddresses;
     }
 
+    /**
+     * Sets the statistics the failures to send to the targets of a fan-out
+     * are to be recorded into.
+     *
+     * @param transStats the statistics to record the failures into or
+     * <tt>null</tt> to report the failures by throwing
+     */
+    void setTransStats(OverallTransStats transStats)
+    {
+        this.transStats = transStats;
+    }
+
     public void setSendBufSize(int size)
     {
         try
@@ -150,4 +311,49 @@ public class RTPRawSender extends PacketFilter
             Log.comment("Cannot set send buffer size: " + e);
         }
     }
+
+    /**
+     * Updates the data addresses of the targets of the fan-out to a specific
+     * list of <tt>SessionAddress</tt>es. Allocates only for targets which have
+     * changed.
+     *
+     * @param dests the <tt>SessionAddress</tt>es of the targets
+     * @return the number of targets
+     */
+    private int updateTargets(Vector<?> dests)
+    {
+        synchronized (dests)
+        {
+            int count = dests.size();
+
+            if ((targets == null) || (targets.length < count))
+            {
+                SessionAddress[] newTargetAddresses = new SessionAddress[count];
+                InetSocketAddress[] newTargets = new InetSocketAddress[count];
+
+                if (targets != null)
+                {
+                    System.arraycopy(targetAddresses, 0, newTargetAddresses, 0,
+                            targets.length);
+                    System.arraycopy(targets, 0, newTargets, 0,
+                            targets.length);
+                }
+                targetAddresses = newTargetAddresses;
+                targets = newTargets;
+            }
+            for (int i = 0; i < count; i++)
+            {
+                SessionAddress sa = (SessionAddress) dests.elementAt(i);
+                InetAddress addr = sa.getDataAddress();
+                int port = sa.getDataPort();
+                InetSocketAddress target = targets[i];
+
+                targetAddresses[i] = sa;
+                if ((target == null) || (target.getPort() != port)
+                        || !target.getAddress().equals(addr))
+                    targets[i] = new InetSocketAddress(addr, port);
+            }
+            return count;
+        }
+    }
 }
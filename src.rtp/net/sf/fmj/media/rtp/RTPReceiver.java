@@ -14,8 +14,10 @@ import javax.media.rtp.event.RemotePayloadChangeEvent;
 
 import net.sf.fmj.media.Log;
 import net.sf.fmj.media.rtp.util.Packet;
+import net.sf.fmj.media.rtp.util.PacketBatchConsumer;
 import net.sf.fmj.media.rtp.util.PacketFilter;
 import net.sf.fmj.media.rtp.util.RTPPacket;
+import net.sf.fmj.media.rtp.util.SSRCTable;
 import net.sf.fmj.media.rtp.util.UDPPacket;
 
 /**
@@ -23,8 +25,13 @@ import net.sf.fmj.media.rtp.util.UDPPacket;
  * @author Boris Grozev
  * @author Lyubomir Marinov
  */
-public class RTPReceiver extends PacketFilter
+public class RTPReceiver extends PacketFilter implements PacketBatchConsumer
 {
+    /**
+     * No longer thrown by <tt>RTPReceiver</tt> which counts the dropped
+     * packets per reason in <tt>OverallStats</tt> instead.
+     */
+    @Deprecated
     public class PartiallyProcessedPacketException extends Exception
     {
         private static final long serialVersionUID = 1L;
@@ -35,16 +42,6 @@ public class RTPReceiver extends PacketFilter
         }
     }
 
-    private class FailedToProcessPacketException extends Exception
-    {
-        private static final long serialVersionUID = 1L;
-
-        public FailedToProcessPacketException(String message)
-        {
-            super(message);
-        }
-    }
-
     private final SSRCCache cache;
     private final RTPDemultiplexer rtpdemultiplexer;
     private boolean rtcpstarted;
@@ -59,12 +56,42 @@ public class RTPReceiver extends PacketFilter
     private boolean initBC = false;
     private final String controlName;
 
+    /**
+     * The payload type of the RFC 5109 (ULPFEC) packets or <tt>-1</tt> if
+     * forward error correction is disabled.
+     */
+    private final int fecPayloadType;
+
+    /**
+     * The indicator which determines whether the packets of established
+     * streams take the steady-state fast path. Read from the
+     * <tt>rtp_receiver_STEADY_STATE</tt> property of the <tt>Registry</tt>
+     * which defaults to <tt>true</tt>.
+     */
+    private final boolean steadyStateEnabled;
+
+    /**
+     * The indicator which determines whether packets are being recovered by
+     * {@link #recoverPackets(ULPFECDecoder, RTPPacket)}.
+     */
+    private boolean recoveringFec = false;
+
     public RTPReceiver(SSRCCache ssrccache, RTPDemultiplexer rtpdemultiplexer)
     {
         rtcpstarted = false;
         controlName = "javax.media.rtp.RTPControl";
         cache = ssrccache;
         this.rtpdemultiplexer = rtpdemultiplexer;
+        fecPayloadType
+            = com.sun.media.util.Registry.getBoolean("rtp_fec_ENABLE", false)
+                ? com.sun.media.util.Registry.getInt(
+                        "rtp_fec_PAYLOAD_TYPE",
+                        ULPFECEncoder.DEFAULT_PAYLOAD_TYPE)
+                : -1;
+        steadyStateEnabled
+            = com.sun.media.util.Registry.getBoolean(
+                    "rtp_receiver_STEADY_STATE",
+                    true);
         setConsumer(null);
         Log.objectCreated(this, "RTPReciever");
         Log.createLink(this, rtpdemultiplexer, "RTPReciever uses RTPDemux");
@@ -94,6 +121,24 @@ public class RTPReceiver extends PacketFilter
         return null;
     }
 
+    /**
+     * Handles a batch of RTP packets drained at once from the network. The
+     * packets are handled one after the other exactly as if they had been
+     * received one at a time. No lock is held across the batch so that the
+     * RTCP receive path and the <tt>SSRCCacheCleaner</tt> are not kept from
+     * the <tt>SSRCCache</tt> for its duration; the cache is locked as
+     * necessary by the processing of each packet.
+     *
+     * @param packets the array which contains the batch
+     * @param count the number of packets at the beginning of <tt>packets</tt>
+     * which constitute the batch
+     */
+    public void sendTo(Packet[] packets, int count) throws IOException
+    {
+        for (int i = 0; i < count; i++)
+            sendTo(packets[i]);
+    }
+
     /**
      * Handle an RTP packet.
      *
@@ -102,80 +147,336 @@ public class RTPReceiver extends PacketFilter
      */
     public Packet handlePacket(RTPPacket rtpPacket)
     {
-        try
+        Log.logReceived(this);
+
+        if (fecPayloadType != -1)
         {
-            Log.logReceived(this);
-            
-            // Call into this method if you want to do some testing of messing
-            // with the types of packets we're receiving for test purposes.
-            //hackPacketsForTesting(rtpPacket);
+            if (rtpPacket.payloadType == fecPayloadType)
+            {
+                /*
+                 * FEC packets are sent on an SSRC of their own (derived from
+                 * the SSRC of the stream they protect) so they are kept away
+                 * from the processing of the streams. A decoder is created
+                 * only for a source known to the cache which removes it
+                 * along with the source.
+                 */
+                int mediaSsrc = ULPFECEncoder.getFECSSRC(rtpPacket.ssrc);
+                ULPFECDecoder fecDecoder = cache.fecDecoders.get(mediaSsrc);
 
-            /*
-             * Now the main processing of the RTPReceiver.  Run through various
-             * checks to confirm this RTP packet should be processed and, if
-             * so, demux it to the appropriate RTP Source Stream (aka Jitter
-             * Buffer).
-             *
-             * If one of the checks fails, that method will throw an exception
-             * indicating the packet should be discarded.  These exceptions are
-             * handled and logged below.
-             */
-            //Log.comment("Received RTP packet (seq " + rtpPacket.seqnum + ")");
-            handleUnsupportedPayloadType(rtpPacket);
-            checkNetworkAddress(rtpPacket);
-            SSRCInfo ssrcinfo = getSsrcInfo(rtpPacket);
-            processCsrcs(rtpPacket);
-            initSsrcInfoIfRequired(rtpPacket, ssrcinfo);
-            updateStats(rtpPacket, ssrcinfo);
-            handleRTCP(rtpPacket);
-            ssrcinfo.maxseq = rtpPacket.seqnum;
-            checkPayloadTypeCache(rtpPacket);
-            performMisMatchedPayloadCheck(rtpPacket, ssrcinfo);
-            setCurrentFormatIfRequired(rtpPacket, ssrcinfo);
-            initBufferControlIfRequired(ssrcinfo);
-            connectStreamIfRequired(rtpPacket, ssrcinfo);
-            fireNewReceiveStreamEventIfRequired(ssrcinfo);
-            updateSsrcInfoStats(rtpPacket, ssrcinfo);
-            updateQuietStatusIfRequired(ssrcinfo);
-            demuxPacket(rtpPacket, ssrcinfo);
-        }
-        catch (FailedToProcessPacketException e)
-        {
-            Log.warning("FailedToProcessPacket: " + e);
-            rtpPacket = null;
-        }
-        catch (PartiallyProcessedPacketException e)
-        {
-            Log.warning("PartiallyProcessedPacket: " + e);
-            String message = e.getMessage();
-            if (message != null)
+                if (fecDecoder == null)
+                {
+                    if (cache.lookup(mediaSsrc) == null)
+                        return rtpPacket;
+                    fecDecoder = new ULPFECDecoder(mediaSsrc);
+                    cache.fecDecoders.put(mediaSsrc, fecDecoder);
+                }
+                fecDecoder.addFEC(rtpPacket);
+                recoverPackets(fecDecoder, rtpPacket);
+                return rtpPacket;
+            }
+
+            ULPFECDecoder fecDecoder = cache.fecDecoders.get(rtpPacket.ssrc);
+
+            if (fecDecoder != null)
             {
-                Log.info(message);
+                // Keep a copy before the payload is handed over.
+                fecDecoder.addMedia(rtpPacket);
+                if (!recoveringFec && fecDecoder.hasPendingFEC())
+                {
+                    Packet result = handleMediaPacket(rtpPacket);
+
+                    recoverPackets(fecDecoder, rtpPacket);
+                    return result;
+                }
             }
         }
+        return handleMediaPacket(rtpPacket);
+    }
+
+    /**
+     * Handles a specific media (as opposed to FEC) RTP packet.
+     *
+     * @param rtpPacket the packet to process
+     * @return the processed packet. Can be null
+     */
+    private Packet handleMediaPacket(RTPPacket rtpPacket)
+    {
+        SSRCInfo steadySsrcInfo = isSteadyState(rtpPacket);
+
+        if (steadySsrcInfo != null)
+        {
+            handleSteadyStatePacket(rtpPacket, steadySsrcInfo);
+            return rtpPacket;
+        }
+
+        // Call into this method if you want to do some testing of messing
+        // with the types of packets we're receiving for test purposes.
+        //hackPacketsForTesting(rtpPacket);
+
+        int dropReason = processPacket(rtpPacket);
+
+        if (dropReason == OverallStats.NOT_DROPPED)
+            return rtpPacket;
+
+        packetDropped(rtpPacket, dropReason);
+
+        /*
+         * The packets dropped before an SSRCInfo could be associated with them
+         * have failed to be processed at all.
+         */
+        return
+            (dropReason == OverallStats.DROPPED_BAD_ADDRESS
+                    || dropReason == OverallStats.DROPPED_NO_SSRCINFO)
+                ? null
+                : rtpPacket;
+    }
+
+    /**
+     * Runs the full processing of a specific <tt>RTPPacket</tt>: checks that
+     * it should be processed and, if so, demuxes it to the appropriate RTP
+     * Source Stream (aka Jitter Buffer).
+     *
+     * If one of the checks fails, the processing stops and the reason for
+     * dropping the packet is returned. No exception is thrown and no message
+     * is built because a peer may legitimately and steadily send packets which
+     * are to be dropped (e.g. comfort noise).
+     *
+     * @param rtpPacket The packet to process.
+     * @return {@link OverallStats#NOT_DROPPED} if the packet has been processed
+     * or one of the <tt>DROPPED_</tt> reasons defined by <tt>OverallStats</tt>
+     */
+    private int processPacket(RTPPacket rtpPacket)
+    {
+        if (isUnsupportedPayloadType(rtpPacket))
+            return OverallStats.DROPPED_UNSUPPORTED_PT;
+        if (!checkNetworkAddress(rtpPacket))
+            return OverallStats.DROPPED_BAD_ADDRESS;
+
+        SSRCInfo ssrcinfo = getSsrcInfo(rtpPacket);
+
+        if (ssrcinfo == null)
+            return OverallStats.DROPPED_NO_SSRCINFO;
+        processCsrcs(rtpPacket);
+        initSsrcInfoIfRequired(rtpPacket, ssrcinfo);
+        updateStats(rtpPacket, ssrcinfo);
+        handleRTCP(rtpPacket);
+        if (!checkPayloadTypeCache(rtpPacket))
+            return OverallStats.DROPPED_UNKNOWN_PT;
+        performMisMatchedPayloadCheck(rtpPacket, ssrcinfo);
+        setCurrentFormatIfRequired(rtpPacket, ssrcinfo);
+        initBufferControlIfRequired(ssrcinfo);
+        connectStreamIfRequired(rtpPacket, ssrcinfo);
+        fireNewReceiveStreamEventIfRequired(ssrcinfo);
+        updateSsrcInfoStats(rtpPacket, ssrcinfo);
+        reconnectStream(rtpPacket, ssrcinfo);
+        updateQuietStatusIfRequired(ssrcinfo);
+        demuxPacket(rtpPacket, ssrcinfo);
+        enterSteadyStateIfPossible(rtpPacket, ssrcinfo);
+        return OverallStats.NOT_DROPPED;
+    }
 
-        return rtpPacket;
+    /**
+     * Recovers the lost media packets which the pending FEC packets of a
+     * specific stream make recoverable and processes them as if they had been
+     * received. Nothing is recovered while the jitter buffer of the stream
+     * skips FEC (i.e. while <tt>Buffer.FLAG_SKIP_FEC</tt> is to be set on the
+     * next packet read out of it).
+     *
+     * @param fecDecoder the <tt>ULPFECDecoder</tt> of the stream
+     * @param rtpPacket the packet of the stream which has just been received
+     */
+    private void recoverPackets(ULPFECDecoder fecDecoder, RTPPacket rtpPacket)
+    {
+        SSRCInfo ssrcinfo = cache.lookup(fecDecoder.getSSRC());
+        RTPSourceStream dstream = (ssrcinfo == null) ? null : ssrcinfo.dstream;
+
+        if (dstream != null && dstream.willSkipFec())
+            return;
+
+        recoveringFec = true;
+        try
+        {
+            RTPPacket recovered;
+
+            while ((recovered = fecDecoder.recover(rtpPacket)) != null)
+            {
+                handlePacket(recovered);
+                if (dstream != null)
+                    dstream.stats.incrementNbFECRecovered();
+            }
+        }
+        finally
+        {
+            recoveringFec = false;
+        }
     }
 
-    private void handleUnsupportedPayloadType(RTPPacket rtpPacket) throws PartiallyProcessedPacketException
+    /**
+     * Counts a specific <tt>RTPPacket</tt> as dropped for a specific reason.
+     * The drop is logged only when the number of drops for the reason reaches
+     * a power of two so that a peer steadily sending packets which are to be
+     * dropped does not flood the log.
+     *
+     * @param rtpPacket the dropped packet
+     * @param dropReason the reason for dropping <tt>rtpPacket</tt>
+     */
+    private void packetDropped(RTPPacket rtpPacket, int dropReason)
     {
-        if (rtpPacket.payloadType == 13 ||
-            rtpPacket.payloadType == 18)
+        int dropped = cache.stats.updateDropped(dropReason);
+
+        if ((dropped & (dropped - 1)) == 0)
         {
-            // Drop CN and G.729 packets as not supported
-            throw new PartiallyProcessedPacketException(
-                "Dropping unsupported packet type: " + rtpPacket.payloadType);
+            Log.warning("Dropped " + dropped + " RTP packet(s) because of "
+                    + OverallStats.getDropReasonName(dropReason)
+                    + ", last seqnum=" + rtpPacket.seqnum
+                    + ", ssrc=" + rtpPacket.ssrc
+                    + ", pt=" + rtpPacket.payloadType);
         }
     }
 
+    /**
+     * Determines whether a specific <tt>RTPPacket</tt> belongs to a stream
+     * which has been found established by the full processing and nothing
+     * which the full processing reacts to has changed since: neither the
+     * payload type, nor the remote address, nor the state of the
+     * <tt>SSRCInfo</tt> of the stream in the <tt>SSRCCache</tt>. The
+     * steady state is kept on the <tt>SSRCInfo</tt> of each stream so that
+     * the packets of any number of interleaved streams take the fast path.
+     * A stream leaves the steady state as soon as one of its packets fails
+     * the checks and only reenters it through the full processing.
+     *
+     * @param rtpPacket the <tt>RTPPacket</tt> to check
+     * @return the <tt>SSRCInfo</tt> of the stream of <tt>rtpPacket</tt> if
+     * <tt>rtpPacket</tt> may take the steady-state fast path; otherwise,
+     * <tt>null</tt>
+     */
+    private SSRCInfo isSteadyState(RTPPacket rtpPacket)
+    {
+        SSRCInfo ssrcinfo = cache.lookup(rtpPacket.ssrc);
+
+        if (ssrcinfo == null || ssrcinfo.steadyAddress == null)
+            return null;
+        if (isSteadyState(rtpPacket, ssrcinfo))
+            return ssrcinfo;
+        ssrcinfo.steadyAddress = null;
+        return null;
+    }
+
+    /**
+     * Determines whether a specific <tt>RTPPacket</tt> may take the
+     * steady-state fast path of the stream of a specific <tt>SSRCInfo</tt>
+     * which is in the steady state.
+     *
+     * @param rtpPacket the <tt>RTPPacket</tt> to check
+     * @param ssrcinfo the <tt>SSRCInfo</tt> with the SSRC of
+     * <tt>rtpPacket</tt>
+     * @return <tt>true</tt> if <tt>rtpPacket</tt> may take the steady-state
+     * fast path; otherwise, <tt>false</tt>
+     */
+    private boolean isSteadyState(RTPPacket rtpPacket, SSRCInfo ssrcinfo)
+    {
+        int steadyPayloadType = ssrcinfo.steadyPayloadType;
+
+        if (rtpPacket.payloadType != steadyPayloadType
+                || rtpPacket.csrc.length != 0
+                || !(rtpPacket.base instanceof UDPPacket))
+            return false;
+
+        InetAddress address = ((UDPPacket) rtpPacket.base).remoteAddress;
+
+        if (address == null || !address.equals(ssrcinfo.steadyAddress))
+            return false;
+
+        /*
+         * A lookup of an established stream from an unchanged address does not
+         * synchronize and returns the same SSRCInfo unless the SSRCCache has
+         * replaced or dropped it in the meantime.
+         */
+        if (cache.get(rtpPacket.ssrc, address,
+                ((UDPPacket) rtpPacket.base).remotePort, 1) != ssrcinfo)
+            return false;
+
+        if (!ssrcinfo.sender
+                || !ssrcinfo.active
+                || ssrcinfo.quiet
+                || ssrcinfo.newrecvstream
+                || !ssrcinfo.streamconnect
+                || ssrcinfo.dstream == null
+                || ssrcinfo.currentformat == null
+                || ssrcinfo.lastPayloadType != steadyPayloadType
+                || cache.sm.formatinfo.get(steadyPayloadType)
+                        != ssrcinfo.steadyFormat
+                || cache.sm.dslist.get(ssrcinfo.ssrc) != ssrcinfo.dsource)
+            return false;
+
+        return true;
+    }
+
+    /**
+     * Processes a specific <tt>RTPPacket</tt> of an established stream
+     * (as determined by {@link #isSteadyState(RTPPacket)}) by updating the
+     * statistics and demultiplexing it. The checks and the (re)initialization
+     * of the full processing in {@link #handlePacket(RTPPacket)} are known to
+     * have no effect for such a packet and are skipped.
+     *
+     * @param rtpPacket the <tt>RTPPacket</tt> to process
+     * @param ssrcinfo the <tt>SSRCInfo</tt> of the stream of
+     * <tt>rtpPacket</tt>
+     */
+    private void handleSteadyStatePacket(RTPPacket rtpPacket, SSRCInfo ssrcinfo)
+    {
+        updateStats(rtpPacket, ssrcinfo);
+        /*
+         * The destinations of unicast RTCP depend on the transmitter of the
+         * session which may come and go independently of the stream.
+         */
+        handleRTCP(rtpPacket);
+        updateSsrcInfoStats(rtpPacket, ssrcinfo);
+        rtpdemultiplexer.demuxpayload(rtpPacket, ssrcinfo);
+    }
+
+    /**
+     * Puts the stream of a specific <tt>RTPPacket</tt> which has just gone
+     * through the full processing in the steady state i.e. lets its
+     * subsequent packets take the steady-state fast path if the stream is
+     * established.
+     *
+     * @param rtpPacket the <tt>RTPPacket</tt> which has just been processed
+     * @param ssrcinfo the <tt>SSRCInfo</tt> of the stream of
+     * <tt>rtpPacket</tt>
+     */
+    private void enterSteadyStateIfPossible(RTPPacket rtpPacket,
+                                            SSRCInfo ssrcinfo)
+    {
+        if (steadyStateEnabled
+                && rtpPacket.csrc.length == 0
+                && rtpPacket.base instanceof UDPPacket
+                && ((UDPPacket) rtpPacket.base).remoteAddress != null
+                && ssrcinfo.dstream != null
+                && ssrcinfo.currentformat != null
+                && initBC)
+        {
+            ssrcinfo.steadyPayloadType = rtpPacket.payloadType;
+            ssrcinfo.steadyFormat
+                = cache.sm.formatinfo.get(rtpPacket.payloadType);
+            ssrcinfo.steadyAddress
+                = ((UDPPacket) rtpPacket.base).remoteAddress;
+        }
+    }
+
+    private boolean isUnsupportedPayloadType(RTPPacket rtpPacket)
+    {
+        // Drop CN and G.729 packets as not supported
+        return rtpPacket.payloadType == 13 || rtpPacket.payloadType == 18;
+    }
+
     private void demuxPacket(RTPPacket rtpPacket,
                              SSRCInfo ssrcinfo)
     {
         if (ssrcinfo.dsource != null)
         {
             // Demux the actual packet
-            SourceRTPPacket sourcertppacket = new SourceRTPPacket(rtpPacket, ssrcinfo);
-            rtpdemultiplexer.demuxpayload(sourcertppacket);
+            rtpdemultiplexer.demuxpayload(rtpPacket, ssrcinfo);
         }
     }
 
@@ -215,25 +516,19 @@ public class RTPReceiver extends PacketFilter
         ssrcinfo.lastPayloadType = rtpPacket.payloadType;
         ssrcinfo.bytesreceived += rtpPacket.payloadlength;
         ssrcinfo.lastHeardFrom = ((Packet) (rtpPacket)).receiptTime;
+    }
 
-        int diff = rtpPacket.seqnum - ssrcinfo.maxseq;
-        if (diff > 0)
-        {
-            if (ssrcinfo.maxseq + 1 != rtpPacket.seqnum)
-                ssrcinfo.stats.update(RTPStats.PDULOST, diff - 1);
-        }
-        else if (diff < 0)
-        {
-            // Packets arriving out of order have already been counted as lost
-            // (by the clause above), so decrease the lost count.
-            if (diff > -MAX_MISORDER)
-                ssrcinfo.stats.update(RTPStats.PDULOST, -1);
-        }
-        if (ssrcinfo.wrapped)
-            ssrcinfo.wrapped = false;
-        boolean flag = false;
-
-
+    /**
+     * (Re)connects the <tt>SSRCInfo</tt> of a specific <tt>RTPPacket</tt> to
+     * its <tt>DataSource</tt> and <tt>RTPSourceStream</tt>. Once a stream is
+     * established this has no effect and the steady-state fast path skips it.
+     *
+     * @param rtpPacket the <tt>RTPPacket</tt> being processed
+     * @param ssrcinfo the <tt>SSRCInfo</tt> of the stream of
+     * <tt>rtpPacket</tt>
+     */
+    private void reconnectStream(RTPPacket rtpPacket, SSRCInfo ssrcinfo)
+    {
         net.sf.fmj.media.protocol.rtp.DataSource datasource = (net.sf.fmj.media.protocol.rtp.DataSource) cache.sm.dslist.get(ssrcinfo.ssrc);
 
         if (datasource == null)
@@ -359,17 +654,12 @@ public class RTPReceiver extends PacketFilter
      * If not, we're not going to be able to process it so throw it away.
      *
      * @param rtpPacket The RTP packet to check
-     * @throws PartiallyProcessedPacketException
+     * @return <tt>true</tt> if a format has been registered for the payload
+     * type of <tt>rtpPacket</tt>; otherwise, <tt>false</tt>
      */
-    private void checkPayloadTypeCache(RTPPacket rtpPacket)
-        throws PartiallyProcessedPacketException
+    private boolean checkPayloadTypeCache(RTPPacket rtpPacket)
     {
-        if (cache.sm.formatinfo.get(rtpPacket.payloadType) == null)
-        {
-            throw new PartiallyProcessedPacketException(
-                "No format has been registered for RTP Payload type " +
-                rtpPacket.payloadType);
-        }
+        return cache.sm.formatinfo.get(rtpPacket.payloadType) != null;
     }
 
     /**
@@ -438,11 +728,9 @@ public class RTPReceiver extends PacketFilter
      *
      * @param rtpPacket The current RTP packet to take the format from
      * @param ssrcinfo The current SSRC info
-     * @throws PartiallyProcessedPacketException
      */
     private void setCurrentFormatIfRequired(RTPPacket rtpPacket,
                                                    SSRCInfo ssrcinfo)
-        throws PartiallyProcessedPacketException
     {
         if (ssrcinfo.currentformat == null)
         {
@@ -523,63 +811,55 @@ public class RTPReceiver extends PacketFilter
 
     private void updateStats(RTPPacket rtpPacket, SSRCInfo ssrcinfo)
     {
-        int diff = rtpPacket.seqnum - ssrcinfo.maxseq;
-
-        if (ssrcinfo.maxseq + 1 != rtpPacket.seqnum && diff > 0)
-        {
-            ssrcinfo.stats.update(RTPStats.PDULOST, diff - 1);
-        }
-
-        //Packets arriving out of order have already been counted as lost (by
-        //the clause above), so decrease the lost count.
-        if (diff > -MAX_MISORDER && diff < 0)
-        {
-            ssrcinfo.stats.update(RTPStats.PDULOST, -1);
-        }
+        /*
+         * Measure how far (modulo 2^16) the packet is ahead of the highest
+         * sequence number received so far as in appendix A.1 of RFC 3550 so
+         * that the statistics are not disturbed when the sequence numbers
+         * wrap.
+         */
+        int udelta = (rtpPacket.seqnum - ssrcinfo.maxseq) & 0xffff;
 
         if (ssrcinfo.wrapped)
         {
             ssrcinfo.wrapped = false;
         }
 
-        if (diff < MAX_DROPOUT)
+        if (udelta == 0)
         {
-            if (rtpPacket.seqnum < ssrcinfo.baseseq)
+            ssrcinfo.stats.update(RTPStats.PDUDUP);
+        }
+        else if (udelta < MAX_DROPOUT)
+        {
+            // In order, with a permissible gap.
+            if (udelta > 1)
+                ssrcinfo.stats.update(RTPStats.PDULOST, udelta - 1);
+            if (rtpPacket.seqnum < ssrcinfo.maxseq)
             {
-                /*
-                 * Vincent Lucas: Without any lost, the seqnum cycles when
-                 * passing from 65535 to 0. Thus, diff is equal to -65535. But
-                 * if there have been losses, diff may be -65534, -65533, etc.
-                 * On the other hand, if diff is too close to 0 (i.e. -1, -2,
-                 * etc.), it may correspond to a packet out of sequence. This is
-                 * why it is a sound choice to differentiate between a cycle and
-                 * an out-of-sequence on the basis of a value in between the two
-                 * cases i.e. -65535 / 2.
-                 */
-                if (diff < -65535 / 2)
-                {
-                    ssrcinfo.cycles += 0x10000;
-                    ssrcinfo.wrapped = true;
-                }
+                ssrcinfo.cycles += SEQ_MOD;
+                ssrcinfo.wrapped = true;
             }
             ssrcinfo.maxseq = rtpPacket.seqnum;
         }
-        else if (diff <= (65536 - MAX_MISORDER))
+        else if (udelta <= SEQ_MOD - MAX_MISORDER)
         {
+            /*
+             * A very large jump. Assume that the source has restarted once
+             * two sequential packets have been received.
+             */
             ssrcinfo.stats.update(RTPStats.PDUINVALID);
             if (rtpPacket.seqnum == ssrcinfo.lastbadseq)
+            {
                 ssrcinfo.initsource(rtpPacket.seqnum);
+                ssrcinfo.maxseq = rtpPacket.seqnum;
+            }
             else
                 ssrcinfo.lastbadseq = rtpPacket.seqnum + 1 & 0xffff;
         }
         else
         {
-            /*
-             * TODO Boris Grozev: The case of diff==0 is caught in
-             * diff<MAX_DROPOUT and does NOT end up here. Is this the way it is
-             * supposed to work?
-             */
-            ssrcinfo.stats.update(RTPStats.PDUDUP);
+            // Packets arriving out of order have already been counted as lost
+            // (by the in-order clause above), so decrease the lost count.
+            ssrcinfo.stats.update(RTPStats.PDULOST, -1);
         }
 
         ssrcinfo.received++;
@@ -613,7 +893,6 @@ public class RTPReceiver extends PacketFilter
     }
 
     private SSRCInfo getSsrcInfo(RTPPacket rtpPacket)
-        throws FailedToProcessPacketException
     {
         SSRCInfo ssrcInfo = null;
 
@@ -628,14 +907,8 @@ public class RTPReceiver extends PacketFilter
             ssrcInfo = cache.get(rtpPacket.ssrc, null, 0, 1);
         }
 
-        if (ssrcInfo == null)
-        {
-            throw new FailedToProcessPacketException(String.format(
-                "Dropping RTP packet because ssrcinfo couldn't be obtained " +
-                "from the cache network address. seqnum=%s, ssrc=%s",
-                rtpPacket.seqnum, rtpPacket.ssrc));
-        }
-
+        // null if the SSRCInfo couldn't be obtained from the cache e.g.
+        // because of a collision.
         return ssrcInfo;
     }
 
@@ -644,10 +917,10 @@ public class RTPReceiver extends PacketFilter
      * discard it if not.
      *
      * @param rtppacket The current packet to check
-     * @throws FailedToProcessPacketException
+     * @return <tt>true</tt> if <tt>rtppacket</tt> is to be processed;
+     * otherwise, <tt>false</tt>
      */
-    private void checkNetworkAddress(RTPPacket rtppacket)
-        throws FailedToProcessPacketException
+    private boolean checkNetworkAddress(RTPPacket rtppacket)
     {
         if (rtppacket.base instanceof UDPPacket)
         {
@@ -656,11 +929,10 @@ public class RTPReceiver extends PacketFilter
                     && !cache.sm.isBroadcast(cache.sm.dataaddress)
                     && !inetaddress.equals(cache.sm.dataaddress))
             {
-                throw new FailedToProcessPacketException(String.format(
-                    "Dropping RTP packet because of a problem with the " +
-                    "network address. seqnum=%s", rtppacket.seqnum));
+                return false;
             }
         }
+        return true;
     }
 
     /**
@@ -228,6 +228,7 @@ public class RTPSessionMgr extends RTPManager implements SessionManager
         buffercontrol = new BufferControlImpl();
         defaultstats = new OverallStats();
         transstats = new OverallTransStats();
+        streamSynch = new StreamSynch();
         UpdateEncodings(datasource);
         RTPMediaLocator rtpmedialocator = null;
         try
@@ -326,6 +327,7 @@ public class RTPSessionMgr extends RTPManager implements SessionManager
         buffercontrol = new BufferControlImpl();
         defaultstats = new OverallStats();
         transstats = new OverallTransStats();
+        streamSynch = new StreamSynch();
         DataSource datasource = createNewDS(((RTPMediaLocator) (null)));
         UpdateEncodings(rtppushdatasource);
         RTPControl rtpcontrol = (RTPControl) rtppushdatasource
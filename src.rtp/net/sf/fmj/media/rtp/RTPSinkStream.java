@@ -27,6 +27,37 @@ public class RTPSinkStream implements BufferTransferHandler
     long audioPT;
     static int THRESHOLD = 80;
     static int LEEWAY = 5;
+    /**
+     * The generator of the RFC 5109 (ULPFEC) packets which protect the
+     * packets of this stream or <tt>null</tt> if forward error correction is
+     * disabled.
+     */
+    ULPFECEncoder fecEncoder;
+    /**
+     * The payload type of the FEC packets.
+     */
+    int fecPayloadType;
+    /**
+     * The sequence number of the next FEC packet. The FEC packets are sent on
+     * an SSRC of their own so they have a sequence number space of their own.
+     */
+    int fecSeq;
+    /**
+     * The queue of the shared <tt>PacedSender</tt> which sends the packets of
+     * this stream at their presentation times or <tt>null</tt> if this stream
+     * sleeps until then itself.
+     */
+    PacedSender.Queue pacer;
+    /**
+     * The time in nanoseconds at which the current packet is to be sent by
+     * {@link #pacer} or <tt>-1</tt> to send it as soon as possible.
+     */
+    long releaseTime;
+    /**
+     * The value of <tt>System.nanoTime()</tt> which corresponds to
+     * {@link #startTime}.
+     */
+    long startNanos;
 
     public RTPSinkStream()
     {
@@ -43,11 +74,29 @@ public class RTPSinkStream implements BufferTransferHandler
         mpegPFrame = false;
         bufSizeSet = false;
         audioPT = 0L;
+        if (com.sun.media.util.Registry.getBoolean("rtp_fec_ENABLE", false))
+        {
+            int groupSize = com.sun.media.util.Registry.getInt(
+                    "rtp_fec_GROUP_SIZE", ULPFECEncoder.DEFAULT_GROUP_SIZE);
+            if (groupSize > 0)
+            {
+                fecEncoder = new ULPFECEncoder(Math.min(groupSize,
+                        ULPFECEncoder.MAX_GROUP_SIZE));
+                fecPayloadType = com.sun.media.util.Registry.getInt(
+                        "rtp_fec_PAYLOAD_TYPE",
+                        ULPFECEncoder.DEFAULT_PAYLOAD_TYPE);
+                fecSeq = (int) TrueRandom.rand() & 0xffff;
+            }
+        }
+        if (PacedSender.isEnabled())
+            pacer = PacedSender.getInstance().createQueue(this);
     }
 
     protected void close()
     {
         stop();
+        if (pacer != null)
+            pacer.close();
     }
 
     protected void setSSRCInfo(SendSSRCInfo info)
@@ -79,6 +128,8 @@ public class RTPSinkStream implements BufferTransferHandler
         Log.annotate(this, "stop");
         started = false;
         startPT = -1L;
+        if (pacer != null)
+            pacer.clear();
         synchronized (startReq)
         {
             startReq.notifyAll();
@@ -122,6 +173,7 @@ public class RTPSinkStream implements BufferTransferHandler
 
     private void transmitAudio()
     {
+        releaseTime = -1L;
         if (current.isEOM() || current.isDiscard())
         {
             startPT = -1L;
@@ -130,6 +182,7 @@ public class RTPSinkStream implements BufferTransferHandler
         if (startPT == -1L)
         {
             startTime = System.currentTimeMillis();
+            startNanos = System.nanoTime();
             startPT = current.getTimeStamp() <= 0L ? 0L : current
                     .getTimeStamp() / 0xf4240L;
             audioPT = startPT;
@@ -143,11 +196,12 @@ public class RTPSinkStream implements BufferTransferHandler
                         .computeDuration(current.getLength()) / 0xf4240L;
             waitForPT(startTime, startPT, audioPT);
         }
-        transmitter.TransmitPacket(current, info);
+        send();
     }
 
     private void transmitVideo()
     {
+        releaseTime = -1L;
         if (current.isEOM() || current.isDiscard())
         {
             startPT = -1L;
@@ -158,6 +212,7 @@ public class RTPSinkStream implements BufferTransferHandler
         if (startPT == -1L)
         {
             startTime = System.currentTimeMillis();
+            startNanos = System.nanoTime();
             startPT = current.getTimeStamp() / 0xf4240L;
         }
         if (current.getTimeStamp() > 0L && (current.getFlags() & 0x60) == 0
@@ -179,11 +234,98 @@ public class RTPSinkStream implements BufferTransferHandler
             {
                 waitForPT(startTime, startPT, current.getTimeStamp() / 0xf4240L);
             }
-        transmitter.TransmitPacket(current, info);
+        send();
+    }
+
+    /**
+     * Records the difference between the time at which a packet has been sent
+     * by {@link #pacer} and its presentation time.
+     *
+     * @param error the difference in nanoseconds
+     */
+    void recordPacingError(long error)
+    {
+        if (info != null)
+            info.stats.addPacingError(error);
+    }
+
+    /**
+     * Sends the packet in {@link #current} right away or queues it to
+     * {@link #pacer} to be sent at {@link #releaseTime}.
+     */
+    private void send()
+    {
+        if (pacer == null)
+        {
+            transmit(current);
+            return;
+        }
+        try
+        {
+            pacer.add(current, releaseTime);
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sends the packet in a specific <tt>Buffer</tt> (and the FEC packet it
+     * completes, if any).
+     *
+     * @param b the <tt>Buffer</tt> to send the data of
+     */
+    void transmit(Buffer b)
+    {
+        transmitter.TransmitPacket(b, info);
+        if (fecEncoder != null)
+            protect(b);
+    }
+
+    /**
+     * Accumulates the packet just sent out of a specific <tt>Buffer</tt> into
+     * the FEC parity and sends a FEC packet if the packet has completed a
+     * group.
+     */
+    private void protect(Buffer b)
+    {
+        if (!(b.getData() instanceof byte[]))
+            return;
+        byte fec[] = fecEncoder.protect((int) info.lastSeq,
+                ((SSRCInfo) info).rtptime,
+                (b.getFlags() & Buffer.FLAG_RTP_MARKER) != 0,
+                ((SSRCInfo) info).payloadType, (byte[]) b.getData(),
+                b.getOffset(), b.getLength());
+        if (fec == null)
+            return;
+        Packet p = new Packet();
+        p.data = fec;
+        p.offset = 0;
+        p.length = fec.length;
+        p.received = false;
+        RTPPacket rtp = new RTPPacket(p);
+        rtp.marker = 0;
+        rtp.payloadType = fecPayloadType;
+        rtp.seqnum = fecSeq;
+        rtp.timestamp = fecEncoder.getTimestamp();
+        rtp.ssrc = ULPFECEncoder.getFECSSRC(((SSRCInfo) info).ssrc);
+        rtp.payloadoffset = 0;
+        rtp.payloadlength = fec.length;
+        fecSeq = (fecSeq + 1) & 0xffff;
+        transmitter.transmit(rtp);
+        transmitter.cache.sm.transstats.rtp_sent++;
+        transmitter.cache.sm.transstats.bytes_sent
+            = transmitter.cache.sm.transstats.bytes_sent + fec.length;
     }
 
     private void waitForPT(long start, long startPT, long pt)
     {
+        if (pacer != null)
+        {
+            releaseTime = startNanos + (pt - startPT) * 1000000L;
+            return;
+        }
         for (long delay = pt - startPT - (System.currentTimeMillis() - start); delay > LEEWAY; delay = pt
                 - startPT - (System.currentTimeMillis() - start))
         {
@@ -23,8 +23,33 @@ public class RTPSourceStream
     extends BasicSourceStream
     implements PushBufferStream, Runnable
 {
+    /**
+     * The value returned by {@link #playout()} when there is nothing to be
+     * transferred until the jitter buffer signals a change.
+     */
+    static final int PLAYOUT_IDLE = 0;
+
+    /**
+     * The value returned by {@link #playout()} when the jitter buffer holds
+     * packets which it is not ready to release yet and which are to be
+     * re-examined after a while.
+     */
+    static final int PLAYOUT_POLL = 2;
+
+    /**
+     * The value returned by {@link #playout()} when data has been transferred
+     * and more may be ready.
+     */
+    static final int PLAYOUT_READY = 1;
+
     private BufferControlImpl bc = null;
 
+    /**
+     * The clock which the jitter buffer logic of this instance reads the time
+     * from.
+     */
+    JitterBufferClock clock = JitterBufferClock.SYSTEM;
+
     /**
      * The jitter buffer associated with this instance in terms of behaviour,
      * logic agnostic of the very storage-related details and the simplest of
@@ -45,6 +70,7 @@ public class RTPSourceStream
     private boolean hasRead = false;
 
     private boolean killed = false;
+
     /**
      * The sequence number of the last <tt>Buffer</tt> added to this instance.
      */
@@ -55,6 +81,12 @@ public class RTPSourceStream
      */
     private long lastSeqSent = Buffer.SEQUENCE_UNKNOWN;
 
+    /**
+     * The number of packets dropped from {@link #q} (rather than read out of
+     * it) at the time of the last read.
+     */
+    private long lastDroppedCount = 0;
+
     /**
      * The RTP packet queue/jitter buffer which implements the storage of the
      * RTP packets added to and read from this <tt>RTPSourceStream</tt>.
@@ -72,6 +104,13 @@ public class RTPSourceStream
      */
     final JitterBufferStats stats;
 
+    /**
+     * The <tt>Registration</tt> of this instance with the shared
+     * <tt>PlayoutScheduler</tt> if it is enabled; otherwise, <tt>null</tt> and
+     * {@link #thread} transfers the data of this instance.
+     */
+    private volatile PlayoutScheduler.Registration playout;
+
     private RTPMediaThread thread;
 
     private BufferTransferHandler transferHandler;
@@ -83,7 +122,12 @@ public class RTPSourceStream
         datasource.setSourceStream(this);
         this.datasource = datasource;
 
-        q = new JitterBuffer(8);
+        q
+            = com.sun.media.util.Registry.getBoolean(
+                    "jitter_buffer_SEQUENCE_INDEXED",
+                    false)
+                ? new SequenceIndexedJitterBuffer(8)
+                : new JitterBuffer(8);
         stats = new JitterBufferStats(this);
 
         /*
@@ -105,10 +149,18 @@ public class RTPSourceStream
      * is done. Otherwise, a packet is dropped using PktQue.dropPkt()
      *
      * @param buffer the buffer to add
-     * @param flag unused
+     * @param flag <tt>true</tt> if the ownership of <tt>buffer</tt> and its
+     * data is to be transferred to the queue, in which case <tt>buffer</tt>
+     * itself takes the place of a free queue slot instead of being copied into
+     * it; <tt>false</tt> to copy
      * @param rtprawreceiver used to access the 'socket buffer'?
+     * @return the <tt>Buffer</tt> which the caller owns after the method
+     * returns: <tt>buffer</tt> if it has not been taken over by the queue or
+     * the free queue slot released in exchange for it, along with the
+     * (possibly <tt>null</tt>) data of that slot
      */
-    public void add(Buffer buffer, boolean flag, RTPRawReceiver rtprawreceiver)
+    public Buffer add(Buffer buffer, boolean flag,
+            RTPRawReceiver rtprawreceiver)
     {
         if (JitterBufferTester.shouldReset())
         {
@@ -116,7 +168,7 @@ public class RTPSourceStream
         }
 
         if (!started && !bufferWhenStopped)
-            return;
+            return buffer;
 
         long bufferSN = buffer.getSequenceNumber();
 
@@ -126,6 +178,8 @@ public class RTPSourceStream
          * bufferWhenStopped above is usually synchronized on startReq so they
          * are left out to avoid synchronization on multiple monitors.
          */
+        try
+        {
         synchronized (q)
         {
             
@@ -140,14 +194,23 @@ public class RTPSourceStream
 
         stats.updateMaxSizeReached();
         stats.updateSizePerPacket(buffer);
+        /*
+         * A duplicate is discarded before it may make room for itself by
+         * dropping other packets.
+         */
+        if (q.isDuplicate(bufferSN))
+        {
+            stats.incrementDiscardedDuplicate();
+            return buffer;
+        }
         if (!behaviour.preAdd(buffer, rtprawreceiver))
-            return;
+            return buffer;
 
         stats.incrementNbAdd();
         lastSeqRecv = bufferSN;
         boolean almostFull = false;
 
-        if (q.noMoreFree())
+        if (!q.hasRoomFor(bufferSN))
         {
             /*
              * The queue cannot accommodate the current packet so we have to
@@ -159,29 +222,54 @@ public class RTPSourceStream
             {
                 // The current/received packet is the earliest. Drop it by
                 // simply not adding it.
-                return;
+                return buffer;
             }
             behaviour.dropPkt();
+            /*
+             * A queue indexed by sequence number may have to drop more than
+             * one packet in order to make room for a packet which follows a
+             * gap.
+             */
+            while (!q.hasRoomFor(bufferSN) && q.fillNotEmpty())
+            {
+                stats.incrementDiscardedFull();
+                behaviour.dropPkt();
+            }
         }
 
         if (q.getFreeCount() <= 1)
             almostFull = true;
         Buffer qBuffer = q.getFree();
+        Buffer freed = null;
         boolean added = false;
 
         try
         {
-            byte bufferData[] = (byte[]) buffer.getData();
-            byte qBufferData[] = (byte[]) qBuffer.getData();
-            if ((qBufferData == null)
-                    || (qBufferData.length < bufferData.length))
-                qBufferData = new byte[bufferData.length];
-            System.arraycopy(
-                    bufferData, buffer.getOffset(),
-                    qBufferData, buffer.getOffset(),
-                    buffer.getLength());
-            qBuffer.copy(buffer);
-            qBuffer.setData(qBufferData);
+            if (flag)
+            {
+                /*
+                 * Swap the Buffer of the receive path into the queue and hand
+                 * the free slot back so that neither the payload nor the
+                 * attributes have to be copied.
+                 */
+                freed = qBuffer;
+                qBuffer = buffer;
+                q.swapFree(freed, qBuffer);
+            }
+            else
+            {
+                byte bufferData[] = (byte[]) buffer.getData();
+                byte qBufferData[] = (byte[]) qBuffer.getData();
+                if ((qBufferData == null)
+                        || (qBufferData.length < bufferData.length))
+                    qBufferData = new byte[bufferData.length];
+                System.arraycopy(
+                        bufferData, buffer.getOffset(),
+                        qBufferData, buffer.getOffset(),
+                        buffer.getLength());
+                qBuffer.copy(buffer);
+                qBuffer.setData(qBufferData);
+            }
             if (almostFull) //with this packet added, the queue will be full
             {
                 qBuffer.setFlags(
@@ -202,13 +290,45 @@ public class RTPSourceStream
         finally
         {
             if (!added)
+            {
+                if (freed != null)
+                {
+                    q.swapFree(qBuffer, freed);
+                    qBuffer = freed;
+                    freed = null;
+                }
                 q.returnFree(qBuffer);
+            }
         }
 
         if (!behaviour.willReadBlock())
-            q.notifyAll();
+            notifyPlayout();
+
+        return (freed == null) ? buffer : freed;
 
         } /* synchronized (q) */
+        }
+        finally
+        {
+            // Send any feedback which has become due outside the monitor.
+            behaviour.sendFeedback();
+        }
+    }
+
+    /**
+     * Determines whether packets recovered by forward error correction are to
+     * be kept away from the jitter buffer of this stream for the time being.
+     *
+     * @return <tt>true</tt> if packets recovered by FEC are not to be added to
+     * this stream; otherwise, <tt>false</tt>
+     * @see JitterBufferBehaviour#willSkipFec()
+     */
+    boolean willSkipFec()
+    {
+        synchronized (q)
+        {
+            return behaviour.willSkipFec();
+        }
     }
 
     public void close()
@@ -228,6 +348,11 @@ public class RTPSourceStream
             q.notifyAll();
         }
         thread = null;
+        if (playout != null)
+        {
+            playout.close();
+            playout = null;
+        }
         if (bc != null)
             bc.removeSourceStream(this);
     }
@@ -241,14 +366,28 @@ public class RTPSourceStream
 
     private void createThread()
     {
-        if (thread == null)
+        if ((thread == null) && (playout == null))
         {
-            thread = new RTPMediaThread(this, "RTPStream");
-            thread.useControlPriority();
-            thread.start();
+            if (PlayoutScheduler.isEnabled())
+            {
+                playout = PlayoutScheduler.getInstance().register(this);
+                return;
+            }
+
+            startThread();
         }
     }
 
+    /**
+     * Starts {@link #thread} which transfers the data of this instance.
+     */
+    private void startThread()
+    {
+        thread = new RTPMediaThread(this, "RTPStream");
+        thread.useControlPriority();
+        thread.start();
+    }
+
     /**
      * Gets the <tt>JitterBufferBehaviour</tt> which represents the behaviour
      * exhibited by/the logic of the jitter buffer/RTP packet queue associated
@@ -324,6 +463,85 @@ public class RTPSourceStream
         return lastSeqSent;
     }
 
+    /**
+     * Notifies {@link #thread} or the <tt>PlayoutScheduler</tt> that the state
+     * of the jitter buffer has changed and it may have become ready to be read
+     * from. Must be called while holding the monitor of {@link #q}.
+     */
+    private void notifyPlayout()
+    {
+        q.notifyAll();
+
+        PlayoutScheduler.Registration playout = this.playout;
+
+        if (playout != null)
+            playout.schedule();
+    }
+
+    /**
+     * Performs an iteration of {@link #run()} on behalf of the shared
+     * <tt>PlayoutScheduler</tt>, without waiting, i.e. transfers the data of
+     * this instance to its <tt>BufferTransferHandler</tt> if the jitter buffer
+     * may be read from.
+     *
+     * @return {@link #PLAYOUT_READY} if data has been transferred and this
+     * instance is to be dispatched again right away, {@link #PLAYOUT_POLL} if
+     * the jitter buffer holds packets which are to be re-examined after a
+     * while or {@link #PLAYOUT_IDLE} if this instance is not to be dispatched
+     * until {@link #notifyPlayout()}
+     */
+    int playout()
+    {
+        synchronized (startSyncRoot)
+        {
+            if (killed || !started)
+                return PLAYOUT_IDLE;
+        }
+        behaviour.sendFeedback();
+        synchronized (q)
+        {
+            if (!hasRead && behaviour.willReadBlock())
+                return q.fillNotEmpty() ? PLAYOUT_POLL : PLAYOUT_IDLE;
+
+            hasRead = false;
+        }
+
+        BufferTransferHandler transferHandler = this.transferHandler;
+
+        if (transferHandler == null)
+            return PLAYOUT_IDLE;
+        transferHandler.transferData(this);
+
+        /*
+         * Unlike run(), do not retry right away if the transfer handler has
+         * not read because that would keep a worker thread of the scheduler
+         * busy.
+         */
+        synchronized (q)
+        {
+            if (hasRead)
+                return PLAYOUT_READY;
+            return q.fillNotEmpty() ? PLAYOUT_POLL : PLAYOUT_IDLE;
+        }
+    }
+
+    /**
+     * Transfers the data of this instance on a dedicated thread instead of
+     * the shared <tt>PlayoutScheduler</tt> because {@link #transferHandler}
+     * has blocked a worker thread of the scheduler.
+     *
+     * @param registration the <tt>Registration</tt> which has been closed
+     * because of the blocked transfer
+     */
+    void playoutBlocked(PlayoutScheduler.Registration registration)
+    {
+        if (playout != registration)
+            return;
+        playout = null;
+        if (!killed)
+            startThread();
+    }
+
     public void prebuffer()
     {
         // TODO Auto-generated method stub
@@ -351,7 +569,37 @@ public class RTPSourceStream
                 Log.logRemoved(this);
 
                 if (!buffer.isDiscard())
-                    lastSeqSent = buffer.getSequenceNumber();
+                {
+                    long bufferSN = buffer.getSequenceNumber();
+                    long lost
+                        = ((lastSeqSent == Buffer.SEQUENCE_UNKNOWN)
+                                || (bufferSN == Buffer.SEQUENCE_UNKNOWN))
+                            ? 0
+                            : (((bufferSN - lastSeqSent) & 0xFFFFL) - 1);
+                    long dropped = q.getDroppedCount();
+
+                    /*
+                     * Signal a gap in the (16-bit RTP) sequence numbers to the
+                     * downstream so that it may conceal the loss. The packets
+                     * dropped on purpose (e.g. to shrink the jitter buffer)
+                     * since the last read are not losses and concealing them
+                     * would restore the delay their dropping has removed.
+                     */
+                    if ((lost > 0) && (lost < 0x8000L))
+                        lost -= dropped - lastDroppedCount;
+                    lastDroppedCount = dropped;
+                    if ((lost > 0) && (lost < 0x8000L))
+                    {
+                        buffer.setFlags(
+                                buffer.getFlags() | Buffer.FLAG_PACKET_LOSS);
+                    }
+                    else
+                    {
+                        buffer.setFlags(
+                                buffer.getFlags() & ~Buffer.FLAG_PACKET_LOSS);
+                    }
+                    lastSeqSent = bufferSN;
+                }
             }
             finally
             {
@@ -360,7 +608,7 @@ public class RTPSourceStream
                     Charting.jbQueueSizeChanged(q.getFillCount(), q.getCapacity());
                     stats.updateSizeAndCapacity(q.getFillCount(), q.getCapacity());
                     hasRead = true;
-                    q.notifyAll();
+                    notifyPlayout();
                 }
             }
         }
@@ -401,7 +649,7 @@ public class RTPSourceStream
         {
             for (; q.fillNotEmpty(); behaviour.dropPkt())
                 count++;
-            q.notifyAll();
+            notifyPlayout();
         }
         
         for (int i = 0; i < count; i++)
@@ -423,11 +671,12 @@ public class RTPSourceStream
                         continue;
                     }
                 }
+                behaviour.sendFeedback();
                 synchronized (q)
                 {
                     if (!killed && !hasRead && behaviour.willReadBlock())
                     {
-                        q.wait();
+                        q.wait(behaviour.getWaitTimeout());
                         continue;
                     }
 
@@ -516,9 +765,23 @@ public class RTPSourceStream
             JitterBufferBehaviour behaviour;
 
             if (this.format instanceof AudioFormat)
-                behaviour = new AudioJitterBufferBehaviour(this);
+            {
+                behaviour
+                    = com.sun.media.util.Registry.getBoolean(
+                            "adaptive_jitter_buffer_TIME_BASED",
+                            false)
+                        ? new TimeBasedAudioJitterBufferBehaviour(this)
+                        : new AudioJitterBufferBehaviour(this);
+            }
             else if (this.format instanceof VideoFormat)
-                behaviour = new VideoJitterBufferBehaviour(this);
+            {
+                behaviour
+                    = com.sun.media.util.Registry.getBoolean(
+                            "video_jitter_buffer_FRAME_ASSEMBLING",
+                            false)
+                        ? new FrameAssemblingVideoJitterBufferBehaviour(this)
+                        : new VideoJitterBufferBehaviour(this);
+            }
             else
                 behaviour = null;
             setBehaviour(behaviour);
@@ -530,6 +793,11 @@ public class RTPSourceStream
     {
         Log.createLink(this, transferHandler, "RTPSourceStream uses BufferTransferHandler");
         this.transferHandler = transferHandler;
+
+        PlayoutScheduler.Registration playout = this.playout;
+
+        if (playout != null)
+            playout.schedule();
     }
 
     public void start()
@@ -542,7 +810,7 @@ public class RTPSourceStream
         }
         synchronized (q)
         {
-            q.notifyAll();
+            notifyPlayout();
         }
     }
 
@@ -555,7 +823,7 @@ public class RTPSourceStream
             
         synchronized (q)
         {
-            q.notifyAll();
+            notifyPlayout();
         }
     }
 
@@ -7,12 +7,40 @@ public class RTPTransStats implements TransmissionStats
     protected int total_pdu;
     protected int total_bytes;
     protected int total_rtcp;
+    protected int total_retransmitted;
+
+    /**
+     * The maximum pacing error in microseconds distinguished by
+     * {@link #pacingErrors}.
+     */
+    private static final int MAX_PACING_ERROR = 100000;
+
+    /**
+     * The errors in microseconds of the pacing of the packets sent by a
+     * <tt>PacedSender</tt> or <tt>null</tt> if none has been sent that way.
+     */
+    private DelayHistogram pacingErrors;
 
     public RTPTransStats()
     {
         total_pdu = 0;
         total_bytes = 0;
         total_rtcp = 0;
+        total_retransmitted = 0;
+    }
+
+    /**
+     * Records the difference between the time at which a packet has been sent
+     * by a <tt>PacedSender</tt> and its presentation time.
+     *
+     * @param error the difference in nanoseconds. A packet sent early counts
+     * as sent on time.
+     */
+    synchronized void addPacingError(long error)
+    {
+        if (pacingErrors == null)
+            pacingErrors = new DelayHistogram(MAX_PACING_ERROR, 50, 0.999);
+        pacingErrors.add(error / 1000L);
     }
 
     public int getBytesTransmitted()
@@ -20,11 +48,39 @@ public class RTPTransStats implements TransmissionStats
         return total_bytes;
     }
 
+    /**
+     * Gets the (estimated) pacing error which a specific percentage of the
+     * recent packets sent by a <tt>PacedSender</tt> do not exceed i.e. how
+     * late they have been sent with respect to their presentation times.
+     *
+     * @param percentile the percentage in the range [0, 100]
+     * @return the pacing error in microseconds which <tt>percentile</tt>
+     * percent of the recent packets do not exceed (rounded up to 50
+     * microseconds) or <tt>0</tt> if no packet has been paced
+     */
+    public synchronized int getPacingError(double percentile)
+    {
+        return
+            (pacingErrors == null) ? 0 : pacingErrors.getPercentile(percentile);
+    }
+
     public int getPDUTransmitted()
     {
         return total_pdu;
     }
 
+    /**
+     * Gets the number of RTP packets retransmitted in response to RTCP
+     * generic NACKs.
+     *
+     * @return the number of RTP packets retransmitted in response to RTCP
+     * generic NACKs
+     */
+    public int getPDURetransmitted()
+    {
+        return total_retransmitted;
+    }
+
     public int getRTCPSent()
     {
         return total_rtcp;
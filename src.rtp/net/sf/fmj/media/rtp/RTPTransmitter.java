@@ -12,6 +12,13 @@ public class RTPTransmitter
     RTPRawSender sender;
     SSRCCache cache;
 
+    /**
+     * The <tt>RTPPacket</tt> reused by {@link #MakeRTPPacket(Buffer,
+     * SendSSRCInfo)} and its base. Guarded by the monitor of this instance.
+     */
+    private final Packet sendBase = new Packet();
+    private final RTPPacket sendPacket = new RTPPacket(sendBase);
+
     public RTPTransmitter(SSRCCache cache)
     {
         this.cache = cache;
@@ -51,12 +58,13 @@ public class RTPTransmitter
         byte data[] = (byte[]) b.getData();
         if (data == null)
             return null;
-        Packet p = new Packet();
+        Packet p = sendBase;
         p.data = data;
         p.offset = 0;
         p.length = b.getLength();
         p.received = false;
-        RTPPacket rtp = new RTPPacket(p);
+        RTPPacket rtp = sendPacket;
+        rtp.wrap(p);
         if ((b.getFlags() & 0x800) != 0)
             rtp.marker = 1;
         else
@@ -74,9 +82,61 @@ public class RTPTransmitter
         return rtp;
     }
 
+    /**
+     * Retransmits the packets with specific sequence numbers which have been
+     * sent for a specific <tt>SendSSRCInfo</tt> and are still kept in its
+     * <tt>RetransmissionHistory</tt>. The packets are sent again unchanged
+     * i.e. with their original sequence numbers and timestamps. Serialized
+     * with {@link #TransmitPacket(Buffer, SendSSRCInfo)} which updates the
+     * same history and statistics.
+     *
+     * @param info the <tt>SendSSRCInfo</tt> of the stream to retransmit the
+     * packets of
+     * @param seqs the (16-bit RTP) sequence numbers of the packets to be
+     * retransmitted
+     */
+    public synchronized void retransmit(SendSSRCInfo info, int seqs[])
+    {
+        RetransmissionHistory history = info.retransmissionHistory;
+        if (history == null || sender == null)
+            return;
+        for (int i = 0; i < seqs.length; i++)
+        {
+            byte data[] = history.get(seqs[i]);
+            if (data == null)
+                continue;
+            Packet p = new Packet();
+            p.data = data;
+            p.offset = 0;
+            p.length = data.length;
+            p.received = false;
+            RTPPacket rtp = new RTPPacket(p);
+            rtp.marker = (data[1] & 0x80) >>> 7;
+            rtp.payloadType = data[1] & 0x7f;
+            rtp.seqnum = seqs[i] & 0xffff;
+            rtp.timestamp = readInt(data, 4) & 0xffffffffL;
+            rtp.ssrc = readInt(data, 8);
+            rtp.payloadoffset = 12;
+            rtp.payloadlength = data.length - 12;
+            transmit(rtp);
+            info.stats.total_retransmitted++;
+            cache.sm.transstats.rtp_sent++;
+            cache.sm.transstats.bytes_sent = cache.sm.transstats.bytes_sent
+                    + rtp.payloadlength;
+        }
+    }
+
+    private static int readInt(byte data[], int offset)
+    {
+        return (data[offset] << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
     public void setSender(RTPRawSender s)
     {
         sender = s;
+        if ((s != null) && (cache != null) && (cache.sm != null))
+            s.setTransStats(cache.sm.transstats);
     }
 
     protected void transmit(RTPPacket p)
@@ -90,7 +150,14 @@ public class RTPTransmitter
         }
     }
 
-    public void TransmitPacket(Buffer b, SendSSRCInfo info)
+    /**
+     * Sends the data of a specific <tt>Buffer</tt> in an RTP packet. The
+     * <tt>RTPPacket</tt> is reused across invocations so they are serialized.
+     *
+     * @param b the <tt>Buffer</tt> to send the data of
+     * @param info the <tt>SendSSRCInfo</tt> of the stream
+     */
+    public synchronized void TransmitPacket(Buffer b, SendSSRCInfo info)
     {
         info.rtptime = info.getTimeStamp(b);
         if (b.getHeader() instanceof Long)
@@ -104,6 +171,16 @@ public class RTPTransmitter
         } else
         {
             transmit(p);
+            RetransmissionHistory history = info.retransmissionHistory;
+            if (history != null)
+            {
+                // The header is not contiguous if sent by a gather write.
+                if (p.header == null)
+                    history.add(p.seqnum, p.data, p.offset, p.length);
+                else
+                    history.add(p.seqnum, p.header, p.data, p.offset,
+                            p.length);
+            }
             info.stats.total_pdu++;
             info.stats.total_bytes = info.stats.total_bytes + b.getLength();
             cache.sm.transstats.rtp_sent++;
@@ -0,0 +1,139 @@
+package net.sf.fmj.media.rtp;
+
+import java.lang.reflect.*;
+import java.net.*;
+
+import net.sf.fmj.media.rtp.util.*;
+
+/**
+ * Measures the time per packet of the receive path of an RTP session from
+ * the parsing of a datagram by <tt>RTPRawReceiver</tt> through
+ * <tt>RTPReceiver</tt> to its addition to the jitter buffer of its stream.
+ * The packets of a number of streams are interleaved as they would be when
+ * received on a single socket. The measurement is made with the
+ * steady-state fast path of <tt>RTPReceiver</tt> enabled and disabled (i.e.
+ * with every packet going through the full processing).
+ * <p>
+ * Usage: <tt>ReceivePathBenchmark [ssrcs] [packets] [payload-length]</tt>.
+ * One line of results is printed per configuration.
+ * </p>
+ */
+public class ReceivePathBenchmark
+{
+    /**
+     * Runs the benchmark.
+     *
+     * @param args the number of interleaved streams, the number of packets to
+     * receive per measurement and the length of their payloads
+     */
+    public static void main(String[] args)
+        throws Exception
+    {
+        int ssrcs = (args.length > 0) ? Integer.parseInt(args[0]) : 1;
+        int packets = (args.length > 1) ? Integer.parseInt(args[1]) : 2000000;
+        int payloadLength
+            = (args.length > 2) ? Integer.parseInt(args[2]) : 160;
+
+        int status = 0;
+
+        try
+        {
+            for (int i = 0; i < 2; i++)
+            {
+                boolean steadyState = (i == 1);
+
+                com.sun.media.util.Registry.set(
+                        "rtp_receiver_STEADY_STATE",
+                        Boolean.valueOf(steadyState));
+
+                // Warm up.
+                run(ssrcs, packets / 4, payloadLength);
+                System.out.println(
+                        "steady-state=" + steadyState + " "
+                            + run(ssrcs, packets, payloadLength));
+            }
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            status = 1;
+        }
+        // The threads of the RTPSourceStreams are not daemons.
+        System.exit(status);
+    }
+
+    /**
+     * Receives a specific number of packets of a specific number of
+     * interleaved streams in a new session.
+     *
+     * @return a line of results
+     */
+    private static String run(int ssrcs, int packets, int payloadLength)
+        throws Exception
+    {
+        RTPSessionMgr sm = new RTPSessionMgr();
+        SSRCCache cache = new SSRCCache(sm);
+
+        /*
+         * The statistics of the jitter buffers reach the SSRCCache through the
+         * session which would otherwise have to be initialized with sockets.
+         */
+        Field cacheField = RTPSessionMgr.class.getDeclaredField("cache");
+
+        cacheField.setAccessible(true);
+        cacheField.set(sm, cache);
+
+        RTPDemultiplexer demux
+            = new RTPDemultiplexer(cache, null, sm.streamSynch);
+        RTPReceiver receiver = new RTPReceiver(cache, demux);
+        RTPRawReceiver raw = new RTPRawReceiver();
+        UDPPacket[] datagrams = new UDPPacket[ssrcs];
+        InetAddress address = InetAddress.getByName("10.0.0.2");
+
+        for (int s = 0; s < ssrcs; s++)
+        {
+            UDPPacket datagram = new UDPPacket();
+
+            datagram.data = new byte[12 + payloadLength];
+            datagram.length = datagram.data.length;
+            datagram.received = true;
+            datagram.remoteAddress = address;
+            datagram.remotePort = 5000 + 2 * s;
+            datagram.data[0] = (byte) 0x80;
+            datagram.data[1] = 0; // PCMU
+            datagram.data[8] = 1;
+            datagram.data[9] = (byte) (s >> 16);
+            datagram.data[10] = (byte) (s >> 8);
+            datagram.data[11] = (byte) s;
+            datagrams[s] = datagram;
+        }
+
+        RTPPacket rtpPacket = new RTPPacket();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < packets; i++)
+        {
+            UDPPacket datagram = datagrams[i % ssrcs];
+            byte[] data = datagram.data;
+            int seq = i / ssrcs;
+            int timestamp = seq * payloadLength;
+
+            data[2] = (byte) (seq >> 8);
+            data[3] = (byte) seq;
+            data[4] = (byte) (timestamp >> 24);
+            data[5] = (byte) (timestamp >> 16);
+            data[6] = (byte) (timestamp >> 8);
+            data[7] = (byte) timestamp;
+            datagram.receiptTime = seq * 20L;
+            receiver.handlePacket(raw.parse(datagram, rtpPacket));
+        }
+
+        long ns = System.nanoTime() - start;
+
+        return
+            "ssrcs=" + ssrcs
+                + " packets=" + packets
+                + " ns/packet=" + ((double) ns / packets)
+                + " streams=" + cache.getMainCache().size();
+    }
+}
@@ -0,0 +1,151 @@
+package net.sf.fmj.media.rtp;
+
+/**
+ * Keeps copies of the RTP packets recently sent for a <tt>SendSSRCInfo</tt> so
+ * that the ones reported lost by an RTCP generic NACK may be retransmitted.
+ * The packets are stored in a ring indexed by sequence number so the history
+ * is bounded both in the number of packets and, because a retransmission
+ * which arrives too late is useless to the receiver, in their age. The slots
+ * are reused so that recording a sent packet does not allocate in the steady
+ * state.
+ */
+class RetransmissionHistory
+{
+    /**
+     * The default number of packets that a <tt>RetransmissionHistory</tt>
+     * keeps.
+     */
+    static final int DEFAULT_CAPACITY = 512;
+
+    /**
+     * The default maximum age in milliseconds of a packet which may be
+     * retransmitted.
+     */
+    static final int DEFAULT_MAX_AGE = 1000;
+
+    /**
+     * The lengths of the packets in {@link #packets}.
+     */
+    private final int[] lengths;
+
+    /**
+     * The maximum age in milliseconds of a packet which may be retransmitted.
+     */
+    private final int maxAge;
+
+    /**
+     * The (assembled) packets kept by this history. The packet with sequence
+     * number <tt>s</tt> is at index <tt>s</tt> modulo the capacity.
+     */
+    private final byte[][] packets;
+
+    /**
+     * The times in milliseconds at which the packets in {@link #packets} were
+     * sent.
+     */
+    private final long[] sendTimes;
+
+    /**
+     * The sequence numbers of the packets in {@link #packets} or <tt>-1</tt>
+     * for an empty slot.
+     */
+    private final int[] seqs;
+
+    /**
+     * Initializes a new <tt>RetransmissionHistory</tt> instance.
+     *
+     * @param capacity the number of packets to be kept
+     * @param maxAge the maximum age in milliseconds of a packet which may be
+     * retransmitted
+     */
+    public RetransmissionHistory(int capacity, int maxAge)
+    {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity");
+
+        this.maxAge = maxAge;
+        lengths = new int[capacity];
+        packets = new byte[capacity][];
+        sendTimes = new long[capacity];
+        seqs = new int[capacity];
+        for (int i = 0; i < capacity; i++)
+            seqs[i] = -1;
+    }
+
+    /**
+     * Records a copy of a specific sent packet.
+     *
+     * @param seq the (16-bit RTP) sequence number of the packet
+     * @param data the <tt>byte</tt>s of the (assembled) packet
+     * @param offset the offset in <tt>data</tt> at which the packet starts
+     * @param length the length in <tt>byte</tt>s of the packet
+     */
+    public synchronized void add(int seq, byte[] data, int offset, int length)
+    {
+        seq &= 0xFFFF;
+
+        int slot = seq % seqs.length;
+        byte[] packet = packets[slot];
+
+        if ((packet == null) || (packet.length < length))
+            packets[slot] = packet = new byte[length];
+        System.arraycopy(data, offset, packet, 0, length);
+        lengths[slot] = length;
+        sendTimes[slot] = System.currentTimeMillis();
+        seqs[slot] = seq;
+    }
+
+    /**
+     * Records a copy of a specific sent packet whose header and payload have
+     * been sent by a gather write i.e. are not contiguous.
+     *
+     * @param seq the (16-bit RTP) sequence number of the packet
+     * @param header the header of the packet
+     * @param data the <tt>byte</tt>s of the payload of the packet
+     * @param offset the offset in <tt>data</tt> at which the payload starts
+     * @param length the length in <tt>byte</tt>s of the payload
+     */
+    public synchronized void add(
+            int seq,
+            byte[] header,
+            byte[] data, int offset, int length)
+    {
+        seq &= 0xFFFF;
+
+        int slot = seq % seqs.length;
+        byte[] packet = packets[slot];
+        int len = header.length + length;
+
+        if ((packet == null) || (packet.length < len))
+            packets[slot] = packet = new byte[len];
+        System.arraycopy(header, 0, packet, 0, header.length);
+        System.arraycopy(data, offset, packet, header.length, length);
+        lengths[slot] = len;
+        sendTimes[slot] = System.currentTimeMillis();
+        seqs[slot] = seq;
+    }
+
+    /**
+     * Gets a copy of the packet with a specific sequence number if it is kept
+     * by this history and is not too old to be retransmitted.
+     *
+     * @param seq the (16-bit RTP) sequence number of the packet to get
+     * @return a copy of the packet with sequence number <tt>seq</tt> or
+     * <tt>null</tt>
+     */
+    public synchronized byte[] get(int seq)
+    {
+        seq &= 0xFFFF;
+
+        int slot = seq % seqs.length;
+
+        if ((seqs[slot] != seq)
+                || (System.currentTimeMillis() - sendTimes[slot] > maxAge))
+            return null;
+
+        byte[] packet = new byte[lengths[slot]];
+
+        System.arraycopy(packets[slot], 0, packet, 0, packet.length);
+        return packet;
+    }
+}
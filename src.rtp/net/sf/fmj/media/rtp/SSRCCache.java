@@ -40,9 +40,80 @@ public class SSRCCache
     SSRCInfo ourssrc;
     public RTPSessionMgr sm;
 
+    /**
+     * The locks which serialize {@link #get(int, InetAddress, int, int)} per
+     * shard of SSRCs in sharded mode or <tt>null</tt> if the instance is not
+     * sharded and the monitor of this instance serializes it. In sharded mode
+     * the monitor of this instance is acquired (before the lock of the shard)
+     * only for the SSRC of {@link #ourssrc} which may collide locally.
+     */
+    private final Object[] shardLocks;
+
+    /**
+     * The <tt>ULPFECDecoder</tt>s of the streams for which FEC packets have
+     * been received. A decoder is removed along with the source of its stream.
+     */
+    final SSRCTable<ULPFECDecoder> fecDecoders
+        = new SSRCTable<ULPFECDecoder>();
+
+    /**
+     * Gets the number of shards into which the SSRCs of a session are to be
+     * partitioned as configured by the <tt>rtp_session_SHARDS</tt> property
+     * of the <tt>Registry</tt>. Sharded mode is disabled by default.
+     *
+     * @return the number of shards into which the SSRCs of a session are to
+     * be partitioned; <tt>1</tt> if sharded mode is disabled
+     */
+    static int getConfiguredShards()
+    {
+        int shards
+            = com.sun.media.util.Registry.getInt("rtp_session_SHARDS", 1);
+
+        return (shards < 1) ? 1 : shards;
+    }
+
+    /**
+     * Creates the locks of the shards of a new <tt>SSRCCache</tt>.
+     *
+     * @param shards the number of shards
+     * @return the locks of <tt>shards</tt> shards or <tt>null</tt> if
+     * <tt>shards</tt> does not denote sharded mode
+     */
+    private static Object[] createShardLocks(int shards)
+    {
+        if (shards <= 1)
+            return null;
+
+        Object[] shardLocks = new Object[shards];
+
+        for (int i = 0; i < shards; i++)
+            shardLocks[i] = new Object();
+        return shardLocks;
+    }
+
+    /**
+     * Creates the <tt>RTPEventHandler</tt> of a new <tt>SSRCCache</tt>.
+     *
+     * @param sm the <tt>RTPSessionMgr</tt> of the new <tt>SSRCCache</tt>
+     * @param shards the number of shards
+     * @return an <tt>RTPEventHandler</tt> with one event queue per shard
+     */
+    private static RTPEventHandler createEventHandler(
+            RTPSessionMgr sm,
+            int shards)
+    {
+        return
+            (shards <= 1)
+                ? new RTPEventHandler(sm)
+                : new ShardedRTPEventHandler(sm, shards);
+    }
+
     SSRCCache(RTPSessionMgr sm)
     {
-        cache = new SSRCTable<SSRCInfo>();
+        int shards = getConfiguredShards();
+
+        cache = new SSRCTable<SSRCInfo>(shards);
+        shardLocks = createShardLocks(shards);
         stats = null;
         transstats = null;
         clockrate = new int[128];
@@ -63,13 +134,18 @@ public class SSRCCache
         sourceInfoCache.setMainCache(sourceInfoCache);
         sourceInfoCache.setSSRCCache(this);
         this.sm = sm;
-        eventhandler = new RTPEventHandler(sm);
+        eventhandler = createEventHandler(sm, shards);
         setclockrates();
+        if (sm.streamSynch != null)
+            sm.streamSynch.setClockRates(clockrate);
     }
 
     SSRCCache(RTPSessionMgr sm, RTPSourceInfoCache sic)
     {
-        cache = new SSRCTable<SSRCInfo>();
+        int shards = getConfiguredShards();
+
+        cache = new SSRCTable<SSRCInfo>(shards);
+        shardLocks = createShardLocks(shards);
         stats = null;
         transstats = null;
         clockrate = new int[128];
@@ -89,21 +165,19 @@ public class SSRCCache
         sourceInfoCache = sic;
         sic.setSSRCCache(this);
         this.sm = sm;
-        eventhandler = new RTPEventHandler(sm);
+        eventhandler = createEventHandler(sm, shards);
     }
 
     int aliveCount()
     {
         int tot = 0;
-        synchronized (cache)
-        {
+        // The enumeration works on a snapshot so no lock is needed.
         for (Enumeration<SSRCInfo> e = cache.elements(); e.hasMoreElements();)
         {
             SSRCInfo s = e.nextElement();
             if (s.alive)
                 tot++;
         }
-        }
         return tot;
     }
 
@@ -169,6 +243,7 @@ public class SSRCCache
     {
 
         cache.removeAll();
+        fecDecoders.removeAll();
         if (eventhandler != null)
             eventhandler.close();
     }
@@ -186,116 +261,171 @@ public class SSRCCache
 
     SSRCInfo get(int ssrc, InetAddress address, int port, int mode)
     {
-        SSRCInfo info = null;
-        boolean localcollision = false;
+        /*
+         * The common case of a packet from an established receive stream
+         * changes nothing below so it is served by a wait-free lookup without
+         * contending with the RTCP and cleaner threads for this monitor.
+         */
+        if (mode == 1)
+        {
+            SSRCInfo info = lookup(ssrc);
+            SSRCInfo ourssrc = this.ourssrc;
+
+            if ((info instanceof RecvSSRCInfo)
+                    && info.alive
+                    && (address != null)
+                    && address.equals(info.address)
+                    && (ourssrc == null || ourssrc.ssrc != ssrc))
+                return info;
+        }
+
+        if (shardLocks == null)
+        {
+            synchronized (this)
+            {
+                return doGet(ssrc, address, port, mode);
+            }
+        }
+
+        Object shardLock = shardLocks[SSRCTable.shardOf(ssrc, shardLocks.length)];
+        SSRCInfo ourssrc = this.ourssrc;
+
+        if (ourssrc == null || ourssrc.ssrc != ssrc)
+        {
+            synchronized (shardLock)
+            {
+                /*
+                 * Our SSRC may have changed to ssrc in the meantime. Such a
+                 * (rare) local collision is resolved under the monitor of this
+                 * instance below.
+                 */
+                ourssrc = this.ourssrc;
+                if (ourssrc == null || ourssrc.ssrc != ssrc)
+                    return doGet(ssrc, address, port, mode);
+            }
+        }
         synchronized (this)
         {
-            if (ourssrc != null && ourssrc.ssrc == ssrc
-                    && ourssrc.address != null
-                    && !ourssrc.address.equals(address))
+            synchronized (shardLock)
             {
-                localcollision = true;
-                LocalCollision(ssrc);
+                return doGet(ssrc, address, port, mode);
             }
-            info = lookup(ssrc);
-            if (info != null)
+        }
+    }
+
+    /**
+     * Implements {@link #get(int, InetAddress, int, int)} while the lock(s)
+     * serializing it for <tt>ssrc</tt> are held.
+     */
+    private SSRCInfo doGet(int ssrc, InetAddress address, int port, int mode)
+    {
+        SSRCInfo info = null;
+        boolean localcollision = false;
+        if (ourssrc != null && ourssrc.ssrc == ssrc
+                && ourssrc.address != null
+                && !ourssrc.address.equals(address))
+        {
+            localcollision = true;
+            LocalCollision(ssrc);
+        }
+        info = lookup(ssrc);
+        if (info != null)
+        {
+            synchronized (info)
             {
-                synchronized (info)
+                if (info.address == null || !info.alive)
                 {
-                    if (info.address == null || !info.alive)
+                    info.address = address;
+                    info.port = port;
+                } else if (!info.address.equals(address))
                     {
-                        info.address = address;
-                        info.port = port;
-                    } else if (!info.address.equals(address))
-                        {
-                            stats.update(OverallStats.REMOTECOLL, 1);
-                            transstats.remote_coll++;
-                            RemoteCollisionEvent evt = new RemoteCollisionEvent(
-                                    sm, info.ssrc);
-                            eventhandler.postEvent(evt);
-                            SSRCInfo ssrcinfo5 = null;
-                            return ssrcinfo5;
-                        }
-                }
+                        stats.update(OverallStats.REMOTECOLL, 1);
+                        transstats.remote_coll++;
+                        RemoteCollisionEvent evt = new RemoteCollisionEvent(
+                                sm, info.ssrc);
+                        eventhandler.postEvent(evt);
+                        SSRCInfo ssrcinfo5 = null;
+                        return ssrcinfo5;
+                    }
             }
+        }
 
-            if (info != null && mode == 1 && !(info instanceof RecvSSRCInfo))
+        if (info != null && mode == 1 && !(info instanceof RecvSSRCInfo))
+        {
+            if (info.ours)
             {
-                if (info.ours)
-                {
-                    SSRCInfo ssrcinfo1 = null;
-                    return ssrcinfo1;
-                }
+                SSRCInfo ssrcinfo1 = null;
+                return ssrcinfo1;
+            }
 
-                SSRCInfo newinfo = new RecvSSRCInfo(info);
+            SSRCInfo newinfo = new RecvSSRCInfo(info);
 
-                Log.info("changing to Recv and setting newrecvstream to true " +
-                         "\nExisting one " + info + " " + info.ssrc +
-                         "\nNew one " + newinfo + " " + newinfo.ssrc);
+            Log.info("changing to Recv and setting newrecvstream to true " +
+                     "\nExisting one " + info + " " + info.ssrc +
+                     "\nNew one " + newinfo + " " + newinfo.ssrc);
 
-                // Mark this as a new receive stream to ensure we fire the
-                // correct events for starting the playback engine
-                newinfo.newrecvstream = true;
-                info = newinfo;
-                cache.put(ssrc, info);
-            }
-            if (info != null && mode == 2 && !(info instanceof PassiveSSRCInfo))
+            // Mark this as a new receive stream to ensure we fire the
+            // correct events for starting the playback engine
+            newinfo.newrecvstream = true;
+            info = newinfo;
+            cache.put(ssrc, info);
+        }
+        if (info != null && mode == 2 && !(info instanceof PassiveSSRCInfo))
+        {
+            if (info.ours)
             {
-                if (info.ours)
-                {
-                    SSRCInfo ssrcinfo2 = null;
-                    return ssrcinfo2;
-                }
+                SSRCInfo ssrcinfo2 = null;
+                return ssrcinfo2;
+            }
 
-                SSRCInfo newinfo = new PassiveSSRCInfo(info);
+            SSRCInfo newinfo = new PassiveSSRCInfo(info);
 
-                Log.info("changing to Passive " +
-                        "\nExisting one " + info + " " + info.ssrc +
-                        "\nNew one " + newinfo + " " + newinfo.ssrc);
+            Log.info("changing to Passive " +
+                    "\nExisting one " + info + " " + info.ssrc +
+                    "\nNew one " + newinfo + " " + newinfo.ssrc);
 
-                info = newinfo;
-                cache.put(ssrc, info);
-             }
-            if (info == null)
+            info = newinfo;
+            cache.put(ssrc, info);
+         }
+        if (info == null)
+        {
+            if (mode == 3)
             {
-                if (mode == 3)
-                {
-                    if (ourssrc != null && ourssrc.ssrc == ssrc)
-                    {
-                        SSRCInfo ssrcinfo3 = ourssrc;
-                        return ssrcinfo3;
-                    }
-                    info = new SendSSRCInfo(this, ssrc);
-                    info.initsource((int) TrueRandom.rand());
-                }
-                if (mode == 1)
-                    info = new RecvSSRCInfo(this, ssrc);
-                if (mode == 2)
-                    info = new PassiveSSRCInfo(this, ssrc);
-                if (info == null)
+                if (ourssrc != null && ourssrc.ssrc == ssrc)
                 {
-                    SSRCInfo ssrcinfo4 = null;
-                    return ssrcinfo4;
+                    SSRCInfo ssrcinfo3 = ourssrc;
+                    return ssrcinfo3;
                 }
-                info.address = address;
-                info.port = port;
-                cache.put(ssrc, info);
+                info = new SendSSRCInfo(this, ssrc);
+                info.initsource((int) TrueRandom.rand());
             }
-            if (info.address == null && info.port == 0)
-            {
-                info.address = address;
-                info.port = port;
-            }
-            if (localcollision)
+            if (mode == 1)
+                info = new RecvSSRCInfo(this, ssrc);
+            if (mode == 2)
+                info = new PassiveSSRCInfo(this, ssrc);
+            if (info == null)
             {
-                LocalCollisionEvent levt = null;
-                if (info instanceof RecvSSRCInfo)
-                    levt = new LocalCollisionEvent(sm, (ReceiveStream) info,
-                            ourssrc.ssrc);
-                else
-                    levt = new LocalCollisionEvent(sm, null, ourssrc.ssrc);
-                eventhandler.postEvent(levt);
+                SSRCInfo ssrcinfo4 = null;
+                return ssrcinfo4;
             }
+            info.address = address;
+            info.port = port;
+            cache.put(ssrc, info);
+        }
+        if (info.address == null && info.port == 0)
+        {
+            info.address = address;
+            info.port = port;
+        }
+        if (localcollision)
+        {
+            LocalCollisionEvent levt = null;
+            if (info instanceof RecvSSRCInfo)
+                levt = new LocalCollisionEvent(sm, (ReceiveStream) info,
+                        ourssrc.ssrc);
+            else
+                levt = new LocalCollisionEvent(sm, null, ourssrc.ssrc);
+            eventhandler.postEvent(levt);
         }
         return info;
     }
@@ -343,6 +473,7 @@ public class SSRCCache
         SSRCInfo info = cache.remove(ssrc);
         if (info != null)
             info.delete();
+        fecDecoders.remove(ssrc);
     }
 
     public void reset(int size)
@@ -363,7 +494,7 @@ public class SSRCCache
         clockrate[14] = 0x15f90;
         clockrate[16] = 11025;
         clockrate[17] = 22050;
-        clockrate[18] = 44100;
+        clockrate[18] = 8000;
         for (int i = 24; i < 34; i++)
             clockrate[i] = 0x15f90;
 
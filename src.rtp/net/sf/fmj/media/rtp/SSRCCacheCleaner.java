@@ -1,6 +1,8 @@
 package net.sf.fmj.media.rtp;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
 
 import javax.media.rtp.*;
 import javax.media.rtp.event.*;
@@ -18,6 +20,20 @@ public class SSRCCacheCleaner implements Runnable
     private StreamSynch streamSynch;
     private long lastCleaned;
 
+    /**
+     * The lock which guards the state of this instance. A
+     * <tt>java.util.concurrent</tt> lock rather than the monitor of this
+     * instance is used so that waiting does not pin the carrier when the
+     * cleaner executes on a virtual thread.
+     */
+    private final Lock lock = new ReentrantLock();
+
+    /**
+     * The <tt>Condition</tt> signalled when {@link #timeToClean} or
+     * {@link #killed} is set.
+     */
+    private final Condition wakeup = lock.newCondition();
+
     public SSRCCacheCleaner(SSRCCache cache, StreamSynch streamSynch)
     {
         timeToClean = false;
@@ -27,11 +43,25 @@ public class SSRCCacheCleaner implements Runnable
         this.streamSynch = streamSynch;
         thread = new RTPMediaThread(this, "SSRC Cache Cleaner");
         thread.useControlPriority();
+        thread.useVirtualThreadIfEnabled();
         thread.setDaemon(true);
         thread.start();
     }
 
-    public synchronized void cleannow()
+    public void cleannow()
+    {
+        lock.lock();
+        try
+        {
+            doCleannow();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private void doCleannow()
     {
         long time = System.currentTimeMillis();
         lastCleaned = time;
@@ -39,8 +69,11 @@ public class SSRCCacheCleaner implements Runnable
             return;
         double reportInterval
             = cache.calcReportInterval(cache.ourssrc.sender, true);
-        synchronized (cache.cache)
-        {
+        /*
+         * The enumeration works on a snapshot of the cache so the cache need
+         * not (and must not, because of the sleep below) be locked throughout
+         * the sweep.
+         */
         for (Enumeration<SSRCInfo> elements = cache.cache.elements();
                 elements.hasMoreElements();)
         {
@@ -74,7 +107,7 @@ public class SSRCCacheCleaner implements Runnable
                     if (info instanceof PassiveSSRCInfo)
                         evtbye = new ByeEvent(cache.sm, info.sourceInfo, null,
                                 info.byereason, byepart);
-                    cache.eventhandler.postEvent(evtbye);
+                    cache.eventhandler.postEvent(evtbye, info.ssrc);
                 }
                 else if (info.lastHeardFrom + reportInterval <= time)
                 {
@@ -99,7 +132,7 @@ public class SSRCCacheCleaner implements Runnable
                         }
                         if (event != null)
                         {
-                            cache.eventhandler.postEvent(event);
+                            cache.eventhandler.postEvent(event, info.ssrc);
                             info.quiet = true;
                             info.inactivesent = true;
                             info.setAlive(false);
@@ -125,46 +158,66 @@ public class SSRCCacheCleaner implements Runnable
                         else
                             evt = new TimeoutEvent(cache.sm, info.sourceInfo,
                                     null, byepart);
-                        cache.eventhandler.postEvent(evt);
+                        cache.eventhandler.postEvent(evt, info.ssrc);
                     }
                 }
         }
-        } //synchronized
 
     }
 
-    public synchronized void run()
+    public void run()
     {
+        lock.lock();
         try
         {
             do
             {
                 if (!timeToClean && !killed)
-                    wait(5000);
+                    wakeup.await(5000, TimeUnit.MILLISECONDS);
                 if (killed)
                     return;
                 if (!timeToClean
                       && lastCleaned + 5000 <= System.currentTimeMillis())
                     timeToClean = true;
                 if (timeToClean)
-                    cleannow();
+                    doCleannow();
                 timeToClean = false;
             } while (true);
         } catch (Exception e)
         {
             e.printStackTrace();
         }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
-    public synchronized void setClean()
+    public void setClean()
     {
-        timeToClean = true;
-        notifyAll();
+        lock.lock();
+        try
+        {
+            timeToClean = true;
+            wakeup.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
-    public synchronized void stop()
+    public void stop()
     {
-        killed = true;
-        notifyAll();
+        lock.lock();
+        try
+        {
+            killed = true;
+            wakeup.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 }
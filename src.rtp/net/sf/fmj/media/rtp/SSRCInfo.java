@@ -76,6 +76,25 @@ public abstract class SSRCInfo implements Report
     RTPStats stats;
     int clockrate;
 
+    /**
+     * The remote address of the packets of this stream which may take the
+     * steady-state fast path of <tt>RTPReceiver</tt> or <tt>null</tt> if they
+     * are to go through the full processing.
+     */
+    InetAddress steadyAddress;
+
+    /**
+     * The payload type of the packets of this stream which may take the
+     * steady-state fast path of <tt>RTPReceiver</tt>.
+     */
+    int steadyPayloadType;
+
+    /**
+     * The <tt>Format</tt> registered for {@link #steadyPayloadType} at the
+     * time this stream has been found established.
+     */
+    Format steadyFormat;
+
     SSRCInfo(SSRCCache cache, int ssrc)
     {
         alive = false;
@@ -595,4 +614,25 @@ public abstract class SSRCInfo implements Report
 
         return maxseq + cycles - baseseq + 1;
     }
+
+    /**
+     * Extends a specific (16-bit RTP) sequence number of a packet received
+     * from this source with the rollover counter {@link #cycles}. The sequence
+     * number is taken to be the one closest (modulo 2^16) to the highest
+     * received so far so that the extended sequence numbers of late and
+     * reordered packets compare correctly across wraps. They are offset by one
+     * cycle so that the packets which are late before the first wrap do not
+     * get negative numbers; the lower 16 bits are the RTP sequence number.
+     *
+     * @param seqnum the (16-bit RTP) sequence number to extend
+     * @return the extended sequence number of <tt>seqnum</tt>
+     */
+    long getExtendedSequenceNumber(int seqnum)
+    {
+        long maxseq = this.maxseq & 0xFFFFL;
+        long cycles = this.cycles & 0xFFFFFFFFL;
+
+        return RTPReceiver.SEQ_MOD + cycles + maxseq
+            + (short) (seqnum - maxseq);
+    }
 }
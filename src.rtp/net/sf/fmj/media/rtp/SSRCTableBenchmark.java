@@ -0,0 +1,338 @@
+package net.sf.fmj.media.rtp;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import net.sf.fmj.media.rtp.util.*;
+
+/**
+ * Measures the contention on the SSRC lookup table of an <tt>SSRCCache</tt>
+ * by the threads which access it concurrently in a session: a number of RTP
+ * receive threads look the SSRCs of incoming packets up, an RTCP thread
+ * enumerates the table as it does to count the alive participants and build
+ * reports, and a cleaner thread enumerates it and removes and adds SSRCs as
+ * participants time out and join. The copy-on-write <tt>SSRCTable</tt> is
+ * compared with the reference synchronized table with sorted arrays which
+ * <tt>SSRCTable</tt> used to be. Each thread runs in a tight loop for a
+ * specific duration so the figures are those of a worst case.
+ * <p>
+ * Usage: <tt>SSRCTableBenchmark [ssrcs] [rtp-threads] [seconds]</tt>. One
+ * line of results is printed per table.
+ * </p>
+ */
+public class SSRCTableBenchmark
+{
+    /**
+     * Adapts an <tt>SSRCTable</tt> to <tt>Table</tt>.
+     */
+    private static class SSRCTableAdapter
+        implements Table
+    {
+        private final SSRCTable<Object> table = new SSRCTable<Object>();
+
+        public Enumeration<Object> elements()
+        {
+            return table.elements();
+        }
+
+        public Object get(int ssrc)
+        {
+            return table.get(ssrc);
+        }
+
+        public void put(int ssrc, Object obj)
+        {
+            table.put(ssrc, obj);
+        }
+
+        public Object remove(int ssrc)
+        {
+            return table.remove(ssrc);
+        }
+    }
+
+    /**
+     * Implements the synchronized table with sorted arrays, binary search and
+     * shifting which <tt>SSRCTable</tt> used to be. The reference the
+     * copy-on-write <tt>SSRCTable</tt> is compared with.
+     */
+    private static class SynchronizedTable
+        implements Table
+    {
+        private Object[] objList = new Object[16];
+
+        private int[] ssrcList = new int[16];
+
+        private int total = 0;
+
+        public synchronized Enumeration<Object> elements()
+        {
+            return
+                new Enumeration<Object>()
+                {
+                    private int next = 0;
+
+                    public boolean hasMoreElements()
+                    {
+                        return next < total;
+                    }
+
+                    public Object nextElement()
+                    {
+                        synchronized (SynchronizedTable.this)
+                        {
+                            if (next < total)
+                                return objList[next++];
+                        }
+                        throw new NoSuchElementException();
+                    }
+                };
+        }
+
+        public synchronized Object get(int ssrc)
+        {
+            int i = indexOf(ssrc);
+
+            return (i < 0) ? null : objList[i];
+        }
+
+        private int indexOf(int ssrc)
+        {
+            int i = 0;
+            int j = total - 1;
+
+            while (i <= j)
+            {
+                int x = (i + j) >>> 1;
+
+                if (ssrcList[x] == ssrc)
+                    return x;
+                if (ssrc > ssrcList[x])
+                    i = x + 1;
+                else
+                    j = x - 1;
+            }
+            return -1;
+        }
+
+        public synchronized void put(int ssrc, Object obj)
+        {
+            int i = 0;
+
+            while ((i < total) && (ssrcList[i] < ssrc))
+                i++;
+            if ((i < total) && (ssrcList[i] == ssrc))
+            {
+                objList[i] = obj;
+                return;
+            }
+            if (total == ssrcList.length)
+            {
+                ssrcList = Arrays.copyOf(ssrcList, total + 16);
+                objList = Arrays.copyOf(objList, total + 16);
+            }
+            System.arraycopy(ssrcList, i, ssrcList, i + 1, total - i);
+            System.arraycopy(objList, i, objList, i + 1, total - i);
+            ssrcList[i] = ssrc;
+            objList[i] = obj;
+            total++;
+        }
+
+        public synchronized Object remove(int ssrc)
+        {
+            int i = indexOf(ssrc);
+
+            if (i < 0)
+                return null;
+
+            Object obj = objList[i];
+
+            total--;
+            System.arraycopy(ssrcList, i + 1, ssrcList, i, total - i);
+            System.arraycopy(objList, i + 1, objList, i, total - i);
+            objList[total] = null;
+            return obj;
+        }
+    }
+
+    /**
+     * Represents the operations of an SSRC lookup table exercised by the
+     * benchmark.
+     */
+    private interface Table
+    {
+        Enumeration<Object> elements();
+
+        Object get(int ssrc);
+
+        void put(int ssrc, Object obj);
+
+        Object remove(int ssrc);
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args the number of SSRCs in the table, the number of RTP
+     * threads and the duration in seconds of each measurement
+     */
+    public static void main(String[] args)
+        throws Exception
+    {
+        int ssrcs = (args.length > 0) ? Integer.parseInt(args[0]) : 64;
+        int rtpThreads
+            = (args.length > 1)
+                ? Integer.parseInt(args[1])
+                : Math.max(
+                        1,
+                        Runtime.getRuntime().availableProcessors() - 2);
+        int seconds = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+
+        // Warm up.
+        run(new SynchronizedTable(), ssrcs, rtpThreads, 1);
+        run(new SSRCTableAdapter(), ssrcs, rtpThreads, 1);
+
+        System.out.println(
+                run(new SynchronizedTable(), ssrcs, rtpThreads, seconds));
+        System.out.println(
+                run(new SSRCTableAdapter(), ssrcs, rtpThreads, seconds));
+        System.exit(0);
+    }
+
+    /**
+     * Runs the RTP, RTCP and cleaner threads on a specific table for a
+     * specific duration.
+     *
+     * @return a line of results
+     */
+    private static String run(
+            final Table table,
+            int ssrcs, int rtpThreads, int seconds)
+        throws InterruptedException
+    {
+        final int[] established = new int[ssrcs];
+        Random random = new Random(0);
+
+        for (int i = 0; i < ssrcs; i++)
+        {
+            established[i] = random.nextInt();
+            table.put(established[i], Integer.valueOf(i));
+        }
+
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        final AtomicLong lookups = new AtomicLong();
+        final AtomicLong enumerations = new AtomicLong();
+        final AtomicLong modifications = new AtomicLong();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int t = 0; t < rtpThreads; t++)
+        {
+            final int seed = t;
+
+            threads.add(
+                    new Thread("RTP " + t)
+                    {
+                        @Override
+                        public void run()
+                        {
+                            int i = seed;
+                            long n = 0;
+                            long misses = 0;
+
+                            while (!stop.get())
+                            {
+                                for (int k = 0; k < 1024; k++)
+                                {
+                                    i = (i + 7) % established.length;
+                                    if (table.get(established[i]) == null)
+                                        misses++;
+                                }
+                                n += 1024;
+                            }
+                            if (misses != 0)
+                                throw new IllegalStateException("misses");
+                            lookups.addAndGet(n);
+                        }
+                    });
+        }
+        threads.add(
+                new Thread("RTCP")
+                {
+                    @Override
+                    public void run()
+                    {
+                        long n = 0;
+                        int i = 0;
+
+                        while (!stop.get())
+                        {
+                            i = (i + 1) % established.length;
+                            table.get(established[i]);
+                            count(table);
+                            n++;
+                        }
+                        enumerations.addAndGet(n);
+                    }
+                });
+        threads.add(
+                new Thread("Cleaner")
+                {
+                    @Override
+                    public void run()
+                    {
+                        long n = 0;
+
+                        while (!stop.get())
+                        {
+                            int churn = -1 - (int) (n & 0xFF);
+
+                            count(table);
+                            table.put(churn, Long.valueOf(n));
+                            table.remove(churn);
+                            n++;
+                        }
+                        modifications.addAndGet(2 * n);
+                    }
+                });
+
+        for (Thread thread : threads)
+            thread.start();
+        Thread.sleep(seconds * 1000L);
+        stop.set(true);
+        for (Thread thread : threads)
+            thread.join();
+
+        return
+            table.getClass().getSimpleName()
+                + " ssrcs=" + ssrcs
+                + " rtp-threads=" + rtpThreads
+                + " lookups/s=" + (lookups.get() / seconds)
+                + " rtcp-enumerations/s=" + (enumerations.get() / seconds)
+                + " cleaner-modifications/s="
+                    + (modifications.get() / seconds);
+    }
+
+    /**
+     * Enumerates a specific table the way the RTCP and cleaner threads do.
+     * An enumeration of the reference table may fail because of a concurrent
+     * removal which is not counted as an error.
+     */
+    private static int count(Table table)
+    {
+        int count = 0;
+
+        try
+        {
+            for (Enumeration<Object> e = table.elements();
+                    e.hasMoreElements();)
+            {
+                if (e.nextElement() != null)
+                    count++;
+            }
+        }
+        catch (NoSuchElementException nsee)
+        {
+        }
+        return count;
+    }
+}
@@ -20,6 +20,12 @@ public class SendSSRCInfo extends SSRCInfo implements SenderReport, SendStream
     protected long lastBufSeq;
     protected RTPTransStats stats;
     protected RTCPReporter rtcprep;
+    /**
+     * The packets recently sent for this stream which may be retransmitted in
+     * response to an RTCP generic NACK or <tt>null</tt> if retransmission is
+     * disabled.
+     */
+    RetransmissionHistory retransmissionHistory;
     static AudioFormat dviAudio = new AudioFormat("dvi/rtp");
     static AudioFormat gsmAudio = new AudioFormat("gsm/rtp");
     static AudioFormat g723Audio = new AudioFormat("g723/rtp");
@@ -267,6 +273,19 @@ public class SendSSRCInfo extends SSRCInfo implements SenderReport, SendStream
     protected void setFormat(Format fmt)
     {
         myformat = fmt;
+        if ((fmt instanceof VideoFormat)
+                && (retransmissionHistory == null)
+                && com.sun.media.util.Registry.getBoolean(
+                        "rtcp_NACK_ENABLE",
+                        false))
+        {
+            retransmissionHistory
+                = new RetransmissionHistory(
+                        com.sun.media.util.Registry.getInt(
+                                "rtcp_NACK_HISTORY_SIZE",
+                                RetransmissionHistory.DEFAULT_CAPACITY),
+                        RetransmissionHistory.DEFAULT_MAX_AGE);
+        }
         if (super.sinkstream != null)
         {
             int rate = 0;
@@ -0,0 +1,495 @@
+package net.sf.fmj.media.rtp;
+
+import javax.media.*;
+
+/**
+ * Implements a <tt>JitterBuffer</tt> which stores every &quot;fill&quot;
+ * <tt>Buffer</tt> in the slot at the index of its (extended) sequence number
+ * modulo the capacity. Consequently, adding a <tt>Buffer</tt> in order or out
+ * of order, detecting a duplicate and detecting a gap take constant time and
+ * no elements are shifted. The capacity limits the span of sequence numbers
+ * (rather than the number of <tt>Buffer</tt>s) held at a time.
+ * <p>
+ * The 16-bit RTP sequence numbers are extended in accord with the
+ * <tt>Buffer</tt>s held so that the order is preserved across a wraparound.
+ * The &quot;free&quot; <tt>Buffer</tt>s are kept in a pool of their own.
+ * </p>
+ */
+class SequenceIndexedJitterBuffer
+    extends JitterBuffer
+{
+    /**
+     * The capacity of this instance in terms of the maximum span of sequence
+     * numbers of the <tt>Buffer</tt>s that it may contain.
+     */
+    private int capacity;
+
+    /**
+     * The index of the &quot;fill&quot; <tt>Buffer</tt> last returned by
+     * {@link #getFill(int)} or <tt>-1</tt>. Speeds up the iteration over the
+     * &quot;fill&quot; <tt>Buffer</tt>s in order.
+     */
+    private int cursorIndex = -1;
+
+    /**
+     * The extended sequence number of the &quot;fill&quot; <tt>Buffer</tt> at
+     * {@link #cursorIndex}.
+     */
+    private long cursorSeq;
+
+    /**
+     * The &quot;free&quot; <tt>Buffer</tt>s of this queue. The first
+     * {@link #freeCount} elements are valid.
+     */
+    private Buffer[] free;
+
+    /**
+     * The number of valid elements of {@link #free}.
+     */
+    private int freeCount;
+
+    /**
+     * The extended sequence number of the first &quot;fill&quot;
+     * <tt>Buffer</tt>. Valid only if {@link #length} is positive.
+     */
+    private long head;
+
+    /**
+     * The extended sequence number of the last <tt>Buffer</tt> added to this
+     * queue or <tt>Long.MIN_VALUE</tt>. Serves as the reference for the
+     * extension of sequence numbers while this queue is empty.
+     */
+    private long lastSeq = Long.MIN_VALUE;
+
+    /**
+     * The number of &quot;fill&quot; <tt>Buffer</tt>s in {@link #slots}.
+     */
+    private int length;
+
+    /**
+     * The <tt>Buffer</tt>, if any, which has been retrieved from this queue
+     * and has not been returned yet.
+     */
+    private Buffer locked;
+
+    /**
+     * The &quot;fill&quot; <tt>Buffer</tt>s of this queue. The
+     * <tt>Buffer</tt> with extended sequence number <tt>s</tt> is at index
+     * <tt>s</tt> modulo {@link #capacity}; <tt>null</tt> denotes a gap.
+     */
+    private Buffer[] slots;
+
+    /**
+     * The extended sequence number of the last &quot;fill&quot;
+     * <tt>Buffer</tt>. Valid only if {@link #length} is positive.
+     */
+    private long tail;
+
+    /**
+     * Initializes a new <tt>SequenceIndexedJitterBuffer</tt> instance with a
+     * specific capacity.
+     *
+     * @param capacity the capacity of the new instance in terms of the
+     * maximum span of sequence numbers of the <tt>Buffer</tt>s that it may
+     * contain
+     */
+    public SequenceIndexedJitterBuffer(int capacity)
+    {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity");
+
+        this.capacity = capacity;
+        slots = new Buffer[capacity];
+        free = new Buffer[capacity];
+        for (int i = 0; i < capacity; i++)
+            free[i] = new Buffer();
+        freeCount = capacity;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * A <tt>Buffer</tt> with the sequence number of a <tt>Buffer</tt> which is
+     * already in this queue is a duplicate and is returned to the free pool.
+     * So is a <tt>Buffer</tt> which is too old to fit into the span of
+     * sequence numbers of this queue.
+     */
+    @Override
+    public void addPkt(Buffer buffer)
+    {
+        assertLocked(buffer);
+        if (noMoreFree())
+            throw new IllegalStateException("noMoreFree");
+
+        long seq = extendSeq(buffer.getSequenceNumber());
+
+        if (length == 0)
+        {
+            head = seq;
+            tail = seq;
+        }
+        else if (seq < head)
+        {
+            if (tail - seq >= capacity)
+            {
+                returnFree(buffer);
+                return;
+            }
+            head = seq;
+        }
+        else if (seq > tail)
+        {
+            /*
+             * RTPSourceStream makes room through its JitterBufferBehaviour
+             * beforehand. Should it have failed to, make room here rather than
+             * corrupt the slots.
+             */
+            while ((length > 0) && (seq - head >= capacity))
+            {
+                Buffer dropped = removeFill(head);
+
+                if (freeCount < free.length)
+                    free[freeCount++] = dropped;
+            }
+            if (length == 0)
+                head = seq;
+            tail = seq;
+        }
+        else if (slots[slotOf(seq)] != null)
+        {
+            // A duplicate.
+            returnFree(buffer);
+            return;
+        }
+
+        slots[slotOf(seq)] = buffer;
+        length++;
+        lastSeq = seq;
+        locked = null;
+        cursorIndex = -1;
+    }
+
+    private void assertLocked(Buffer buffer)
+        throws IllegalStateException
+    {
+        if (locked == null)
+        {
+            throw new IllegalStateException(
+                    "No Buffer has been retrieved from this JitterBuffer"
+                        + " and has not been returned yet.");
+        }
+        if (buffer != locked)
+            throw new IllegalArgumentException("buffer");
+    }
+
+    private void assertNotLocked()
+        throws IllegalStateException
+    {
+        if (locked != null)
+        {
+            throw new IllegalStateException(
+                    "A Buffer has been retrieved from this JitterBuffer"
+                        + " and has not been returned yet.");
+        }
+    }
+
+    /**
+     * Determines whether this queue contains a <tt>Buffer</tt> with a specific
+     * sequence number.
+     *
+     * @param seq the sequence number to check
+     * @return <tt>true</tt> if this queue contains a <tt>Buffer</tt> with
+     * sequence number <tt>seq</tt>; otherwise, <tt>false</tt>
+     */
+    public boolean contains(long seq)
+    {
+        if (length == 0)
+            return false;
+
+        long extSeq = head + (short) (seq - head);
+
+        return
+            (head <= extSeq)
+                && (extSeq <= tail)
+                && (slots[slotOf(extSeq)] != null);
+    }
+
+    @Override
+    void dropFill(int index)
+    {
+        assertNotLocked();
+
+        long seq = seqOfFill(index);
+        Buffer buffer = removeFill(seq);
+
+        locked = buffer;
+        returnFree(buffer);
+        dropped++;
+    }
+
+    /**
+     * Extends a specific sequence number in accord with the <tt>Buffer</tt>s
+     * in this queue (or the last one added to it while it is empty).
+     */
+    private long extendSeq(long seq)
+    {
+        long ref = (length > 0) ? head : lastSeq;
+
+        return (ref == Long.MIN_VALUE) ? seq : (ref + (short) (seq - ref));
+    }
+
+    @Override
+    public synchronized int getCapacity()
+    {
+        return capacity;
+    }
+
+    @Override
+    public Buffer getFill()
+    {
+        assertNotLocked();
+        if (noMoreFill())
+            throw new IllegalStateException("noMoreFill");
+
+        Buffer buffer = removeFill(head);
+
+        locked = buffer;
+        return buffer;
+    }
+
+    @Override
+    public Buffer getFill(int index)
+    {
+        return slots[slotOf(seqOfFill(index))];
+    }
+
+    @Override
+    public synchronized int getFillCount()
+    {
+        return length;
+    }
+
+    @Override
+    public long getFirstSeq()
+    {
+        return
+            (length == 0)
+                ? Buffer.SEQUENCE_UNKNOWN
+                : slots[slotOf(head)].getSequenceNumber();
+    }
+
+    @Override
+    public Buffer getFree()
+    {
+        assertNotLocked();
+        if (noMoreFree())
+            throw new IllegalStateException("noMoreFree");
+
+        Buffer buffer;
+
+        if (freeCount == 0)
+            buffer = new Buffer();
+        else
+        {
+            buffer = free[--freeCount];
+            free[freeCount] = null;
+        }
+        locked = buffer;
+        return buffer;
+    }
+
+    @Override
+    public int getFreeCount()
+    {
+        return (capacity - length);
+    }
+
+    /**
+     * Gets the number of sequence numbers missing between the first and the
+     * last &quot;fill&quot; <tt>Buffer</tt>s of this queue.
+     *
+     * @return the number of sequence numbers missing between the first and
+     * the last &quot;fill&quot; <tt>Buffer</tt>s of this queue
+     */
+    public int getGapCount()
+    {
+        return (length == 0) ? 0 : (int) (tail - head + 1 - length);
+    }
+
+    @Override
+    public long getLastSeq()
+    {
+        return
+            (length == 0)
+                ? Buffer.SEQUENCE_UNKNOWN
+                : slots[slotOf(tail)].getSequenceNumber();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Takes into account that the capacity limits the span of the sequence
+     * numbers in this queue.
+     */
+    @Override
+    boolean hasRoomFor(long seq)
+    {
+        if (noMoreFree())
+            return false;
+        if (length == 0)
+            return true;
+
+        long extSeq = extendSeq(seq);
+
+        return (extSeq <= tail) || (extSeq - head < capacity);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    boolean isDuplicate(long seq)
+    {
+        return contains(seq);
+    }
+
+    /**
+     * Removes the &quot;fill&quot; <tt>Buffer</tt> with a specific extended
+     * sequence number from {@link #slots}.
+     */
+    private Buffer removeFill(long seq)
+    {
+        int slot = slotOf(seq);
+        Buffer buffer = slots[slot];
+
+        slots[slot] = null;
+        length--;
+        cursorIndex = -1;
+
+        if (length > 0)
+        {
+            if (seq == head)
+            {
+                do
+                    head++;
+                while (slots[slotOf(head)] == null);
+            }
+            else if (seq == tail)
+            {
+                do
+                    tail--;
+                while (slots[slotOf(tail)] == null);
+            }
+        }
+        return buffer;
+    }
+
+    @Override
+    public void returnFree(Buffer buffer)
+    {
+        assertLocked(buffer);
+
+        if (freeCount < free.length)
+            free[freeCount++] = buffer;
+        locked = null;
+    }
+
+    /**
+     * Gets the extended sequence number of the &quot;fill&quot;
+     * <tt>Buffer</tt> at a specific index in the order of the sequence
+     * numbers.
+     */
+    private long seqOfFill(int index)
+    {
+        if ((index < 0) || (index >= length))
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+
+        long seq;
+        int i;
+
+        if ((cursorIndex != -1) && (cursorIndex <= index))
+        {
+            seq = cursorSeq;
+            i = cursorIndex;
+        }
+        else
+        {
+            seq = head;
+            i = 0;
+        }
+        while (i < index)
+        {
+            do
+                seq++;
+            while (slots[slotOf(seq)] == null);
+            i++;
+        }
+        cursorIndex = index;
+        cursorSeq = seq;
+        return seq;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Drops the oldest &quot;fill&quot; <tt>Buffer</tt>s which do not fit
+     * into the new span of sequence numbers and reuses the &quot;free&quot;
+     * ones.
+     */
+    @Override
+    public void setCapacity(int capacity)
+    {
+        assertNotLocked();
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity");
+
+        if (this.capacity == capacity)
+            return;
+
+        while ((length > 0) && (tail - head >= capacity))
+            dropFirstFill();
+
+        Buffer[] slots = new Buffer[capacity];
+
+        if (length > 0)
+        {
+            for (long seq = head; seq <= tail; seq++)
+                slots[slotOf(seq, capacity)] = this.slots[slotOf(seq)];
+        }
+
+        Buffer[] free = new Buffer[capacity];
+        int freeCount = Math.min(this.freeCount, capacity - length);
+
+        System.arraycopy(this.free, 0, free, 0, freeCount);
+        while (freeCount < capacity - length)
+            free[freeCount++] = new Buffer();
+
+        this.capacity = capacity;
+        this.slots = slots;
+        this.free = free;
+        this.freeCount = freeCount;
+        cursorIndex = -1;
+    }
+
+    private int slotOf(long seq)
+    {
+        return slotOf(seq, capacity);
+    }
+
+    private static int slotOf(long seq, int capacity)
+    {
+        int slot = (int) (seq % capacity);
+
+        return (slot < 0) ? (slot + capacity) : slot;
+    }
+
+    @Override
+    public void swapFree(Buffer free, Buffer buffer)
+    {
+        assertLocked(free);
+        if (buffer == null)
+            throw new NullPointerException("buffer");
+
+        locked = buffer;
+    }
+}
@@ -0,0 +1,136 @@
+package net.sf.fmj.media.rtp;
+
+import javax.media.rtp.*;
+import javax.media.rtp.event.*;
+import javax.media.rtp.rtcp.*;
+
+import net.sf.fmj.media.rtp.util.*;
+
+/**
+ * Implements an <tt>RTPEventHandler</tt> which partitions the events of an
+ * <tt>RTPSessionMgr</tt> by SSRC across a number of event queues, each served
+ * by a thread of its own. The events related to the same SSRC always go
+ * through the same queue and are thus delivered in the order in which they
+ * have been posted. The events which do not reveal the SSRC they are related
+ * to (e.g. <tt>NewParticipantEvent</tt>s) are to be posted along with it
+ * through {@link #postEvent(RTPEvent, int)} so that they are ordered with
+ * the events of its streams. The events which are not related to a specific
+ * SSRC go through the queue of this instance.
+ *
+ * @see SSRCCache
+ */
+public class ShardedRTPEventHandler extends RTPEventHandler
+{
+    /**
+     * Gets the SSRC to which a specific <tt>RTPEvent</tt> is related.
+     *
+     * @param evt the <tt>RTPEvent</tt> to get the SSRC of
+     * @return the SSRC to which <tt>evt</tt> is related or <tt>-1</tt> if
+     * <tt>evt</tt> is not related to a specific SSRC
+     */
+    private static long getSSRC(RTPEvent evt)
+    {
+        Object stream = null;
+
+        if (evt instanceof ReceiveStreamEvent)
+            stream = ((ReceiveStreamEvent) evt).getReceiveStream();
+        else if (evt instanceof SendStreamEvent)
+            stream = ((SendStreamEvent) evt).getSendStream();
+        else if (evt instanceof RemoteCollisionEvent)
+            return ((RemoteCollisionEvent) evt).getSSRC() & 0xFFFFFFFFL;
+        else if (evt instanceof SenderReportEvent)
+        {
+            Report report = ((SenderReportEvent) evt).getReport();
+
+            if (report != null)
+                return report.getSSRC() & 0xFFFFFFFFL;
+        }
+        else if (evt instanceof ReceiverReportEvent)
+        {
+            Report report = ((ReceiverReportEvent) evt).getReport();
+
+            if (report != null)
+                return report.getSSRC() & 0xFFFFFFFFL;
+        }
+        return
+            (stream instanceof SSRCInfo)
+                ? (((SSRCInfo) stream).ssrc & 0xFFFFFFFFL)
+                : -1;
+    }
+
+    /**
+     * The <tt>RTPEventHandler</tt>s of the shards. The element at index
+     * <tt>0</tt> is this instance.
+     */
+    private final RTPEventHandler[] shards;
+
+    /**
+     * Initializes a new <tt>ShardedRTPEventHandler</tt> which is to dispatch
+     * the events of a specific <tt>RTPSessionMgr</tt> through a specific
+     * number of event queues.
+     *
+     * @param sm the <tt>RTPSessionMgr</tt> the events of which are to be
+     * dispatched
+     * @param shards the number of event queues/threads
+     */
+    public ShardedRTPEventHandler(RTPSessionMgr sm, int shards)
+    {
+        super(sm);
+
+        if (shards < 1)
+            shards = 1;
+        this.shards = new RTPEventHandler[shards];
+        this.shards[0] = this;
+        for (int i = 1; i < shards; i++)
+        {
+            this.shards[i] = new RTPEventHandler(sm, getName() + " " + i);
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        super.close();
+        for (int i = 1; i < shards.length; i++)
+            shards[i].close();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Queues <tt>evt</tt> on the shard of the SSRC it is related to.
+     */
+    @Override
+    public void postEvent(RTPEvent evt)
+    {
+        postEvent(evt, getSSRC(evt));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Queues <tt>evt</tt> on the shard of <tt>ssrc</tt>.
+     */
+    @Override
+    public void postEvent(RTPEvent evt, int ssrc)
+    {
+        postEvent(evt, ssrc & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Queues a specific event on the shard of a specific SSRC or on the queue
+     * of this instance if the SSRC is <tt>-1</tt>.
+     */
+    private void postEvent(RTPEvent evt, long ssrc)
+    {
+        RTPEventHandler shard
+            = (ssrc == -1)
+                ? this
+                : shards[SSRCTable.shardOf((int) ssrc, shards.length)];
+
+        if (shard == this)
+            super.postEvent(evt);
+        else
+            shard.postEvent(evt);
+    }
+}
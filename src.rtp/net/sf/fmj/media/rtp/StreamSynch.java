@@ -2,60 +2,97 @@ package net.sf.fmj.media.rtp;
 
 import net.sf.fmj.media.rtp.util.*;
 
+/**
+ * Maps the RTP timestamps of the sources of a session to the wallclock (NTP)
+ * time of their senders as reported by their RTCP sender reports. Each
+ * session has a <tt>StreamSynch</tt> of its own and a timestamp is mapped
+ * with a lookup of its source in a wait-free <tt>SSRCTable</tt> and of the
+ * clock rate of its payload type in an array.
+ */
 public class StreamSynch
 {
-    private static SSRCTable sources;
+    /**
+     * The default clock rates by (static) payload type as assigned by RFC
+     * 3551. Zero denotes a payload type with an unknown clock rate.
+     */
+    private static final int[] DEFAULT_CLOCK_RATES = new int[128];
+
+    static
+    {
+        int[] rates = DEFAULT_CLOCK_RATES;
+
+        for (int pt = 0; pt <= 18; pt++)
+            rates[pt] = 8000;
+        rates[6] = 16000;
+        rates[10] = 44100;
+        rates[11] = 44100;
+        rates[14] = 90000;
+        rates[16] = 11025;
+        rates[17] = 22050;
+        rates[25] = 90000;
+        rates[26] = 90000;
+        rates[28] = 90000;
+        for (int pt = 31; pt <= 34; pt++)
+            rates[pt] = 90000;
+        rates[42] = 90000;
+    }
+
+    /**
+     * The clock rates of the payload types of the session indexed by payload
+     * type. Zero or a negative value denotes an unknown clock rate.
+     */
+    private volatile int[] clockRates = DEFAULT_CLOCK_RATES;
+
+    private final SSRCTable<SynchSource> sources
+        = new SSRCTable<SynchSource>();
 
     public StreamSynch()
     {
-        if (sources == null)
-            sources = new SSRCTable();
     }
 
+    /**
+     * Maps a specific RTP timestamp of a specific source to the wallclock
+     * time of its sender.
+     *
+     * @param ssrc the SSRC of the source
+     * @param pt the payload type of the packet which carries the timestamp
+     * @param rtpTimestamp the RTP timestamp to map
+     * @return the wallclock time in nanoseconds which corresponds to
+     * <tt>rtpTimestamp</tt> or <tt>-1</tt> if no sender report has been
+     * received from the source yet or the clock rate of <tt>pt</tt> is
+     * unknown
+     */
     public long calcTimestamp(int ssrc, int pt, long rtpTimestamp)
     {
-        long timestamp = -1L;
-        SynchSource source = (SynchSource) sources.get(ssrc);
-        if (source != null)
-        {
-            long rate = 1L;
-            if (pt >= 0 && pt <= 5)
-                rate = 8000L;
-            else if (pt == 5)
-                rate = 8000L;
-            else if (pt == 6)
-                rate = 16000L;
-            else if (pt >= 7 && pt <= 9)
-                rate = 8000L;
-            else if (pt >= 10 && pt <= 11)
-                rate = 44100L;
-            else if (pt == 14)
-                rate = 0x15f90L;
-            else if (pt == 15)
-                rate = 8000L;
-            else if (pt == 16)
-                rate = 11025L;
-            else if (pt == 17)
-                rate = 22050L;
-            else if (pt >= 25 && pt <= 26)
-                rate = 90000L;
-            else if (pt == 28)
-                rate = 90000L;
-            else if (pt >= 31 && pt <= 34)
-                rate = 90000L;
-            else if (pt == 42)
-                rate = 90000L;
-            timestamp = source.ntpTimestamp
-                    + ((rtpTimestamp - source.rtpTimestamp) * 1000 * 1000 * 1000)
-                    / rate;
-        }
-        return timestamp;
+        SynchSource source = sources.get(ssrc);
+        if (source == null)
+            return -1L;
+
+        int[] rates = clockRates;
+        int rate = (pt >= 0 && pt < rates.length) ? rates[pt] : 0;
+        if (rate <= 0)
+            return -1L;
+
+        return source.ntpTimestamp
+                + ((rtpTimestamp - source.rtpTimestamp) * 1000000000L) / rate;
     }
 
     public void remove(int ssrc)
     {
-        if (sources != null)
-            sources.remove(ssrc);
+        sources.remove(ssrc);
+    }
+
+    /**
+     * Sets the clock rates of the payload types of the session.
+     *
+     * @param clockRates the clock rates indexed by payload type which may be
+     * updated in place later on (e.g. when a dynamic payload type is mapped
+     * to a <tt>Format</tt>)
+     */
+    void setClockRates(int[] clockRates)
+    {
+        this.clockRates
+            = (clockRates == null) ? DEFAULT_CLOCK_RATES : clockRates;
     }
 
     public void update(int ssrc, long rtpTimestamp, long ntpTimestampMSW,
@@ -64,16 +101,19 @@ public class StreamSynch
         double fraction = ntpTimestampLSW / 4294967296D;
         long ntpTimestamp = ntpTimestampMSW * 0x3b9aca00L
                 + (long) (fraction * 1000000000D);
-        SynchSource source = (SynchSource) sources.get(ssrc);
-        if (source == null)
-        {
-            sources.put(ssrc, new SynchSource(ssrc, rtpTimestamp, ntpTimestamp));
-        } else
+        SynchSource source = sources.get(ssrc);
+        SynchSource newSource
+            = new SynchSource(ssrc, rtpTimestamp, ntpTimestamp);
+
+        /*
+         * Replace rather than modify the SynchSource so that calcTimestamp
+         * reads a consistent pair of timestamps without locking.
+         */
+        if (source != null)
         {
-            source.factor = (rtpTimestamp - source.rtpTimestamp)
+            newSource.factor = (rtpTimestamp - source.rtpTimestamp)
                     * (ntpTimestamp - source.ntpTimestamp);
-            source.rtpTimestamp = rtpTimestamp;
-            source.ntpTimestamp = ntpTimestamp;
         }
+        sources.put(ssrc, newSource);
     }
 }
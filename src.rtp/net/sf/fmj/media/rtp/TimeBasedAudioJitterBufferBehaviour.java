@@ -0,0 +1,538 @@
+package net.sf.fmj.media.rtp;
+
+import javax.media.*;
+import javax.media.format.*;
+
+/**
+ * Implements an adaptive <tt>JitterBufferBehaviour</tt> for audio media data
+ * which targets a delay in milliseconds derived from the measured jitter
+ * rather than a size in packets derived from the number of late packets.
+ * <p>
+ * The delay of every received packet relative to the fastest packet among the
+ * recent ones is recorded in a <tt>DelayHistogram</tt> and the target delay is
+ * a percentile of the recorded delays (configured by the
+ * <tt>adaptive_jitter_buffer_PERCENTILE</tt> property of the
+ * <tt>Registry</tt>) plus the duration of a packet, limited to the range
+ * configured by <tt>adaptive_jitter_buffer_MIN_DELAY</tt> and
+ * <tt>adaptive_jitter_buffer_MAX_DELAY</tt>. The send time of a packet is
+ * derived from its sequence number and the packet duration and the reference
+ * is re-established at the beginning of every talkspurt (i.e. upon an RTP
+ * marker) so that silence does not count as delay.
+ * </p>
+ * <p>
+ * Reading (re)starts whenever the queue has been filled up to the target
+ * delay, so the delay follows the target in both directions at the
+ * beginning of every talkspurt without dropping any audio. During continuous
+ * speech, the delay is reduced by dropping a single packet at a time and only
+ * if the queue has not drained below the target for a while.
+ * </p>
+ */
+class TimeBasedAudioJitterBufferBehaviour
+    extends BasicJitterBufferBehaviour
+{
+    /**
+     * The width in milliseconds of a bucket of {@link #histogram}.
+     */
+    private static final int BUCKET_WIDTH = 5;
+
+    /**
+     * The default duration in milliseconds of an audio RTP packet.
+     */
+    private static final int DEFAULT_MS_PER_PKT = 20;
+
+    /**
+     * The forgetting factor of {@link #histogram}. Makes the weight of a sample
+     * halve after about 1000 packets, i.e. 20 seconds of 20 ms packets.
+     */
+    private static final double FORGETTING_FACTOR = 0.9993;
+
+    /**
+     * The number of packets read out of the queue during which the minimum
+     * fill of the queue is monitored before a decision to reduce the delay
+     * during continuous speech is made.
+     */
+    private static final int SHRINK_INTERVAL = 150;
+
+    /**
+     * The number of most recent packets among which the fastest one serves as
+     * the reference for the delays of the packets.
+     */
+    private static final int TRANSIT_WINDOW = 256;
+
+    /**
+     * The extended sequence number of the packet which is the reference for
+     * the send times of the packets or <tt>-1</tt> if the reference is to be
+     * (re-)established by the next packet.
+     */
+    private long anchorSeq = -1;
+
+    /**
+     * The time in nanoseconds at which the packet with sequence number
+     * {@link #anchorSeq} was received.
+     */
+    private long anchorTime;
+
+    /**
+     * The recent delays of the received packets.
+     */
+    private final DelayHistogram histogram;
+
+    /**
+     * The maximum delay in milliseconds which this instance will target.
+     */
+    private final int maxDelay;
+
+    /**
+     * The minimum delay in milliseconds which this instance will target.
+     */
+    private final int minDelay;
+
+    /**
+     * The minimum number of packets in the queue observed after a read during
+     * the current {@link #SHRINK_INTERVAL}.
+     */
+    private int minFill = Integer.MAX_VALUE;
+
+    /**
+     * The duration in milliseconds of an RTP packet.
+     */
+    private long msPerPkt = DEFAULT_MS_PER_PKT;
+
+    /**
+     * The percentile of the recorded delays which this instance targets.
+     */
+    private final int percentile;
+
+    /**
+     * The number of packets read out of the queue during the current
+     * {@link #SHRINK_INTERVAL}.
+     */
+    private int readCount;
+
+    /**
+     * The indicator which determines whether reading is to wait until the
+     * queue has been filled up to the target delay.
+     */
+    private boolean replenish = true;
+
+    /**
+     * The indicator which determines whether the <tt>Buffer.FLAG_SKIP_FEC</tt>
+     * flag should be set on the next packet read from/out of the RTP packet
+     * queue.
+     */
+    private boolean skipFec = false;
+
+    /**
+     * The delay in milliseconds currently targeted by this instance.
+     */
+    private int targetDelay;
+
+    /**
+     * The minimum of {@link #transits}.
+     */
+    private long minTransit;
+
+    /**
+     * The number of valid elements of {@link #transits}.
+     */
+    private int transitCount;
+
+    /**
+     * The index in {@link #transits} at which the next transit time is to be
+     * written.
+     */
+    private int transitTail;
+
+    /**
+     * The transit times in nanoseconds (i.e. the times of receipt less the
+     * send times derived from the sequence numbers) of the most recent
+     * packets. The storage is circular.
+     */
+    private final long[] transits = new long[TRANSIT_WINDOW];
+
+    /**
+     * Initializes a new <tt>TimeBasedAudioJitterBufferBehaviour</tt> instance
+     * for the purposes of a specific <tt>RTPSourceStream</tt>.
+     *
+     * @param stream the <tt>RTPSourceStream</tt> which has requested the
+     * initialization of the new instance
+     */
+    public TimeBasedAudioJitterBufferBehaviour(RTPSourceStream stream)
+    {
+        super(stream);
+
+        int minDelay
+            = com.sun.media.util.Registry.getInt(
+                    "adaptive_jitter_buffer_MIN_DELAY",
+                    40);
+        int maxDelay
+            = com.sun.media.util.Registry.getInt(
+                    "adaptive_jitter_buffer_MAX_DELAY",
+                    1000);
+        int percentile
+            = com.sun.media.util.Registry.getInt(
+                    "adaptive_jitter_buffer_PERCENTILE",
+                    95);
+
+        this.minDelay = Math.max(minDelay, 0);
+        this.maxDelay
+            = Math.max(maxDelay, Math.max(this.minDelay, BUCKET_WIDTH));
+        this.percentile = Math.max(0, Math.min(percentile, 100));
+
+        histogram
+            = new DelayHistogram(
+                    this.maxDelay,
+                    BUCKET_WIDTH,
+                    FORGETTING_FACTOR);
+        targetDelay = this.minDelay;
+    }
+
+    /**
+     * Adds the transit time of a packet to {@link #transits} and maintains
+     * {@link #minTransit}.
+     *
+     * @param transit the transit time in nanoseconds to add
+     */
+    private void addTransit(long transit)
+    {
+        long evicted = transits[transitTail];
+
+        transits[transitTail] = transit;
+        transitTail = (transitTail + 1) % TRANSIT_WINDOW;
+
+        if (transitCount < TRANSIT_WINDOW)
+        {
+            transitCount++;
+            if (transitCount == 1 || transit < minTransit)
+                minTransit = transit;
+        }
+        else if (transit <= minTransit)
+            minTransit = transit;
+        else if (evicted == minTransit)
+        {
+            long min = transits[0];
+
+            for (int i = 1; i < TRANSIT_WINDOW; i++)
+                if (transits[i] < min)
+                    min = transits[i];
+            minTransit = min;
+        }
+    }
+
+    /**
+     * Clamps a specific delay in milliseconds to the range of the
+     * <tt>JitterBufferControl</tt> reporting.
+     */
+    private static int clampDelay(long delay)
+    {
+        return (delay > 65535) ? 65535 : (int) delay;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Sets the value of {@link #skipFec} to <tt>true</tt>.
+     */
+    @Override
+    public void dropPkt()
+    {
+        super.dropPkt();
+
+        /*
+         * Like AudioJitterBufferBehaviour, avoid FEC being decoded from the
+         * next packet after one has been deliberately dropped.
+         */
+        skipFec = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getAbsoluteMaximumDelay()
+    {
+        return clampDelay(maxDelay);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Computes the current delay based on the number of packets in the queue.
+     */
+    @Override
+    public int getCurrentDelay()
+    {
+        return clampDelay(q.getFillCount() * msPerPkt);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaximumDelay()
+    {
+        return clampDelay(q.getCapacity() * msPerPkt);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Returns the target delay.
+     */
+    @Override
+    public int getNominalDelay()
+    {
+        return getTargetDelay();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getTargetDelay()
+    {
+        return clampDelay(targetDelay);
+    }
+
+    /**
+     * Gets the target delay expressed in number of packets.
+     */
+    private int getTargetPackets()
+    {
+        int targetPackets = (int) ((targetDelay + msPerPkt - 1) / msPerPkt);
+
+        return (targetPackets < 1) ? 1 : targetPackets;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isAdaptive()
+    {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Returns the capacity of the queue so that the socket receive buffer is
+     * sized accordingly.
+     */
+    @Override
+    protected int monitorQSize(Buffer buffer)
+    {
+        super.monitorQSize(buffer);
+
+        return q.getCapacity();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean preAdd(Buffer buffer, RTPRawReceiver rtprawreceiver)
+    {
+        long now = stream.clock.nanoTime();
+
+        updateMsPerPkt(buffer);
+
+        long lastSeqSent = stream.getLastReadSequenceNumber();
+        long bufferSN = buffer.getSequenceNumber();
+
+        if ((lastSeqSent != Buffer.SEQUENCE_UNKNOWN)
+                && (bufferSN < lastSeqSent))
+        {
+            /*
+             * A packet which is subsequent to the specified buffer has already
+             * been read. Its lateness is still a measure of the jitter unless
+             * it is too late to be of any relevance.
+             */
+            if ((lastSeqSent - bufferSN) * msPerPkt < maxDelay)
+            {
+                recordArrival(buffer, now);
+                updateTargetDelay();
+                stats.incrementDiscardedLate();
+            }
+            else
+                stats.incrementDiscardedVeryLate();
+            return false;
+        }
+
+        recordArrival(buffer, now);
+        updateTargetDelay();
+
+        return super.preAdd(buffer, rtprawreceiver);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void read(Buffer buffer)
+    {
+        skipFec = JitterBufferTester.dropPacketIfRequired(this, skipFec);
+
+        super.read(buffer);
+
+        if (!buffer.isDiscard() && skipFec)
+        {
+            buffer.setFlags(buffer.getFlags() | Buffer.FLAG_SKIP_FEC);
+            skipFec = false;
+        }
+
+        int fill = q.getFillCount();
+
+        if (fill == 0)
+        {
+            /*
+             * The queue has drained (e.g. because of silence) so the next
+             * talkspurt will be buffered up to the current target delay.
+             */
+            replenish = true;
+            resetShrinkInterval();
+            return;
+        }
+
+        if (fill < minFill)
+            minFill = fill;
+        if (++readCount >= SHRINK_INTERVAL)
+        {
+            /*
+             * The queue has not drained below minFill packets during the whole
+             * interval so the packets in excess of the target have only added
+             * latency. Drop one of them at a time in order to keep the effect
+             * on the audio to a minimum.
+             */
+            if (minFill > getTargetPackets())
+            {
+                dropPkt();
+                stats.incrementDiscardedShrink();
+            }
+            resetShrinkInterval();
+        }
+    }
+
+    /**
+     * Records the delay of a specific received packet in {@link #histogram}.
+     *
+     * @param buffer the received packet
+     * @param now the time in nanoseconds at which <tt>buffer</tt> was received
+     */
+    private void recordArrival(Buffer buffer, long now)
+    {
+        // The sequence numbers are extended by RTPDemultiplexer.
+        long seq = buffer.getSequenceNumber();
+
+        if ((anchorSeq == -1)
+                || ((buffer.getFlags() & Buffer.FLAG_RTP_MARKER) != 0))
+        {
+            /*
+             * The beginning of a talkspurt follows silence of unknown duration
+             * so the send times of the previous talkspurt do not apply.
+             */
+            anchorSeq = seq;
+            anchorTime = now;
+            transitCount = 0;
+            transitTail = 0;
+        }
+
+        long transit
+            = (now - anchorTime) - (seq - anchorSeq) * msPerPkt * 1000000L;
+
+        addTransit(transit);
+        histogram.add((transit - minTransit) / 1000000L);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset()
+    {
+        super.reset();
+
+        anchorSeq = -1;
+        replenish = true;
+        resetShrinkInterval();
+    }
+
+    private void resetShrinkInterval()
+    {
+        minFill = Integer.MAX_VALUE;
+        readCount = 0;
+    }
+
+    /**
+     * Updates {@link #msPerPkt} with the duration of a specific received
+     * packet if it is known.
+     */
+    private void updateMsPerPkt(Buffer buffer)
+    {
+        long ns = buffer.getDuration();
+
+        if (ns <= 0)
+        {
+            Format format = stream.getFormat();
+
+            if (format instanceof AudioFormat)
+                ns = ((AudioFormat) format).computeDuration(buffer.getLength());
+        }
+
+        long ms = ns / 1000000L;
+
+        if (ms > 0 && ms != msPerPkt)
+        {
+            msPerPkt = ms;
+            // The send times derived with the former duration do not apply.
+            anchorSeq = -1;
+        }
+    }
+
+    /**
+     * Updates the target delay from {@link #histogram} and grows the queue so
+     * that it is able to hold twice the target. The queue is not shrunk until
+     * it drains so that no packets are lost because of a lower target.
+     */
+    private void updateTargetDelay()
+    {
+        long delay = histogram.getPercentile(percentile) + msPerPkt;
+
+        if (delay < minDelay)
+            delay = minDelay;
+        else if (delay > maxDelay)
+            delay = maxDelay;
+        targetDelay = (int) delay;
+
+        int maxCapacity = (int) Math.max(maxDelay / msPerPkt, 2);
+        int capacity = Math.min(2 * getTargetPackets(), maxCapacity);
+        int qCapacity = q.getCapacity();
+
+        if (capacity < 2)
+            capacity = 2;
+        if (capacity > qCapacity)
+            grow(capacity);
+        else if ((capacity < qCapacity) && q.noMoreFill())
+            q.setCapacity(capacity);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Blocks after the queue has drained until it has been filled up to the
+     * target delay.
+     */
+    @Override
+    public boolean willReadBlock()
+    {
+        boolean b = super.willReadBlock();
+
+        if (!b)
+        {
+            if (replenish && (q.getFillCount() >= getTargetPackets()))
+                replenish = false;
+            b = replenish;
+        }
+        return b;
+    }
+}
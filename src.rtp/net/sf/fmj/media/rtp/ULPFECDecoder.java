@@ -0,0 +1,372 @@
+package net.sf.fmj.media.rtp;
+
+import net.sf.fmj.media.rtp.util.*;
+
+/**
+ * Recovers lost RTP packets of a stream from the RFC 5109 (ULPFEC) parity
+ * generated by <tt>ULPFECEncoder</tt>. Copies of the recently received media
+ * packets are kept in a ring indexed by sequence number and the FEC packets
+ * which could not be used yet are kept pending. A FEC packet recovers the one
+ * media packet it protects which is missing as soon as all the others have
+ * been received; it is discarded once all of them have been received or are
+ * too old.
+ *
+ * @see ULPFECEncoder
+ */
+class ULPFECDecoder
+{
+    /**
+     * The number of media packets kept in order to recover a missing one.
+     */
+    private static final int MEDIA_HISTORY = 64;
+
+    /**
+     * The maximum number of FEC packets kept pending.
+     */
+    private static final int MAX_PENDING_FEC = 8;
+
+    /**
+     * Reads the 16-bit unsigned value at a specific offset.
+     */
+    private static int readShort(byte[] data, int offset)
+    {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+
+    /**
+     * The number of valid elements of {@link #fecs}.
+     */
+    private int fecCount;
+
+    /**
+     * The payloads of the pending FEC packets in the order of their receipt.
+     */
+    private final byte[][] fecs = new byte[MAX_PENDING_FEC][];
+
+    /**
+     * The lengths of the payloads in {@link #fecs}.
+     */
+    private final int[] fecLengths = new int[MAX_PENDING_FEC];
+
+    /**
+     * The lengths of the payloads in {@link #mediaPayloads}.
+     */
+    private final int[] mediaLengths = new int[MEDIA_HISTORY];
+
+    /**
+     * The second bytes (M and PT) of the RTP headers of the media packets
+     * kept.
+     */
+    private final int[] mediaMarkerAndPayloadTypes = new int[MEDIA_HISTORY];
+
+    /**
+     * The payloads of the media packets kept. The packet with sequence number
+     * <tt>s</tt> is at index <tt>s</tt> modulo {@link #MEDIA_HISTORY}.
+     */
+    private final byte[][] mediaPayloads = new byte[MEDIA_HISTORY][];
+
+    /**
+     * The sequence numbers of the media packets kept or <tt>-1</tt> for an
+     * empty slot.
+     */
+    private final int[] mediaSeqs = new int[MEDIA_HISTORY];
+
+    /**
+     * The RTP timestamps of the media packets kept.
+     */
+    private final long[] mediaTimestamps = new long[MEDIA_HISTORY];
+
+    /**
+     * The highest sequence number of a media packet received or <tt>-1</tt>.
+     */
+    private int newestSeq = -1;
+
+    /**
+     * The SSRC of the media stream the packets of which are recovered.
+     */
+    private final int ssrc;
+
+    /**
+     * Initializes a new <tt>ULPFECDecoder</tt> instance.
+     *
+     * @param ssrc the SSRC of the media stream the packets of which are to be
+     * recovered
+     */
+    public ULPFECDecoder(int ssrc)
+    {
+        this.ssrc = ssrc;
+        for (int i = 0; i < MEDIA_HISTORY; i++)
+            mediaSeqs[i] = -1;
+    }
+
+    /**
+     * Keeps a specific FEC packet pending until it can recover a media packet.
+     * The oldest pending FEC packet is discarded if there are too many.
+     *
+     * @param rtpPacket the FEC packet
+     */
+    public void addFEC(RTPPacket rtpPacket)
+    {
+        int length = rtpPacket.payloadlength;
+
+        if (length
+                < ULPFECEncoder.FEC_HEADER_LENGTH
+                    + ULPFECEncoder.ULP_HEADER_LENGTH)
+            return;
+
+        byte[] data = rtpPacket.base.data;
+        int offset = rtpPacket.payloadoffset;
+
+        // The E and L bits must be cleared.
+        if ((data[offset] & 0xC0) != 0)
+            return;
+
+        if (fecCount == MAX_PENDING_FEC)
+            removeFEC(0);
+
+        byte[] fec = fecs[fecCount];
+
+        if ((fec == null) || (fec.length < length))
+            fecs[fecCount] = fec = new byte[length];
+        System.arraycopy(data, offset, fec, 0, length);
+        fecLengths[fecCount] = length;
+        fecCount++;
+    }
+
+    /**
+     * Keeps a copy of a specific received media packet.
+     *
+     * @param rtpPacket the media packet
+     */
+    public void addMedia(RTPPacket rtpPacket)
+    {
+        int seq = rtpPacket.seqnum & 0xFFFF;
+        int slot = seq % MEDIA_HISTORY;
+        int length = rtpPacket.payloadlength;
+        byte[] payload = mediaPayloads[slot];
+
+        if ((payload == null) || (payload.length < length))
+            mediaPayloads[slot] = payload = new byte[length];
+        System.arraycopy(
+                rtpPacket.base.data, rtpPacket.payloadoffset,
+                payload, 0,
+                length);
+        mediaLengths[slot] = length;
+        mediaMarkerAndPayloadTypes[slot]
+            = ((rtpPacket.marker == 1) ? 0x80 : 0)
+                | (rtpPacket.payloadType & 0x7F);
+        mediaTimestamps[slot] = rtpPacket.timestamp & 0xFFFFFFFFL;
+        mediaSeqs[slot] = seq;
+
+        if ((newestSeq == -1) || ((short) (seq - newestSeq) > 0))
+            newestSeq = seq;
+    }
+
+    /**
+     * Gets the SSRC of the media stream the packets of which are recovered.
+     *
+     * @return the SSRC of the media stream the packets of which are recovered
+     */
+    public int getSSRC()
+    {
+        return ssrc;
+    }
+
+    /**
+     * Determines whether any FEC packet is pending.
+     *
+     * @return <tt>true</tt> if any FEC packet is pending; otherwise,
+     * <tt>false</tt>
+     */
+    public boolean hasPendingFEC()
+    {
+        return fecCount > 0;
+    }
+
+    /**
+     * Determines whether the media packet with a specific sequence number is
+     * kept.
+     */
+    private boolean hasMedia(int seq)
+    {
+        return mediaSeqs[seq % MEDIA_HISTORY] == seq;
+    }
+
+    /**
+     * Recovers a missing media packet from a pending FEC packet if possible.
+     *
+     * @param template the packet which triggered the recovery and from which
+     * the remote address and the time of receipt of the recovered packet are
+     * to be taken
+     * @return the recovered media packet or <tt>null</tt>
+     */
+    public RTPPacket recover(RTPPacket template)
+    {
+        for (int f = 0; f < fecCount;)
+        {
+            byte[] fec = fecs[f];
+            int snBase = readShort(fec, 2);
+
+            if ((newestSeq != -1)
+                    && (((newestSeq - snBase) & 0xFFFF) >= MEDIA_HISTORY)
+                    && ((short) (newestSeq - snBase) > 0))
+            {
+                // The protected packets are no longer kept.
+                removeFEC(f);
+                continue;
+            }
+
+            int mask
+                = readShort(fec, ULPFECEncoder.FEC_HEADER_LENGTH + 2);
+            int missingSeq = -1;
+            int missingCount = 0;
+
+            for (int i = 0; i < ULPFECEncoder.MAX_GROUP_SIZE; i++)
+            {
+                if ((mask & (0x8000 >>> i)) == 0)
+                    continue;
+
+                int seq = (snBase + i) & 0xFFFF;
+
+                if (!hasMedia(seq))
+                {
+                    missingSeq = seq;
+                    missingCount++;
+                }
+            }
+
+            if (missingCount == 0)
+            {
+                removeFEC(f);
+                continue;
+            }
+            if (missingCount > 1)
+            {
+                f++;
+                continue;
+            }
+
+            RTPPacket recovered
+                = recover(f, snBase, mask, missingSeq, template);
+
+            removeFEC(f);
+            if (recovered != null)
+                return recovered;
+        }
+        return null;
+    }
+
+    /**
+     * Recovers the media packet with a specific sequence number, the only one
+     * missing among those protected by the pending FEC packet at a specific
+     * index.
+     */
+    private RTPPacket recover(
+            int f, int snBase, int mask, int missingSeq,
+            RTPPacket template)
+    {
+        byte[] fec = fecs[f];
+        int fecLength = fecLengths[f];
+        int markerAndPayloadType = fec[1] & 0xFF;
+        long timestamp
+            = ((long) readShort(fec, 4) << 16) | readShort(fec, 6);
+        int length = readShort(fec, 8);
+        int protectionLength
+            = readShort(fec, ULPFECEncoder.FEC_HEADER_LENGTH);
+        int parityOffset
+            = ULPFECEncoder.FEC_HEADER_LENGTH
+                + ULPFECEncoder.ULP_HEADER_LENGTH;
+
+        if (parityOffset + protectionLength > fecLength)
+            return null;
+
+        byte[] payload = new byte[protectionLength];
+
+        System.arraycopy(fec, parityOffset, payload, 0, protectionLength);
+        for (int i = 0; i < ULPFECEncoder.MAX_GROUP_SIZE; i++)
+        {
+            if ((mask & (0x8000 >>> i)) == 0)
+                continue;
+
+            int seq = (snBase + i) & 0xFFFF;
+
+            if (seq == missingSeq)
+                continue;
+
+            int slot = seq % MEDIA_HISTORY;
+            int mediaLength = mediaLengths[slot];
+            byte[] mediaPayload = mediaPayloads[slot];
+
+            if (mediaLength > protectionLength)
+                return null;
+            markerAndPayloadType ^= mediaMarkerAndPayloadTypes[slot];
+            timestamp ^= mediaTimestamps[slot];
+            length ^= mediaLength;
+            for (int j = 0; j < mediaLength; j++)
+                payload[j] ^= mediaPayload[j];
+        }
+        if (length > protectionLength)
+            return null;
+
+        byte[] data = new byte[12 + length];
+
+        data[0] = (byte) 0x80;
+        data[1] = (byte) markerAndPayloadType;
+        data[2] = (byte) (missingSeq >> 8);
+        data[3] = (byte) missingSeq;
+        data[4] = (byte) (timestamp >> 24);
+        data[5] = (byte) (timestamp >> 16);
+        data[6] = (byte) (timestamp >> 8);
+        data[7] = (byte) timestamp;
+        data[8] = (byte) (ssrc >> 24);
+        data[9] = (byte) (ssrc >> 16);
+        data[10] = (byte) (ssrc >> 8);
+        data[11] = (byte) ssrc;
+        System.arraycopy(payload, 0, data, 12, length);
+
+        UDPPacket base = new UDPPacket();
+
+        base.data = data;
+        base.offset = 0;
+        base.length = data.length;
+        base.received = true;
+        base.receiptTime = template.receiptTime;
+        if (template.base instanceof UDPPacket)
+        {
+            UDPPacket templateBase = (UDPPacket) template.base;
+
+            base.remoteAddress = templateBase.remoteAddress;
+            base.remotePort = templateBase.remotePort;
+            base.localPort = templateBase.localPort;
+        }
+
+        RTPPacket recovered = new RTPPacket(base);
+
+        recovered.marker = (markerAndPayloadType & 0x80) >>> 7;
+        recovered.payloadType = markerAndPayloadType & 0x7F;
+        recovered.seqnum = missingSeq;
+        recovered.timestamp = timestamp;
+        recovered.ssrc = ssrc;
+        recovered.csrc = RTPPacket.NO_CSRC;
+        recovered.payloadoffset = 12;
+        recovered.payloadlength = length;
+        return recovered;
+    }
+
+    /**
+     * Removes the pending FEC packet at a specific index and keeps its
+     * payload array for reuse.
+     */
+    private void removeFEC(int index)
+    {
+        byte[] fec = fecs[index];
+
+        fecCount--;
+        System.arraycopy(fecs, index + 1, fecs, index, fecCount - index);
+        System.arraycopy(
+                fecLengths, index + 1,
+                fecLengths, index,
+                fecCount - index);
+        fecs[fecCount] = fec;
+    }
+}
@@ -0,0 +1,241 @@
+package net.sf.fmj.media.rtp;
+
+/**
+ * Generates RFC 5109 (ULPFEC) parity for groups of consecutive RTP packets of
+ * a stream. Each group of up to {@link #MAX_GROUP_SIZE} packets is protected
+ * by a single FEC packet with one protection level which covers the whole
+ * payloads (i.e. the XOR of the packets), so that any one packet of the group
+ * may be recovered. The parity is accumulated as the packets are sent and
+ * none of them is kept.
+ * <p>
+ * The FEC packets are to be sent as a separate RTP stream (RFC 5109, section
+ * 9) i.e. with an SSRC, a payload type and sequence numbers of their own, so
+ * that the stream they protect keeps a single sequence number space and
+ * receivers which do not recover packets merely see another source. The SSRC
+ * of the FEC stream is derived from the SSRC of the media stream by
+ * {@link #getFECSSRC(int)} so that a receiver may associate the two without
+ * signaling. The protected packets are assumed to carry neither CSRCs nor a header
+ * extension nor padding, as is the case of those sent by
+ * <tt>RTPTransmitter</tt>.
+ * </p>
+ *
+ * @see ULPFECDecoder
+ */
+class ULPFECEncoder
+{
+    /**
+     * The default number of media packets protected by a FEC packet.
+     */
+    static final int DEFAULT_GROUP_SIZE = 5;
+
+    /**
+     * The default payload type of FEC packets.
+     */
+    static final int DEFAULT_PAYLOAD_TYPE = 127;
+
+    /**
+     * The length in bytes of the FEC header.
+     */
+    static final int FEC_HEADER_LENGTH = 10;
+
+    /**
+     * The bits which differ between the SSRC of a media stream and the SSRC
+     * of the FEC stream which protects it.
+     */
+    private static final int FEC_SSRC_MASK = 0x46454300;
+
+    /**
+     * Gets the SSRC of the FEC stream which protects the media stream with a
+     * specific SSRC. The mapping is its own inverse i.e. it also gets the
+     * SSRC of the media stream protected by the FEC stream with a specific
+     * SSRC.
+     *
+     * @param ssrc the SSRC of a media (or FEC) stream
+     * @return the SSRC of the associated FEC (or media) stream
+     */
+    static int getFECSSRC(int ssrc)
+    {
+        return ssrc ^ FEC_SSRC_MASK;
+    }
+
+    /**
+     * The maximum number of media packets that a FEC packet may protect with
+     * the 16-bit mask of a FEC level header with the L bit cleared.
+     */
+    static final int MAX_GROUP_SIZE = 16;
+
+    /**
+     * The length in bytes of a FEC level header with the L bit cleared.
+     */
+    static final int ULP_HEADER_LENGTH = 4;
+
+    /**
+     * The number of media packets accumulated into the parity of the current
+     * group.
+     */
+    private int count;
+
+    /**
+     * The number of media packets to be protected by a FEC packet.
+     */
+    private final int groupSize;
+
+    /**
+     * The protection length of the current group i.e. the length of its
+     * longest payload.
+     */
+    private int protectionLength;
+
+    /**
+     * The sequence number of the first media packet of the current group.
+     */
+    private int snBase;
+
+    /**
+     * The RTP timestamp of the last media packet of the current group.
+     */
+    private long timestamp;
+
+    /**
+     * The XOR of the second bytes (M and PT) of the RTP headers of the
+     * current group.
+     */
+    private int xorMarkerAndPayloadType;
+
+    /**
+     * The XOR of the payloads (padded with zeros to the protection length) of
+     * the current group.
+     */
+    private byte[] xorPayload = new byte[0];
+
+    /**
+     * The XOR of the lengths of the payloads of the current group.
+     */
+    private int xorPayloadLength;
+
+    /**
+     * The XOR of the RTP timestamps of the current group.
+     */
+    private long xorTimestamp;
+
+    /**
+     * Initializes a new <tt>ULPFECEncoder</tt> instance.
+     *
+     * @param groupSize the number of media packets to be protected by a FEC
+     * packet
+     */
+    public ULPFECEncoder(int groupSize)
+    {
+        if ((groupSize < 1) || (groupSize > MAX_GROUP_SIZE))
+            throw new IllegalArgumentException("groupSize");
+
+        this.groupSize = groupSize;
+    }
+
+    /**
+     * Accumulates a specific sent media packet into the parity of the current
+     * group.
+     *
+     * @param seq the RTP sequence number of the media packet
+     * @param timestamp the RTP timestamp of the media packet
+     * @param marker <tt>true</tt> if the RTP marker bit of the media packet
+     * is set
+     * @param payloadType the RTP payload type of the media packet
+     * @param data the array which contains the payload of the media packet
+     * @param offset the offset in <tt>data</tt> at which the payload starts
+     * @param length the length in bytes of the payload
+     * @return the FEC payload (i.e. the FEC header, the FEC level header and
+     * the parity) which protects the current group if the media packet has
+     * completed it; otherwise, <tt>null</tt>
+     */
+    public byte[] protect(
+            int seq, long timestamp, boolean marker, int payloadType,
+            byte[] data, int offset, int length)
+    {
+        seq &= 0xFFFF;
+
+        if ((count > 0) && (seq != ((snBase + count) & 0xFFFF)))
+        {
+            // A discontinuity of the sequence numbers starts a new group.
+            reset();
+        }
+        if (count == 0)
+            snBase = seq;
+
+        if (length > xorPayload.length)
+        {
+            byte[] newXorPayload = new byte[length];
+
+            System.arraycopy(
+                    xorPayload, 0,
+                    newXorPayload, 0,
+                    protectionLength);
+            xorPayload = newXorPayload;
+        }
+        if (length > protectionLength)
+            protectionLength = length;
+        for (int i = 0; i < length; i++)
+            xorPayload[i] ^= data[offset + i];
+
+        xorMarkerAndPayloadType
+            ^= (marker ? 0x80 : 0) | (payloadType & 0x7F);
+        xorTimestamp ^= timestamp & 0xFFFFFFFFL;
+        xorPayloadLength ^= length;
+        this.timestamp = timestamp;
+        count++;
+
+        if (count < groupSize)
+            return null;
+
+        byte[] fec
+            = new byte[
+                    FEC_HEADER_LENGTH + ULP_HEADER_LENGTH + protectionLength];
+        int mask = (0xFFFF << (MAX_GROUP_SIZE - count)) & 0xFFFF;
+        int i = 0;
+
+        // E = 0, L = 0, P, X and CC recovery = 0 (V = 2 is implied).
+        fec[i++] = 0;
+        fec[i++] = (byte) xorMarkerAndPayloadType;
+        fec[i++] = (byte) (snBase >> 8);
+        fec[i++] = (byte) snBase;
+        fec[i++] = (byte) (xorTimestamp >> 24);
+        fec[i++] = (byte) (xorTimestamp >> 16);
+        fec[i++] = (byte) (xorTimestamp >> 8);
+        fec[i++] = (byte) xorTimestamp;
+        fec[i++] = (byte) (xorPayloadLength >> 8);
+        fec[i++] = (byte) xorPayloadLength;
+        fec[i++] = (byte) (protectionLength >> 8);
+        fec[i++] = (byte) protectionLength;
+        fec[i++] = (byte) (mask >> 8);
+        fec[i++] = (byte) mask;
+        System.arraycopy(xorPayload, 0, fec, i, protectionLength);
+
+        reset();
+        return fec;
+    }
+
+    /**
+     * Gets the RTP timestamp of the media packet accumulated last which is
+     * also the RTP timestamp of the FEC packet which protects its group.
+     *
+     * @return the RTP timestamp of the media packet accumulated last
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    /**
+     * Discards the parity of the current group.
+     */
+    public void reset()
+    {
+        for (int i = 0; i < protectionLength; i++)
+            xorPayload[i] = 0;
+        count = 0;
+        protectionLength = 0;
+        xorMarkerAndPayloadType = 0;
+        xorPayloadLength = 0;
+        xorTimestamp = 0;
+    }
+}
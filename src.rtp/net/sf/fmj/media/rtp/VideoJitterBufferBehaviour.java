@@ -158,7 +158,7 @@ class VideoJitterBufferBehaviour
             pktsPerFrame = (pktsPerFrame + pktsEst) / 2;
             pktsEst = 0;
             framesEst++;
-            long l = System.currentTimeMillis();
+            long l = stream.clock.currentTimeMillis();
             if (l - lastCheckTime >= 1000L)
             {
                 lastCheckTime = l;
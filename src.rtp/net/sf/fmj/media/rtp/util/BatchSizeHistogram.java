@@ -0,0 +1,126 @@
+package net.sf.fmj.media.rtp.util;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Counts the batches of datagrams drained by <tt>UDPPacketReactor</tt> in
+ * batched receive mode by the number of datagrams in them. Recorded on the
+ * reactor thread and safely readable from any other thread.
+ */
+public class BatchSizeHistogram
+{
+    /**
+     * The number of batches of each size; the element at index <tt>i</tt>
+     * counts the batches of <tt>i + 1</tt> datagrams.
+     */
+    private final AtomicLongArray counts;
+
+    /**
+     * Initializes a new <tt>BatchSizeHistogram</tt> for batches of at most a
+     * specific size.
+     *
+     * @param maxBatchSize the maximum batch size to be recorded. Larger batches
+     * are counted as being of <tt>maxBatchSize</tt>.
+     */
+    public BatchSizeHistogram(int maxBatchSize)
+    {
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("maxBatchSize");
+        counts = new AtomicLongArray(maxBatchSize);
+    }
+
+    /**
+     * Gets the total number of batches recorded so far.
+     *
+     * @return the total number of batches recorded so far
+     */
+    public long getBatchCount()
+    {
+        long batchCount = 0;
+
+        for (int i = 0, length = counts.length(); i < length; i++)
+            batchCount += counts.get(i);
+        return batchCount;
+    }
+
+    /**
+     * Gets the number of batches of a specific size recorded so far.
+     *
+     * @param size the batch size
+     * @return the number of batches of <tt>size</tt> datagrams
+     */
+    public long getCount(int size)
+    {
+        return (size < 1 || size > counts.length()) ? 0 : counts.get(size - 1);
+    }
+
+    /**
+     * Gets the maximum batch size recorded by this histogram.
+     *
+     * @return the maximum batch size recorded by this histogram
+     */
+    public int getMaxBatchSize()
+    {
+        return counts.length();
+    }
+
+    /**
+     * Gets the mean number of datagrams per batch.
+     *
+     * @return the mean number of datagrams per batch or <tt>0</tt> if no batch
+     * has been recorded yet
+     */
+    public double getMeanBatchSize()
+    {
+        long batchCount = 0;
+        long datagramCount = 0;
+
+        for (int i = 0, length = counts.length(); i < length; i++)
+        {
+            long count = counts.get(i);
+
+            batchCount += count;
+            datagramCount += count * (i + 1);
+        }
+        return (batchCount == 0) ? 0 : ((double) datagramCount) / batchCount;
+    }
+
+    /**
+     * Records a batch of a specific size.
+     *
+     * @param size the number of datagrams in the batch
+     */
+    public void record(int size)
+    {
+        if (size < 1)
+            return;
+        if (size > counts.length())
+            size = counts.length();
+        counts.incrementAndGet(size - 1);
+    }
+
+    /**
+     * Returns the non-empty buckets of this histogram in the form
+     * <tt>size:count</tt>.
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder s = new StringBuilder("BatchSizeHistogram[");
+        boolean empty = true;
+
+        for (int i = 0, length = counts.length(); i < length; i++)
+        {
+            long count = counts.get(i);
+
+            if (count != 0)
+            {
+                if (!empty)
+                    s.append(' ');
+                s.append(i + 1).append(':').append(count);
+                empty = false;
+            }
+        }
+        return s.append(']').toString();
+    }
+}
@@ -25,6 +25,29 @@ public class Packet
         receiptTime = p.receiptTime;
     }
 
+    /**
+     * Determines whether this <tt>Packet</tt> has been acquired from a
+     * <tt>PacketBufferPool</tt> and has not been released yet. Such a packet
+     * exclusively owns its <tt>data</tt> and a consumer may take the
+     * <tt>data</tt> over, leaving another <tt>byte</tt> array in its place,
+     * instead of copying it.
+     *
+     * @return <tt>true</tt> if this <tt>Packet</tt> exclusively owns its
+     * <tt>data</tt>; otherwise, <tt>false</tt>
+     */
+    public boolean isPooled()
+    {
+        return false;
+    }
+
+    /**
+     * Notifies this <tt>Packet</tt> that its consumers are done with it so
+     * that it may be recycled. The default implementation does nothing.
+     */
+    public void release()
+    {
+    }
+
     @Override
     public Packet clone()
     {
@@ -0,0 +1,25 @@
+package net.sf.fmj.media.rtp.util;
+
+import java.io.*;
+
+/**
+ * Represents a <tt>PacketConsumer</tt> which is able to accept a whole batch
+ * of packets at once and thus amortize its per-packet costs across the batch.
+ * Used by <tt>UDPPacketReactor</tt> in batched receive mode. An implementation
+ * is not to hold locks shared with other threads across the whole batch.
+ */
+public interface PacketBatchConsumer
+    extends PacketConsumer
+{
+    /**
+     * Consumes a batch of packets in the order in which they appear in a
+     * specific array. The packets are owned by the caller and are not to be
+     * retained after the method returns.
+     *
+     * @param packets the array which contains the batch
+     * @param count the number of packets at the beginning of <tt>packets</tt>
+     * which constitute the batch
+     * @throws IOException if the consumption fails
+     */
+    public void sendTo(Packet[] packets, int count) throws IOException;
+}
@@ -0,0 +1,103 @@
+package net.sf.fmj.media.rtp.util;
+
+/**
+ * Implements a bounded pool of recycled <tt>UDPPacket</tt>s along with their
+ * receive buffers for the purposes of <tt>UDPPacketReceiver</tt> and
+ * <tt>RTPPacketReceiver</tt>. A <tt>UDPPacket</tt> acquired from the pool is
+ * returned to it through {@link Packet#release()} once its consumer is done
+ * with it. Since a consumer may take over the <tt>data</tt> of a packet and
+ * leave another <tt>byte</tt> array (or none) in its place, the pool does not
+ * assume anything about the <tt>data</tt> of the released packets and
+ * (re)allocates as needed upon acquisition.
+ */
+public class PacketBufferPool
+{
+    /**
+     * The default maximum number of <tt>UDPPacket</tt>s kept by a pool.
+     */
+    public static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * The number of valid elements in {@link #packets}.
+     */
+    private int count = 0;
+
+    /**
+     * The released <tt>UDPPacket</tt>s which are available for reuse.
+     */
+    private final UDPPacket[] packets;
+
+    /**
+     * Initializes a new <tt>PacketBufferPool</tt> which keeps at most
+     * {@link #DEFAULT_CAPACITY} released packets.
+     */
+    public PacketBufferPool()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Initializes a new <tt>PacketBufferPool</tt> which keeps at most a
+     * specific number of released packets.
+     *
+     * @param capacity the maximum number of released packets to keep
+     */
+    public PacketBufferPool(int capacity)
+    {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity");
+        packets = new UDPPacket[capacity];
+    }
+
+    /**
+     * Acquires a <tt>UDPPacket</tt> from this pool whose <tt>data</tt> is at
+     * least <tt>size</tt> bytes long. The returned packet is to be given back
+     * by calling its {@link Packet#release()} method.
+     *
+     * @param size the minimum length of the <tt>data</tt> of the returned
+     * packet or <tt>0</tt> if the caller does not need a buffer
+     * @return a <tt>UDPPacket</tt> owned by the caller
+     */
+    public UDPPacket acquire(int size)
+    {
+        UDPPacket p;
+
+        synchronized (this)
+        {
+            if (count > 0)
+            {
+                p = packets[--count];
+                packets[count] = null;
+            }
+            else
+                p = null;
+        }
+        if (p == null)
+            p = new UDPPacket();
+        if (size > 0 && (p.data == null || p.data.length < size))
+            p.data = new byte[size];
+        p.offset = 0;
+        p.length = 0;
+        p.received = true;
+        p.pool = this;
+        return p;
+    }
+
+    /**
+     * Returns a specific <tt>UDPPacket</tt> previously acquired from this pool
+     * so that it and its <tt>data</tt> may be reused. Invoked by
+     * {@link UDPPacket#release()}.
+     *
+     * @param p the <tt>UDPPacket</tt> to return to this pool
+     */
+    void release(UDPPacket p)
+    {
+        p.pool = null;
+        p.remoteAddress = null;
+        synchronized (this)
+        {
+            if (count < packets.length)
+                packets[count++] = p;
+        }
+    }
+}
@@ -80,7 +80,15 @@ public abstract class PacketFilter implements PacketSource, PacketConsumer
         Packet p = null;
         Packet rawp = source.receiveFrom();
         if (rawp != null)
+        {
             p = handlePacket(rawp);
+            /*
+             * A rejected packet will never reach a consumer which would
+             * release it.
+             */
+            if (p == null)
+                rawp.release();
+        }
         return p;
     }
 
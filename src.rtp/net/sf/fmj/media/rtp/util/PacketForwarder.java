@@ -9,6 +9,11 @@ public class PacketForwarder implements Runnable
     PacketSource source;
     PacketConsumer consumer;
     RTPMediaThread thread;
+    /**
+     * The registration of {@link #source} with the shared
+     * <tt>UDPPacketReactor</tt> if this instance does not own a thread.
+     */
+    UDPPacketReactor.Registration registration;
     boolean closed;
     public IOException exception;
 
@@ -41,10 +46,35 @@ public class PacketForwarder implements Runnable
     public void close()
     {
         closed = true;
+        if (registration != null)
+        {
+            registration.close();
+            registration = null;
+            if (source != null)
+                source.closeSource();
+        }
         if (consumer != null)
             consumer.closeConsumer();
     }
 
+    /**
+     * Gets the histogram of the sizes of the batches in which the packets of
+     * this instance are delivered in the batched receive mode of
+     * <tt>UDPPacketReactor</tt>.
+     *
+     * @return the histogram of the batch sizes or <tt>null</tt> if the packets
+     * of this instance are not delivered in batches
+     */
+    public BatchSizeHistogram getBatchSizeHistogram()
+    {
+        UDPPacketReactor.Registration registration = this.registration;
+
+        return
+            (registration == null)
+                ? null
+                : registration.getBatchSizeHistogram();
+    }
+
     public PacketConsumer getConsumer()
     {
         return consumer;
@@ -52,6 +82,8 @@ public class PacketForwarder implements Runnable
 
     public String getId()
     {
+        if (registration != null)
+            return "UDPPacketReactor: " + source.sourceString();
         if (thread == null)
         {
             System.err.println("the packetforwarders thread is null");
@@ -89,6 +121,11 @@ public class PacketForwarder implements Runnable
                     {
                         Log.logReceivedBytes(this, p.length);
                         consumer.sendTo(p);
+                        /*
+                         * The consumer is done with the packet so its buffer
+                         * may be reused for the next receipt.
+                         */
+                        p.release();
                     }
                 } catch (InterruptedIOException iioe)
                 {
@@ -107,7 +144,8 @@ public class PacketForwarder implements Runnable
 
     public void setVideoPriority()
     {
-        thread.useVideoNetworkPriority();
+        if (thread != null)
+            thread.useVideoNetworkPriority();
     }
 
     public void startPF()
@@ -117,8 +155,28 @@ public class PacketForwarder implements Runnable
 
     public void startPF(String threadname)
     {
-        if (thread != null)
+        if (thread != null || registration != null)
             throw new IllegalArgumentException("Called start more than once");
+        if (UDPPacketReactor.isEnabled() && (source instanceof PacketFilter))
+        {
+            try
+            {
+                registration
+                    = UDPPacketReactor.getInstance().register(
+                            (PacketFilter) source,
+                            consumer);
+            }
+            catch (IOException ioe)
+            {
+                Log.warning("RTP receive reactor unavailable: " + ioe);
+            }
+            /*
+             * Sources which are not backed by a DatagramChannel (e.g. those of
+             * an RTPConnector or a MulticastSocket) still get a thread.
+             */
+            if (registration != null)
+                return;
+        }
         if (threadname == null)
             threadname = "RTPMediaThread";
         {
@@ -6,6 +6,12 @@ import net.sf.fmj.utility.*;
 
 public class RTPPacket extends Packet
 {
+    /**
+     * The (shared, immutable) CSRC list of packets which carry no contributing
+     * sources. Allows parsing without allocating an empty array per packet.
+     */
+    public static final int[] NO_CSRC = new int[0];
+
     public Packet base;
     public boolean extensionPresent;
     public int marker;
@@ -19,6 +25,14 @@ public class RTPPacket extends Packet
     public int payloadoffset;
     public int payloadlength;
 
+    /**
+     * The fixed header of this packet if it has been assembled by
+     * {@link #assembleHeader(byte[])} to be sent by a gather write in which
+     * case <tt>data</tt>, <tt>offset</tt> and <tt>length</tt> describe the
+     * payload only; otherwise, <tt>null</tt>.
+     */
+    public byte[] header;
+
     public RTPPacket()
     {
     }
@@ -65,6 +79,132 @@ public class RTPPacket extends Packet
         }
     }
 
+    /**
+     * Assembles this packet into a specific array without allocating unless
+     * the array is too small.
+     *
+     * @param buf the array to assemble this packet into or <tt>null</tt>
+     * @return the array this packet has been assembled into which is
+     * <tt>buf</tt> unless it is <tt>null</tt> or too small, for the caller to
+     * reuse with the next packet
+     */
+    public byte[] assemble(byte[] buf)
+    {
+        int len = calcLength();
+
+        if ((buf == null) || (buf.length < len))
+            buf = new byte[len];
+        writeHeader(buf, 0);
+        System.arraycopy(base.data, payloadoffset, buf, 12, payloadlength);
+        data = buf;
+        offset = 0;
+        length = len;
+        header = null;
+        return buf;
+    }
+
+    /**
+     * Assembles the fixed header of this packet only so that it may be sent
+     * by a gather write together with the payload which is left in place in
+     * the data of {@link #base}. Afterwards, {@link #header} is the header
+     * and <tt>data</tt>, <tt>offset</tt> and <tt>length</tt> describe the
+     * payload.
+     *
+     * @param buf the 12-byte array to write the header into or <tt>null</tt>
+     * @return the array the header has been written into which is
+     * <tt>buf</tt> unless it is <tt>null</tt> or not 12 bytes long, for the
+     * caller to reuse with the next packet
+     */
+    public byte[] assembleHeader(byte[] buf)
+    {
+        if ((buf == null) || (buf.length != 12))
+            buf = new byte[12];
+        writeHeader(buf, 0);
+        header = buf;
+        data = base.data;
+        offset = payloadoffset;
+        length = payloadlength;
+        return buf;
+    }
+
+    /**
+     * Assembles this packet in place i.e. writes the header into the
+     * headroom which precedes the payload in the data of {@link #base} so
+     * that the payload is neither copied nor is an array allocated. The bytes
+     * of the headroom are overwritten.
+     *
+     * @return <tt>true</tt> if this packet has been assembled in place;
+     * <tt>false</tt> if there is no room for the header before the payload
+     */
+    public boolean assembleInPlace()
+    {
+        if ((base.data == null) || (payloadoffset < 12))
+            return false;
+
+        writeHeader(base.data, payloadoffset - 12);
+        data = base.data;
+        offset = payloadoffset - 12;
+        length = calcLength();
+        header = null;
+        return true;
+    }
+
+    @Override
+    public boolean isPooled()
+    {
+        return (base != null) && base.isPooled();
+    }
+
+    @Override
+    public void release()
+    {
+        if (base != null)
+            base.release();
+    }
+
+    /**
+     * Writes the 12-byte fixed header of this packet (without CSRCs) into a
+     * specific array at a specific offset.
+     */
+    private void writeHeader(byte[] d, int off)
+    {
+        d[off] = (byte) 128;
+        d[off + 1] = (byte) ((marker == 1) ? (payloadType | 0x80) : payloadType);
+        d[off + 2] = (byte) (seqnum >> 8);
+        d[off + 3] = (byte) seqnum;
+        d[off + 4] = (byte) (timestamp >> 24);
+        d[off + 5] = (byte) (timestamp >> 16);
+        d[off + 6] = (byte) (timestamp >> 8);
+        d[off + 7] = (byte) timestamp;
+        d[off + 8] = (byte) (ssrc >> 24);
+        d[off + 9] = (byte) (ssrc >> 16);
+        d[off + 10] = (byte) (ssrc >> 8);
+        d[off + 11] = (byte) ssrc;
+    }
+
+    /**
+     * Re-initializes this instance to represent a specific received
+     * <tt>Packet</tt> so that a single <tt>RTPPacket</tt> may be reused as a
+     * flyweight across packets instead of allocating a new one per packet.
+     * The header fields are to be (re)set by the parser. The
+     * <tt>extension</tt> array is kept for reuse and is only meaningful if
+     * <tt>extensionPresent</tt>.
+     *
+     * @param p the <tt>Packet</tt> this instance is to represent
+     */
+    public void wrap(Packet p)
+    {
+        base = p;
+        data = p.data;
+        offset = p.offset;
+        length = p.length;
+        received = p.received;
+        receiptTime = p.receiptTime;
+        extensionPresent = false;
+        extensionType = 0;
+        header = null;
+    }
+
     public int calcLength()
     {
         return payloadlength + 12;
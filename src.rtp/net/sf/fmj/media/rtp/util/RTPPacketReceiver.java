@@ -15,6 +15,13 @@ public class RTPPacketReceiver implements PacketSource, SourceTransferHandler
     boolean closed;
     boolean dataRead;
 
+    /**
+     * The pool of <tt>UDPPacket</tt>s which take over the buffers written by
+     * {@link #transferData(PushSourceStream)} so that a packet owns its data
+     * after {@link #receiveFrom()} returns it.
+     */
+    private final PacketBufferPool pool = new PacketBufferPool();
+
     public RTPPacketReceiver(PushSourceStream pss)
     {
         rtpsource = null;
@@ -71,14 +78,22 @@ public class RTPPacketReceiver implements PacketSource, SourceTransferHandler
                 dataRead = true;
             }
         }
-        byte data[];
+        UDPPacket p = pool.acquire(0);
         if (buf != null)
-            data = (byte[]) buf.getData();
-        else
-            data = new byte[1];
-        UDPPacket p = new UDPPacket();
+        {
+            /*
+             * Take the buffer over and leave the one previously owned by the
+             * pooled packet (if any) in its place so that transferData does
+             * not overwrite the packet while it is being consumed.
+             */
+            byte[] spare = p.data;
+
+            p.data = (byte[]) buf.getData();
+            buf.setData(spare);
+        }
+        else if (p.data == null)
+            p.data = new byte[1];
         p.receiptTime = System.currentTimeMillis();
-        p.data = data;
         p.offset = 0;
         p.length = buf != null ? buf.getLength() : 0;
         Log.logRemovedBytes(this, p.length);
@@ -64,7 +64,7 @@ public class RTPPacketSender implements PacketConsumer
             throw new IOException();
         } else
         {
-            outstream.write(p.data, 0, p.length);
+            outstream.write(p.data, p.offset, p.length);
             return;
         }
     }
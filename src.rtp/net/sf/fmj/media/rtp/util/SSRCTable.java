@@ -2,53 +2,259 @@ package net.sf.fmj.media.rtp.util;
 
 import java.util.*;
 
+/**
+ * Maps SSRC identifiers to objects. The mappings are kept in an immutable
+ * open-addressing hash table with linear probing which is replaced as a whole
+ * (i.e. copied on write) upon every modification. Consequently, {@link #get(int)}
+ * and the other read operations are wait-free and never contend with the
+ * (infrequent) modifications, which are serialized on the monitor of the
+ * <tt>SSRCTable</tt> (or of its segment, see below). The <tt>Enumeration</tt>s
+ * returned by {@link #elements()} operate on the tables current at the time of
+ * their creation and are not affected by later modifications.
+ * <p>
+ * An <tt>SSRCTable</tt> may be partitioned into a number of segments (see
+ * {@link #SSRCTable(int)}) each with a table and a lock of its own so that the
+ * modifications of SSRCs which fall into different segments neither contend
+ * nor copy each other's mappings.
+ * </p>
+ */
 public class SSRCTable<T>
 {
-    static final int INCR = 16;
-    int[] ssrcList;
-    Object[] objList;
-    int total;
+    /**
+     * Represents an immutable state of an <tt>SSRCTable</tt>.
+     */
+    private static class Table
+    {
+        static final Table EMPTY = new Table(MIN_CAPACITY);
+
+        /**
+         * The SSRCs of the mappings. The element at a specific index is
+         * meaningful only if the element of {@link #objList} at the same index
+         * is not <tt>null</tt>.
+         */
+        final int[] ssrcList;
+
+        /**
+         * The objects of the mappings; <tt>null</tt> denotes a free slot.
+         */
+        final Object[] objList;
+
+        /**
+         * The number of mappings.
+         */
+        int total;
+
+        Table(int capacity)
+        {
+            ssrcList = new int[capacity];
+            objList = new Object[capacity];
+            total = 0;
+        }
+
+        /**
+         * Initializes a new <tt>Table</tt> which is a copy of a specific
+         * <tt>Table</tt> with a specific capacity.
+         */
+        Table(Table table, int capacity)
+        {
+            this(capacity);
+            if (capacity == table.objList.length)
+            {
+                System.arraycopy(table.ssrcList, 0, ssrcList, 0, capacity);
+                System.arraycopy(table.objList, 0, objList, 0, capacity);
+                total = table.total;
+            }
+            else
+            {
+                for (int i = 0; i < table.objList.length; i++)
+                {
+                    Object obj = table.objList[i];
+
+                    if (obj != null)
+                        insert(table.ssrcList[i], obj);
+                }
+            }
+        }
+
+        int indexOf(int ssrc)
+        {
+            int mask = objList.length - 1;
+
+            for (int i = hash(ssrc) & mask;; i = (i + 1) & mask)
+            {
+                if (objList[i] == null)
+                    return -1;
+                if (ssrcList[i] == ssrc)
+                    return i;
+            }
+        }
+
+        /**
+         * Adds a mapping for an SSRC which is known not to be mapped yet.
+         * Invoked only while the instance is not published.
+         */
+        void insert(int ssrc, Object obj)
+        {
+            int mask = objList.length - 1;
+            int i = hash(ssrc) & mask;
+
+            while (objList[i] != null)
+                i = (i + 1) & mask;
+            ssrcList[i] = ssrc;
+            objList[i] = obj;
+            total++;
+        }
+    }
+
+    /**
+     * Represents a segment of an <tt>SSRCTable</tt>.
+     */
+    private static class Segment
+    {
+        /**
+         * The object on which the modifications of this segment are
+         * serialized. The <tt>SSRCTable</tt> itself if it has a single
+         * segment.
+         */
+        final Object lock;
+
+        /**
+         * The current state of this segment. Replaced while {@link #lock} is
+         * held and read without synchronization.
+         */
+        volatile Table table = Table.EMPTY;
+
+        Segment(Object lock)
+        {
+            this.lock = lock;
+        }
+    }
+
+    /**
+     * The minimum (and initial) capacity of the hash table. Must be a power of
+     * two.
+     */
+    static final int MIN_CAPACITY = 16;
+
+    /**
+     * Spreads the bits of a specific SSRC over the hash table. SSRCs are
+     * supposed to be random but nothing guarantees it.
+     */
+    private static int hash(int ssrc)
+    {
+        int h = ssrc * 0x9E3779B9;
+
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Gets the index of the shard/segment into which a specific SSRC falls
+     * when SSRCs are partitioned into a specific number of shards. The index
+     * is derived from bits of the SSRC other than the ones which determine its
+     * slot in the hash table of the shard.
+     *
+     * @param ssrc the SSRC to get the shard of
+     * @param shards the number of shards
+     * @return the index of the shard of <tt>ssrc</tt> in the range
+     * [0, <tt>shards</tt>)
+     */
+    public static int shardOf(int ssrc, int shards)
+    {
+        if (shards <= 1)
+            return 0;
+
+        long h = (ssrc * 0x85EBCA6BL) & 0xFFFFFFFFL;
+
+        return (int) ((h * shards) >>> 32);
+    }
+
+    /**
+     * The segments of this table.
+     */
+    private final Segment[] segments;
 
     public SSRCTable()
     {
-        ssrcList = new int[16];
-        objList = new Object[16];
-        total = 0;
+        this(1);
+    }
+
+    /**
+     * Initializes a new <tt>SSRCTable</tt> which is partitioned into a
+     * specific number of segments.
+     *
+     * @param segments the number of segments; SSRCs are assigned to them by
+     * {@link #shardOf(int, int)}
+     */
+    public SSRCTable(int segments)
+    {
+        if (segments < 1)
+            throw new IllegalArgumentException("segments");
+
+        this.segments = new Segment[segments];
+        if (segments == 1)
+            this.segments[0] = new Segment(this);
+        else
+        {
+            for (int i = 0; i < segments; i++)
+                this.segments[i] = new Segment(new Object());
+        }
     }
 
-    public synchronized Enumeration<T> elements()
+    public Enumeration<T> elements()
     {
+        final Table[] tables = new Table[segments.length];
+
+        for (int i = 0; i < tables.length; i++)
+            tables[i] = segments[i].table;
+
         return new Enumeration<T>()
         {
-            private int next = 0;
+            private int nextTable = 0;
+
+            private int next = advance(0);
+
+            private int advance(int i)
+            {
+                while (nextTable < tables.length)
+                {
+                    Object[] objList = tables[nextTable].objList;
+
+                    while (i < objList.length && objList[i] == null)
+                        i++;
+                    if (i < objList.length)
+                        break;
+                    nextTable++;
+                    i = 0;
+                }
+                return i;
+            }
 
             @Override
             public boolean hasMoreElements()
             {
-                return next < total;
+                return nextTable < tables.length;
             }
 
             @Override
             public T nextElement()
             {
-                synchronized (SSRCTable.this)
+                if (nextTable < tables.length)
                 {
-                    if (next < total)
-                    {
-                        @SuppressWarnings("unchecked")
-                        T t = (T) objList[next++];
+                    @SuppressWarnings("unchecked")
+                    T t = (T) tables[nextTable].objList[next];
 
-                        return t;
-                    }
+                    next = advance(next + 1);
+                    return t;
                 }
                 throw new NoSuchElementException("SSRCTable Enumeration");
             }
         };
     }
 
-    public synchronized T get(int ssrc)
+    public T get(int ssrc)
     {
-        int i = indexOf(ssrc);
+        Table table = segmentOf(ssrc).table;
+        int i = table.indexOf(ssrc);
 
         if (i < 0)
         {
@@ -57,156 +263,173 @@ public class SSRCTable<T>
         else
         {
             @SuppressWarnings("unchecked")
-            T t = (T) objList[i];
+            T t = (T) table.objList[i];
 
             return t;
         }
     }
 
-    public synchronized int getSSRC(T obj)
+    public int getSSRC(T obj)
     {
-        for (int i = 0; i < total; i++)
-            if (objList[i] == obj)
-                return ssrcList[i];
-
-        return 0;
-    }
-
-    private int indexOf(int ssrc)
-    {
-        if (total <= 3)
+        if (obj == null)
+            return 0;
+        for (Segment segment : segments)
         {
-            if (total > 0 && ssrcList[0] == ssrc)
-                return 0;
-            if (total > 1 && ssrcList[1] == ssrc)
-                return 1;
-            return total <= 2 || ssrcList[2] != ssrc ? -1 : 2;
+            Table table = segment.table;
+
+            for (int i = 0; i < table.objList.length; i++)
+                if (table.objList[i] == obj)
+                    return table.ssrcList[i];
         }
-        if (ssrcList[0] == ssrc)
-            return 0;
-        if (ssrcList[total - 1] == ssrc)
-            return total - 1;
-        int i = 0;
-        int j = total - 1;
-        do
-        {
-            int x = (j - i) / 2 + i;
-            if (ssrcList[x] == ssrc)
-                return x;
-            if (ssrc > ssrcList[x])
-                i = x + 1;
-            else if (ssrc < ssrcList[x])
-                j = x;
-        } while (i < j);
-        return -1;
+
+        return 0;
     }
 
     public boolean isEmpty()
     {
-        return total == 0;
+        return size() == 0;
     }
 
-    public synchronized void put(int ssrc, T obj)
+    /**
+     * Maps a specific SSRC to a specific object. Since <tt>null</tt> marks the
+     * free slots of the hash table, mapping an SSRC to <tt>null</tt> removes
+     * the mapping of the SSRC.
+     */
+    public void put(int ssrc, T obj)
     {
-        if (total == 0)
+        if (obj == null)
         {
-            ssrcList[0] = ssrc;
-            objList[0] = obj;
-            total = 1;
+            remove(ssrc);
             return;
         }
-        int i;
-        for (i = 0; i < total; i++)
+
+        Segment segment = segmentOf(ssrc);
+
+        synchronized (segment.lock)
         {
-            if (ssrcList[i] < ssrc)
-                continue;
-            if (ssrcList[i] == ssrc)
-            {
-                objList[i] = obj;
-                return;
-            }
-            break;
+            put(segment, ssrc, obj);
         }
+    }
 
-        if (total == ssrcList.length)
+    private void put(Segment segment, int ssrc, Object obj)
+    {
+        Table table = segment.table;
+        int i = table.indexOf(ssrc);
+        Table newTable;
+
+        if (i >= 0)
         {
-            int[] sl = new int[ssrcList.length + 16];
-            Object[] ol = new Object[objList.length + 16];
-            if (i > 0)
-            {
-                System.arraycopy(ssrcList, 0, sl, 0, total);
-                System.arraycopy(objList, 0, ol, 0, total);
-            }
-            ssrcList = sl;
-            objList = ol;
+            newTable = new Table(table, table.objList.length);
+            newTable.objList[i] = obj;
         }
-        for (int x = total - 1; x >= i; x--)
+        else
         {
-            ssrcList[x + 1] = ssrcList[x];
-            objList[x + 1] = objList[x];
-        }
+            int capacity = table.objList.length;
 
-        ssrcList[i] = ssrc;
-        objList[i] = obj;
-        total++;
+            // Keep the load factor at or below 1/2 so that probes are short.
+            if ((table.total + 1) * 2 > capacity)
+                capacity *= 2;
+            newTable = new Table(table, capacity);
+            newTable.insert(ssrc, obj);
+        }
+        segment.table = newTable;
     }
 
-    public synchronized T remove(int ssrc)
+    public T remove(int ssrc)
     {
-        int i;
-        if ((i = indexOf(ssrc)) < 0)
-            return null;
-
-        @SuppressWarnings("unchecked")
-        T res = (T) objList[i];
+        Segment segment = segmentOf(ssrc);
 
-        for (; i < total - 1; i++)
+        synchronized (segment.lock)
         {
-            ssrcList[i] = ssrcList[i + 1];
-            objList[i] = objList[i + 1];
-        }
+            Table table = segment.table;
+            int i = table.indexOf(ssrc);
+
+            if (i < 0)
+                return null;
 
-        ssrcList[total - 1] = 0;
-        objList[total - 1] = null;
-        total--;
-        return res;
+            @SuppressWarnings("unchecked")
+            T res = (T) table.objList[i];
+
+            removeAt(segment, i);
+            return res;
+        }
     }
 
-    public synchronized void removeAll()
+    public void removeAll()
     {
-        for (int i = 0; i < total; i++)
+        for (Segment segment : segments)
         {
-            ssrcList[i] = 0;
-            objList[i] = null;
+            synchronized (segment.lock)
+            {
+                segment.table = Table.EMPTY;
+            }
         }
+    }
+
+    /**
+     * Publishes a copy of the table of a specific <tt>Segment</tt> without
+     * the mapping at a specific index. The remaining mappings are rehashed so
+     * that no probe sequence is broken by the removal.
+     */
+    private void removeAt(Segment segment, int index)
+    {
+        Table table = segment.table;
+        int capacity = table.objList.length;
 
-        total = 0;
+        if (capacity > MIN_CAPACITY && (table.total - 1) * 8 <= capacity)
+            capacity /= 2;
+
+        Table newTable = new Table(capacity);
+
+        for (int i = 0; i < table.objList.length; i++)
+        {
+            Object obj = table.objList[i];
+
+            if (obj != null && i != index)
+                newTable.insert(table.ssrcList[i], obj);
+        }
+        segment.table = newTable;
     }
 
-    public synchronized void removeObj(T obj)
+    public void removeObj(T obj)
     {
         if (obj == null)
             return;
-        int i;
-        for (i = 0; i < total; i++)
-            if (objList[i] == obj)
-                break;
 
-        if (i >= total)
-            return;
-        for (; i < total - 1; i++)
+        for (Segment segment : segments)
         {
-            ssrcList[i] = ssrcList[i + 1];
-            objList[i] = objList[i + 1];
+            synchronized (segment.lock)
+            {
+                Table table = segment.table;
+
+                for (int i = 0; i < table.objList.length; i++)
+                {
+                    if (table.objList[i] == obj)
+                    {
+                        removeAt(segment, i);
+                        return;
+                    }
+                }
+            }
         }
+    }
 
-        ssrcList[total - 1] = 0;
-        objList[total - 1] = null;
-        total--;
+    private Segment segmentOf(int ssrc)
+    {
+        Segment[] segments = this.segments;
+
+        return
+            (segments.length == 1)
+                ? segments[0]
+                : segments[shardOf(ssrc, segments.length)];
     }
 
     public int size()
     {
-        return total;
+        int size = 0;
+
+        for (Segment segment : segments)
+            size += segment.table.total;
+        return size;
     }
 }
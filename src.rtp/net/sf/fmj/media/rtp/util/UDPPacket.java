@@ -6,10 +6,38 @@ import java.util.*;
 public class UDPPacket extends Packet
 {
     public DatagramPacket datagrampacket;
+
+    /**
+     * The bytes to be sent before <tt>data</tt> in the same datagram (by a
+     * gather write if possible) or <tt>null</tt>. Allows prepending a header
+     * to a payload without copying the payload.
+     */
+    public byte[] header;
     public int localPort;
     public int remotePort;
     public InetAddress remoteAddress;
 
+    /**
+     * The <tt>PacketBufferPool</tt> this instance has been acquired from and
+     * is to be released to or <tt>null</tt> if it is not pooled.
+     */
+    PacketBufferPool pool;
+
+    @Override
+    public boolean isPooled()
+    {
+        return pool != null;
+    }
+
+    @Override
+    public void release()
+    {
+        PacketBufferPool pool = this.pool;
+
+        if (pool != null)
+            pool.release(this);
+    }
+
     @Override
     public String toString()
     {
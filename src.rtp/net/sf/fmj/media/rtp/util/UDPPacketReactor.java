@@ -0,0 +1,533 @@
+package net.sf.fmj.media.rtp.util;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import net.sf.fmj.media.*;
+
+/**
+ * Implements a receive reactor which serves the RTP and RTCP
+ * <tt>UDPPacketReceiver</tt>s of many sessions with a small, fixed pool of
+ * threads. Each thread owns a <tt>Selector</tt> on which the
+ * <tt>DatagramChannel</tt>s of the registered receivers are multiplexed so that
+ * a <tt>PacketForwarder</tt> does not have to block a thread of its own in
+ * {@link UDPPacketReceiver#receiveFrom()}.
+ * <p>
+ * The reactor is opt-in and is enabled by setting the
+ * <tt>rtp_receive_reactor_ENABLE</tt> property of the <tt>Registry</tt> to
+ * <tt>true</tt>. The number of threads is read from
+ * <tt>rtp_receive_reactor_THREADS</tt> and defaults to the number of available
+ * processors.
+ * </p>
+ * <p>
+ * Setting <tt>rtp_receive_reactor_BATCH_SIZE</tt> to a value greater than
+ * <tt>1</tt> (and at most {@link #MAX_READS_PER_WAKEUP}) enables batched
+ * receive mode: the ready datagrams are drained in batches of up to that many
+ * and every batch is handed to a {@link PacketBatchConsumer} consumer with a
+ * single invocation. The sizes of the batches are counted by a
+ * {@link BatchSizeHistogram} per registration.
+ * </p>
+ */
+public class UDPPacketReactor
+{
+    /**
+     * Implements the association of a <tt>PacketFilter</tt> (whose source is a
+     * channel-backed <tt>UDPPacketReceiver</tt>) and the
+     * <tt>PacketConsumer</tt> the filtered packets are to be delivered to.
+     */
+    public class Registration
+    {
+        /**
+         * The packets of the batch being delivered in batched receive mode or
+         * <tt>null</tt> if the packets are delivered one at a time.
+         */
+        private final Packet[] batch;
+
+        /**
+         * The sizes of the batches delivered in batched receive mode or
+         * <tt>null</tt> if the packets are delivered one at a time.
+         */
+        private final BatchSizeHistogram batchSizeHistogram;
+
+        /**
+         * The indicator which determines whether {@link #close()} has been
+         * invoked. Guarded by the monitor of this instance along with
+         * {@link #key} so that a registration which completes after the
+         * invocation is undone.
+         */
+        private boolean closed = false;
+
+        private final PacketConsumer consumer;
+
+        private final PacketFilter filter;
+
+        private SelectionKey key;
+
+        private final UDPPacketReceiver receiver;
+
+        private final Worker worker;
+
+        private Registration(Worker worker, PacketFilter filter,
+                UDPPacketReceiver receiver, PacketConsumer consumer)
+        {
+            this.worker = worker;
+            this.filter = filter;
+            this.receiver = receiver;
+            this.consumer = consumer;
+
+            if ((batchSize > 1) && (consumer instanceof PacketBatchConsumer))
+            {
+                batch = new Packet[batchSize];
+                batchSizeHistogram = new BatchSizeHistogram(batchSize);
+            }
+            else
+            {
+                batch = null;
+                batchSizeHistogram = null;
+            }
+        }
+
+        /**
+         * Unregisters this instance from the reactor. The associated
+         * <tt>DatagramChannel</tt> is not closed.
+         */
+        public void close()
+        {
+            SelectionKey key;
+
+            synchronized (this)
+            {
+                closed = true;
+                key = this.key;
+                this.key = null;
+            }
+            if (key != null)
+            {
+                key.cancel();
+                worker.selector.wakeup();
+                if (batchSizeHistogram != null)
+                {
+                    Log.info("Closing " + filter.sourceString() + " with "
+                            + batchSizeHistogram);
+                }
+            }
+            worker.pending.remove(this);
+        }
+
+        /**
+         * Gets the histogram of the sizes of the batches delivered to the
+         * consumer of this instance.
+         *
+         * @return the histogram of the sizes of the batches delivered to the
+         * consumer of this instance or <tt>null</tt> if this instance does not
+         * operate in batched receive mode
+         */
+        public BatchSizeHistogram getBatchSizeHistogram()
+        {
+            return batchSizeHistogram;
+        }
+
+        /**
+         * Drains the datagrams ready on the associated channel and pushes them
+         * through the filter into the consumer.
+         */
+        private void readable()
+        {
+            if (batch != null)
+            {
+                readableBatched();
+                return;
+            }
+            for (int i = 0; i < MAX_READS_PER_WAKEUP; i++)
+            {
+                Packet p;
+
+                try
+                {
+                    Packet rawp = receiver.poll();
+
+                    if (rawp == null)
+                        break;
+                    p = filter.handlePacket(rawp);
+                    if (p != null)
+                    {
+                        Log.logReceivedBytes(this, p.length);
+                        consumer.sendTo(p);
+                        p.release();
+                    }
+                    else
+                        rawp.release();
+                }
+                catch (IOException ioe)
+                {
+                    receiveFailed(ioe);
+                    break;
+                }
+                catch (RuntimeException re)
+                {
+                    /*
+                     * The worker thread is shared by many sessions so one
+                     * misbehaving consumer must not bring the rest down.
+                     */
+                    Log.dumpStack(re);
+                }
+            }
+        }
+
+        /**
+         * Drains the datagrams ready on the associated channel in batches of
+         * up to <tt>batch.length</tt> and delivers each batch to the
+         * <tt>PacketBatchConsumer</tt> with a single invocation.
+         */
+        private void readableBatched()
+        {
+            PacketBatchConsumer consumer = (PacketBatchConsumer) this.consumer;
+            int reads = 0;
+
+            while (reads < MAX_READS_PER_WAKEUP)
+            {
+                int datagrams = 0;
+                int count = 0;
+                boolean drained = false;
+
+                try
+                {
+                    while (datagrams < batch.length)
+                    {
+                        Packet rawp = receiver.poll();
+
+                        if (rawp == null)
+                        {
+                            drained = true;
+                            break;
+                        }
+                        datagrams++;
+
+                        Packet p = filter.handlePacket(rawp);
+
+                        if (p != null)
+                        {
+                            Log.logReceivedBytes(this, p.length);
+                            batch[count++] = p;
+                        }
+                        else
+                            rawp.release();
+                    }
+                    if (datagrams != 0)
+                        batchSizeHistogram.record(datagrams);
+                    if (count != 0)
+                        consumer.sendTo(batch, count);
+                }
+                catch (IOException ioe)
+                {
+                    receiveFailed(ioe);
+                    drained = true;
+                }
+                catch (RuntimeException re)
+                {
+                    Log.dumpStack(re);
+                }
+                finally
+                {
+                    for (int i = 0; i < count; i++)
+                    {
+                        batch[i].release();
+                        batch[i] = null;
+                    }
+                }
+                reads += datagrams;
+                if (drained || (datagrams == 0))
+                    break;
+            }
+        }
+
+        /**
+         * Unregisters this instance and closes its consumer because the
+         * associated channel has failed to receive.
+         *
+         * @param ioe the <tt>IOException</tt> which has been thrown by the
+         * associated channel
+         */
+        private void receiveFailed(IOException ioe)
+        {
+            Log.warning("Closing " + filter.sourceString()
+                    + " after receive failure: " + ioe);
+            close();
+            consumer.closeConsumer();
+        }
+    }
+
+    /**
+     * Implements a thread of the pool of the reactor along with the
+     * <tt>Selector</tt> it waits on.
+     */
+    private class Worker
+        implements Runnable
+    {
+        private final Queue<Registration> pending
+            = new ConcurrentLinkedQueue<Registration>();
+
+        private final Selector selector;
+
+        private final RTPMediaThread thread;
+
+        private Worker(int index)
+            throws IOException
+        {
+            selector = Selector.open();
+            thread = new RTPMediaThread(this, "RTP Receive Reactor " + index);
+            thread.useNetworkPriority();
+            thread.setDaemon(true);
+        }
+
+        private void register(Registration r)
+        {
+            pending.add(r);
+            selector.wakeup();
+        }
+
+        private void registerPending()
+        {
+            List<Registration> retry = null;
+            Registration r;
+
+            while ((r = pending.poll()) != null)
+            {
+                synchronized (r)
+                {
+                    if (r.closed)
+                        continue;
+                }
+                try
+                {
+                    SelectionKey key
+                        = r.receiver.getChannel().register(
+                                selector,
+                                SelectionKey.OP_READ,
+                                r);
+                    boolean closed;
+
+                    synchronized (r)
+                    {
+                        closed = r.closed;
+                        if (!closed)
+                            r.key = key;
+                    }
+                    if (closed)
+                    {
+                        // The registration has been closed in the meantime.
+                        key.cancel();
+                    }
+                }
+                catch (CancelledKeyException cke)
+                {
+                    /*
+                     * The channel has been registered before and its cancelled
+                     * key is deregistered only by the next selection.
+                     */
+                    if (retry == null)
+                        retry = new ArrayList<Registration>();
+                    retry.add(r);
+                }
+                catch (ClosedChannelException cce)
+                {
+                    r.consumer.closeConsumer();
+                }
+            }
+            if (retry != null)
+            {
+                pending.addAll(retry);
+                selector.wakeup();
+            }
+        }
+
+        public void run()
+        {
+            Log.logMediaStackObjectStarted(this);
+            try
+            {
+                while (true)
+                {
+                    try
+                    {
+                        registerPending();
+                        selector.select();
+                    }
+                    catch (IOException ioe)
+                    {
+                        Log.error("RTP receive reactor failed: " + ioe);
+                        break;
+                    }
+                    catch (RuntimeException re)
+                    {
+                        /*
+                         * The thread is shared by many sessions so it must
+                         * keep serving them.
+                         */
+                        Log.dumpStack(re);
+                        continue;
+                    }
+
+                    Iterator<SelectionKey> i
+                        = selector.selectedKeys().iterator();
+
+                    while (i.hasNext())
+                    {
+                        SelectionKey key = i.next();
+
+                        i.remove();
+                        try
+                        {
+                            if (key.isValid() && key.isReadable())
+                                ((Registration) key.attachment()).readable();
+                        }
+                        catch (CancelledKeyException cke)
+                        {
+                            // The registration has been closed concurrently.
+                        }
+                        catch (RuntimeException re)
+                        {
+                            Log.dumpStack(re);
+                        }
+                    }
+                }
+            }
+            finally
+            {
+                Log.logMediaStackObjectStopped(this);
+            }
+        }
+    }
+
+    private static UDPPacketReactor instance;
+
+    /**
+     * The maximum number of datagrams read from a single channel per wakeup so
+     * that a busy channel does not starve the rest served by the same thread.
+     * It is also the maximum number of datagrams in a batch delivered to a
+     * <tt>PacketBatchConsumer</tt> in batched receive mode.
+     */
+    public static final int MAX_READS_PER_WAKEUP = 32;
+
+    /**
+     * Gets the <tt>UDPPacketReactor</tt> shared by all sessions in the JVM,
+     * starting its threads if necessary.
+     *
+     * @return the <tt>UDPPacketReactor</tt> shared by all sessions
+     * @throws IOException if a <tt>Selector</tt> could not be opened
+     */
+    public static synchronized UDPPacketReactor getInstance()
+        throws IOException
+    {
+        if (instance == null)
+        {
+            int threads
+                = com.sun.media.util.Registry.getInt(
+                        "rtp_receive_reactor_THREADS",
+                        Runtime.getRuntime().availableProcessors());
+
+            int batchSize
+                = com.sun.media.util.Registry.getInt(
+                        "rtp_receive_reactor_BATCH_SIZE",
+                        1);
+
+            instance = new UDPPacketReactor(threads, batchSize);
+        }
+        return instance;
+    }
+
+    /**
+     * Determines whether <tt>PacketForwarder</tt>s are to register their
+     * sources with the shared reactor instead of starting threads of their
+     * own.
+     *
+     * @return <tt>true</tt> if the receive reactor is enabled; otherwise,
+     * <tt>false</tt>
+     */
+    public static boolean isEnabled()
+    {
+        return
+            com.sun.media.util.Registry.getBoolean(
+                    "rtp_receive_reactor_ENABLE",
+                    false);
+    }
+
+    /**
+     * The maximum number of datagrams delivered to a
+     * <tt>PacketBatchConsumer</tt> at once. Batched receive mode is disabled
+     * if it is <tt>1</tt>.
+     */
+    private final int batchSize;
+
+    private int nextWorker = 0;
+
+    private final Worker[] workers;
+
+    private UDPPacketReactor(int threads, int batchSize)
+        throws IOException
+    {
+        if (batchSize < 1)
+            batchSize = 1;
+        else if (batchSize > MAX_READS_PER_WAKEUP)
+            batchSize = MAX_READS_PER_WAKEUP;
+        this.batchSize = batchSize;
+        if (threads < 1)
+            threads = 1;
+        workers = new Worker[threads];
+        for (int i = 0; i < workers.length; i++)
+            workers[i] = new Worker(i);
+        for (Worker worker : workers)
+            worker.thread.start();
+    }
+
+    /**
+     * Registers a specific <tt>PacketFilter</tt> with this reactor so that the
+     * packets received by its <tt>UDPPacketReceiver</tt> source are filtered
+     * and delivered to a specific <tt>PacketConsumer</tt>.
+     *
+     * @param filter the <tt>PacketFilter</tt> such as <tt>RTPRawReceiver</tt>
+     * or <tt>RTCPRawReceiver</tt> to register
+     * @param consumer the <tt>PacketConsumer</tt> to deliver the packets to
+     * @return the <tt>Registration</tt> which represents the association or
+     * <tt>null</tt> if the source of <tt>filter</tt> is not a
+     * <tt>UDPPacketReceiver</tt> backed by a <tt>DatagramChannel</tt>
+     */
+    public Registration register(PacketFilter filter, PacketConsumer consumer)
+    {
+        PacketSource source = filter.getSource();
+
+        if (!(source instanceof UDPPacketReceiver))
+            return null;
+
+        UDPPacketReceiver receiver = (UDPPacketReceiver) source;
+        DatagramChannel channel = receiver.getChannel();
+
+        if (channel == null)
+            return null;
+        try
+        {
+            channel.configureBlocking(false);
+        }
+        catch (IOException ioe)
+        {
+            Log.warning("Cannot register " + filter.sourceString()
+                    + " with the RTP receive reactor: " + ioe);
+            return null;
+        }
+
+        Worker worker;
+
+        synchronized (this)
+        {
+            worker = workers[nextWorker];
+            nextWorker = (nextWorker + 1) % workers.length;
+        }
+
+        Registration r = new Registration(worker, filter, receiver, consumer);
+
+        worker.register(r);
+        return r;
+    }
+}
@@ -2,16 +2,29 @@ package net.sf.fmj.media.rtp.util;
 
 import java.io.*;
 import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
 
 public class UDPPacketReceiver implements PacketSource
 {
     private DatagramSocket sock;
     private int maxsize;
-    byte dataBuf[];
+
+    /**
+     * The <tt>DatagramPacket</tt> reused by {@link #receiveFrom()} for every
+     * receipt. Only its buffer is handed out (as the <tt>data</tt> of a pooled
+     * <tt>UDPPacket</tt>).
+     */
+    private final DatagramPacket dp = new DatagramPacket(new byte[1], 1);
+
+    /**
+     * The pool of <tt>UDPPacket</tt>s and their receive buffers from which
+     * every received datagram is given a buffer of its own.
+     */
+    private final PacketBufferPool pool = new PacketBufferPool();
 
     public UDPPacketReceiver(DatagramSocket sock, int maxsize)
     {
-        dataBuf = new byte[1];
         this.sock = sock;
         this.maxsize = maxsize;
         try
@@ -28,7 +41,6 @@ public class UDPPacketReceiver implements PacketSource
             DatagramSocket localSocket) throws SocketException,
             UnknownHostException, IOException
     {
-        dataBuf = new byte[1];
         InetAddress localInetAddr = InetAddress.getByName(localAddress);
         InetAddress remoteInetAddr = InetAddress.getByName(remoteAddress);
         if (remoteInetAddr.isMulticastAddress())
@@ -41,6 +53,18 @@ public class UDPPacketReceiver implements PacketSource
         {
             if (localSocket != null)
                 this.sock = localSocket;
+            else if (UDPPacketReactor.isEnabled())
+            {
+                /*
+                 * Only a socket created through a DatagramChannel may be
+                 * multiplexed by the shared receive reactor.
+                 */
+                DatagramChannel channel = DatagramChannel.open();
+
+                channel.socket().bind(
+                        new InetSocketAddress(localInetAddr, localPort));
+                this.sock = channel.socket();
+            }
             else
                 this.sock = new DatagramSocket(localPort, localInetAddr);
             if (remoteAddress == null)
@@ -65,28 +89,121 @@ public class UDPPacketReceiver implements PacketSource
         }
     }
 
+    /**
+     * Gets the <tt>DatagramChannel</tt> of the socket of this instance, if
+     * any. Only sockets which have been created through a
+     * <tt>DatagramChannel</tt> may be registered with
+     * <tt>UDPPacketReactor</tt>.
+     *
+     * @return the <tt>DatagramChannel</tt> of the socket of this instance or
+     * <tt>null</tt> if the socket has no channel
+     */
+    public DatagramChannel getChannel()
+    {
+        DatagramSocket sock = this.sock;
+
+        return (sock == null) ? null : sock.getChannel();
+    }
+
     public DatagramSocket getSocket()
     {
         return sock;
     }
 
+    /**
+     * Receives a datagram from the non-blocking <tt>DatagramChannel</tt> of
+     * this instance without waiting for one to arrive. Used by
+     * <tt>UDPPacketReactor</tt> instead of {@link #receiveFrom()}.
+     *
+     * @return the received <tt>Packet</tt> or <tt>null</tt> if no datagram is
+     * ready to be received
+     * @throws IOException if the receipt fails
+     */
+    Packet poll() throws IOException
+    {
+        DatagramChannel channel = getChannel();
+
+        if (channel == null)
+            throw new IOException("No DatagramChannel to poll");
+
+        UDPPacket p = pool.acquire(maxsize);
+        InetSocketAddress remote;
+        int len;
+        int limit;
+
+        try
+        {
+            do
+            {
+                if (p.data.length < maxsize)
+                    p.data = new byte[maxsize];
+                limit = maxsize;
+
+                ByteBuffer bb = ByteBuffer.wrap(p.data, 0, limit);
+
+                remote = (InetSocketAddress) channel.receive(bb);
+                if (remote == null)
+                {
+                    p.release();
+                    return null;
+                }
+                len = bb.position();
+                if (len > maxsize >> 1)
+                    maxsize = len << 1;
+                /*
+                 * A datagram which fills the whole buffer may have been
+                 * truncated and, like in receiveFrom(), it is dropped.
+                 */
+            } while (len >= limit);
+        }
+        catch (IOException ioe)
+        {
+            p.release();
+            throw ioe;
+        }
+
+        p.receiptTime = System.currentTimeMillis();
+        p.offset = 0;
+        p.length = len;
+        p.localPort = sock.getLocalPort();
+        p.remotePort = remote.getPort();
+        p.remoteAddress = remote.getAddress();
+        return p;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The returned <tt>UDPPacket</tt> is acquired from a
+     * <tt>PacketBufferPool</tt> and owns its <tt>data</tt>. It is to be
+     * released by its consumer through {@link Packet#release()}.
+     */
     public Packet receiveFrom() throws IOException
     {
-        DatagramPacket dp;
+        UDPPacket p = pool.acquire(maxsize);
         int len;
-        do
+        int limit;
+
+        try
+        {
+            do
+            {
+                if (p.data.length < maxsize)
+                    p.data = new byte[maxsize];
+                limit = maxsize;
+                dp.setData(p.data, 0, limit);
+                sock.receive(dp);
+                len = dp.getLength();
+                if (len > maxsize >> 1)
+                    maxsize = len << 1;
+            } while (len >= limit);
+        }
+        catch (IOException ioe)
         {
-            if (dataBuf.length < maxsize)
-                dataBuf = new byte[maxsize];
-            dp = new DatagramPacket(dataBuf, maxsize);
-            sock.receive(dp);
-            len = dp.getLength();
-            if (len > maxsize >> 1)
-                maxsize = len << 1;
-        } while (len >= dp.getData().length);
-        UDPPacket p = new UDPPacket();
+            p.release();
+            throw ioe;
+        }
         p.receiptTime = System.currentTimeMillis();
-        p.data = dp.getData();
         p.offset = 0;
         p.length = len;
         p.datagrampacket = dp;
@@ -2,17 +2,138 @@ package net.sf.fmj.media.rtp.util;
 
 import java.io.*;
 import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
 
 public class UDPPacketSender implements PacketConsumer
 {
+    /**
+     * The message of the <tt>IOException</tt> thrown when a non-blocking
+     * channel has not sent a datagram because its send buffer is full.
+     */
+    private static final String DROPPED
+        = "Datagram dropped because the send buffer is full";
+
+    /**
+     * The number of consecutive packets sent to {@link #remote} after which
+     * the channel is connected to it again once it has been disconnected in
+     * order to send to another destination.
+     */
+    private static final int RECONNECT_SENDS = 64;
+
     private DatagramSocket sock;
     private InetAddress address;
     private int port;
     private int ttl;
 
+    /**
+     * The <tt>ByteBuffer</tt> which wraps the data of the last packet sent
+     * through the channel. Reused while the packets are sent out
+     * of the same array.
+     */
+    private ByteBuffer channelBuffer;
+
+    /**
+     * The <tt>DatagramPacket</tt> reused to send the packets through the
+     * socket.
+     */
+    private final DatagramPacket datagramPacket
+        = new DatagramPacket(new byte[0], 0);
+
+    /**
+     * The remote address the channel has been connected to by this instance
+     * in order to send packets by gather writes or <tt>null</tt>.
+     */
+    private InetSocketAddress connected;
+
+    /**
+     * The remote address the dedicated channel of this instance is to be
+     * connected to for the purposes of gather writes or <tt>null</tt> if the
+     * channel is not to be connected.
+     */
+    private InetSocketAddress remote;
+
+    /**
+     * The number of consecutive packets sent to {@link #remote} while the
+     * channel is not connected.
+     */
+    private int remoteSends;
+
+    /**
+     * Whether the channels of the (unicast) sockets opened by this instance
+     * are to be connected to the remote address so that a header and a
+     * payload may be sent by a gather write i.e. without copying the payload.
+     */
+    private final boolean gather
+        = com.sun.media.util.Registry.getBoolean(
+                "rtp_send_GATHER_ENABLE",
+                false);
+
+    /**
+     * The <tt>ByteBuffer</tt>s of the header and of the payload of a gather
+     * write. Reused across packets.
+     */
+    private final ByteBuffer[] gatherBuffers = new ByteBuffer[2];
+
+    /**
+     * The array into which a header and a payload are joined if they cannot
+     * be sent by a gather write. Reused across packets.
+     */
+    private byte[] joined;
+
+    /**
+     * The destination of the last packet sent by
+     * {@link #send(Packet, InetAddress, int)}. Reused while the packets are
+     * sent to the same destination.
+     */
+    private InetSocketAddress target;
+
+    /**
+     * Connects the channel of the socket of this instance to a specific
+     * remote address if gather writes are enabled. Only invoked for a socket
+     * opened (and exclusively bound) by this instance i.e. a dedicated
+     * send-only channel: a connected channel accepts datagrams only from the
+     * address it is connected to and disconnecting it would contend with a
+     * thread blocked receiving from it. Failing to connect is not fatal
+     * because the packets may still be sent by joining their headers and
+     * payloads.
+     */
+    private void connect(InetAddress addr, int port)
+    {
+        if (!gather || (sock.getChannel() == null) || (addr == null))
+            return;
+        remote = new InetSocketAddress(addr, port);
+        reconnect();
+    }
+
+    /**
+     * Opens a (unicast) socket through a <tt>DatagramChannel</tt> so that the
+     * packets may be sent through the channel which, unlike
+     * <tt>DatagramSocket#send(DatagramPacket)</tt>, does not allocate per
+     * packet.
+     */
+    private static DatagramSocket openSocket(
+            int localPort, InetAddress localAddress)
+        throws IOException
+    {
+        DatagramChannel channel = DatagramChannel.open();
+
+        try
+        {
+            channel.socket().bind(
+                    new InetSocketAddress(localAddress, localPort));
+        }
+        catch (IOException ioe)
+        {
+            channel.close();
+            throw ioe;
+        }
+        return channel.socket();
+    }
+
     public UDPPacketSender() throws IOException
     {
-        this(new DatagramSocket());
+        this(openSocket(0, null));
     }
 
     public UDPPacketSender(DatagramSocket sock)
@@ -29,14 +150,15 @@ public class UDPPacketSender implements PacketConsumer
             this.sock = sock;
         } else
         {
-            this.sock = new DatagramSocket();
+            this.sock = openSocket(0, null);
+            connect(remoteAddress, remotePort);
         }
         setRemoteAddress(remoteAddress, remotePort);
     }
 
     public UDPPacketSender(int localPort) throws IOException
     {
-        this(new DatagramSocket(localPort));
+        this(openSocket(localPort, null));
     }
 
     public UDPPacketSender(int localPort, InetAddress localAddress,
@@ -51,7 +173,7 @@ public class UDPPacketSender implements PacketConsumer
         } else if (localAddress != null)
             try
             {
-                this.sock = new DatagramSocket(localPort, localAddress);
+                this.sock = openSocket(localPort, localAddress);
             } catch (SocketException e)
             {
                 System.out.println(e);
@@ -60,10 +182,32 @@ public class UDPPacketSender implements PacketConsumer
                 throw e;
             }
         else
-            this.sock = new DatagramSocket(localPort);
+            this.sock = openSocket(localPort, null);
+        if (!remoteAddress.isMulticastAddress())
+            connect(remoteAddress, remotePort);
         setRemoteAddress(remoteAddress, remotePort);
     }
 
+    /**
+     * Determines whether a packet with a header may be sent to a specific
+     * destination by a gather write i.e. without joining the header and the
+     * payload.
+     *
+     * @param addr the address of the destination
+     * @param port the port of the destination
+     * @return <tt>true</tt> if the channel of the socket of this instance is
+     * connected to the specified destination; otherwise, <tt>false</tt>
+     */
+    public synchronized boolean canGather(InetAddress addr, int port)
+    {
+        InetSocketAddress connected = this.connected;
+
+        return
+            (connected != null)
+                && (connected.getPort() == port)
+                && connected.getAddress().equals(addr);
+    }
+
     public void closeConsumer()
     {
         if (sock != null)
@@ -92,21 +236,168 @@ public class UDPPacketSender implements PacketConsumer
         return sock.getLocalPort();
     }
 
+    /**
+     * Gets the socket through which this instance sends. If gather writes are
+     * enabled and this instance has opened the (unicast) socket, its channel
+     * may be connected so the socket is not to be used for receiving.
+     *
+     * @return the socket through which this instance sends
+     */
     public DatagramSocket getSocket()
     {
         return sock;
     }
 
-    public void send(Packet p, InetAddress addr, int port) throws IOException
+    public synchronized void send(Packet p, InetAddress addr, int port)
+        throws IOException
+    {
+        if (target == null || target.getPort() != port
+                || !addr.equals(target.getAddress()))
+            target = new InetSocketAddress(addr, port);
+        send(p, target);
+    }
+
+    /**
+     * Sends a specific <tt>Packet</tt> to a specific destination. Allows
+     * sending the same datagram to many destinations, each one represented
+     * by an <tt>InetSocketAddress</tt> kept by the caller, without
+     * allocating per destination.
+     *
+     * @param p the <tt>Packet</tt> to send
+     * @param target the destination to send <tt>p</tt> to
+     * @throws IOException if sending <tt>p</tt> fails or a non-blocking
+     * channel drops it because its send buffer is full
+     */
+    public synchronized void send(Packet p, InetSocketAddress target)
+        throws IOException
     {
-        byte data[] = p.data;
-        if (p.offset > 0)
-            System.arraycopy(data, p.offset, data = new byte[p.length], 0,
-                    p.length);
-        DatagramPacket dp = new DatagramPacket(data, p.length, addr, port);
+        DatagramChannel channel = sock.getChannel();
+        byte[] header
+            = (p instanceof UDPPacket) ? ((UDPPacket) p).header : null;
+
+        if (connected != null)
+        {
+            if (connected.equals(target))
+            {
+                if (header != null)
+                {
+                    // Send the header and the payload by a gather write.
+                    ByteBuffer[] bufs = gatherBuffers;
+                    ByteBuffer buf = bufs[0];
+
+                    if (buf == null || buf.array() != header)
+                        bufs[0] = buf = ByteBuffer.wrap(header);
+                    buf.clear();
+                    buf = bufs[1];
+                    if (buf == null || buf.array() != p.data)
+                        bufs[1] = buf = ByteBuffer.wrap(p.data);
+                    buf.limit(p.offset + p.length).position(p.offset);
+                    if (channel.write(bufs) == 0)
+                        throw new IOException(DROPPED);
+                    return;
+                }
+            }
+            else
+            {
+                /*
+                 * A connected channel can only send to the address it is
+                 * connected to. The channel is dedicated to sending so
+                 * disconnecting it does not contend with a receiver.
+                 */
+                channel.disconnect();
+                connected = null;
+                remoteSends = 0;
+            }
+        }
+        else if (remote != null)
+        {
+            /*
+             * Connect again once the packets go to the remote address only
+             * (e.g. after a transient destination rather than while they fan
+             * out to many).
+             */
+            if (!remote.equals(target))
+                remoteSends = 0;
+            else if ((++remoteSends >= RECONNECT_SENDS) && reconnect())
+            {
+                send(p, target);
+                return;
+            }
+        }
+
+        byte[] data = p.data;
+        int offset = p.offset;
+        int length = p.length;
+
+        if (header != null)
+        {
+            int len = header.length + length;
+
+            if (joined == null || joined.length < len)
+                joined = new byte[len];
+            System.arraycopy(header, 0, joined, 0, header.length);
+            System.arraycopy(data, offset, joined, header.length, length);
+            data = joined;
+            offset = 0;
+            length = len;
+        }
+
+        /*
+         * Prefer the channel if the socket has one: it does not allocate per
+         * packet and the socket may be shared with a UDPPacketReceiver
+         * registered with UDPPacketReactor in which case the channel is
+         * non-blocking and DatagramSocket#send(DatagramPacket) is not allowed.
+         */
+        if (channel != null)
+        {
+            ByteBuffer buf = channelBuffer;
+
+            if (buf == null || buf.array() != data)
+                channelBuffer = buf = ByteBuffer.wrap(data);
+            buf.limit(offset + length).position(offset);
+            if (channel.send(buf, target) == 0)
+            {
+                /*
+                 * A non-blocking channel (e.g. one shared with a receiver
+                 * registered with UDPPacketReactor) drops the datagram if the
+                 * send buffer is full. Report the drop so that it is counted
+                 * as a failed transmission.
+                 */
+                throw new IOException(DROPPED);
+            }
+            return;
+        }
+
+        // Send the data in place and reuse the DatagramPacket.
+        DatagramPacket dp = datagramPacket;
+
+        dp.setData(data, offset, length);
+        dp.setSocketAddress(target);
         sock.send(dp);
     }
 
+    /**
+     * Connects the dedicated channel of this instance to {@link #remote}.
+     *
+     * @return <tt>true</tt> if the channel has been connected; otherwise,
+     * <tt>false</tt>
+     */
+    private boolean reconnect()
+    {
+        remoteSends = 0;
+        try
+        {
+            sock.getChannel().connect(remote);
+            connected = remote;
+        }
+        catch (IOException ioe)
+        {
+            connected = null;
+            remote = null;
+        }
+        return connected != null;
+    }
+
     public void sendTo(Packet p) throws IOException
     {
         InetAddress addr = null;
@@ -209,6 +209,13 @@ public class Buffer
      */
     public final static int FLAG_SKIP_FEC = (1 << 16);
 
+    /**
+     * Indicates that one or more <tt>Buffer</tt>s which precede this
+     * <tt>Buffer</tt> in the stream have been lost i.e. that there is a gap in
+     * the sequence numbers before the sequence number of this <tt>Buffer</tt>.
+     */
+    public final static int FLAG_PACKET_LOSS = (1 << 17);
+
     /**
      * The <tt>getTimeStamp</tt> method return this value if the time stamp of
      * the media is not known.
@@ -1228,6 +1228,7 @@ abstract class StateTransitionWorkThread extends MediaThread
     StateTransitionWorkThread()
     {
         useControlPriority();
+        useVirtualThreadIfEnabled();
     }
 
     /**
@@ -674,6 +674,8 @@ public class RegistryDefaults
             result.add("net.sf.fmj.media.codec.audio.ulaw.DePacketizer");
             result.add("net.sf.fmj.media.codec.audio.ulaw.Packetizer");
             result.add("net.sf.fmj.media.codec.audio.RateConverter");
+            result.add("net.sf.fmj.media.codec.audio.TimeStretchEffect");
+            result.add("net.sf.fmj.media.codec.audio.PacketLossConcealer");
 
             result.add("net.sf.fmj.media.codec.audio.alaw.Decoder");
             result.add("net.sf.fmj.media.codec.audio.alaw.Encoder");
@@ -0,0 +1,422 @@
+package net.sf.fmj.media.codec.audio;
+
+import javax.media.*;
+import javax.media.format.*;
+
+import net.sf.fmj.media.*;
+
+/**
+ * Implements a <tt>Codec</tt> which conceals the loss of packets in a stream
+ * of decoded 16-bit signed linear PCM. It is meant to follow an audio decoder
+ * (e.g. the ULAW, ALAW or GSM one) fed by a jitter buffer which marks the
+ * <tt>Buffer</tt> following a gap in the sequence numbers with
+ * <tt>Buffer.FLAG_PACKET_LOSS</tt>. For such a <tt>Buffer</tt>, the audio of
+ * the lost <tt>Buffer</tt>s is synthesized ahead of its own audio by
+ * repeating the last pitch period of the preceding audio, attenuated as the
+ * loss goes on, and the synthesized audio is cross-faded into the received
+ * one.
+ * <p>
+ * The graph builder does not insert a codec which does not convert the format
+ * on its own so, though registered with the <tt>PlugInManager</tt>, the
+ * concealer is not part of a default playback chain. The application adds it
+ * to the <tt>TrackControl</tt> of the received audio track of a
+ * <tt>Processor</tt> (e.g. <tt>setCodecChain(new Codec[] { new
+ * PacketLossConcealer() })</tt> while the <tt>Processor</tt> is
+ * configured) and the graph builder places the decoder ahead of it.
+ * </p>
+ */
+public class PacketLossConcealer
+    extends AbstractCodec
+{
+    /**
+     * The duration in milliseconds after which the concealment audio starts
+     * fading out.
+     */
+    private static final int ATTENUATION_START_MS = 10;
+
+    /**
+     * The duration in milliseconds over which the concealment audio fades out
+     * after {@link #ATTENUATION_START_MS}. Longer losses are concealed with
+     * silence.
+     */
+    private static final int FADE_OUT_MS = 50;
+
+    /**
+     * The maximum number of lost <tt>Buffer</tt>s to be concealed at once. A
+     * longer gap in the sequence numbers is more likely a discontinuity of
+     * the stream than a loss and is not concealed.
+     */
+    private static final int MAX_CONCEALED_BUFFERS = 10;
+
+    /**
+     * The maximum pitch period in milliseconds to be searched for.
+     */
+    private static final int MAX_LAG_MS = 15;
+
+    /**
+     * The minimum pitch period to be searched for expressed as a frequency in
+     * Hz.
+     */
+    private static final int MAX_PITCH = 400;
+
+    /**
+     * The duration in milliseconds of the cross-fade from the concealment
+     * audio into the received audio.
+     */
+    private static final int MERGE_MS = 5;
+
+    /**
+     * Reads the sample at a specific byte offset.
+     */
+    private static int readSample(byte[] data, int offset, boolean bigEndian)
+    {
+        return
+            bigEndian
+                ? ((data[offset] << 8) | (data[offset + 1] & 0xFF))
+                : ((data[offset + 1] << 8) | (data[offset] & 0xFF));
+    }
+
+    /**
+     * Writes a sample at a specific byte offset.
+     */
+    private static void writeSample(
+            byte[] data, int offset, int sample,
+            boolean bigEndian)
+    {
+        if (bigEndian)
+        {
+            data[offset] = (byte) (sample >> 8);
+            data[offset + 1] = (byte) sample;
+        }
+        else
+        {
+            data[offset] = (byte) sample;
+            data[offset + 1] = (byte) (sample >> 8);
+        }
+    }
+
+    /**
+     * The number of channels of {@link #history}.
+     */
+    private int channels;
+
+    /**
+     * The (interleaved) samples of the last audio output by this instance.
+     * The last {@link #historyFrames} frames are valid.
+     */
+    private int[] history;
+
+    /**
+     * The number of valid frames at the end of {@link #history}.
+     */
+    private int historyFrames;
+
+    /**
+     * The sequence number of the last <tt>Buffer</tt> processed by this
+     * instance.
+     */
+    private long lastSeq = Buffer.SEQUENCE_UNKNOWN;
+
+    /**
+     * The sample rate of {@link #history}.
+     */
+    private double sampleRate;
+
+    /**
+     * Initializes a new <tt>PacketLossConcealer</tt> instance.
+     */
+    public PacketLossConcealer()
+    {
+        inputFormats
+            = new Format[]
+                    {
+                        new AudioFormat(
+                                AudioFormat.LINEAR,
+                                Format.NOT_SPECIFIED,
+                                16,
+                                Format.NOT_SPECIFIED,
+                                Format.NOT_SPECIFIED,
+                                AudioFormat.SIGNED,
+                                Format.NOT_SPECIFIED,
+                                Format.NOT_SPECIFIED,
+                                Format.byteArray)
+                    };
+    }
+
+    /**
+     * Appends (the last frames of) specific audio to {@link #history}.
+     */
+    private void appendHistory(
+            byte[] data, int offset, int frames,
+            boolean bigEndian)
+    {
+        int historyLength = history.length / channels;
+        int append = Math.min(frames, historyLength);
+        int keep = historyLength - append;
+
+        if (keep > 0)
+            System.arraycopy(
+                    history, append * channels,
+                    history, 0,
+                    keep * channels);
+
+        int dst = keep * channels;
+        int src = offset + (frames - append) * channels * 2;
+
+        for (int i = 0, end = append * channels; i < end; i++, src += 2)
+            history[dst + i] = readSample(data, src, bigEndian);
+        historyFrames = Math.min(historyLength, historyFrames + append);
+    }
+
+    @Override
+    public void close()
+    {
+        reset();
+    }
+
+    /**
+     * Finds the pitch period of the audio in {@link #history}.
+     *
+     * @param minLag the minimum pitch period in frames to search for
+     * @param maxLag the maximum pitch period in frames to search for
+     * @return the pitch period in frames of the audio in <tt>history</tt>
+     */
+    private int findPitch(int minLag, int maxLag)
+    {
+        int historyLength = history.length / channels;
+        int start = historyLength - maxLag;
+        int bestLag = maxLag;
+        double bestCorrelation = 0;
+
+        for (int lag = minLag; lag <= maxLag; lag++)
+        {
+            long xy = 0;
+            long xx = 0;
+            long yy = 0;
+
+            for (int f = start; f < historyLength; f++)
+            {
+                int x = 0;
+                int y = 0;
+
+                for (int c = 0; c < channels; c++)
+                {
+                    x += history[f * channels + c];
+                    y += history[(f - lag) * channels + c];
+                }
+                x /= channels;
+                y /= channels;
+                xy += (long) x * y;
+                xx += (long) x * x;
+                yy += (long) y * y;
+            }
+            if ((xy > 0) && (xx > 0) && (yy > 0))
+            {
+                double correlation = xy / Math.sqrt((double) xx * yy);
+
+                if (correlation > bestCorrelation)
+                {
+                    bestCorrelation = correlation;
+                    bestLag = lag;
+                }
+            }
+        }
+        return bestLag;
+    }
+
+    @Override
+    public String getName()
+    {
+        return "Packet Loss Concealer";
+    }
+
+    @Override
+    public Format[] getSupportedOutputFormats(Format input)
+    {
+        if (input == null)
+            return inputFormats;
+        else if (matches(input, inputFormats) == null)
+            return new Format[0];
+        else
+            return new Format[] { input };
+    }
+
+    @Override
+    public int process(Buffer input, Buffer output)
+    {
+        if (!checkInputBuffer(input))
+            return BUFFER_PROCESSED_FAILED;
+        if (isEOM(input))
+        {
+            propagateEOM(output);
+            return BUFFER_PROCESSED_OK;
+        }
+
+        AudioFormat format = (AudioFormat) input.getFormat();
+
+        if (format == null)
+            format = (AudioFormat) inputFormat;
+
+        int channels = Math.max(1, format.getChannels());
+        int frameSize = 2 * channels;
+        int frames = input.getLength() / frameSize;
+        double sampleRate = format.getSampleRate();
+        boolean bigEndian = (format.getEndian() == AudioFormat.BIG_ENDIAN);
+        int maxLag = (int) (sampleRate * MAX_LAG_MS / 1000);
+        int minLag = (int) (sampleRate / MAX_PITCH);
+
+        if ((history == null)
+                || (this.channels != channels)
+                || (this.sampleRate != sampleRate))
+        {
+            this.channels = channels;
+            this.sampleRate = sampleRate;
+            history = (maxLag > 0) ? new int[2 * maxLag * channels] : null;
+            historyFrames = 0;
+        }
+
+        /*
+         * Determine how many Buffers have been lost before the input. Assume
+         * that they were as long as the input.
+         */
+        long seq = input.getSequenceNumber();
+        int lost = 0;
+
+        if ((input.getFlags() & Buffer.FLAG_PACKET_LOSS) != 0)
+        {
+            if ((seq == Buffer.SEQUENCE_UNKNOWN)
+                    || (lastSeq == Buffer.SEQUENCE_UNKNOWN))
+                lost = 1;
+            else
+            {
+                long gap = ((seq - lastSeq) & 0xFFFFL) - 1;
+
+                /*
+                 * A gap longer than MAX_CONCEALED_BUFFERS is taken to be a
+                 * discontinuity (i.e. a resynchronization of the stream) and
+                 * the input is passed through as is.
+                 */
+                lost
+                    = (gap > MAX_CONCEALED_BUFFERS)
+                        ? 0
+                        : (int) Math.max(1, gap);
+            }
+        }
+        lastSeq = seq;
+
+        int concealFrames = lost * frames;
+
+        if ((history == null)
+                || (historyFrames < history.length / channels)
+                || (minLag < 1)
+                || (minLag > maxLag))
+            concealFrames = 0;
+
+        int outLength = (concealFrames + frames) * frameSize;
+
+        if (concealFrames == 0)
+            outLength = input.getLength();
+
+        byte[] in = (byte[]) input.getData();
+        int inOffset = input.getOffset();
+        byte[] out = (byte[]) output.getData();
+
+        if ((out == null) || (out.length < outLength))
+        {
+            out = new byte[outLength];
+            output.setData(out);
+        }
+
+        if (concealFrames == 0)
+        {
+            System.arraycopy(in, inOffset, out, 0, outLength);
+        }
+        else
+        {
+            int pitch = findPitch(minLag, maxLag);
+            int periodStart = history.length / channels - pitch;
+            int attenuationStart
+                = (int) (sampleRate * ATTENUATION_START_MS / 1000);
+            int fadeOut = Math.max(1, (int) (sampleRate * FADE_OUT_MS / 1000));
+            int merge
+                = Math.min(frames, (int) (sampleRate * MERGE_MS / 1000));
+
+            for (int f = 0, end = concealFrames + merge; f < end; f++)
+            {
+                /*
+                 * Repeat the last pitch period, attenuated linearly to
+                 * silence after ATTENUATION_START_MS.
+                 */
+                int gainNum;
+                int gainDen = fadeOut;
+
+                if (f < attenuationStart)
+                    gainNum = fadeOut;
+                else
+                    gainNum = Math.max(0, fadeOut - (f - attenuationStart));
+
+                int src = (periodStart + (f % pitch)) * channels;
+                int dst = f * frameSize;
+
+                for (int c = 0; c < channels; c++, dst += 2)
+                {
+                    int sample
+                        = (int) ((long) history[src + c] * gainNum / gainDen);
+
+                    if (f >= concealFrames)
+                    {
+                        /*
+                         * Cross-fade from the concealment audio into the
+                         * received audio.
+                         */
+                        int m = f - concealFrames;
+                        int received
+                            = readSample(
+                                    in,
+                                    inOffset + m * frameSize + 2 * c,
+                                    bigEndian);
+
+                        sample
+                            = (sample * (merge - m) + received * m) / merge;
+                    }
+                    writeSample(out, dst, sample, bigEndian);
+                }
+            }
+            System.arraycopy(
+                    in, inOffset + merge * frameSize,
+                    out, (concealFrames + merge) * frameSize,
+                    (frames - merge) * frameSize);
+        }
+
+        if (history != null)
+            appendHistory(out, 0, outLength / frameSize, bigEndian);
+
+        long duration = input.getDuration();
+
+        if ((duration > 0) && (input.getLength() > 0))
+            duration = duration * outLength / input.getLength();
+        output.setDuration(duration);
+        output.setFormat(format);
+        output.setOffset(0);
+        output.setLength(outLength);
+        output.setTimeStamp(input.getTimeStamp());
+        output.setSequenceNumber(seq);
+        output.setFlags(input.getFlags() & ~Buffer.FLAG_PACKET_LOSS);
+        return BUFFER_PROCESSED_OK;
+    }
+
+    @Override
+    public void reset()
+    {
+        historyFrames = 0;
+        lastSeq = Buffer.SEQUENCE_UNKNOWN;
+    }
+
+    @Override
+    public Format setOutputFormat(Format format)
+    {
+        if (!(format instanceof AudioFormat))
+            return null;
+        return super.setOutputFormat(format);
+    }
+}
@@ -0,0 +1,471 @@
+package net.sf.fmj.media.codec.audio;
+
+import java.awt.*;
+
+import javax.media.*;
+import javax.media.control.*;
+import javax.media.format.*;
+
+import net.sf.fmj.media.*;
+import net.sf.fmj.media.control.*;
+
+/**
+ * Implements a playout stage which time-compresses (accelerates) or expands
+ * (decelerates) decoded 16-bit signed linear PCM in order to keep the delay of
+ * the jitter buffer which feeds it close to the nominal delay of that jitter
+ * buffer. Rather than dropping a whole packet when the jitter buffer overfills
+ * or stalling when it runs low, the audio of a <tt>Buffer</tt> is shortened or
+ * lengthened by one pitch period in the manner of WSOLA: the lag at which the
+ * waveform is most similar to itself is searched for and the two similar
+ * segments are overlap-added with a linear cross-fade. Each <tt>Buffer</tt> is
+ * processed on its own so the stage does not add latency.
+ * <p>
+ * The stage is driven by the <tt>JitterBufferControl</tt> set through its
+ * {@link TimeStretchControl}. Nothing sets it on behalf of the
+ * application and, without it, the audio is passed through unchanged. The
+ * application adds the effect to the <tt>TrackControl</tt> of the received
+ * audio track of a <tt>Processor</tt> (with <tt>setCodecChain</tt> while the
+ * <tt>Processor</tt> is configured) and sets the <tt>JitterBufferControl</tt>
+ * of the <tt>PushBufferStream</tt> of the received RTP stream (i.e.
+ * <tt>getControl(JitterBufferControl.class.getName())</tt> of the stream of
+ * its <tt>DataSource</tt>). Each <tt>Buffer</tt> is assumed to carry the audio
+ * of a single packet of the jitter buffer.
+ * </p>
+ */
+public class TimeStretchEffect
+    extends AbstractCodec
+    implements Effect
+{
+    /**
+     * Implements {@link TimeStretchControl} on behalf of
+     * <tt>TimeStretchEffect</tt>.
+     */
+    private class TimeStretchControlImpl
+        implements TimeStretchControl
+    {
+        public Component getControlComponent()
+        {
+            return null;
+        }
+
+        public JitterBufferControl getJitterBufferControl()
+        {
+            return jitterBufferControl;
+        }
+
+        public float getStretchRate()
+        {
+            return stretchRate;
+        }
+
+        public void setJitterBufferControl(
+                JitterBufferControl jitterBufferControl)
+        {
+            TimeStretchEffect.this.jitterBufferControl = jitterBufferControl;
+        }
+    }
+
+    /**
+     * The stretch mode in which a <tt>Buffer</tt> is shortened.
+     */
+    private static final int ACCELERATE = 1;
+
+    /**
+     * The minimum normalized cross-correlation of the two segments to be
+     * overlap-added for a <tt>Buffer</tt> which is not silent to be stretched.
+     * Below it the cross-fade would be audible.
+     */
+    private static final double CORRELATION_THRESHOLD = 0.7;
+
+    /**
+     * The stretch mode in which a <tt>Buffer</tt> is lengthened.
+     */
+    private static final int EXPAND = -1;
+
+    /**
+     * The maximum lag in milliseconds to be searched for.
+     */
+    private static final int MAX_LAG_MS = 15;
+
+    /**
+     * The minimum lag i.e. the shortest pitch period to be searched for,
+     * expressed as a frequency in Hz.
+     */
+    private static final int MAX_PITCH = 400;
+
+    /**
+     * The stretch mode in which a <tt>Buffer</tt> is output unchanged.
+     */
+    private static final int NONE = 0;
+
+    /**
+     * The mean square of the samples below which a segment is considered
+     * silence and is stretched regardless of its correlation.
+     */
+    private static final long SILENCE_ENERGY = 100 * 100;
+
+    /**
+     * The weight of the stretch rate of the last <tt>Buffer</tt> in
+     * {@link #stretchRate}.
+     */
+    private static final float STRETCH_RATE_SMOOTHING = 0.1f;
+
+    /**
+     * Cross-fades linearly from one segment of audio into another.
+     *
+     * @param in the audio to read the segments from
+     * @param fromOffset the byte offset in <tt>in</tt> of the segment to fade
+     * out
+     * @param toOffset the byte offset in <tt>in</tt> of the segment to fade in
+     * @param out the audio to write the cross-fade into
+     * @param outOffset the byte offset in <tt>out</tt> at which the cross-fade
+     * is to be written
+     * @param frames the length of the cross-fade in frames
+     * @param channels the number of channels
+     * @param bigEndian <tt>true</tt> if the samples are big endian
+     */
+    private static void crossFade(
+            byte[] in, int fromOffset, int toOffset,
+            byte[] out, int outOffset,
+            int frames, int channels,
+            boolean bigEndian)
+    {
+        for (int f = 0; f < frames; f++)
+        {
+            int fadeIn = f;
+            int fadeOut = frames - f;
+
+            for (int c = 0; c < channels; c++)
+            {
+                int i = (f * channels + c) * 2;
+                int from = readSample(in, fromOffset + i, bigEndian);
+                int to = readSample(in, toOffset + i, bigEndian);
+
+                writeSample(
+                        out, outOffset + i,
+                        (from * fadeOut + to * fadeIn) / frames,
+                        bigEndian);
+            }
+        }
+    }
+
+    /**
+     * Reads the sample at a specific byte offset.
+     */
+    private static int readSample(byte[] data, int offset, boolean bigEndian)
+    {
+        return
+            bigEndian
+                ? ((data[offset] << 8) | (data[offset + 1] & 0xFF))
+                : ((data[offset + 1] << 8) | (data[offset] & 0xFF));
+    }
+
+    /**
+     * Writes a sample at a specific byte offset.
+     */
+    private static void writeSample(
+            byte[] data, int offset, int sample,
+            boolean bigEndian)
+    {
+        if (bigEndian)
+        {
+            data[offset] = (byte) (sample >> 8);
+            data[offset + 1] = (byte) sample;
+        }
+        else
+        {
+            data[offset] = (byte) sample;
+            data[offset + 1] = (byte) (sample >> 8);
+        }
+    }
+
+    /**
+     * The <tt>JitterBufferControl</tt> of the jitter buffer which feeds this
+     * playout stage.
+     */
+    private volatile JitterBufferControl jitterBufferControl;
+
+    /**
+     * The (down-mixed) samples of the <tt>Buffer</tt> being processed.
+     * Reused across invocations of {@link #process(Buffer, Buffer)}.
+     */
+    private int[] mono;
+
+    /**
+     * The smoothed ratio of the duration of the input to the duration of the
+     * output of this playout stage.
+     */
+    private volatile float stretchRate = 1;
+
+    /**
+     * Initializes a new <tt>TimeStretchEffect</tt> instance.
+     */
+    public TimeStretchEffect()
+    {
+        inputFormats
+            = new Format[]
+                    {
+                        new AudioFormat(
+                                AudioFormat.LINEAR,
+                                Format.NOT_SPECIFIED,
+                                16,
+                                Format.NOT_SPECIFIED,
+                                Format.NOT_SPECIFIED,
+                                AudioFormat.SIGNED,
+                                Format.NOT_SPECIFIED,
+                                Format.NOT_SPECIFIED,
+                                Format.byteArray)
+                    };
+
+        addControl(new TimeStretchControlImpl());
+    }
+
+    /**
+     * Finds the lag at which the (down-mixed) samples of the current
+     * <tt>Buffer</tt> are most similar to themselves.
+     *
+     * @param minLag the minimum lag in samples to search for
+     * @param maxLag the maximum lag in samples to search for. The first
+     * <tt>2 * maxLag</tt> elements of {@link #mono} are valid.
+     * @return the lag at which the samples are most similar to themselves or
+     * <tt>-1</tt> if the samples are not similar enough for the cross-fade to
+     * be inaudible
+     */
+    private int findLag(int minLag, int maxLag)
+    {
+        int[] mono = this.mono;
+        long energy = 0;
+
+        for (int i = 0, end = 2 * maxLag; i < end; i++)
+            energy += (long) mono[i] * mono[i];
+        if (energy < SILENCE_ENERGY * 2 * maxLag)
+            return maxLag;
+
+        int bestLag = -1;
+        double bestCorrelation = CORRELATION_THRESHOLD;
+
+        for (int lag = minLag; lag <= maxLag; lag++)
+        {
+            long xy = 0;
+            long xx = 0;
+            long yy = 0;
+
+            for (int i = 0; i < maxLag; i++)
+            {
+                int x = mono[i];
+                int y = mono[i + lag];
+
+                xy += (long) x * y;
+                xx += (long) x * x;
+                yy += (long) y * y;
+            }
+            if ((xy > 0) && (xx > 0) && (yy > 0))
+            {
+                double correlation = xy / Math.sqrt((double) xx * yy);
+
+                if (correlation > bestCorrelation)
+                {
+                    bestCorrelation = correlation;
+                    bestLag = lag;
+                }
+            }
+        }
+        return bestLag;
+    }
+
+    /**
+     * Gets the stretch mode of a <tt>Buffer</tt> with a specific duration in
+     * accord with the state of {@link #jitterBufferControl}.
+     *
+     * @param durationMs the duration in milliseconds of the audio of the
+     * <tt>Buffer</tt> (i.e. of a packet of the jitter buffer)
+     * @return {@link #ACCELERATE}, {@link #EXPAND} or {@link #NONE}
+     */
+    private int getMode(int durationMs)
+    {
+        JitterBufferControl jitterBufferControl = this.jitterBufferControl;
+
+        if ((jitterBufferControl == null) || (durationMs <= 0))
+            return NONE;
+
+        int nominalDelay = jitterBufferControl.getNominalDelay();
+
+        if (nominalDelay <= 0)
+            return NONE;
+
+        int currentDelay
+            = jitterBufferControl.getCurrentPacketCount() * durationMs;
+
+        /*
+         * Allow for the delay to deviate from the nominal one by a packet
+         * because the jitter buffer cannot do better than that anyway.
+         */
+        if (currentDelay > nominalDelay + durationMs)
+            return ACCELERATE;
+        else if (currentDelay + durationMs < nominalDelay)
+            return EXPAND;
+        else
+            return NONE;
+    }
+
+    @Override
+    public String getName()
+    {
+        return "Time Stretch Effect";
+    }
+
+    @Override
+    public Format[] getSupportedOutputFormats(Format input)
+    {
+        if (input == null)
+            return inputFormats;
+        else if (matches(input, inputFormats) == null)
+            return new Format[0];
+        else
+            return new Format[] { input };
+    }
+
+    @Override
+    public int process(Buffer input, Buffer output)
+    {
+        if (!checkInputBuffer(input))
+            return BUFFER_PROCESSED_FAILED;
+        if (isEOM(input))
+        {
+            propagateEOM(output);
+            return BUFFER_PROCESSED_OK;
+        }
+
+        AudioFormat format = (AudioFormat) input.getFormat();
+
+        if (format == null)
+            format = (AudioFormat) inputFormat;
+
+        int channels = Math.max(1, format.getChannels());
+        int frameSize = 2 * channels;
+        int frames = input.getLength() / frameSize;
+        double sampleRate = format.getSampleRate();
+        int mode = NONE;
+        int maxLag = 0;
+        int minLag = 0;
+
+        if ((frames > 0) && (sampleRate > 0))
+        {
+            maxLag
+                = Math.min((int) (sampleRate * MAX_LAG_MS / 1000), frames / 2);
+            minLag = (int) (sampleRate / MAX_PITCH);
+            if ((minLag > 0) && (minLag <= maxLag))
+                mode = getMode((int) (frames * 1000 / sampleRate));
+        }
+
+        byte[] in = (byte[]) input.getData();
+        int inOffset = input.getOffset();
+        int outLength
+            = (mode == EXPAND)
+                ? ((frames + maxLag) * frameSize)
+                : input.getLength();
+        byte[] out = (byte[]) output.getData();
+
+        if ((out == null) || (out.length < outLength))
+        {
+            out = new byte[outLength];
+            output.setData(out);
+        }
+
+        int lag = -1;
+
+        if (mode != NONE)
+        {
+            boolean bigEndian = (format.getEndian() == AudioFormat.BIG_ENDIAN);
+
+            if ((mono == null) || (mono.length < 2 * maxLag))
+                mono = new int[2 * maxLag];
+            for (int i = 0, end = 2 * maxLag; i < end; i++)
+            {
+                int sum = 0;
+
+                int o = inOffset + i * frameSize;
+
+                for (int c = 0; c < channels; c++, o += 2)
+                    sum += readSample(in, o, bigEndian);
+                mono[i] = sum / channels;
+            }
+
+            lag = findLag(minLag, maxLag);
+            if (lag > 0)
+            {
+                if (mode == ACCELERATE)
+                {
+                    /*
+                     * Cross-fade from the first pitch period into the second
+                     * one and continue after the latter i.e. leave out one
+                     * pitch period.
+                     */
+                    crossFade(
+                            in, inOffset, inOffset + lag * frameSize,
+                            out, 0,
+                            lag, channels,
+                            bigEndian);
+                    System.arraycopy(
+                            in, inOffset + 2 * lag * frameSize,
+                            out, lag * frameSize,
+                            (frames - 2 * lag) * frameSize);
+                    outLength = (frames - lag) * frameSize;
+                }
+                else
+                {
+                    /*
+                     * Play the first pitch period, cross-fade from the second
+                     * one back into the first one and continue with the
+                     * second one i.e. repeat one pitch period.
+                     */
+                    System.arraycopy(in, inOffset, out, 0, lag * frameSize);
+                    crossFade(
+                            in, inOffset + lag * frameSize, inOffset,
+                            out, lag * frameSize,
+                            lag, channels,
+                            bigEndian);
+                    System.arraycopy(
+                            in, inOffset + lag * frameSize,
+                            out, 2 * lag * frameSize,
+                            (frames - lag) * frameSize);
+                    outLength = (frames + lag) * frameSize;
+                }
+            }
+        }
+        if (lag <= 0)
+        {
+            outLength = input.getLength();
+            System.arraycopy(in, inOffset, out, 0, outLength);
+        }
+
+        if (outLength > 0)
+        {
+            float rate = (float) input.getLength() / outLength;
+
+            stretchRate
+                += STRETCH_RATE_SMOOTHING * (rate - stretchRate);
+        }
+
+        long duration = input.getDuration();
+
+        if ((duration > 0) && (input.getLength() > 0))
+            duration = duration * outLength / input.getLength();
+        output.setDuration(duration);
+        output.setFormat(format);
+        output.setOffset(0);
+        output.setLength(outLength);
+        output.setTimeStamp(input.getTimeStamp());
+        output.setSequenceNumber(input.getSequenceNumber());
+        output.setFlags(input.getFlags());
+        return BUFFER_PROCESSED_OK;
+    }
+
+    @Override
+    public Format setOutputFormat(Format format)
+    {
+        if (!(format instanceof AudioFormat))
+            return null;
+        return super.setOutputFormat(format);
+    }
+}
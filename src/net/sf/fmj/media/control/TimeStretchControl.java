@@ -0,0 +1,47 @@
+package net.sf.fmj.media.control;
+
+import javax.media.*;
+import javax.media.control.*;
+
+/**
+ * Controls a playout stage which time-compresses (accelerates) or expands
+ * (decelerates) decoded audio in order to keep the delay introduced by a jitter
+ * buffer close to its nominal value without dropping or inserting whole
+ * packets.
+ */
+public interface TimeStretchControl extends Control
+{
+    /**
+     * Gets the <tt>JitterBufferControl</tt> of the jitter buffer which feeds
+     * the playout stage.
+     *
+     * @return the <tt>JitterBufferControl</tt> of the jitter buffer which
+     * feeds the playout stage or <tt>null</tt> if the playout stage does not
+     * stretch the audio
+     */
+    JitterBufferControl getJitterBufferControl();
+
+    /**
+     * Gets the current rate at which the audio is stretched i.e. the (smoothed)
+     * ratio of the duration of the audio read by the playout stage to the
+     * duration of the audio it outputs. A value greater than <tt>1</tt> means
+     * that the audio is accelerated in order to drain excess delay; a value
+     * less than <tt>1</tt> means that the audio is expanded in order to
+     * build up delay.
+     *
+     * @return the current rate at which the audio is stretched
+     */
+    float getStretchRate();
+
+    /**
+     * Sets the <tt>JitterBufferControl</tt> of the jitter buffer which feeds
+     * the playout stage. The playout stage compares the current delay of the
+     * jitter buffer with its nominal delay in order to decide whether to
+     * accelerate or expand the audio.
+     *
+     * @param jitterBufferControl the <tt>JitterBufferControl</tt> of the
+     * jitter buffer which feeds the playout stage or <tt>null</tt> to stop
+     * stretching the audio
+     */
+    void setJitterBufferControl(JitterBufferControl jitterBufferControl);
+}
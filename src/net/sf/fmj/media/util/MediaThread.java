@@ -1,8 +1,24 @@
 package net.sf.fmj.media.util;
 
+import java.lang.reflect.*;
+
+import net.sf.fmj.media.*;
 
 /**
  * A thread class on which all FMJ created threads should based.
+ * <p>
+ * The control and event threads (i.e. the ones which mostly wait for work to
+ * be posted to them such as the event queues and the state transition
+ * threads) may be executed on virtual threads in order to let one JVM host
+ * far more players and sessions than it could host native threads. The
+ * virtual execution mode is enabled by setting the
+ * <tt>media_thread_VIRTUAL_ENABLE</tt> property of the <tt>Registry</tt> to
+ * <tt>true</tt> and requires a Java runtime which supports virtual threads.
+ * It applies only to the <tt>MediaThread</tt>s which opt in by calling
+ * {@link #useVirtualThreadIfEnabled()}; the latency-critical capture, render
+ * and network threads always execute on platform threads with the priorities
+ * assigned to them.
+ * </p>
  */
 public class MediaThread extends Thread
 {
@@ -20,6 +36,58 @@ public class MediaThread extends Thread
     // If you don't have threadgroup and thread permissions.
     private static int defaultMaxPriority = 4;
 
+    /**
+     * The <tt>Thread.ofVirtual()</tt> method of the Java runtime or
+     * <tt>null</tt> if the virtual execution mode is disabled or the runtime
+     * does not support virtual threads.
+     */
+    private static final Method ofVirtual;
+
+    /**
+     * The <tt>Thread.Builder.name(String)</tt> method of the Java runtime.
+     */
+    private static final Method builderName;
+
+    /**
+     * The <tt>Thread.Builder.unstarted(Runnable)</tt> method of the Java
+     * runtime.
+     */
+    private static final Method builderUnstarted;
+
+    static
+    {
+        Method ofVirtualMethod = null;
+        Method builderNameMethod = null;
+        Method builderUnstartedMethod = null;
+
+        if (com.sun.media.util.Registry.getBoolean(
+                "media_thread_VIRTUAL_ENABLE",
+                false))
+        {
+            // The API is resolved reflectively in order to keep FMJ running
+            // on runtimes which predate virtual threads.
+            try
+            {
+                Class<?> builder = Class.forName("java.lang.Thread$Builder");
+
+                ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+                builderNameMethod = builder.getMethod("name", String.class);
+                builderUnstartedMethod
+                    = builder.getMethod("unstarted", Runnable.class);
+            }
+            catch (Throwable t)
+            {
+                ofVirtualMethod = null;
+                Log.warning(
+                        "Virtual threads are not supported by the Java"
+                            + " runtime, using platform threads: " + t);
+            }
+        }
+        ofVirtual = ofVirtualMethod;
+        builderName = builderNameMethod;
+        builderUnstarted = builderUnstartedMethod;
+    }
+
     static
     {
         try
@@ -103,6 +171,18 @@ public class MediaThread extends Thread
         return videoPriority;
     }
 
+    /**
+     * Determines whether the <tt>MediaThread</tt>s which opt in by calling
+     * {@link #useVirtualThreadIfEnabled()} execute on virtual threads.
+     *
+     * @return <tt>true</tt> if the virtual execution mode is enabled and
+     * supported by the Java runtime; otherwise, <tt>false</tt>
+     */
+    public static boolean isVirtualExecutionEnabled()
+    {
+        return ofVirtual != null;
+    }
+
     /**
      * The name of the <tt>android.os.Process</tt> static final field which
      * specifies the thread priority of this <tt>MediaThread</tt> to be set on
@@ -110,6 +190,18 @@ public class MediaThread extends Thread
      */
     private String androidThreadPriority;
 
+    /**
+     * The indicator which determines whether this <tt>MediaThread</tt> is to
+     * execute on a virtual thread if the virtual execution mode is enabled.
+     */
+    private boolean virtualIfEnabled = false;
+
+    /**
+     * The virtual thread which executes {@link #run()} of this
+     * <tt>MediaThread</tt> in the virtual execution mode.
+     */
+    private Thread virtualThread;
+
     public MediaThread()
     {
         this("FMJ Thread");
@@ -202,6 +294,59 @@ public class MediaThread extends Thread
         super.run();
     }
 
+    /**
+     * Starts this <tt>MediaThread</tt>. If it has opted in by calling
+     * {@link #useVirtualThreadIfEnabled()} and the virtual execution mode is
+     * enabled, its {@link #run()} is executed on a new virtual thread with the
+     * same name and this <tt>Thread</tt> itself is never started, i.e.
+     * <tt>isAlive()</tt> and <tt>join()</tt> do not reflect the execution.
+     */
+    @Override
+    public synchronized void start()
+    {
+        if (virtualIfEnabled && (ofVirtual != null) && (virtualThread == null))
+        {
+            Thread virtualThread = null;
+
+            try
+            {
+                Object builder = ofVirtual.invoke(null);
+
+                builder = builderName.invoke(builder, getName());
+                virtualThread
+                    = (Thread) builderUnstarted.invoke(builder, this);
+            }
+            catch (Throwable t)
+            {
+                Log.warning(
+                        "Failed to create a virtual thread for " + getName()
+                            + ", using a platform thread: " + t);
+            }
+            if (virtualThread != null)
+            {
+                this.virtualThread = virtualThread;
+                virtualThread.start();
+                return;
+            }
+        }
+        super.start();
+    }
+
+    /**
+     * Interrupts the virtual thread which executes this <tt>MediaThread</tt>
+     * in the virtual execution mode or this <tt>Thread</tt> otherwise.
+     */
+    @Override
+    public void interrupt()
+    {
+        Thread virtualThread = this.virtualThread;
+
+        if (virtualThread == null)
+            super.interrupt();
+        else
+            virtualThread.interrupt();
+    }
+
     /**
      * Sets the priority of this <tt>MediaThread</tt> on Android via a call to
      * <tt>android.os.Process#setThreadPriority(int)</tt>. Because the Android
@@ -264,6 +409,24 @@ public class MediaThread extends Thread
         }
     }
 
+    /**
+     * This should be used for control and event threads which mostly wait for
+     * work to be posted to them and are not latency-critical. If the virtual
+     * execution mode is enabled, such a <tt>MediaThread</tt> executes on a
+     * virtual thread (and its priority is disregarded). Must be invoked before
+     * {@link #start()}.
+     * <p>
+     * <b>Warning</b>: In the virtual execution mode, this <tt>Thread</tt>
+     * itself is never started so <tt>isAlive()</tt> and <tt>join()</tt> do not
+     * reflect the execution of {@link #run()}. The callers which opt in must
+     * not rely on them (e.g. to wait for the thread to exit).
+     * </p>
+     */
+    public void useVirtualThreadIfEnabled()
+    {
+        virtualIfEnabled = true;
+    }
+
     public void useVideoNetworkPriority()
     {
         usePriority(videoNetworkPriority);
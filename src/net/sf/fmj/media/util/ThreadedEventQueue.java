@@ -1,6 +1,7 @@
 package net.sf.fmj.media.util;
 
 import java.util.*;
+import java.util.concurrent.locks.*;
 
 import javax.media.*;
 
@@ -15,9 +16,24 @@ public abstract class ThreadedEventQueue extends MediaThread
     private List<ControllerEvent> eventQueue = new Vector<ControllerEvent>();
     private boolean killed = false;
 
+    /**
+     * The lock which guards {@link #eventQueue} and {@link #killed}. A
+     * <tt>java.util.concurrent</tt> lock rather than the monitor of this
+     * instance is used so that waiting for events does not pin the carrier
+     * when the queue executes on a virtual thread.
+     */
+    private final Lock lock = new ReentrantLock();
+
+    /**
+     * The <tt>Condition</tt> signalled when an event is posted or the thread
+     * is killed.
+     */
+    private final Condition eventQueueChanged = lock.newCondition();
+
     public ThreadedEventQueue()
     {
         useControlPriority();
+        useVirtualThreadIfEnabled();
     }
 
     /**
@@ -31,13 +47,14 @@ public abstract class ThreadedEventQueue extends MediaThread
     {
         ControllerEvent evt = null;
 
-        synchronized (this)
+        lock.lock();
+        try
         {
             // Wait till there is an event in the event queue.
             try
             {
                 while (!killed && eventQueue.size() == 0)
-                    wait();
+                    eventQueueChanged.await();
             } catch (InterruptedException e)
             {
                 System.err.println("MediaNode event thread " + e);
@@ -48,7 +65,11 @@ public abstract class ThreadedEventQueue extends MediaThread
             if (eventQueue.size() > 0)
                 evt = eventQueue.remove(0);
 
-        } // end of synchronized
+        }
+        finally
+        {
+            lock.unlock();
+        }
 
         if (evt != null)
             processEvent(evt);
@@ -61,19 +82,35 @@ public abstract class ThreadedEventQueue extends MediaThread
     /**
      * kill the thread.
      */
-    public synchronized void kill()
+    public void kill()
     {
-        killed = true;
-        notifyAll();
+        lock.lock();
+        try
+        {
+            killed = true;
+            eventQueueChanged.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     /**
      * Queue the given event in the event queue.
      */
-    public synchronized void postEvent(ControllerEvent evt)
+    public void postEvent(ControllerEvent evt)
     {
-        eventQueue.add(evt);
-        notifyAll();
+        lock.lock();
+        try
+        {
+            eventQueue.add(evt);
+            eventQueueChanged.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     /**